@@ -0,0 +1,21 @@
+package io.prelink.critbit.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+
+/**
+ * Persistent-version churn: each operation derives a version of the map
+ * without one key and then one with it again, while the version before
+ * stays readable.  CritBitTree shares all but the changed paths,
+ * MCritBitTree copies those paths once per snapshot, and the java.util
+ * maps have to copy everything; -prof gc shows what that costs.
+ */
+public class ChurnBenchmark extends MapBenchmark {
+    private int i;
+
+    @Benchmark
+    public Object churn() {
+        Object[] keys = work.keys;
+        i = (i + 1) % keys.length;
+        return map.churn(keys[i]);
+    }
+}
@@ -0,0 +1,62 @@
+package io.prelink.critbit.bench;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.StringTokenizer;
+
+/**
+ * Where benchmark keys come from.  Each corpus is a list of distinct
+ * strings, which KeyType turns into keys.
+ */
+public enum Corpus {
+    /**
+     * 100,000 random base-36 strings, as in the hand-rolled speed tests:
+     * short keys that share little beyond their first few characters.
+     */
+    GENERATED {
+        List<String> words() {
+            Random rand = new Random(SEED);
+            Set<String> out = new LinkedHashSet<String>();
+            while(out.size() < 100000) {
+                out.add(Long.toString(rand.nextLong() & Long.MAX_VALUE, 36));
+            }
+            return new ArrayList<String>(out);
+        }
+    },
+
+    /**
+     * The distinct whitespace-separated tokens of Hamlet, as read by
+     * PatriciaTrieTest: a few thousand natural-language keys with lots of
+     * shared prefixes.
+     */
+    HAMLET {
+        List<String> words() {
+            Set<String> out = new LinkedHashSet<String>();
+            try(BufferedReader in = new BufferedReader(new InputStreamReader(
+                    Corpus.class.getResourceAsStream("hamlet.txt"), StandardCharsets.UTF_8))) {
+                String line;
+                while((line = in.readLine()) != null) {
+                    StringTokenizer st = new StringTokenizer(line);
+                    while(st.hasMoreTokens()) {
+                        out.add(st.nextToken());
+                    }
+                }
+            } catch(IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return new ArrayList<String>(out);
+        }
+    };
+
+    static final int SEED = 42;
+
+    abstract List<String> words();
+}
@@ -0,0 +1,185 @@
+package io.prelink.critbit.bench;
+
+import io.prelink.critbit.CritBitTree;
+import io.prelink.critbit.MCritBitTree;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import org.ardverk.collection.Cursor;
+import org.ardverk.collection.KeyAnalyzer;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The maps benchmarked.
+ */
+public enum Impl {
+    CRITBIT_TREE {
+        Subject create(final KeyType type) {
+            return new Subject() {
+                CritBitTree<Object,Object> tree = new CritBitTree<Object,Object>(type.chk());
+                void put(Object key) { tree = tree.put(key, key); }
+                Object get(Object key) { return tree.get(key); }
+                void remove(Object key) { tree = tree.remove(key); }
+                Object min() { return tree.min(); }
+                Object max() { return tree.max(); }
+                void iterate(Blackhole bh) { tree.traverse(new Sink(bh)); }
+                void prefix(Object prefix, Blackhole bh) { tree.traverseWithPrefix(prefix, new Sink(bh)); }
+                Object churn(Object key) {
+                    CritBitTree<Object,Object> prev = tree;
+                    tree = tree.remove(key).put(key, key);
+                    return prev;
+                }
+            };
+        }
+    },
+
+    MCRITBIT_TREE {
+        Subject create(final KeyType type) {
+            return new Subject() {
+                final MCritBitTree<Object,Object> tree = new MCritBitTree<Object,Object>(type.chk());
+                void put(Object key) { tree.put(key, key); }
+                Object get(Object key) { return tree.get(key); }
+                void remove(Object key) { tree.remove(key); }
+                Object min() { return tree.min(); }
+                Object max() { return tree.max(); }
+                void iterate(Blackhole bh) {
+                    for(Map.Entry<Object,Object> e: tree.entrySet()) {
+                        bh.consume(e);
+                    }
+                }
+                void prefix(Object prefix, Blackhole bh) { tree.traverseWithPrefix(prefix, new Sink(bh)); }
+                Object churn(Object key) {
+                    CritBitTree<Object,Object> prev = tree.snapshot();
+                    tree.remove(key);
+                    tree.put(key, key);
+                    return prev;
+                }
+            };
+        }
+    },
+
+    TREE_MAP {
+        Subject create(KeyType type) {
+            return new SortedSubject(type, new TreeMap<Object,Object>(type.order())) {
+                NavigableMap<Object,Object> copy() { return new TreeMap<Object,Object>(map); }
+            };
+        }
+    },
+
+    SKIP_LIST {
+        Subject create(KeyType type) {
+            return new SortedSubject(type, new ConcurrentSkipListMap<Object,Object>(type.order())) {
+                NavigableMap<Object,Object> copy() { return new ConcurrentSkipListMap<Object,Object>(map); }
+            };
+        }
+    },
+
+    /**
+     * Keys go in as KeyType.hashKey() makes them, which costs a ByteBuffer
+     * per operation on byte[] and SharedByteArray keys.  There's no order,
+     * so min, max and prefix queries scan every entry.
+     */
+    HASH_MAP {
+        Subject create(final KeyType type) {
+            return new Subject() {
+                HashMap<Object,Object> map = new HashMap<Object,Object>();
+                final KeyAnalyzer<Object> chk = type.chk();
+                void put(Object key) { map.put(type.hashKey(key), key); }
+                Object get(Object key) { return map.get(type.hashKey(key)); }
+                void remove(Object key) { map.remove(type.hashKey(key)); }
+                Object min() {
+                    Object min = null;
+                    for(Object v: map.values()) {
+                        if(min == null || type.compare(v, min) < 0) {
+                            min = v;
+                        }
+                    }
+                    return min;
+                }
+                Object max() {
+                    Object max = null;
+                    for(Object v: map.values()) {
+                        if(max == null || type.compare(v, max) > 0) {
+                            max = v;
+                        }
+                    }
+                    return max;
+                }
+                void iterate(Blackhole bh) {
+                    for(Map.Entry<Object,Object> e: map.entrySet()) {
+                        bh.consume(e);
+                    }
+                }
+                void prefix(Object prefix, Blackhole bh) {
+                    for(Object v: map.values()) {
+                        if(chk.isPrefix(v, prefix)) {
+                            bh.consume(v);
+                        }
+                    }
+                }
+                Object churn(Object key) {
+                    HashMap<Object,Object> prev = map;
+                    map = new HashMap<Object,Object>(map);
+                    remove(key);
+                    put(key);
+                    return prev;
+                }
+            };
+        }
+    };
+
+    abstract Subject create(KeyType type);
+
+    private static final class Sink implements Cursor<Object,Object> {
+        private final Blackhole bh;
+        Sink(Blackhole bh) { this.bh = bh; }
+        public Decision select(Map.Entry<? extends Object, ? extends Object> entry) {
+            bh.consume(entry);
+            return Decision.CONTINUE;
+        }
+    }
+
+    /**
+     * TreeMap and ConcurrentSkipListMap, in an order that keeps the keys
+     * under a prefix together, so prefix queries seek to the prefix and
+     * read on while keys match.
+     */
+    private static abstract class SortedSubject extends Subject {
+        NavigableMap<Object,Object> map;
+        private final KeyAnalyzer<Object> chk;
+        SortedSubject(KeyType type, NavigableMap<Object,Object> map) {
+            this.map = map;
+            this.chk = type.chk();
+        }
+        abstract NavigableMap<Object,Object> copy();
+        void put(Object key) { map.put(key, key); }
+        Object get(Object key) { return map.get(key); }
+        void remove(Object key) { map.remove(key); }
+        Object min() { return map.firstEntry(); }
+        Object max() { return map.lastEntry(); }
+        void iterate(Blackhole bh) {
+            for(Map.Entry<Object,Object> e: map.entrySet()) {
+                bh.consume(e);
+            }
+        }
+        void prefix(Object prefix, Blackhole bh) {
+            for(Map.Entry<Object,Object> e: map.tailMap(prefix, true).entrySet()) {
+                if(!chk.isPrefix(e.getKey(), prefix)) {
+                    break;
+                }
+                bh.consume(e);
+            }
+        }
+        Object churn(Object key) {
+            NavigableMap<Object,Object> prev = map;
+            map = copy();
+            map.remove(key);
+            map.put(key, key);
+            return prev;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package io.prelink.critbit.bench;
+
+import io.prelink.critbit.sharedbytearray.SBAKeyAnalyzer;
+import io.prelink.critbit.sharedbytearray.SharedByteArray;
+import io.prelink.critbit.sharedbytearray.ThinSBA;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import org.ardverk.collection.ByteArrayKeyAnalyzer;
+import org.ardverk.collection.KeyAnalyzer;
+import org.ardverk.collection.LongKeyAnalyzer;
+import org.ardverk.collection.StringKeyAnalyzer;
+
+/**
+ * The kinds of key benchmarked, each made from a corpus string.
+ *
+ * Sorted maps order keys so that the keys starting with a prefix are
+ * contiguous, as they are in a crit-bit tree: natural order for String and
+ * Long, unsigned lexicographic order for byte[] and SharedByteArray.  Two
+ * corpus words can make the same key, so keys are deduplicated.
+ * byte[] has no content equality and SharedByteArray no hashCode, so hash
+ * maps get those keys wrapped in a ByteBuffer.
+ */
+public enum KeyType {
+    STRING {
+        KeyAnalyzer<?> analyzer() { return StringKeyAnalyzer.INSTANCE; }
+        Object key(String word) { return word; }
+        Object prefix(String word) { return word.substring(0, Math.min(PREFIX, word.length())); }
+        Comparator<Object> order() { return null; }
+    },
+
+    /**
+     * The word's UTF-8 bytes, cut or zero-padded to WIDTH bytes.  Keys are
+     * all one width because ByteArrayKeyAnalyzer right-aligns keys of
+     * different lengths, being meant for fixed-width ids; so prefix queries
+     * use whole keys, as for LONG.
+     */
+    BYTES {
+        KeyAnalyzer<?> analyzer() { return new ByteArrayKeyAnalyzer(WIDTH * Byte.SIZE); }
+        Object key(String word) { return Arrays.copyOf(word.getBytes(StandardCharsets.UTF_8), WIDTH); }
+        Object prefix(String word) { return key(word); }
+        Comparator<Object> order() {
+            return new Comparator<Object>() {
+                public int compare(Object a, Object b) {
+                    byte[] x = (byte[])a;
+                    byte[] y = (byte[])b;
+                    int n = Math.min(x.length, y.length);
+                    for(int i=0; i<n; i++) {
+                        int c = (x[i] & 0xFF) - (y[i] & 0xFF);
+                        if(c != 0) {
+                            return c;
+                        }
+                    }
+                    return x.length - y.length;
+                }
+            };
+        }
+        Object hashKey(Object key) { return ByteBuffer.wrap((byte[])key); }
+    },
+
+    /**
+     * A 64-bit hash of the word.  LongKeyAnalyzer's prefixes are whole
+     * keys, so prefix traversal finds at most one entry.
+     */
+    LONG {
+        KeyAnalyzer<?> analyzer() { return LongKeyAnalyzer.INSTANCE; }
+        Object key(String word) { return Long.valueOf(hash(word)); }
+        Object prefix(String word) { return key(word); }
+        Comparator<Object> order() { return null; }
+    },
+
+    SBA {
+        KeyAnalyzer<?> analyzer() { return SBAKeyAnalyzer.INSTANCE; }
+        Object key(String word) { return new ThinSBA(word.getBytes(StandardCharsets.UTF_8)); }
+        Object prefix(String word) {
+            byte[] b = word.getBytes(StandardCharsets.UTF_8);
+            return new ThinSBA(Arrays.copyOf(b, Math.min(PREFIX, b.length)));
+        }
+        Comparator<Object> order() {
+            return new Comparator<Object>() {
+                public int compare(Object a, Object b) {
+                    SharedByteArray x = (SharedByteArray)a;
+                    SharedByteArray y = (SharedByteArray)b;
+                    int n = Math.min(x.length(), y.length());
+                    for(int i=0; i<n; i++) {
+                        int c = (x.byteAt(i) & 0xFF) - (y.byteAt(i) & 0xFF);
+                        if(c != 0) {
+                            return c;
+                        }
+                    }
+                    return x.length() - y.length();
+                }
+            };
+        }
+        Object hashKey(Object key) { return ByteBuffer.wrap(((SharedByteArray)key).toByteArray()); }
+    };
+
+    /** Prefix queries take this many leading chars or bytes of a word. */
+    static final int PREFIX = 2;
+
+    static final int WIDTH = 16;
+
+    abstract KeyAnalyzer<?> analyzer();
+
+    abstract Object key(String word);
+
+    abstract Object prefix(String word);
+
+    /** The sorted-map order, or null for natural order. */
+    abstract Comparator<Object> order();
+
+    /** key as a hash map should hold it. */
+    Object hashKey(Object key) {
+        return key;
+    }
+
+    @SuppressWarnings("unchecked")
+    final KeyAnalyzer<Object> chk() {
+        return (KeyAnalyzer<Object>)analyzer();
+    }
+
+    @SuppressWarnings("unchecked")
+    final int compare(Object a, Object b) {
+        Comparator<Object> order = order();
+        return (order == null) ? ((Comparable<Object>)a).compareTo(b) : order.compare(a, b);
+    }
+
+    private static long hash(String word) {
+        long h = 0xcbf29ce484222325L;
+        for(int i=0; i<word.length(); i++) {
+            h = (h ^ word.charAt(i)) * 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,49 @@
+package io.prelink.critbit.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * What every benchmark shares: the parameters, and a map filled with the
+ * corpus's keys.  Each benchmark class measures a group of operations
+ * over every combination of impl, keyType and corpus; narrow that down
+ * with -p, e.g. -p impl=CRITBIT_TREE,TREE_MAP.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public abstract class MapBenchmark {
+    @Param
+    public Impl impl;
+
+    @Param
+    public KeyType keyType;
+
+    @Param
+    public Corpus corpus;
+
+    Workload work;
+    Subject map;
+
+    @Setup
+    public void fill() {
+        work = Workload.of(corpus, keyType);
+        map = impl.create(keyType);
+        for(Object k: work.keys) {
+            map.put(k);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package io.prelink.critbit.bench;
+
+import java.util.Random;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Lookups, first and last entries, full iteration and prefix traversal on
+ * a map that doesn't change.
+ */
+public class ReadBenchmark extends MapBenchmark {
+    private static final int PROBES = 1 << 14;
+
+    private Object[] hits;
+    private Object[] misses;
+    private Object[] prefixes;
+    private int i;
+
+    @Setup
+    public void probes() {
+        Random rand = new Random(Corpus.SEED);
+        hits = new Object[PROBES];
+        misses = new Object[PROBES];
+        prefixes = new Object[PROBES];
+        for(int j=0; j<PROBES; j++) {
+            hits[j] = work.keys[rand.nextInt(work.keys.length)];
+            misses[j] = work.absent[rand.nextInt(work.absent.length)];
+            prefixes[j] = work.prefixes[rand.nextInt(work.prefixes.length)];
+        }
+    }
+
+    private int next() {
+        return i = (i + 1) & (PROBES - 1);
+    }
+
+    @Benchmark
+    public Object getHit() {
+        return map.get(hits[next()]);
+    }
+
+    @Benchmark
+    public Object getMiss() {
+        return map.get(misses[next()]);
+    }
+
+    @Benchmark
+    public Object min() {
+        return map.min();
+    }
+
+    @Benchmark
+    public Object max() {
+        return map.max();
+    }
+
+    @Benchmark
+    public void iterate(Blackhole bh) {
+        map.iterate(bh);
+    }
+
+    @Benchmark
+    public void traverseWithPrefix(Blackhole bh) {
+        map.prefix(prefixes[next()], bh);
+    }
+}
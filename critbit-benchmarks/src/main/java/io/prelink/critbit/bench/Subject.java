@@ -0,0 +1,32 @@
+package io.prelink.critbit.bench;
+
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * One map under test, holding raw KeyType keys mapped to themselves.
+ * Persistent trees replace their root on writes; the rest write in place.
+ */
+abstract class Subject {
+    abstract void put(Object key);
+
+    abstract Object get(Object key);
+
+    abstract void remove(Object key);
+
+    abstract Object min();
+
+    abstract Object max();
+
+    /** Sinks every entry, in the map's own order. */
+    abstract void iterate(Blackhole bh);
+
+    /** Sinks every entry whose key starts with prefix. */
+    abstract void prefix(Object prefix, Blackhole bh);
+
+    /**
+     * Makes a version without key and then one with it again, leaving the
+     * version before both intact, and returns that version.  For the trees
+     * that's a root or a snapshot; for the java.util maps it's a copy.
+     */
+    abstract Object churn(Object key);
+}
@@ -0,0 +1,56 @@
+package io.prelink.critbit.bench;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * The keys one benchmark runs over: the corpus's distinct keys in random
+ * order, as many keys known to be absent, and prefixes of random keys.
+ */
+final class Workload {
+    final Object[] keys;
+    final Object[] absent;
+    final Object[] prefixes;
+
+    private Workload(Object[] keys, Object[] absent, Object[] prefixes) {
+        this.keys = keys;
+        this.absent = absent;
+        this.prefixes = prefixes;
+    }
+
+    static Workload of(Corpus corpus, KeyType type) {
+        List<String> words = corpus.words();
+        Set<Object> seen = new HashSet<Object>();
+        List<Object> keys = new ArrayList<Object>();
+        List<String> kept = new ArrayList<String>();
+        for(String w: words) {
+            Object k = type.key(w);
+            if(seen.add(type.hashKey(k))) {
+                keys.add(k);
+                kept.add(w);
+            }
+        }
+        //Absent keys share the present keys' prefixes, so a search for one
+        //goes as deep as a hit would.
+        List<Object> absent = new ArrayList<Object>();
+        for(String w: kept) {
+            Object k = type.key("#" + w);
+            if(!seen.contains(type.hashKey(k))) {
+                absent.add(k);
+            }
+        }
+
+        Random rand = new Random(Corpus.SEED);
+        Collections.shuffle(keys, rand);
+        Collections.shuffle(absent, rand);
+        Object[] prefixes = new Object[1024];
+        for(int i=0; i<prefixes.length; i++) {
+            prefixes[i] = type.prefix(kept.get(rand.nextInt(kept.size())));
+        }
+        return new Workload(keys.toArray(), absent.toArray(), prefixes);
+    }
+}
@@ -0,0 +1,69 @@
+package io.prelink.critbit.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Setup;
+
+/**
+ * Inserts and removals on a full map.  Each invocation puts BATCH absent
+ * keys or removes BATCH present ones, and the setup before the next
+ * invocation undoes it, so the map's size stays put.  Scores are per key.
+ */
+public class WriteBenchmark extends MapBenchmark {
+    static final int BATCH = 1024;
+
+    private Object[] putBatch;
+    private Object[] removeBatch;
+    private boolean put;
+    private boolean removed;
+    private int offset;
+
+    @Setup
+    public void batches() {
+        if(work.absent.length < BATCH || work.keys.length < BATCH) {
+            throw new IllegalStateException(corpus + " has too few keys for a batch of " + BATCH);
+        }
+        putBatch = new Object[BATCH];
+        removeBatch = new Object[BATCH];
+    }
+
+    @Setup(Level.Invocation)
+    public void undo() {
+        if(put) {
+            for(Object k: putBatch) {
+                map.remove(k);
+            }
+            put = false;
+        }
+        if(removed) {
+            for(Object k: removeBatch) {
+                map.put(k);
+            }
+            removed = false;
+        }
+        for(int j=0; j<BATCH; j++) {
+            putBatch[j] = work.absent[(offset + j) % work.absent.length];
+            removeBatch[j] = work.keys[(offset + j) % work.keys.length];
+        }
+        offset += BATCH;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void put() {
+        for(Object k: putBatch) {
+            map.put(k);
+        }
+        put = true;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void remove() {
+        for(Object k: removeBatch) {
+            map.remove(k);
+        }
+        removed = true;
+    }
+}
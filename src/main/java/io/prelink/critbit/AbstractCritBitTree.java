@@ -1,7 +1,15 @@
 package io.prelink.critbit;
 
 import java.io.Serializable;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
 import java.util.Map;
+import java.util.Spliterator;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import org.ardverk.collection.Cursor;
 import org.ardverk.collection.Cursor.Decision;
@@ -14,7 +22,7 @@ import org.ardverk.collection.KeyAnalyzer;
  * Adam Langley (https://github.com/agl/critbit),
  * and Okasaki (http://www.eecs.usma.edu/webs/people/okasaki/pubs.html)
  */
-abstract class AbstractCritBitTree<K,V> implements Serializable {
+abstract class AbstractCritBitTree<K,V> implements CritBitSubMap.Source<K,V>, Serializable {
 
     static final long serialVersionUID = 20110212L;
 
@@ -26,6 +34,18 @@ abstract class AbstractCritBitTree<K,V> implements Serializable {
         Node<K,V> mkLeaf(K key, V val);
     }
 
+    /**
+     * A factory whose internal nodes are all Counted.
+     */
+    static interface CountingNodeFactory<K,V> extends NodeFactory<K,V> {}
+
+    /**
+     * An internal node that knows how many keys are under it.
+     */
+    static interface Counted {
+        int count();
+    }
+
     static class Context<K,V> implements Serializable {
         private static final long serialVersionUID = 20110212L;
         final KeyAnalyzer<K> chk;
@@ -53,6 +73,13 @@ abstract class AbstractCritBitTree<K,V> implements Serializable {
         boolean hasExternalLeft();
         boolean hasExternalRight();
 
+        //Should only be called for internal nodes, on an external side.
+        //These read the inlined leaf directly rather than building one.
+        K leftKey();
+        V leftValue();
+        K rightKey();
+        V rightValue();
+
         //Should only be called for external nodes.
         K getKey();
         V getValue();
@@ -94,6 +121,18 @@ abstract class AbstractCritBitTree<K,V> implements Serializable {
         public boolean hasExternalRight() {
             throw new UnsupportedOperationException();
         }
+        public K leftKey() {
+            throw new UnsupportedOperationException();
+        }
+        public V leftValue() {
+            throw new UnsupportedOperationException();
+        }
+        public K rightKey() {
+            throw new UnsupportedOperationException();
+        }
+        public V rightValue() {
+            throw new UnsupportedOperationException();
+        }
         public K getKey() {
             throw new UnsupportedOperationException();
         }
@@ -230,6 +269,110 @@ abstract class AbstractCritBitTree<K,V> implements Serializable {
         }
         public boolean hasExternalLeft() { return true; }
         public boolean hasExternalRight() { return true; }
+        public K leftKey() { return leftKey; }
+        public V leftValue() { return leftVal; }
+        public K rightKey() { return rightKey; }
+        public V rightValue() { return rightVal; }
+    }
+
+    /**
+     * Puts left and right under a new internal node at bit, using whichever
+     * node kind fits their shapes.
+     */
+    static <K,V> Node<K,V> join(int bit, Node<K,V> left, Node<K,V> right, Context<K,V> ctx) {
+        if(left.isInternal()) {
+            return right.isInternal() ? ctx.nf.mkTall(bit, left, right)
+                                      : ctx.nf.mkShortRight(bit, left, right.getKey(), right.getValue());
+        } else {
+            return right.isInternal() ? ctx.nf.mkShortLeft(bit, left.getKey(), left.getValue(), right)
+                                      : ctx.nf.mkShortBoth(bit, left.getKey(), left.getValue(),
+                                                           right.getKey(), right.getValue());
+        }
+    }
+
+    /**
+     * How many keys are under n: read off a Counted node, counted by a walk
+     * below any other.
+     */
+    static <K,V> int sizeOf(Node<K,V> n) {
+        if(!n.isInternal()) {
+            return 1;
+        }
+        if(n instanceof Counted) {
+            return ((Counted)n).count();
+        }
+        return childSizes(n);
+    }
+
+    /**
+     * sizeOf(left) + sizeOf(right) for internal n.  Only internal children
+     * are fetched, and those don't need a context.
+     */
+    static <K,V> int childSizes(Node<K,V> n) {
+        return (n.hasExternalLeft() ? 1 : sizeOf(n.left(null)))
+             + (n.hasExternalRight() ? 1 : sizeOf(n.right(null)));
+    }
+
+    /**
+     * Builds a tree from keys handed over in ascending order, in one pass.
+     * Each crit bit is the bitIndex of a key and its predecessor; internal
+     * nodes whose right subtree might still grow wait on a stack (the right
+     * spine) until a key with a lower crit bit closes them off.
+     */
+    static final class SortedBuilder<K,V> {
+        private final Context<K,V> ctx;
+        private int[] bits = new int[16];
+        private Object[] lefts = new Object[16];
+        private int depth = 0;
+        private Node<K,V> last = null;
+        private int size = 0;
+
+        SortedBuilder(Context<K,V> ctx) {
+            this.ctx = ctx;
+        }
+
+        void add(K key, V val) {
+            if(last == null) {
+                last = ctx.nf.mkLeaf(key, val);
+                size++;
+                return;
+            }
+            K prev = last.getKey();
+            int diffBit = ctx.chk.bitIndex(prev, key);
+            if(diffBit < 0 || !ctx.chk.isBitSet(key, diffBit)) {
+                throw new IllegalArgumentException(
+                    "Keys must be distinct and in ascending order: " + key + " follows " + prev);
+            }
+            Node<K,V> cur = last;
+            while(depth > 0 && bits[depth-1] > diffBit) {
+                depth--;
+                cur = join(bits[depth], AbstractCritBitTree.<Node<K,V>>cast(lefts[depth]), cur, ctx);
+                lefts[depth] = null;
+            }
+            if(depth == bits.length) {
+                bits = Arrays.copyOf(bits, depth * 2);
+                lefts = Arrays.copyOf(lefts, depth * 2);
+            }
+            bits[depth] = diffBit;
+            lefts[depth++] = cur;
+            last = ctx.nf.mkLeaf(key, val);
+            size++;
+        }
+
+        int size() {
+            return size;
+        }
+
+        Node<K,V> finish() {
+            Node<K,V> cur = last;
+            while(depth > 0) {
+                depth--;
+                cur = join(bits[depth], AbstractCritBitTree.<Node<K,V>>cast(lefts[depth]), cur, ctx);
+                lefts[depth] = null;
+            }
+            last = null;
+            return cur;
+        }
     }
 
     private final Context<K,V> ctx;
@@ -261,17 +404,17 @@ abstract class AbstractCritBitTree<K,V> implements Serializable {
         K key(Context<K,V> ctx) {
             switch(rDirection) {
             case LEFT:
-                return result.left(ctx).getKey();
+                return result.leftKey();
             default: //case RIGHT:
-                return result.right(ctx).getKey();
+                return result.rightKey();
             }
         }
         V value(Context<K,V> ctx) {
             switch(rDirection) {
             case LEFT:
-                return result.left(ctx).getValue();
+                return result.leftValue();
             default: //case RIGHT:
-                return result.right(ctx).getValue();
+                return result.rightValue();
             }
         }
     }
@@ -302,97 +445,791 @@ abstract class AbstractCritBitTree<K,V> implements Serializable {
         }
     }
 
+    /**
+     * Walks down from an internal start node to the internal node whose
+     * external child is the only candidate match for key.  Unlike search(),
+     * this allocates nothing, so it's what the read path uses.
+     */
+    final Node<K,V> searchExternal(final Node<K,V> start, final K key) {
+        Node<K,V> cur = start;
+        for(;;) {
+            switch(cur.next(key, ctx)) {
+            case LEFT:
+                if(cur.hasExternalLeft()) {
+                    return cur;
+                }
+                cur = cur.left(ctx);
+                break;
+            case RIGHT:
+                if(cur.hasExternalRight()) {
+                    return cur;
+                }
+                cur = cur.right(ctx);
+                break;
+            }
+        }
+    }
+
     public final V get(Object k) {
-    	K key = AbstractCritBitTree.<K>cast(k);
+        K key = AbstractCritBitTree.<K>cast(k);
         if(root() == null) {
             return null;
         }
         if(!root().isInternal()) {
             return ctx().chk.bitIndex(key, root().getKey()) < 0 ? root().getValue() : null;
         }
-        SearchResult<K,V> sr = search(root(), key);
-        final int diffBit = ctx().chk.bitIndex(key, sr.key(ctx()));
-        return (diffBit < 0) ? sr.value(ctx()) : null;
+        final Node<K,V> par = searchExternal(root(), key);
+        switch(par.next(key, ctx())) {
+        case LEFT:
+            return ctx().chk.bitIndex(key, par.leftKey()) < 0 ? par.leftValue() : null;
+        default: //case RIGHT:
+            return ctx().chk.bitIndex(key, par.rightKey()) < 0 ? par.rightValue() : null;
+        }
+    }
+
+    private Node<K,V> minNode(Node<K,V> current) {
+        while(current.isInternal()) {
+            current = current.left(ctx());
+        }
+        return current;
+    }
+
+    private Node<K,V> maxNode(Node<K,V> current) {
+        while(current.isInternal()) {
+            current = current.right(ctx());
+        }
+        return current;
     }
 
     public final Map.Entry<K,V> min() {
         if(root() == null) {
             return null;
         }
-        Node<K,V> current = root();
-        while(current.isInternal()) {
-            current = current.left(ctx());
-        }
-        return AbstractCritBitTree.<Map.Entry<K,V>>cast(current);
+        return AbstractCritBitTree.<Map.Entry<K,V>>cast(minNode(root()));
     }
 
     public final Map.Entry<K,V> max() {
         if(root() == null) {
             return null;
         }
-        Node<K,V> current = root();
-        while(current.isInternal()) {
-            current = current.right(ctx());
+        return AbstractCritBitTree.<Map.Entry<K,V>>cast(maxNode(root()));
+    }
+
+    public final Map.Entry<K,V> firstEntry() { return min(); }
+    public final Map.Entry<K,V> lastEntry() { return max(); }
+
+    /**
+     * Finds the leaf nearest key from above or below, or null if there's
+     * none.  One descent finds the leaf closest to key and the bit where
+     * they differ; a second follows key down to the subtree that holds
+     * every key sharing that prefix.  key falls either before or after all
+     * of that subtree, so the answer is its min or max, or failing that
+     * the min (max) of the nearest right (left) sibling passed on the way
+     * down.  Two descents, no scanning.
+     */
+    private Node<K,V> neighbor(K key, boolean above, boolean inclusive) {
+        final Node<K,V> root = root();
+        if(root == null) {
+            return null;
+        }
+        K closest;
+        if(root.isInternal()) {
+            Node<K,V> par = searchExternal(root, key);
+            closest = ctx.chk.isBitSet(key, par.bit()) ? par.rightKey() : par.leftKey();
+        } else {
+            closest = root.getKey();
         }
-        return AbstractCritBitTree.<Map.Entry<K,V>>cast(current);
+        int diffBit = ctx.chk.bitIndex(key, closest);
+
+        Node<K,V> cur = root;
+        Node<K,V> turn = null;
+        while(cur.isInternal() && (diffBit < 0 || cur.bit() < diffBit)) {
+            if(ctx.chk.isBitSet(key, cur.bit())) {
+                if(!above) {
+                    turn = cur;
+                }
+                cur = cur.right(ctx);
+            } else {
+                if(above) {
+                    turn = cur;
+                }
+                cur = cur.left(ctx);
+            }
+        }
+
+        if(diffBit < 0) {
+            if(inclusive) {
+                return cur;
+            }
+        } else if(ctx.chk.isBitSet(key, diffBit) != above) {
+            return above ? minNode(cur) : maxNode(cur);
+        }
+        if(turn == null) {
+            return null;
+        }
+        return above ? minNode(turn.right(ctx)) : maxNode(turn.left(ctx));
+    }
+
+    private Map.Entry<K,V> entry(Node<K,V> leaf) {
+        return AbstractCritBitTree.<Map.Entry<K,V>>cast(leaf);
+    }
+
+    private static <K> K key(Map.Entry<K,?> e) {
+        return (e == null) ? null : e.getKey();
+    }
+
+    /** The entry with the least key &gt;= key, or null. */
+    public final Map.Entry<K,V> ceilingEntry(K key) { return entry(neighbor(key, true, true)); }
+    /** The entry with the least key &gt; key, or null. */
+    public final Map.Entry<K,V> higherEntry(K key) { return entry(neighbor(key, true, false)); }
+    /** The entry with the greatest key &lt;= key, or null. */
+    public final Map.Entry<K,V> floorEntry(K key) { return entry(neighbor(key, false, true)); }
+    /** The entry with the greatest key &lt; key, or null. */
+    public final Map.Entry<K,V> lowerEntry(K key) { return entry(neighbor(key, false, false)); }
+
+    public final K ceilingKey(K key) { return key(ceilingEntry(key)); }
+    public final K higherKey(K key) { return key(higherEntry(key)); }
+    public final K floorKey(K key) { return key(floorEntry(key)); }
+    public final K lowerKey(K key) { return key(lowerEntry(key)); }
+
+    /**
+     * Orders keys the way the tree does: by the first bit where they
+     * differ, which needn't agree with the keys' natural ordering.
+     */
+    static final class BitOrder<K> implements Comparator<K>, Serializable {
+        private static final long serialVersionUID = 20261017L;
+        private final KeyAnalyzer<K> chk;
+        BitOrder(KeyAnalyzer<K> chk) {
+            this.chk = chk;
+        }
+        public int compare(K a, K b) {
+            return compare(chk, a, b);
+        }
+        static <K> int compare(KeyAnalyzer<K> chk, K a, K b) {
+            int diffBit = chk.bitIndex(a, b);
+            if(diffBit < 0) {
+                return 0;
+            }
+            return chk.isBitSet(a, diffBit) ? 1 : -1;
+        }
+    }
+
+    public final Comparator<? super K> comparator() {
+        return new BitOrder<K>(ctx.chk);
     }
 
+    /**
+     * One traversal's state.  When removing, REMOVE and REMOVE_AND_EXIT
+     * drop the entry; otherwise they're taken as CONTINUE and EXIT.
+     */
+    static final class Walk<K,V> {
+        final Cursor<? super K, ? super V> cursor;
+        final boolean removing;
+        boolean stopped = false;
+        int removed = 0;
+        Walk(Cursor<? super K, ? super V> cursor, boolean removing) {
+            this.cursor = cursor;
+            this.removing = removing;
+        }
+    }
+
+    /**
+     * Runs the walk's cursor over the leaves under n, in order, and
+     * returns what's left of n: n itself if nothing was removed, null if
+     * everything was.
+     */
+    final Node<K,V> walk(Node<K,V> n, Walk<K,V> w) {
+        if(!n.isInternal()) {
+            Decision d = w.cursor.select(AbstractCritBitTree.<Map.Entry<K,V>>cast(n));
+            if(d == Decision.EXIT || d == Decision.REMOVE_AND_EXIT) {
+                w.stopped = true;
+            }
+            if(w.removing && (d == Decision.REMOVE || d == Decision.REMOVE_AND_EXIT)) {
+                w.removed++;
+                return null;
+            }
+            return n;
+        }
+        Node<K,V> l = n.left(ctx);
+        Node<K,V> nl = walk(l, w);
+        Node<K,V> r = n.right(ctx);
+        Node<K,V> nr = w.stopped ? r : walk(r, w);
+        return relink(n, l, nl, r, nr);
+    }
+
+    /**
+     * Returns n after its children l and r became nl and nr, either of
+     * which may be null if everything under it went.
+     */
+    final Node<K,V> relink(Node<K,V> n, Node<K,V> l, Node<K,V> nl, Node<K,V> r, Node<K,V> nr) {
+        if(nl == l && nr == r) {
+            return n;
+        }
+        if(nl == null) {
+            return nr;
+        }
+        if(nr == null) {
+            return nl;
+        }
+        return rejoin(n, nl, nr);
+    }
+
+    /**
+     * Some key under n; they all agree on the bits above n.bit().
+     */
+    final K anyKey(Node<K,V> n) {
+        while(n.isInternal()) {
+            if(n.hasExternalLeft()) {
+                return n.leftKey();
+            }
+            n = n.left(ctx);
+        }
+        return n.getKey();
+    }
+
+    /**
+     * Like walk(n, w), over just the keys starting with key.
+     */
+    final Node<K,V> walkWithPrefix(Node<K,V> n, K key, int keyLen, Walk<K,V> w) {
+        if(n.isInternal() && n.bit() < keyLen) {
+            switch(n.next(key, ctx)) {
+            case LEFT: {
+                Node<K,V> l = n.left(ctx);
+                Node<K,V> nl = walkWithPrefix(l, key, keyLen, w);
+                if(nl == l) {
+                    return n;
+                }
+                Node<K,V> r = n.right(ctx);
+                return (nl == null) ? r : rejoin(n, nl, r);
+            }
+            default: {
+                Node<K,V> r = n.right(ctx);
+                Node<K,V> nr = walkWithPrefix(r, key, keyLen, w);
+                if(nr == r) {
+                    return n;
+                }
+                Node<K,V> l = n.left(ctx);
+                return (nr == null) ? l : rejoin(n, l, nr);
+            }
+            }
+        }
+        //Every key under n agrees on the prefix bits, so one key decides
+        //for all of them.
+        return ctx.chk.isPrefix(anyKey(n), key) ? walk(n, w) : n;
+    }
+
+    /**
+     * Like walk(n, w), in order of XOR distance from target: at each node
+     * the side agreeing with target's bit goes first, since every key on
+     * it is nearer than every key on the other.
+     */
+    final Node<K,V> walkNearest(Node<K,V> n, K target, Walk<K,V> w) {
+        if(!n.isInternal()) {
+            return walk(n, w);
+        }
+        Node<K,V> l = n.left(ctx);
+        Node<K,V> r = n.right(ctx);
+        Node<K,V> nl, nr;
+        if(ctx.chk.isBitSet(target, n.bit())) {
+            nr = walkNearest(r, target, w);
+            nl = w.stopped ? l : walkNearest(l, target, w);
+        } else {
+            nl = walkNearest(l, target, w);
+            nr = w.stopped ? r : walkNearest(r, target, w);
+        }
+        return relink(n, l, nl, r, nr);
+    }
+
+    /**
+     * Passes at most limit entries to cursor, then exits.
+     */
+    private static final class Limit<K,V> implements Cursor<K,V> {
+        private final Cursor<? super K, ? super V> cursor;
+        private int left;
+        Limit(Cursor<? super K, ? super V> cursor, int limit) {
+            this.cursor = cursor;
+            this.left = limit;
+        }
+        public Decision select(Map.Entry<? extends K, ? extends V> entry) {
+            Decision d = cursor.select(entry);
+            if(--left > 0) {
+                return d;
+            }
+            switch(d) {
+            case REMOVE:
+            case REMOVE_AND_EXIT:
+                return Decision.REMOVE_AND_EXIT;
+            default:
+                return Decision.EXIT;
+            }
+        }
+    }
+
+    /*
+     * Excision.  The keys starting with a prefix all sit under one node,
+     * and a range bound splits the tree along the path a search for it
+     * takes: off that path, each subtree lies wholly on one side of the
+     * bound.  So removing a prefix or a range cuts out whole subtrees and
+     * relinks only the nodes along the search paths, O(depth) of them
+     * however many keys go.
+     */
+
+    /**
+     * What an excision cut out.  Counting the removed entries costs a walk
+     * over the pieces unless the tree is counted, so only trees that keep
+     * an exact size ask for it.
+     */
+    static final class Cut<K,V> {
+        final boolean counting;
+        int removed = 0;
+        boolean any = false;
+        Cut(boolean counting) {
+            this.counting = counting;
+        }
+    }
+
+    private void cutOut(Node<K,V> n, Cut<K,V> cut) {
+        cut.any = true;
+        if(cut.counting) {
+            cut.removed += sizeOf(n);
+        }
+    }
+
+    /**
+     * Returns what's left of n without the keys starting with key.
+     */
+    final Node<K,V> cutPrefix(Node<K,V> n, K key, int keyLen, Cut<K,V> cut) {
+        if(n.isInternal() && n.bit() < keyLen) {
+            Node<K,V> l = n.left(ctx);
+            Node<K,V> r = n.right(ctx);
+            switch(n.next(key, ctx)) {
+            case LEFT:
+                return relink(n, l, cutPrefix(l, key, keyLen, cut), r, r);
+            default:
+                return relink(n, l, l, r, cutPrefix(r, key, keyLen, cut));
+            }
+        }
+        if(!ctx.chk.isPrefix(anyKey(n), key)) {
+            return n;
+        }
+        cutOut(n, cut);
+        return null;
+    }
+
+    //Where a subtree lies relative to a range bound.
+    private static final int BELOW = 0;  //every key under it is lower
+    private static final int ABOVE = 1;  //every key is higher
+    private static final int AT = 2;     //it's the leaf holding the bound
+    private static final int ACROSS = 3; //the bound falls among its keys
+
+    /**
+     * A range bound and the leaf a search for it ends at: the bound first
+     * differs from that leaf's key at diff (negative if they're equal), and
+     * nearAbove says which way.
+     */
+    static final class Bound<K> {
+        final K key;
+        final int diff;
+        final boolean nearAbove;
+        Bound(K key, int diff, boolean nearAbove) {
+            this.key = key;
+            this.diff = diff;
+            this.nearAbove = nearAbove;
+        }
+    }
+
+    final Bound<K> bound(K key) {
+        Node<K,V> n = root();
+        while(n.isInternal()) {
+            n = n.nextNode(key, ctx);
+        }
+        int diff = ctx.chk.bitIndex(key, n.getKey());
+        return new Bound<K>(key, diff, diff >= 0 && ctx.chk.isBitSet(n.getKey(), diff));
+    }
+
+    /**
+     * Where n, which is on b's search path, lies relative to b.  Its keys
+     * match the bound down to where the bound parts from its leaf.
+     */
+    private int side(Node<K,V> n, Bound<K> b) {
+        if(n.isInternal() && (b.diff < 0 || n.bit() < b.diff)) {
+            return ACROSS;
+        }
+        if(b.diff < 0) {
+            return AT;
+        }
+        return b.nearAbove ? ABOVE : BELOW;
+    }
+
+    private int childSide(int parentSide, Node<K,V> parent, boolean right, Node<K,V> child, Bound<K> b) {
+        if(parentSide != ACROSS) {
+            return parentSide;
+        }
+        if(ctx.chk.isBitSet(b.key, parent.bit()) != right) {
+            return right ? ABOVE : BELOW;
+        }
+        return side(child, b);
+    }
+
+    /**
+     * Returns what's left of n without the keys from from (inclusive) to
+     * to (exclusive), given where n lies relative to each.
+     */
+    final Node<K,V> cutRange(Node<K,V> n, int lo, int hi, Bound<K> from, Bound<K> to, Cut<K,V> cut) {
+        if(lo == BELOW || hi == ABOVE || hi == AT) {
+            return n;
+        }
+        if(lo != ACROSS && hi == BELOW) {
+            cutOut(n, cut);
+            return null;
+        }
+        Node<K,V> l = n.left(ctx);
+        Node<K,V> r = n.right(ctx);
+        Node<K,V> nl = cutRange(l, childSide(lo, n, false, l, from), childSide(hi, n, false, l, to),
+                                from, to, cut);
+        Node<K,V> nr = cutRange(r, childSide(lo, n, true, r, from), childSide(hi, n, true, r, to),
+                                from, to, cut);
+        return relink(n, l, nl, r, nr);
+    }
+
+    /**
+     * cutRange over the whole tree, which mustn't be empty.
+     */
+    final Node<K,V> cutRange(K from, K to, Cut<K,V> cut) {
+        if(BitOrder.compare(ctx.chk, from, to) >= 0) {
+            return root();
+        }
+        Bound<K> lo = bound(from);
+        Bound<K> hi = bound(to);
+        return cutRange(root(), side(root(), lo), side(root(), hi), lo, hi, cut);
+    }
+
+    /*
+     * Order statistics.  In a counted tree every internal node knows how
+     * many keys are under it, so these take O(depth).  In any other tree
+     * the subtrees they step past are counted by walking them, which is
+     * O(n) at worst.
+     */
+
+    /**
+     * Whether this tree's internal nodes are Counted; see
+     * CritBitTree.counted() and MCritBitTree.counted().
+     */
+    final boolean counted() {
+        return ctx.nf instanceof CountingNodeFactory;
+    }
+
+    private int leftSize(Node<K,V> n) {
+        return n.hasExternalLeft() ? 1 : sizeOf(n.left(ctx));
+    }
+
+    /**
+     * How many keys are lower than key, which needn't be in the tree.
+     */
+    public final int rank(K key) {
+        Node<K,V> n = root();
+        if(n == null) {
+            return 0;
+        }
+        Bound<K> b = bound(key);
+        int below = 0;
+        int side = side(n, b);
+        while(side == ACROSS) {
+            if(ctx.chk.isBitSet(key, n.bit())) {
+                below += leftSize(n);
+                n = n.right(ctx);
+            } else {
+                n = n.left(ctx);
+            }
+            side = side(n, b);
+        }
+        return (side == BELOW) ? below + sizeOf(n) : below;
+    }
+
+    /**
+     * The entry at index i in key order, counting from 0.
+     *
+     * @throws IndexOutOfBoundsException unless 0 &lt;= i &lt; size()
+     */
+    public final Map.Entry<K,V> select(int i) {
+        if(i < 0 || i >= size()) {
+            throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size());
+        }
+        Node<K,V> n = root();
+        while(n.isInternal()) {
+            int left = leftSize(n);
+            if(i < left) {
+                n = n.left(ctx);
+            } else {
+                i -= left;
+                n = n.right(ctx);
+            }
+        }
+        return entry(n);
+    }
+
+    /**
+     * How many keys start with prefix.
+     */
+    public final int countPrefix(K prefix) {
+        Node<K,V> n = root();
+        if(n == null) {
+            return 0;
+        }
+        int len = ctx.chk.lengthInBits(prefix);
+        while(n.isInternal() && n.bit() < len) {
+            n = n.nextNode(prefix, ctx);
+        }
+        return ctx.chk.isPrefix(anyKey(n), prefix) ? sizeOf(n) : 0;
+    }
+
+    /**
+     * How many keys run from from (inclusive) to to (exclusive).
+     */
+    public final int countRange(K from, K to) {
+        if(BitOrder.compare(ctx.chk, from, to) >= 0) {
+            return 0;
+        }
+        return rank(to) - rank(from);
+    }
+
+    /**
+     * The entry whose key is the longest prefix of key, as the analyzer's
+     * isPrefix() sees it, or null if no key is; key itself counts.  With
+     * Ipv4PrefixKeyAnalyzer or Ipv6PrefixKeyAnalyzer, that's the most
+     * specific block covering an address.
+     *
+     * A key that's a prefix of key agrees with it down to some bit where
+     * key has a 1, and is all zeros from there on.  So it's the least key
+     * to the left of key's search path at that bit, and only those
+     * candidates get checked.  The deeper the bit the longer the
+     * candidate, so they're checked from the bottom of the path up and the
+     * first prefix found is the answer.  That's one descent, plus a walk
+     * down the left edge of the subtree at each candidate checked, unless
+     * it's a leaf inlined right on the path.
+     *
+     * So it's O(depth) when the deepest candidate matches, but each
+     * candidate that fails costs a walk of its own, and those subtrees
+     * share nothing.  The worst case is O(depth^2).  That's a path with
+     * many short keys hanging off it to the left, none of them a prefix
+     * of key, as when many short blocks sit along one route in a
+     * routing table.  Depth is at most the key length in bits, so that's
+     * at most 64^2 steps for IPv4 blocks, and more for longer keys.
+     */
+    public final Map.Entry<K,V> longestPrefixOf(K key) {
+        Node<K,V> n = root();
+        if(n == null) {
+            return null;
+        }
+        Object[] path = new Object[16];
+        int depth = 0;
+        while(n.isInternal()) {
+            if(depth == path.length) {
+                path = Arrays.copyOf(path, depth * 2);
+            }
+            path[depth++] = n;
+            n = n.nextNode(key, ctx);
+        }
+        int diff = ctx.chk.bitIndex(key, n.getKey());
+        if(diff < 0) {
+            return entry(n);
+        }
+        //Above diff, everything hanging off the path agrees with key, and
+        //everything under the first node at or past it parts from key there.
+        int top = 0;
+        while(top < depth && AbstractCritBitTree.<Node<K,V>>cast(path[top]).bit() < diff) {
+            top++;
+        }
+        if(ctx.chk.isBitSet(key, diff)) {
+            Node<K,V> least = (top < depth) ? minNode(AbstractCritBitTree.<Node<K,V>>cast(path[top])) : n;
+            if(ctx.chk.isPrefix(key, least.getKey())) {
+                return entry(least);
+            }
+        }
+        while(top > 0) {
+            Node<K,V> turn = AbstractCritBitTree.<Node<K,V>>cast(path[--top]);
+            if(!ctx.chk.isBitSet(key, turn.bit())) {
+                continue;
+            }
+            if(turn.hasExternalLeft()) {
+                if(ctx.chk.isPrefix(key, turn.leftKey())) {
+                    return entry(turn.left(ctx));
+                }
+            } else {
+                Node<K,V> least = minNode(turn.left(ctx));
+                if(ctx.chk.isPrefix(key, least.getKey())) {
+                    return entry(least);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns n with new children, after a traversal removed something
+     * below it.  Trees whose nodes can change in place may reuse n.
+     */
+    Node<K,V> rejoin(Node<K,V> n, Node<K,V> left, Node<K,V> right) {
+        return join(n.bit(), left, right, ctx);
+    }
+
+    /**
+     * Changes whenever the tree is written to, so views can tell when what
+     * they've cached is stale.  Trees that never change keep it at 0.
+     */
+    int modCount() {
+        return 0;
+    }
+
+    /**
+     * Whether traverse() and traverseWithPrefix() carry out REMOVE
+     * decisions; if so, pruned() gets the result.
+     */
+    boolean removesInTraversal() {
+        return false;
+    }
+
+    void pruned(Node<K,V> root, int removed) {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Visits every entry in key order.  Trees that can change in place
+     * remove the entries the cursor answers REMOVE or REMOVE_AND_EXIT for,
+     * without searching for them again; CritBitTree takes those answers as
+     * CONTINUE and EXIT (see CritBitTree.prune).
+     */
     public final void traverse(Cursor<? super K, ? super V> cursor) {
         if(root() == null) {
             return;
         }
-        doTraverse(root(), cursor);
+        Walk<K,V> w = new Walk<K,V>(cursor, removesInTraversal());
+        Node<K,V> left = walk(root(), w);
+        if(w.removed > 0) {
+            pruned(left, w.removed);
+        }
     }
 
+    /**
+     * Like traverse(), over just the keys starting with key.
+     */
     public final void traverseWithPrefix(K key,
                                          Cursor<? super K, ? super V> cursor) {
         if(root() == null) {
             return;
         }
-        if(!root().isInternal()) {
-            Map.Entry<K,V> e = AbstractCritBitTree.<Map.Entry<K,V>>cast(root());
-            cursor.select(e);
-            return;
+        Walk<K,V> w = new Walk<K,V>(cursor, removesInTraversal());
+        Node<K,V> left = walkWithPrefix(root(), key, ctx.chk.lengthInBits(key), w);
+        if(w.removed > 0) {
+            pruned(left, w.removed);
         }
+    }
 
-        int keyLen = ctx.chk.lengthInBits(key);
-        Node<K,V> current = root();
-        Node<K,V> top = current;
-        Direction topDirection = Direction.LEFT;
-        while(current.isInternal()) {
-            Direction nextDirection = current.next(key, ctx);
-            if(current.bit() < keyLen) {
-                top = current;
-                topDirection = nextDirection;
-            }
-            switch(nextDirection) {
-            case LEFT:
-                current = current.left(ctx);
-                break;
-            case RIGHT:
-                current = current.right(ctx);
-                break;
-            }
+    /**
+     * The entry whose key is nearest target by XOR distance (bits past a
+     * key's end counting as zeros), or null if the tree is empty.  That's
+     * just where a search for target ends up.  With Integer keys, an int
+     * argument picks select(int) instead; box it to get this one.
+     */
+    public final Map.Entry<K,V> select(K target) {
+        Node<K,V> n = root();
+        if(n == null) {
+            return null;
         }
-        if(!ctx.chk.isPrefix(current.getKey(), key)) {
-            return;
+        while(n.isInternal()) {
+            n = n.nextNode(target, ctx);
         }
+        return entry(n);
+    }
 
-        switch(topDirection) {
-        case LEFT:
-            doTraverse(top.left(ctx), cursor);
-            return;
-        default:
-            doTraverse(top.right(ctx), cursor);
+    /**
+     * Like traverse(), over the n entries nearest target by XOR distance,
+     * nearest first: the k closest ids of a Kademlia routing table.  Ties
+     * can't happen, as distinct keys are at distinct distances.  Only the
+     * subtrees the walk reaches get visited, so it stops after n entries
+     * rather than scanning the tree.
+     */
+    public final void selectN(K target, int n, Cursor<? super K, ? super V> cursor) {
+        if(n < 0) {
+            throw new IllegalArgumentException("n must not be negative: " + n);
+        }
+        if(n == 0 || root() == null) {
             return;
         }
+        Walk<K,V> w = new Walk<K,V>(new Limit<K,V>(cursor, n), removesInTraversal());
+        Node<K,V> left = walkNearest(root(), target, w);
+        if(w.removed > 0) {
+            pruned(left, w.removed);
+        }
+    }
+
+    /**
+     * Extra Spliterator characteristics for this kind of tree.
+     */
+    int spliteratorCharacteristics() {
+        return 0;
+    }
+
+    /**
+     * Returns a Spliterator over the entries in key order, which splits
+     * along internal nodes so parallel work divides up the tree.
+     */
+    public final Spliterator<Map.Entry<K,V>> spliterator() {
+        return new CritBitSpliterator<K,V>(ctx, root(), size(), spliteratorCharacteristics());
     }
 
-    protected abstract Decision doTraverse(Node<K,V> top,
-                                           Cursor<? super K, ? super V> cursor);
+    public final Stream<Map.Entry<K,V>> stream() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+
+    public final Stream<Map.Entry<K,V>> parallelStream() {
+        return StreamSupport.stream(spliterator(), true);
+    }
+
+    /**
+     * Calls action on each entry, in key order.
+     */
+    public final void forEach(final BiConsumer<? super K, ? super V> action) {
+        Spliterator<Map.Entry<K,V>> s = spliterator();
+        s.forEachRemaining(new Consumer<Map.Entry<K,V>>() {
+            public void accept(Map.Entry<K,V> e) {
+                action.accept(e.getKey(), e.getValue());
+            }
+        });
+    }
+
+    /**
+     * Calls action on each entry, with subtrees handed out across the
+     * common fork-join pool.  No ordering; action must be thread safe.
+     */
+    public final void parallelForEach(final BiConsumer<? super K, ? super V> action) {
+        parallelStream().forEach(new Consumer<Map.Entry<K,V>>() {
+            public void accept(Map.Entry<K,V> e) {
+                action.accept(e.getKey(), e.getValue());
+            }
+        });
+    }
 
     public abstract int size();
-    public final boolean isEmpty() { return size() == 0; }
+    //Not size() == 0: CritBitTree may have to count its keys for size().
+    public final boolean isEmpty() { return root() == null; }
+
+    /**
+     * Returns a read-only copy of this tree, laid out for lookups and
+     * ordered scans.  Later changes to this tree don't show up in it.
+     */
+    public final FrozenCritBitTree<K,V> freeze() {
+        return FrozenCritBitTree.freeze(root(), size(), ctx);
+    }
+
+    /**
+     * Counts this tree's nodes by kind, its leaf depths and branch bits,
+     * and estimates its memory; see CritBitStats.  Takes one pass over
+     * every node, so it's for monitoring, not for hot paths.
+     */
+    public final CritBitStats stats() {
+        return new CritBitStats(root(), ctx);
+    }
 
     @SuppressWarnings("unchecked")
     static <T> T cast(Object obj) {
@@ -409,9 +1246,151 @@ abstract class AbstractCritBitTree<K,V> implements Serializable {
             return ctx().chk.bitIndex(key, root().getKey()) < 0;
         }
 
-        final SearchResult<K,V> sr = search(root(), key);
-        final int diffBit = ctx().chk.bitIndex(key, sr.key(ctx()));
-        return diffBit < 0;
+        final Node<K,V> par = searchExternal(root(), key);
+        switch(par.next(key, ctx())) {
+        case LEFT:
+            return ctx().chk.bitIndex(key, par.leftKey()) < 0;
+        default: //case RIGHT:
+            return ctx().chk.bitIndex(key, par.rightKey()) < 0;
+        }
+    }
+
+    //How many lookups getAll/containsAll advance together.
+    private static final int BATCH_GROUP = 16;
+
+    /**
+     * Looks up every key in keys, writing each value (or null) to the same
+     * index of out.  Lookups run in groups that each take one step down the
+     * tree per pass, so the loads for different keys are independent and
+     * their cache misses can overlap instead of queueing up.
+     */
+    public final void getAll(K[] keys, V[] out) {
+        if(out.length < keys.length) {
+            throw new IllegalArgumentException("out.length < keys.length");
+        }
+        lookupAll(keys, out, null);
+    }
+
+    /**
+     * Like getAll, but just records which keys are present.
+     */
+    public final BitSet containsAll(K[] keys) {
+        BitSet found = new BitSet(keys.length);
+        lookupAll(keys, null, found);
+        return found;
+    }
+
+    /**
+     * Like getAll, but each lookup resumes from the deepest node its path
+     * shares with the previous key's, found with one bitIndex call.  Works
+     * for keys in any order; sorted keys share the most.
+     */
+    public final void getAllSorted(K[] keys, V[] out) {
+        if(out.length < keys.length) {
+            throw new IllegalArgumentException("out.length < keys.length");
+        }
+        if(root() == null || !root().isInternal()) {
+            lookupAll(keys, out, null);
+            return;
+        }
+        Node<?,?>[] path = new Node<?,?>[32];
+        int depth = 0;
+        for(int i=0; i<keys.length; i++) {
+            K key = keys[i];
+            if(i > 0) {
+                int diffBit = ctx.chk.bitIndex(keys[i-1], key);
+                if(diffBit < 0) {
+                    out[i] = out[i-1];
+                    continue;
+                }
+                while(depth > 0 && path[depth-1].bit() >= diffBit) {
+                    depth--;
+                }
+            }
+            if(depth == 0) {
+                path[depth++] = root();
+            }
+            for(;;) {
+                Node<K,V> cur = AbstractCritBitTree.<Node<K,V>>cast(path[depth-1]);
+                Node<K,V> next;
+                if(ctx.chk.isBitSet(key, cur.bit())) {
+                    if(cur.hasExternalRight()) {
+                        out[i] = ctx.chk.bitIndex(key, cur.rightKey()) < 0 ? cur.rightValue() : null;
+                        break;
+                    }
+                    next = cur.right(ctx);
+                } else {
+                    if(cur.hasExternalLeft()) {
+                        out[i] = ctx.chk.bitIndex(key, cur.leftKey()) < 0 ? cur.leftValue() : null;
+                        break;
+                    }
+                    next = cur.left(ctx);
+                }
+                if(depth == path.length) {
+                    path = Arrays.copyOf(path, depth * 2);
+                }
+                path[depth++] = next;
+            }
+        }
+    }
+
+    private void lookupAll(K[] keys, V[] out, BitSet found) {
+        final Node<K,V> root = root();
+        if(root == null) {
+            if(out != null) {
+                Arrays.fill(out, 0, keys.length, null);
+            }
+            return;
+        }
+        if(!root.isInternal()) {
+            for(int i=0; i<keys.length; i++) {
+                resolve(keys[i], root.getKey(), root.getValue(), i, out, found);
+            }
+            return;
+        }
+
+        Node<?,?>[] cur = new Node<?,?>[BATCH_GROUP];
+        for(int base=0; base<keys.length; base+=BATCH_GROUP) {
+            int group = Math.min(BATCH_GROUP, keys.length - base);
+            Arrays.fill(cur, 0, group, root);
+            int active = group;
+            while(active > 0) {
+                for(int j=0; j<group; j++) {
+                    Node<K,V> node = AbstractCritBitTree.<Node<K,V>>cast(cur[j]);
+                    if(node == null) {
+                        continue;
+                    }
+                    K key = keys[base+j];
+                    if(ctx.chk.isBitSet(key, node.bit())) {
+                        if(node.hasExternalRight()) {
+                            resolve(key, node.rightKey(), node.rightValue(), base+j, out, found);
+                            cur[j] = null;
+                            active--;
+                        } else {
+                            cur[j] = node.right(ctx);
+                        }
+                    } else {
+                        if(node.hasExternalLeft()) {
+                            resolve(key, node.leftKey(), node.leftValue(), base+j, out, found);
+                            cur[j] = null;
+                            active--;
+                        } else {
+                            cur[j] = node.left(ctx);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private void resolve(K key, K leafKey, V leafVal, int i, V[] out, BitSet found) {
+        boolean hit = ctx.chk.bitIndex(key, leafKey) < 0;
+        if(out != null) {
+            out[i] = hit ? leafVal : null;
+        }
+        if(hit && found != null) {
+            found.set(i);
+        }
     }
 
     private static class ContainsValueCursor<K,V> implements Cursor<K,V> {
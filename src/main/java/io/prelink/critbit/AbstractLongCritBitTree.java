@@ -0,0 +1,383 @@
+package io.prelink.critbit;
+
+import io.prelink.critbit.AbstractCritBitTree.Direction;
+
+import java.io.Serializable;
+import java.util.NoSuchElementException;
+
+import org.ardverk.collection.Cursor.Decision;
+import org.ardverk.collection.KeyAnalyzer;
+
+/**
+ * A crit-bit tree specialized for primitive {@code long} keys, stored inline
+ * in the nodes.  Same five node kinds as AbstractCritBitTree, but bits are
+ * read straight off the key, so there's no KeyAnalyzer and no boxing.
+ *
+ * Bit 0 is the most significant bit, so keys are ordered as unsigned
+ * 64-bit values, same as with LongKeyAnalyzer.
+ */
+abstract class AbstractLongCritBitTree<V> implements Serializable {
+
+    static final long serialVersionUID = 20261017L;
+
+    private static final long MSB = 1L << Long.SIZE-1;
+
+    static interface NodeFactory<V> extends Serializable {
+        Node<V> mkShortBoth(int diffBit, long lk, V lv, long rk, V rv);
+        Node<V> mkShortRight(int diffBit, Node<V> left, long k, V v);
+        Node<V> mkShortLeft(int diffBit, long k, V v, Node<V> right);
+        Node<V> mkTall(int diffBit, Node<V> left, Node<V> right);
+        Node<V> mkLeaf(long key, V val);
+    }
+
+    static interface Node<V> extends Serializable {
+        //Everybody implements these.
+        Node<V> insert(int diffBit, long key, V val, NodeFactory<V> nf);
+        Node<V> remove(long key, NodeFactory<V> nf, boolean force);
+        boolean isInternal();
+
+        //Should only be called for internal nodes.
+        int bit();
+        Direction next(long key);
+        Node<V> nextNode(long key, NodeFactory<V> nf);
+        Node<V> left(NodeFactory<V> nf);
+        Node<V> right(NodeFactory<V> nf);
+        Node<V> setLeft(int diffBit, long key, V val, NodeFactory<V> nf);
+        Node<V> setRight(int diffBit, long key, V val, NodeFactory<V> nf);
+        boolean hasExternalLeft();
+        boolean hasExternalRight();
+
+        //Should only be called for internal nodes, on an external side.
+        long leftKey();
+        V leftValue();
+        long rightKey();
+        V rightValue();
+
+        //Should only be called for external nodes.
+        long getKey();
+        V getValue();
+    }
+
+    static boolean isBitSet(long key, int bit) {
+        return (key & (MSB >>> bit)) != 0;
+    }
+
+    static int bitIndex(long key, long otherKey) {
+        return (key == otherKey) ? KeyAnalyzer.EQUAL_BIT_KEY
+                                 : Long.numberOfLeadingZeros(key ^ otherKey);
+    }
+
+    static abstract class BaseNode<V> implements Node<V> {
+        private static final long serialVersionUID = 20261017L;
+        public Node<V> insert(int diffBit, long key, V val, NodeFactory<V> nf) {
+            throw new UnsupportedOperationException();
+        }
+        public int bit() {
+            throw new UnsupportedOperationException();
+        }
+        public Direction next(long key) {
+            throw new UnsupportedOperationException();
+        }
+        public Node<V> nextNode(long key, NodeFactory<V> nf) {
+            throw new UnsupportedOperationException();
+        }
+        public Node<V> left(NodeFactory<V> nf) {
+            throw new UnsupportedOperationException();
+        }
+        public Node<V> right(NodeFactory<V> nf) {
+            throw new UnsupportedOperationException();
+        }
+        public Node<V> setLeft(int diffBit, long key, V val, NodeFactory<V> nf) {
+            throw new UnsupportedOperationException();
+        }
+        public Node<V> setRight(int diffBit, long key, V val, NodeFactory<V> nf) {
+            throw new UnsupportedOperationException();
+        }
+        public boolean hasExternalLeft() {
+            throw new UnsupportedOperationException();
+        }
+        public boolean hasExternalRight() {
+            throw new UnsupportedOperationException();
+        }
+        public long leftKey() {
+            throw new UnsupportedOperationException();
+        }
+        public V leftValue() {
+            throw new UnsupportedOperationException();
+        }
+        public long rightKey() {
+            throw new UnsupportedOperationException();
+        }
+        public V rightValue() {
+            throw new UnsupportedOperationException();
+        }
+        public long getKey() {
+            throw new UnsupportedOperationException();
+        }
+        public V getValue() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    static abstract class AbstractInternal<V> extends BaseNode<V> {
+        private static final long serialVersionUID = 20261017L;
+
+        private final int bit;
+        AbstractInternal(int bit) {
+            this.bit = bit;
+        }
+
+        public final int bit() { return bit; }
+
+        public final Node<V> insert(int diffBit, long k, V v, NodeFactory<V> nf) {
+            if(diffBit >= 0 && diffBit < bit()) {
+                return isBitSet(k, diffBit) ? nf.mkShortRight(diffBit, this, k, v)
+                                            : nf.mkShortLeft(diffBit, k, v, this);
+            } else {
+                return isBitSet(k, bit()) ? setRight(diffBit, k, v, nf)
+                                          : setLeft(diffBit, k, v, nf);
+            }
+        }
+
+        public Node<V> remove(long key, NodeFactory<V> nf, boolean force) {
+            switch(next(key)) {
+            case LEFT:
+                return removeLeft(key, nf, force);
+            default:
+                return removeRight(key, nf, force);
+            }
+        }
+
+        public final Direction next(long key) {
+            return isBitSet(key, bit()) ? Direction.RIGHT
+                                        : Direction.LEFT;
+        }
+
+        public final Node<V> nextNode(long key, NodeFactory<V> nf) {
+            switch(next(key)) {
+            case LEFT: return left(nf);
+            default: return right(nf);
+            }
+        }
+
+        public final boolean isInternal() { return true; }
+
+        protected abstract Node<V> removeLeft(long key, NodeFactory<V> nf, boolean force);
+        protected abstract Node<V> removeRight(long key, NodeFactory<V> nf, boolean force);
+
+        protected final Node<V> mkShortBothChild(int diffBit,
+                                                 long newKey, V newVal,
+                                                 long oldKey, V oldVal,
+                                                 NodeFactory<V> nf) {
+            return isBitSet(newKey, diffBit) ? nf.mkShortBoth(diffBit, oldKey, oldVal, newKey, newVal)
+                                             : nf.mkShortBoth(diffBit, newKey, newVal, oldKey, oldVal);
+        }
+    }
+
+    static final class LeafNode<V> extends BaseNode<V> {
+        private static final long serialVersionUID = 20261017L;
+        private final long key;
+        private final V value;
+        public LeafNode(long key, V value) {
+            this.key = key;
+            this.value = value;
+        }
+        public long getKey() { return this.key; }
+        public V getValue() { return this.value; }
+        public Node<V> insert(int diffBit, long key, V val, NodeFactory<V> nf) {
+            if(diffBit < 0) {
+                return nf.mkLeaf(key, val);
+            }
+            return isBitSet(key, diffBit) ? nf.mkShortBoth(diffBit, this.key, this.value, key, val)
+                                          : nf.mkShortBoth(diffBit, key, val, this.key, this.value);
+        }
+        public boolean isInternal() { return false; }
+        public Node<V> remove(long key, NodeFactory<V> nf, boolean force) {
+            return (force || key == this.key) ? null : this;
+        }
+    }
+
+    static final class ShortBothNode<V> extends AbstractInternal<V> {
+        private static final long serialVersionUID = 20261017L;
+        private final long leftKey;
+        private final V leftVal;
+        private final long rightKey;
+        private final V rightVal;
+        public ShortBothNode(int bit, long leftKey, V leftVal, long rightKey, V rightVal) {
+            super(bit);
+            this.leftKey = leftKey;
+            this.leftVal = leftVal;
+            this.rightKey = rightKey;
+            this.rightVal = rightVal;
+        }
+        public Node<V> left(NodeFactory<V> nf) { return nf.mkLeaf(leftKey, leftVal); }
+        public Node<V> right(NodeFactory<V> nf) { return nf.mkLeaf(rightKey, rightVal); }
+        public Node<V> setLeft(int diffBit, long key, V val, NodeFactory<V> nf) {
+            if(diffBit < 0) {
+                return nf.mkShortBoth(bit(), key, val, rightKey, rightVal);
+            }
+            Node<V> newLeft = mkShortBothChild(diffBit, key, val, leftKey, leftVal, nf);
+            return nf.mkShortRight(bit(), newLeft, rightKey, rightVal);
+        }
+        public Node<V> setRight(int diffBit, long key, V val, NodeFactory<V> nf) {
+            if(diffBit < 0) {
+                return nf.mkShortBoth(bit(), leftKey, leftVal, key, val);
+            }
+            Node<V> newRight = mkShortBothChild(diffBit, key, val, rightKey, rightVal, nf);
+            return nf.mkShortLeft(bit(), leftKey, leftVal, newRight);
+        }
+        protected Node<V> removeLeft(long key, NodeFactory<V> nf, boolean force) {
+            return (force || key == this.leftKey) ? nf.mkLeaf(rightKey, rightVal)
+                                                  : this;
+        }
+        protected Node<V> removeRight(long key, NodeFactory<V> nf, boolean force) {
+            return (force || key == this.rightKey) ? nf.mkLeaf(leftKey, leftVal)
+                                                   : this;
+        }
+        public boolean hasExternalLeft() { return true; }
+        public boolean hasExternalRight() { return true; }
+        public long leftKey() { return leftKey; }
+        public V leftValue() { return leftVal; }
+        public long rightKey() { return rightKey; }
+        public V rightValue() { return rightVal; }
+    }
+
+    private final NodeFactory<V> nf;
+
+    AbstractLongCritBitTree(NodeFactory<V> nf) {
+        this.nf = nf;
+    }
+
+    abstract Node<V> root();
+
+    NodeFactory<V> nf() {
+        return nf;
+    }
+
+    /**
+     * Walks down from an internal start node to the internal node whose
+     * external child is the only candidate match for key.
+     */
+    final Node<V> searchExternal(final Node<V> start, final long key) {
+        Node<V> cur = start;
+        for(;;) {
+            switch(cur.next(key)) {
+            case LEFT:
+                if(cur.hasExternalLeft()) {
+                    return cur;
+                }
+                cur = cur.left(nf);
+                break;
+            case RIGHT:
+                if(cur.hasExternalRight()) {
+                    return cur;
+                }
+                cur = cur.right(nf);
+                break;
+            }
+        }
+    }
+
+    /**
+     * Returns the key of the leaf key would end up next to; the only
+     * key in the tree that can be equal to it.  The tree must not be empty.
+     */
+    final long closestKey(final long key) {
+        if(!root().isInternal()) {
+            return root().getKey();
+        }
+        final Node<V> par = searchExternal(root(), key);
+        switch(par.next(key)) {
+        case LEFT:
+            return par.leftKey();
+        default: //case RIGHT:
+            return par.rightKey();
+        }
+    }
+
+    public final V get(long key) {
+        if(root() == null) {
+            return null;
+        }
+        if(!root().isInternal()) {
+            return (key == root().getKey()) ? root().getValue() : null;
+        }
+        final Node<V> par = searchExternal(root(), key);
+        switch(par.next(key)) {
+        case LEFT:
+            return (key == par.leftKey()) ? par.leftValue() : null;
+        default: //case RIGHT:
+            return (key == par.rightKey()) ? par.rightValue() : null;
+        }
+    }
+
+    public final boolean containsKey(long key) {
+        return root() != null && closestKey(key) == key;
+    }
+
+    /**
+     * Returns the smallest key, in unsigned order.
+     *
+     * @throws NoSuchElementException if the tree is empty
+     */
+    public final long firstKey() {
+        if(root() == null) {
+            throw new NoSuchElementException();
+        }
+        Node<V> current = root();
+        while(current.isInternal()) {
+            if(current.hasExternalLeft()) {
+                return current.leftKey();
+            }
+            current = current.left(nf);
+        }
+        return current.getKey();
+    }
+
+    /**
+     * Returns the largest key, in unsigned order.
+     *
+     * @throws NoSuchElementException if the tree is empty
+     */
+    public final long lastKey() {
+        if(root() == null) {
+            throw new NoSuchElementException();
+        }
+        Node<V> current = root();
+        while(current.isInternal()) {
+            if(current.hasExternalRight()) {
+                return current.rightKey();
+            }
+            current = current.right(nf);
+        }
+        return current.getKey();
+    }
+
+    public final void traverse(LongCursor<? super V> cursor) {
+        if(root() == null) {
+            return;
+        }
+        doTraverse(root(), cursor);
+    }
+
+    private Decision doTraverse(Node<V> top, LongCursor<? super V> cursor) {
+        if(!top.isInternal()) {
+            return cursor.select(top.getKey(), top.getValue());
+        }
+        Decision d = top.hasExternalLeft() ? cursor.select(top.leftKey(), top.leftValue())
+                                           : doTraverse(top.left(nf), cursor);
+        switch(d) {
+        case REMOVE_AND_EXIT: //fall through
+        case EXIT:
+            return Decision.EXIT;
+        case REMOVE: //fall through
+        case CONTINUE:
+        default:
+            return top.hasExternalRight() ? cursor.select(top.rightKey(), top.rightValue())
+                                          : doTraverse(top.right(nf), cursor);
+        }
+    }
+
+    public abstract int size();
+    public final boolean isEmpty() { return size() == 0; }
+}
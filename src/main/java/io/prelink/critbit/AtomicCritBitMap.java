@@ -0,0 +1,363 @@
+package io.prelink.critbit;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Spliterators;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.UnaryOperator;
+
+import org.ardverk.collection.KeyAnalyzer;
+
+/**
+ * A thread-safe map that holds a persistent CritBitTree in an
+ * AtomicReference.  Reads just look at the current tree, so they never
+ * block; snapshot() hands that tree out whole.  Writes build the next tree
+ * and compareAndSet it in.
+ *
+ * A writer that loses the race doesn't retry on its own.  It queues its
+ * change, and whichever queued writer gets to combine first applies every
+ * queued change to one TransientCritBitTree and swaps the result in with a
+ * single compareAndSet.  Changes to nearby keys then share one path copy
+ * rather than each copying the path and most of them failing.
+ *
+ * A change may be applied more than once before it sticks, so functions
+ * passed to update() must not have side effects.
+ */
+public final class AtomicCritBitMap<K,V> extends AbstractMap<K,V>
+    implements ConcurrentMap<K,V> {
+
+    private static final Object ANY = new Object();
+    private static final Object ABSENT = new Object();
+    private static final Object PRESENT = new Object();
+
+    /**
+     * The tree a batch of changes is building.  A batch of several changes
+     * switches to a transient at its first write; a lone change just makes
+     * one persistent copy, which is cheaper than sealing a transient.
+     */
+    private static final class Batch<K,V> {
+        private CritBitTree<K,V> tree;
+        private TransientCritBitTree<K,V> editing = null;
+        private final boolean single;
+        Batch(CritBitTree<K,V> tree, boolean single) {
+            this.tree = tree;
+            this.single = single;
+        }
+        V get(K key) {
+            return (editing != null) ? editing.get(key) : tree.get(key);
+        }
+        void put(K key, V val) {
+            if(single) {
+                tree = tree.put(key, val);
+                return;
+            }
+            if(editing == null) {
+                editing = tree.asTransient();
+            }
+            editing.put(key, val);
+        }
+        void remove(K key) {
+            if(single) {
+                tree = tree.remove(key);
+                return;
+            }
+            if(editing == null) {
+                editing = tree.asTransient();
+            }
+            editing.remove(key);
+        }
+        CritBitTree<K,V> persistent() {
+            if(editing != null) {
+                tree = editing.persistent();
+                editing = null;
+            }
+            return tree;
+        }
+        void set(CritBitTree<K,V> t) {
+            persistent();
+            tree = t;
+        }
+    }
+
+    /**
+     * One queued change.  apply() may run several times, against newer
+     * trees, until the tree it was part of is the one swapped in.
+     */
+    private static abstract class Op<K,V> {
+        volatile boolean done = false;
+        RuntimeException failure;
+        abstract void apply(Batch<K,V> b);
+        final void check() {
+            if(failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    private static final class PutOp<K,V> extends Op<K,V> {
+        private final K key;
+        private final V val;
+        //ANY, ABSENT, PRESENT, or the value the key must map to.
+        private final Object expected;
+        V prev;
+        boolean applied;
+        PutOp(K key, V val, Object expected) {
+            this.key = key;
+            this.val = val;
+            this.expected = expected;
+        }
+        void apply(Batch<K,V> b) {
+            prev = b.get(key);
+            applied = (expected == ANY)
+                || (expected == ABSENT && prev == null)
+                || (expected == PRESENT && prev != null)
+                || eq(expected, prev);
+            if(applied) {
+                b.put(key, val);
+            }
+        }
+    }
+
+    private static final class RemoveOp<K,V> extends Op<K,V> {
+        private final K key;
+        //ANY, or the value the key must map to.
+        private final Object expected;
+        V prev;
+        boolean applied;
+        RemoveOp(K key, Object expected) {
+            this.key = key;
+            this.expected = expected;
+        }
+        void apply(Batch<K,V> b) {
+            prev = b.get(key);
+            applied = prev != null && (expected == ANY || eq(expected, prev));
+            if(applied) {
+                b.remove(key);
+            }
+        }
+    }
+
+    private static final class UpdateOp<K,V> extends Op<K,V> {
+        private final UnaryOperator<CritBitTree<K,V>> fn;
+        CritBitTree<K,V> result;
+        UpdateOp(UnaryOperator<CritBitTree<K,V>> fn) {
+            this.fn = fn;
+        }
+        void apply(Batch<K,V> b) {
+            result = fn.apply(b.persistent());
+            if(result == null) {
+                throw new NullPointerException("update returned null");
+            }
+            b.set(result);
+        }
+    }
+
+    private final AtomicReference<CritBitTree<K,V>> root;
+    private final ConcurrentLinkedQueue<Op<K,V>> pending = new ConcurrentLinkedQueue<Op<K,V>>();
+    private final AtomicBoolean combining = new AtomicBoolean(false);
+
+    public AtomicCritBitMap(KeyAnalyzer<K> analyzer) {
+        this(new CritBitTree<K,V>(analyzer));
+    }
+
+    public AtomicCritBitMap(CritBitTree<K,V> initial) {
+        this.root = new AtomicReference<CritBitTree<K,V>>(initial);
+    }
+
+    private static boolean eq(Object a, Object b) {
+        return a == b || (a != null && a.equals(b));
+    }
+
+    /**
+     * The current tree.  It's immutable, so it can be read at leisure
+     * while writes carry on.
+     */
+    public CritBitTree<K,V> snapshot() {
+        return root.get();
+    }
+
+    private CritBitTree<K,V> applyAll(CritBitTree<K,V> cur, List<Op<K,V>> ops) {
+        Batch<K,V> b = new Batch<K,V>(cur, ops.size() == 1);
+        for(Op<K,V> op: ops) {
+            op.failure = null;
+            try {
+                op.apply(b);
+            } catch(RuntimeException e) {
+                op.failure = e;
+            }
+        }
+        return b.persistent();
+    }
+
+    /**
+     * Tries op alone with one compareAndSet; if that loses, or others are
+     * already combining, queues it and waits for a combiner (maybe this
+     * thread) to apply it.
+     */
+    private void submit(Op<K,V> op) {
+        if(!combining.get()) {
+            CritBitTree<K,V> cur = root.get();
+            CritBitTree<K,V> next = applyAll(cur, Collections.<Op<K,V>>singletonList(op));
+            if(root.compareAndSet(cur, next)) {
+                op.check();
+                return;
+            }
+        }
+        pending.add(op);
+        while(!op.done) {
+            if(combining.compareAndSet(false, true)) {
+                try {
+                    combine();
+                } finally {
+                    combining.set(false);
+                }
+            } else {
+                Thread.yield();
+            }
+        }
+        op.check();
+    }
+
+    private void combine() {
+        List<Op<K,V>> batch = new ArrayList<Op<K,V>>();
+        for(Op<K,V> op = pending.poll(); op != null; op = pending.poll()) {
+            batch.add(op);
+        }
+        if(batch.isEmpty()) {
+            return;
+        }
+        //Only writers that got past the combining check before it was set
+        //can still beat this, so it settles quickly.
+        for(;;) {
+            CritBitTree<K,V> cur = root.get();
+            if(root.compareAndSet(cur, applyAll(cur, batch))) {
+                break;
+            }
+        }
+        for(Op<K,V> op: batch) {
+            op.done = true;
+        }
+    }
+
+    /**
+     * Replaces the tree with fn applied to it, and returns the result.
+     */
+    public CritBitTree<K,V> update(UnaryOperator<CritBitTree<K,V>> fn) {
+        UpdateOp<K,V> op = new UpdateOp<K,V>(fn);
+        submit(op);
+        return op.result;
+    }
+
+    @Override
+    public V get(Object k) {
+        return root.get().get(k);
+    }
+
+    @Override
+    public boolean containsKey(Object k) {
+        return root.get().containsKey(k);
+    }
+
+    /**
+     * O(1), unless update() installed a tree that doesn't know its size,
+     * such as the result of a set operation.  Then the first call counts
+     * the keys once, and later writes build on that count.
+     */
+    @Override
+    public int size() {
+        return root.get().size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return root.get().isEmpty();
+    }
+
+    @Override
+    public V put(K key, V val) {
+        PutOp<K,V> op = new PutOp<K,V>(key, val, ANY);
+        submit(op);
+        return op.prev;
+    }
+
+    public V putIfAbsent(K key, V val) {
+        PutOp<K,V> op = new PutOp<K,V>(key, val, ABSENT);
+        submit(op);
+        return op.prev;
+    }
+
+    public V replace(K key, V val) {
+        PutOp<K,V> op = new PutOp<K,V>(key, val, PRESENT);
+        submit(op);
+        return op.prev;
+    }
+
+    public boolean replace(K key, V oldVal, V newVal) {
+        if(oldVal == null) {
+            throw new NullPointerException();
+        }
+        PutOp<K,V> op = new PutOp<K,V>(key, newVal, oldVal);
+        submit(op);
+        return op.applied;
+    }
+
+    @Override
+    public V remove(Object k) {
+        RemoveOp<K,V> op = new RemoveOp<K,V>(AbstractCritBitTree.<K>cast(k), ANY);
+        submit(op);
+        return op.prev;
+    }
+
+    public boolean remove(Object k, Object val) {
+        if(val == null) {
+            return false;
+        }
+        RemoveOp<K,V> op = new RemoveOp<K,V>(AbstractCritBitTree.<K>cast(k), val);
+        submit(op);
+        return op.applied;
+    }
+
+    @Override
+    public void clear() {
+        //Keeps the current tree's kind of nodes.
+        root.set(new CritBitTree<K,V>(null, 0, root.get().ctx()));
+    }
+
+    /**
+     * Iterates over the tree current when iterator() was called.  remove()
+     * removes the key from the map as it is now.
+     */
+    @Override
+    public Set<Map.Entry<K,V>> entrySet() {
+        return new AbstractSet<Map.Entry<K,V>>() {
+            public Iterator<Map.Entry<K,V>> iterator() {
+                final Iterator<Map.Entry<K,V>> it = Spliterators.iterator(root.get().spliterator());
+                return new Iterator<Map.Entry<K,V>>() {
+                    private Map.Entry<K,V> last = null;
+                    public boolean hasNext() { return it.hasNext(); }
+                    public Map.Entry<K,V> next() {
+                        last = it.next();
+                        return last;
+                    }
+                    public void remove() {
+                        if(last == null) {
+                            throw new IllegalStateException();
+                        }
+                        AtomicCritBitMap.this.remove(last.getKey());
+                        last = null;
+                    }
+                };
+            }
+            public int size() { return AtomicCritBitMap.this.size(); }
+        };
+    }
+}
@@ -0,0 +1,458 @@
+package io.prelink.critbit;
+
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.ardverk.collection.Cursor;
+import org.ardverk.collection.KeyAnalyzer;
+
+/**
+ * A mutable crit-bit tree with the same contract as MCritBitTree, but laid
+ * out as parallel arrays instead of node objects.  Internal node i is
+ * bits[i]/left[i]/right[i]; leaf j is keys[j]/vals[j].  A child link is
+ * either an internal index (&gt;= 0) or the complement of a leaf index
+ * (&lt; 0).
+ *
+ * Removing a node moves the last node of its kind into the hole, so the
+ * arrays stay dense and a tree of N keys costs five arrays of about N
+ * slots rather than about 2N objects.  Cursors' REMOVE decisions and
+ * Iterator.remove() are carried out as in MCritBitTree.
+ */
+public final class CompactCritBitTree<K,V> extends AbstractMap<K,V> implements Serializable {
+
+    private static final long serialVersionUID = 20261017L;
+
+    private static final int INITIAL_CAPACITY = 8;
+
+    private final KeyAnalyzer<K> chk;
+    private int[] bits;
+    private int[] left;
+    private int[] right;
+    private Object[] keys;
+    private Object[] vals;
+    private int root;
+    private int size = 0;
+
+    public CompactCritBitTree(KeyAnalyzer<K> analyzer) {
+        this.chk = analyzer;
+        clear();
+    }
+
+    private static boolean isLeaf(int ref) {
+        return ref < 0;
+    }
+
+    private K key(int ref) {
+        return AbstractCritBitTree.<K>cast(keys[~ref]);
+    }
+
+    private V val(int ref) {
+        return AbstractCritBitTree.<V>cast(vals[~ref]);
+    }
+
+    private int child(int node, K key) {
+        return chk.isBitSet(key, bits[node]) ? right[node] : left[node];
+    }
+
+    /** Follows key's crit bits from the root down to a leaf. */
+    private int findLeaf(K key) {
+        int cur = root;
+        while(!isLeaf(cur)) {
+            cur = child(cur, key);
+        }
+        return cur;
+    }
+
+    /**
+     * Points whichever link currently holds from (the root, or a child link
+     * of some internal node on key's path) at to instead.
+     */
+    private void relink(K key, int from, int to) {
+        if(root == from) {
+            root = to;
+            return;
+        }
+        int cur = root;
+        for(;;) {
+            if(chk.isBitSet(key, bits[cur])) {
+                if(right[cur] == from) {
+                    right[cur] = to;
+                    return;
+                }
+                cur = right[cur];
+            } else {
+                if(left[cur] == from) {
+                    left[cur] = to;
+                    return;
+                }
+                cur = left[cur];
+            }
+        }
+    }
+
+    private int newLeaf(K key, V val) {
+        if(size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            vals = Arrays.copyOf(vals, size * 2);
+        }
+        keys[size] = key;
+        vals[size] = val;
+        return ~size;
+    }
+
+    private int newInternal(int bit, int l, int r) {
+        //There's always one fewer internal node than there are leaves, so
+        //before size is bumped the next free internal slot is size - 1.
+        int i = size - 1;
+        if(i == bits.length) {
+            bits = Arrays.copyOf(bits, i * 2);
+            left = Arrays.copyOf(left, i * 2);
+            right = Arrays.copyOf(right, i * 2);
+        }
+        bits[i] = bit;
+        left[i] = l;
+        right[i] = r;
+        return i;
+    }
+
+    @Override
+    public int size() { return size; }
+
+    @Override
+    public boolean isEmpty() { return size == 0; }
+
+    @Override
+    public V get(Object k) {
+        if(size == 0) {
+            return null;
+        }
+        K key = AbstractCritBitTree.<K>cast(k);
+        int leaf = findLeaf(key);
+        return chk.bitIndex(key, key(leaf)) < 0 ? val(leaf) : null;
+    }
+
+    @Override
+    public boolean containsKey(Object k) {
+        if(size == 0) {
+            return false;
+        }
+        K key = AbstractCritBitTree.<K>cast(k);
+        return chk.bitIndex(key, key(findLeaf(key))) < 0;
+    }
+
+    @Override
+    public V put(K key, V val) {
+        if(size == 0) {
+            root = newLeaf(key, val);
+            size++;
+            return null;
+        }
+
+        int leaf = findLeaf(key);
+        int diffBit = chk.bitIndex(key, key(leaf));
+        if(diffBit < 0) {
+            V out = val(leaf);
+            vals[~leaf] = val;
+            return out;
+        }
+
+        int parent = -1;
+        int cur = root;
+        while(!isLeaf(cur) && bits[cur] <= diffBit) {
+            parent = cur;
+            cur = child(cur, key);
+        }
+
+        int newLeaf = newLeaf(key, val);
+        int node = chk.isBitSet(key, diffBit) ? newInternal(diffBit, cur, newLeaf)
+                                              : newInternal(diffBit, newLeaf, cur);
+        size++;
+        if(parent < 0) {
+            root = node;
+        } else if(chk.isBitSet(key, bits[parent])) {
+            right[parent] = node;
+        } else {
+            left[parent] = node;
+        }
+        return null;
+    }
+
+    @Override
+    public V remove(Object k) {
+        if(size == 0) {
+            return null;
+        }
+        K key = AbstractCritBitTree.<K>cast(k);
+
+        int grandparent = -1;
+        int parent = -1;
+        int cur = root;
+        while(!isLeaf(cur)) {
+            grandparent = parent;
+            parent = cur;
+            cur = child(cur, key);
+        }
+        if(chk.bitIndex(key, key(cur)) >= 0) {
+            return null;
+        }
+        V out = val(cur);
+
+        if(parent < 0) {
+            clear();
+            return out;
+        }
+        int sibling = (left[parent] == cur) ? right[parent] : left[parent];
+        if(grandparent < 0) {
+            root = sibling;
+        } else if(left[grandparent] == parent) {
+            left[grandparent] = sibling;
+        } else {
+            right[grandparent] = sibling;
+        }
+
+        //Fill the holes with the last internal node and the last leaf.
+        int lastInternal = size - 2;
+        if(parent != lastInternal) {
+            int l = lastInternal;
+            while(!isLeaf(l)) {
+                l = left[l];
+            }
+            relink(key(l), lastInternal, parent);
+            bits[parent] = bits[lastInternal];
+            left[parent] = left[lastInternal];
+            right[parent] = right[lastInternal];
+        }
+        int lastLeaf = ~(size - 1);
+        if(cur != lastLeaf) {
+            relink(key(lastLeaf), lastLeaf, cur);
+            keys[~cur] = keys[~lastLeaf];
+            vals[~cur] = vals[~lastLeaf];
+        }
+        keys[~lastLeaf] = null;
+        vals[~lastLeaf] = null;
+        size--;
+        return out;
+    }
+
+    @Override
+    public void clear() {
+        bits = new int[INITIAL_CAPACITY];
+        left = new int[INITIAL_CAPACITY];
+        right = new int[INITIAL_CAPACITY];
+        keys = new Object[INITIAL_CAPACITY];
+        vals = new Object[INITIAL_CAPACITY];
+        root = 0;
+        size = 0;
+    }
+
+    /**
+     * Shrinks the backing arrays to the current size.
+     */
+    public void trimToSize() {
+        int n = Math.max(size, 1);
+        keys = Arrays.copyOf(keys, n);
+        vals = Arrays.copyOf(vals, n);
+        bits = Arrays.copyOf(bits, n);
+        left = Arrays.copyOf(left, n);
+        right = Arrays.copyOf(right, n);
+    }
+
+    private Map.Entry<K,V> entry(int leaf) {
+        return new AbstractMap.SimpleImmutableEntry<K,V>(key(leaf), val(leaf));
+    }
+
+    public Map.Entry<K,V> min() {
+        if(size == 0) {
+            return null;
+        }
+        int cur = root;
+        while(!isLeaf(cur)) {
+            cur = left[cur];
+        }
+        return entry(cur);
+    }
+
+    public Map.Entry<K,V> max() {
+        if(size == 0) {
+            return null;
+        }
+        int cur = root;
+        while(!isLeaf(cur)) {
+            cur = right[cur];
+        }
+        return entry(cur);
+    }
+
+    /**
+     * Runs cursor over every entry in key order.  REMOVE and
+     * REMOVE_AND_EXIT remove the entry, as Iterator.remove() would.
+     */
+    public void traverse(Cursor<? super K, ? super V> cursor) {
+        if(size == 0) {
+            return;
+        }
+        run(new EntryIterator(), null, cursor);
+    }
+
+    /**
+     * Like traverse(), over just the keys starting with key.
+     */
+    public void traverseWithPrefix(K key, Cursor<? super K, ? super V> cursor) {
+        if(size == 0) {
+            return;
+        }
+        int keyLen = chk.lengthInBits(key);
+        int top = root;
+        int cur = root;
+        while(!isLeaf(cur)) {
+            int next = child(cur, key);
+            if(bits[cur] < keyLen) {
+                top = next;
+            }
+            cur = next;
+        }
+        if(!chk.isPrefix(key(cur), key)) {
+            return;
+        }
+        //The keys with the prefix are all under top, so they follow on
+        //from its first leaf in order.
+        while(!isLeaf(top)) {
+            top = left[top];
+        }
+        run(new EntryIterator(key(top)), key, cursor);
+    }
+
+    /**
+     * Runs cursor over the iterator's entries, stopping at the first that
+     * doesn't start with prefix, unless that's null.
+     */
+    private void run(EntryIterator it, K prefix, Cursor<? super K, ? super V> cursor) {
+        while(it.hasNext()) {
+            Map.Entry<K,V> e = it.next();
+            if(prefix != null && !chk.isPrefix(e.getKey(), prefix)) {
+                return;
+            }
+            switch(cursor.select(e)) {
+            case REMOVE_AND_EXIT:
+                it.remove();
+                return;
+            case EXIT:
+                return;
+            case REMOVE:
+                it.remove();
+                break;
+            case CONTINUE:
+            default:
+                break;
+            }
+        }
+    }
+
+    @Override
+    public Set<Map.Entry<K,V>> entrySet() {
+        return new AbstractSet<Map.Entry<K,V>>() {
+            @Override
+            public Iterator<Map.Entry<K,V>> iterator() {
+                return new EntryIterator();
+            }
+            @Override
+            public int size() { return size; }
+        };
+    }
+
+    /**
+     * Walks the leaves in order with a stack of the right subtrees still to
+     * visit.  The leaf to return next is found ahead of time, so remove()
+     * knows which key to carry on from.
+     */
+    private final class EntryIterator implements Iterator<Map.Entry<K,V>> {
+        private int[] stack = new int[16];
+        private int depth = 0;
+        private int next;
+        private boolean hasNext;
+        private K last;
+        private boolean hasLast = false;
+        EntryIterator() {
+            if(size > 0) {
+                descend(root);
+            }
+        }
+        /** Starts at the key start, which is in the tree. */
+        EntryIterator(K start) {
+            seek(start);
+        }
+        private void push(int ref) {
+            if(depth == stack.length) {
+                stack = Arrays.copyOf(stack, depth * 2);
+            }
+            stack[depth++] = ref;
+        }
+        /** Pushes the right subtrees on the way to cur's first leaf. */
+        private void descend(int cur) {
+            while(!isLeaf(cur)) {
+                push(right[cur]);
+                cur = left[cur];
+            }
+            next = cur;
+            hasNext = true;
+        }
+        /**
+         * Makes key, which is in the tree, the next leaf, from the root.
+         * Removal moves nodes about, so old indexes can't be trusted.
+         */
+        private void seek(K key) {
+            depth = 0;
+            int cur = root;
+            while(!isLeaf(cur)) {
+                if(chk.isBitSet(key, bits[cur])) {
+                    cur = right[cur];
+                } else {
+                    push(right[cur]);
+                    cur = left[cur];
+                }
+            }
+            next = cur;
+            hasNext = true;
+        }
+        @Override
+        public boolean hasNext() {
+            return hasNext;
+        }
+        @Override
+        public Map.Entry<K,V> next() {
+            if(!hasNext) {
+                throw new NoSuchElementException();
+            }
+            Map.Entry<K,V> e = entry(next);
+            last = e.getKey();
+            hasLast = true;
+            if(depth > 0) {
+                descend(stack[--depth]);
+            } else {
+                hasNext = false;
+            }
+            return e;
+        }
+        @Override
+        public void remove() {
+            if(!hasLast) {
+                throw new IllegalStateException();
+            }
+            //Removing moves the last leaf and internal node into the holes,
+            //so the way to the next leaf is found again by its key.
+            K nextKey = hasNext ? key(next) : null;
+            CompactCritBitTree.this.remove(last);
+            last = null;
+            hasLast = false;
+            if(hasNext) {
+                seek(nextKey);
+            }
+        }
+    }
+}
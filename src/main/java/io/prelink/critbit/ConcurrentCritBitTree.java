@@ -0,0 +1,764 @@
+package io.prelink.critbit;
+
+import io.prelink.critbit.AbstractCritBitTree.BaseNode;
+import io.prelink.critbit.AbstractCritBitTree.Context;
+import io.prelink.critbit.AbstractCritBitTree.LeafNode;
+import io.prelink.critbit.AbstractCritBitTree.Node;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.ardverk.collection.KeyAnalyzer;
+
+/**
+ * A lock-free crit-bit tree, for maps that many threads write at once.
+ *
+ * This is the non-blocking binary search tree of Ellen, Fatourou, Ruppert
+ * and van Breugel ("Non-blocking Binary Search Trees", PODC 2010) applied
+ * to a crit-bit tree, after Shafiei's non-blocking Patricia trie.  Leaves
+ * are immutable LeafNodes; internal nodes have CAS-able child links and an
+ * update field.  A writer flags the node whose child link it's going to
+ * swing (and, for a removal, marks the parent it's cutting out for good),
+ * so two writers can never change the same link from under each other.
+ * Whoever runs into a flag finishes that operation before starting its
+ * own, so a stalled thread never holds anyone else up.
+ *
+ * Those helpers CAS a child link from the node they saw there, so a node
+ * taken out of a link must never come back into one, or a helper that
+ * stalled could swing the link again.  An insert therefore hangs a fresh
+ * copy of the node it displaces below the new branch; an internal node
+ * displaced that way is first flagged for good, so its children can't
+ * change while they're copied and nobody uses it afterwards.
+ *
+ * Leaves can't be inlined into their parents the way CritBitTree's short
+ * nodes do it, since a key and value pair can't be swapped with one CAS.
+ *
+ * get and containsKey just walk down the tree: they never wait, retry or
+ * help, and take at most one step per key bit.  Iterators and views are
+ * weakly consistent, and size() is only exact when no writes are under
+ * way.  Navigation (ceilingEntry and the rest) always answers with a key
+ * on the right side of the one given, present at some point during the
+ * call, though under concurrent writes not necessarily the nearest.
+ */
+public final class ConcurrentCritBitTree<K,V> extends AbstractMap<K,V>
+    implements ConcurrentNavigableMap<K,V>, CritBitSubMap.Source<K,V> {
+
+    private static final int CLEAN = 0;
+    private static final int IFLAG = 1;
+    private static final int DFLAG = 2;
+    private static final int MARK = 3;
+
+    /**
+     * The state of an internal node.  Every change gets a new Update, so
+     * a successful CAS from one read earlier proves nothing's changed.
+     */
+    static final class Update {
+        final int state;
+        final Object info;
+        Update(int state, Object info) {
+            this.state = state;
+            this.info = info;
+        }
+    }
+
+    private static final Update INITIAL = new Update(CLEAN, null);
+
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<CInternal, Node> LEFT =
+        AtomicReferenceFieldUpdater.newUpdater(CInternal.class, Node.class, "left");
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<CInternal, Node> RIGHT =
+        AtomicReferenceFieldUpdater.newUpdater(CInternal.class, Node.class, "right");
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<CInternal, Update> UPDATE =
+        AtomicReferenceFieldUpdater.newUpdater(CInternal.class, Update.class, "update");
+
+    static final class CInternal<K,V> extends BaseNode<K,V> {
+        private static final long serialVersionUID = 20261017L;
+        private final int bit;
+        volatile Node<K,V> left;
+        volatile Node<K,V> right;
+        volatile Update update = INITIAL;
+        CInternal(int bit, Node<K,V> left, Node<K,V> right) {
+            this.bit = bit;
+            this.left = left;
+            this.right = right;
+        }
+        public int bit() { return bit; }
+        public boolean isInternal() { return true; }
+        public Node<K,V> remove(K key, Context<K,V> ctx, boolean force) {
+            throw new UnsupportedOperationException();
+        }
+        Node<K,V> child(boolean right) {
+            return right ? this.right : this.left;
+        }
+        boolean casChild(boolean right, Node<K,V> expect, Node<K,V> update) {
+            return right ? RIGHT.compareAndSet(this, expect, update)
+                         : LEFT.compareAndSet(this, expect, update);
+        }
+        boolean casUpdate(Update expect, Update update) {
+            return UPDATE.compareAndSet(this, expect, update);
+        }
+    }
+
+    /**
+     * Swings p's child from old to repl: inserts, value changes, and
+     * removing the only leaf.  When old is an internal node that repl
+     * copies, oldUpdate is its Update the copy was made under, and old is
+     * flagged from that to this op's flag for good before the swing.
+     */
+    static final class Replace<K,V> {
+        final CInternal<K,V> p;
+        final boolean right;
+        final Node<K,V> old;
+        final Update oldUpdate;
+        final Node<K,V> repl;
+        final Update flag = new Update(IFLAG, this);
+        Replace(CInternal<K,V> p, boolean right, Node<K,V> old, Update oldUpdate, Node<K,V> repl) {
+            this.p = p;
+            this.right = right;
+            this.old = old;
+            this.oldUpdate = oldUpdate;
+            this.repl = repl;
+        }
+    }
+
+    /** Cuts p, and the leaf on its leafRight side, out from under gp. */
+    static final class Splice<K,V> {
+        final CInternal<K,V> gp;
+        final boolean pRight;
+        final CInternal<K,V> p;
+        final boolean leafRight;
+        final Update pupdate;
+        final Update flag = new Update(DFLAG, this);
+        final Update mark = new Update(MARK, this);
+        Splice(CInternal<K,V> gp, boolean pRight, CInternal<K,V> p, boolean leafRight, Update pupdate) {
+            this.gp = gp;
+            this.pRight = pRight;
+            this.p = p;
+            this.leafRight = leafRight;
+            this.pupdate = pupdate;
+        }
+    }
+
+    /**
+     * The internal nodes on the way down to a leaf, each with the Update
+     * read before its child link was, and the side taken.
+     */
+    static final class Path<K,V> {
+        CInternal<?,?>[] nodes = new CInternal<?,?>[16];
+        Update[] updates = new Update[16];
+        boolean[] rights = new boolean[16];
+        int depth = 0;
+        Node<K,V> leaf;
+
+        void push(CInternal<K,V> node, Update update, boolean right) {
+            if(depth == nodes.length) {
+                nodes = Arrays.copyOf(nodes, depth * 2);
+                updates = Arrays.copyOf(updates, depth * 2);
+                rights = Arrays.copyOf(rights, depth * 2);
+            }
+            nodes[depth] = node;
+            updates[depth] = update;
+            rights[depth++] = right;
+        }
+        CInternal<K,V> node(int i) {
+            return AbstractCritBitTree.<CInternal<K,V>>cast(nodes[i]);
+        }
+    }
+
+    private static final int PUT = 0;
+    private static final int PUT_IF_ABSENT = 1;
+    private static final int REPLACE = 2;
+    private static final int REPLACE_IF = 3;
+
+    private static final Object ANY = new Object();
+
+    private final KeyAnalyzer<K> chk;
+    //A sentinel above the root: everything hangs off its left link, which
+    //is null when the map is empty.  Its bit is never tested.
+    //Package-private for tests.
+    final CInternal<K,V> head = new CInternal<K,V>(-1, null, null);
+    private final LongAdder count = new LongAdder();
+
+    public ConcurrentCritBitTree(KeyAnalyzer<K> analyzer) {
+        this.chk = analyzer;
+    }
+
+    private boolean goesRight(CInternal<K,V> node, K key) {
+        return node != head && chk.isBitSet(key, node.bit());
+    }
+
+    private Path<K,V> seek(K key) {
+        Path<K,V> path = new Path<K,V>();
+        CInternal<K,V> cur = head;
+        for(;;) {
+            Update u = cur.update;
+            boolean right = goesRight(cur, key);
+            Node<K,V> child = cur.child(right);
+            path.push(cur, u, right);
+            if(child == null || !child.isInternal()) {
+                path.leaf = child;
+                return path;
+            }
+            cur = AbstractCritBitTree.<CInternal<K,V>>cast(child);
+        }
+    }
+
+    private void help(Update u) {
+        switch(u.state) {
+        case IFLAG:
+            helpReplace(AbstractCritBitTree.<Replace<K,V>>cast(u.info));
+            break;
+        case DFLAG:
+            helpSplice(AbstractCritBitTree.<Splice<K,V>>cast(u.info));
+            break;
+        case MARK:
+            helpMarked(AbstractCritBitTree.<Splice<K,V>>cast(u.info));
+            break;
+        default:
+            break;
+        }
+    }
+
+    /**
+     * Finishes op, unless it had to freeze an internal node that something
+     * else got to first; then it backs off, and the caller retries.
+     * Package-private for tests.
+     */
+    boolean helpReplace(Replace<K,V> op) {
+        if(op.oldUpdate != null) {
+            CInternal<K,V> old = AbstractCritBitTree.<CInternal<K,V>>cast(op.old);
+            if(!old.casUpdate(op.oldUpdate, op.flag) && old.update != op.flag) {
+                op.p.casUpdate(op.flag, new Update(CLEAN, op));
+                return false;
+            }
+        }
+        op.p.casChild(op.right, op.old, op.repl);
+        op.p.casUpdate(op.flag, new Update(CLEAN, op));
+        return true;
+    }
+
+    private boolean helpSplice(Splice<K,V> op) {
+        if(op.p.casUpdate(op.pupdate, op.mark) || op.p.update == op.mark) {
+            helpMarked(op);
+            return true;
+        }
+        //Something else got to p first; back off and let the caller retry.
+        help(op.p.update);
+        op.gp.casUpdate(op.flag, new Update(CLEAN, op));
+        return false;
+    }
+
+    private void helpMarked(Splice<K,V> op) {
+        Node<K,V> sibling = op.p.child(!op.leafRight);
+        op.gp.casChild(op.pRight, op.p, sibling);
+        op.gp.casUpdate(op.flag, new Update(CLEAN, op));
+    }
+
+    private static boolean eq(Object a, Object b) {
+        return a == b || (a != null && a.equals(b));
+    }
+
+    /**
+     * Puts key, subject to mode, and returns the leaf that was there
+     * before (or that blocked the put), or null.
+     */
+    private Node<K,V> doPut(K key, V val, int mode, Object expected) {
+        if(key == null || val == null) {
+            throw new NullPointerException();
+        }
+        for(;;) {
+            Path<K,V> path = seek(key);
+            Node<K,V> l = path.leaf;
+            int diffBit = (l == null) ? 0 : chk.bitIndex(key, l.getKey());
+            boolean present = l != null && diffBit < 0;
+            if(present ? (mode == PUT_IF_ABSENT || (mode == REPLACE_IF && !eq(expected, l.getValue())))
+                       : (mode == REPLACE || mode == REPLACE_IF)) {
+                return present ? l : null;
+            }
+
+            Node<K,V> leaf = new LeafNode<K,V>(key, val);
+            int i = path.depth - 1;
+            Node<K,V> old, repl;
+            Update ou = null;
+            if(l == null || present) {
+                old = l;
+                repl = leaf;
+            } else {
+                //Hang the new leaf above the first node on the path that
+                //tests a later bit; the head's -1 stops the search.
+                while(path.node(i).bit() > diffBit) {
+                    i--;
+                }
+                Node<K,V> copy;
+                if(i == path.depth - 1) {
+                    old = l;
+                    copy = new LeafNode<K,V>(l.getKey(), l.getValue());
+                } else {
+                    CInternal<K,V> o = path.node(i + 1);
+                    old = o;
+                    ou = path.updates[i + 1];
+                    if(ou.state != CLEAN) {
+                        help(ou);
+                        continue;
+                    }
+                    //Both links read after ou; freezing old from ou proves
+                    //they're still what's there.
+                    copy = new CInternal<K,V>(o.bit(), o.left, o.right);
+                }
+                repl = chk.isBitSet(key, diffBit) ? new CInternal<K,V>(diffBit, copy, leaf)
+                                                  : new CInternal<K,V>(diffBit, leaf, copy);
+            }
+            CInternal<K,V> p = path.node(i);
+            Update pu = path.updates[i];
+            if(pu.state != CLEAN) {
+                help(pu);
+                continue;
+            }
+            Replace<K,V> op = new Replace<K,V>(p, path.rights[i], old, ou, repl);
+            if(p.casUpdate(pu, op.flag)) {
+                if(helpReplace(op)) {
+                    if(!present) {
+                        count.increment();
+                    }
+                    return present ? l : null;
+                }
+                continue;
+            }
+            help(p.update);
+        }
+    }
+
+    /**
+     * Removes key if it's mapped (to expected, unless that's ANY), and
+     * returns the removed leaf, or null.
+     */
+    private Node<K,V> doRemove(Object k, Object expected) {
+        if(k == null) {
+            throw new NullPointerException();
+        }
+        K key = AbstractCritBitTree.<K>cast(k);
+        for(;;) {
+            Path<K,V> path = seek(key);
+            Node<K,V> l = path.leaf;
+            if(l == null || chk.bitIndex(key, l.getKey()) >= 0) {
+                return null;
+            }
+            if(expected != ANY && !eq(expected, l.getValue())) {
+                return null;
+            }
+            int d = path.depth;
+            if(d == 1) {
+                //The only leaf: just unhook it from the head.
+                Update hu = path.updates[0];
+                if(hu.state != CLEAN) {
+                    help(hu);
+                    continue;
+                }
+                Replace<K,V> op = new Replace<K,V>(head, false, l, null, null);
+                if(head.casUpdate(hu, op.flag)) {
+                    helpReplace(op);
+                    count.decrement();
+                    return l;
+                }
+                help(head.update);
+                continue;
+            }
+            CInternal<K,V> gp = path.node(d - 2);
+            CInternal<K,V> p = path.node(d - 1);
+            Update gpu = path.updates[d - 2];
+            Update pu = path.updates[d - 1];
+            if(gpu.state != CLEAN) {
+                help(gpu);
+                continue;
+            }
+            if(pu.state != CLEAN) {
+                help(pu);
+                continue;
+            }
+            Splice<K,V> op = new Splice<K,V>(gp, path.rights[d - 2], p, path.rights[d - 1], pu);
+            if(gp.casUpdate(gpu, op.flag)) {
+                if(helpSplice(op)) {
+                    count.decrement();
+                    return l;
+                }
+            } else {
+                help(gp.update);
+            }
+        }
+    }
+
+    private static <V> V value(Node<?,V> n) {
+        return (n == null) ? null : n.getValue();
+    }
+
+    private Node<K,V> find(Object k) {
+        K key = AbstractCritBitTree.<K>cast(k);
+        Node<K,V> n = head.left;
+        while(n != null && n.isInternal()) {
+            CInternal<K,V> c = AbstractCritBitTree.<CInternal<K,V>>cast(n);
+            n = chk.isBitSet(key, c.bit()) ? c.right : c.left;
+        }
+        return (n != null && chk.bitIndex(key, n.getKey()) < 0) ? n : null;
+    }
+
+    @Override
+    public V get(Object k) {
+        return value(find(k));
+    }
+
+    @Override
+    public boolean containsKey(Object k) {
+        return find(k) != null;
+    }
+
+    @Override
+    public V put(K key, V val) {
+        return value(doPut(key, val, PUT, null));
+    }
+
+    public V putIfAbsent(K key, V val) {
+        return value(doPut(key, val, PUT_IF_ABSENT, null));
+    }
+
+    public V replace(K key, V val) {
+        return value(doPut(key, val, REPLACE, null));
+    }
+
+    public boolean replace(K key, V oldVal, V newVal) {
+        if(oldVal == null) {
+            throw new NullPointerException();
+        }
+        Node<K,V> prev = doPut(key, newVal, REPLACE_IF, oldVal);
+        return prev != null && eq(oldVal, prev.getValue());
+    }
+
+    @Override
+    public V remove(Object k) {
+        return value(doRemove(k, ANY));
+    }
+
+    public boolean remove(Object k, Object val) {
+        return val != null && doRemove(k, val) != null;
+    }
+
+    /**
+     * Removes every entry, one at a time; entries put meanwhile may or
+     * may not survive.
+     */
+    @Override
+    public void clear() {
+        for(Iterator<Map.Entry<K,V>> it = entrySet().iterator(); it.hasNext(); ) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    /**
+     * Counts puts and removes as they complete, so it can be briefly off
+     * while writes are in flight.
+     */
+    @Override
+    public int size() {
+        long n = count.sum();
+        return (n < 0) ? 0 : (n > Integer.MAX_VALUE) ? Integer.MAX_VALUE : (int)n;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return head.left == null;
+    }
+
+    private Map.Entry<K,V> entry(Node<K,V> leaf) {
+        return AbstractCritBitTree.<Map.Entry<K,V>>cast(leaf);
+    }
+
+    private Node<K,V> edge(Node<K,V> n, boolean right) {
+        while(n != null && n.isInternal()) {
+            n = AbstractCritBitTree.<CInternal<K,V>>cast(n).child(right);
+        }
+        return n;
+    }
+
+    public Map.Entry<K,V> firstEntry() { return entry(edge(head.left, false)); }
+    public Map.Entry<K,V> lastEntry() { return entry(edge(head.left, true)); }
+
+    /**
+     * Like AbstractCritBitTree.neighbor, but in one recorded descent: the
+     * subtree that decides the answer has to be one key was actually
+     * compared against, since the tree may change under a second pass.
+     */
+    private Node<K,V> neighbor(K key, boolean above, boolean inclusive) {
+        Path<K,V> path = seek(key);
+        Node<K,V> l = path.leaf;
+        if(l == null) {
+            return null;
+        }
+        int diffBit = chk.bitIndex(key, l.getKey());
+        int i = path.depth - 1;
+        Node<K,V> sub = l;
+        if(diffBit >= 0) {
+            while(path.node(i).bit() > diffBit) {
+                i--;
+            }
+            sub = (i == path.depth - 1) ? l : path.node(i + 1);
+            if(chk.isBitSet(key, diffBit) != above) {
+                return edge(sub, !above);
+            }
+        } else if(inclusive) {
+            return l;
+        }
+        //The nearest subtree on the wrong side of sub is the other child
+        //of the deepest node above it where key went the opposite way.
+        for(; i > 0; i--) {
+            if(path.rights[i] != above) {
+                return edge(path.node(i).child(above), !above);
+            }
+        }
+        return null;
+    }
+
+    public Map.Entry<K,V> ceilingEntry(K key) { return entry(neighbor(key, true, true)); }
+    public Map.Entry<K,V> higherEntry(K key) { return entry(neighbor(key, true, false)); }
+    public Map.Entry<K,V> floorEntry(K key) { return entry(neighbor(key, false, true)); }
+    public Map.Entry<K,V> lowerEntry(K key) { return entry(neighbor(key, false, false)); }
+
+    private static <K> K key(Map.Entry<K,?> e) {
+        return (e == null) ? null : e.getKey();
+    }
+
+    public K ceilingKey(K key) { return key(ceilingEntry(key)); }
+    public K higherKey(K key) { return key(higherEntry(key)); }
+    public K floorKey(K key) { return key(floorEntry(key)); }
+    public K lowerKey(K key) { return key(lowerEntry(key)); }
+
+    public K firstKey() {
+        Map.Entry<K,V> e = firstEntry();
+        if(e == null) {
+            throw new NoSuchElementException();
+        }
+        return e.getKey();
+    }
+
+    public K lastKey() {
+        Map.Entry<K,V> e = lastEntry();
+        if(e == null) {
+            throw new NoSuchElementException();
+        }
+        return e.getKey();
+    }
+
+    public Map.Entry<K,V> pollFirstEntry() {
+        for(;;) {
+            Map.Entry<K,V> e = firstEntry();
+            if(e == null || doRemove(e.getKey(), ANY) != null) {
+                return e;
+            }
+        }
+    }
+
+    public Map.Entry<K,V> pollLastEntry() {
+        for(;;) {
+            Map.Entry<K,V> e = lastEntry();
+            if(e == null || doRemove(e.getKey(), ANY) != null) {
+                return e;
+            }
+        }
+    }
+
+    public Comparator<? super K> comparator() {
+        return new AbstractCritBitTree.BitOrder<K>(chk);
+    }
+
+    /**
+     * Range and descending views of a ConcurrentCritBitTree, passing the
+     * atomic ConcurrentMap operations through to it.
+     */
+    static final class ConcurrentSubMap<K,V> extends CritBitSubMap<K,V>
+        implements ConcurrentNavigableMap<K,V> {
+
+        private final ConcurrentCritBitTree<K,V> tree;
+
+        ConcurrentSubMap(ConcurrentCritBitTree<K,V> tree,
+                         boolean fromStart, K lo, boolean loInclusive,
+                         boolean toEnd, K hi, boolean hiInclusive,
+                         boolean descending) {
+            super(tree, tree, fromStart, lo, loInclusive, toEnd, hi, hiInclusive, descending);
+            this.tree = tree;
+        }
+
+        CritBitSubMap<K,V> view(boolean fromStart, K lo, boolean loInclusive,
+                                boolean toEnd, K hi, boolean hiInclusive,
+                                boolean descending) {
+            return new ConcurrentSubMap<K,V>(tree, fromStart, lo, loInclusive,
+                                             toEnd, hi, hiInclusive, descending);
+        }
+
+        private K checked(K key) {
+            if(!inRange(key)) {
+                throw new IllegalArgumentException("key out of range");
+            }
+            return key;
+        }
+
+        public V putIfAbsent(K key, V val) { return tree.putIfAbsent(checked(key), val); }
+        public V replace(K key, V val) { return inRange(key) ? tree.replace(key, val) : null; }
+        public boolean replace(K key, V oldVal, V newVal) {
+            return inRange(key) && tree.replace(key, oldVal, newVal);
+        }
+        public boolean remove(Object k, Object val) {
+            return inRange(AbstractCritBitTree.<K>cast(k)) && tree.remove(k, val);
+        }
+
+        public Map.Entry<K,V> pollFirstEntry() {
+            for(;;) {
+                Map.Entry<K,V> e = firstEntry();
+                if(e == null || tree.doRemove(e.getKey(), ANY) != null) {
+                    return e;
+                }
+            }
+        }
+
+        public Map.Entry<K,V> pollLastEntry() {
+            for(;;) {
+                Map.Entry<K,V> e = lastEntry();
+                if(e == null || tree.doRemove(e.getKey(), ANY) != null) {
+                    return e;
+                }
+            }
+        }
+
+        private ConcurrentNavigableMap<K,V> concurrent(Object view) {
+            return AbstractCritBitTree.<ConcurrentNavigableMap<K,V>>cast(view);
+        }
+
+        public ConcurrentNavigableMap<K,V> subMap(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive) {
+            return concurrent(super.subMap(fromKey, fromInclusive, toKey, toInclusive));
+        }
+        public ConcurrentNavigableMap<K,V> headMap(K toKey, boolean inclusive) {
+            return concurrent(super.headMap(toKey, inclusive));
+        }
+        public ConcurrentNavigableMap<K,V> tailMap(K fromKey, boolean inclusive) {
+            return concurrent(super.tailMap(fromKey, inclusive));
+        }
+        public ConcurrentNavigableMap<K,V> subMap(K fromKey, K toKey) { return subMap(fromKey, true, toKey, false); }
+        public ConcurrentNavigableMap<K,V> headMap(K toKey) { return headMap(toKey, false); }
+        public ConcurrentNavigableMap<K,V> tailMap(K fromKey) { return tailMap(fromKey, true); }
+        public ConcurrentNavigableMap<K,V> descendingMap() { return concurrent(super.descendingMap()); }
+        public NavigableSet<K> keySet() { return navigableKeySet(); }
+    }
+
+    private ConcurrentSubMap<K,V> all() {
+        return new ConcurrentSubMap<K,V>(this, true, null, false, true, null, false, false);
+    }
+
+    public ConcurrentNavigableMap<K,V> subMap(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive) {
+        return all().subMap(fromKey, fromInclusive, toKey, toInclusive);
+    }
+    public ConcurrentNavigableMap<K,V> headMap(K toKey, boolean inclusive) {
+        return all().headMap(toKey, inclusive);
+    }
+    public ConcurrentNavigableMap<K,V> tailMap(K fromKey, boolean inclusive) {
+        return all().tailMap(fromKey, inclusive);
+    }
+    public ConcurrentNavigableMap<K,V> subMap(K fromKey, K toKey) { return subMap(fromKey, true, toKey, false); }
+    public ConcurrentNavigableMap<K,V> headMap(K toKey) { return headMap(toKey, false); }
+    public ConcurrentNavigableMap<K,V> tailMap(K fromKey) { return tailMap(fromKey, true); }
+    public ConcurrentNavigableMap<K,V> descendingMap() { return all().descendingMap(); }
+
+    @Override
+    public NavigableSet<K> keySet() { return navigableKeySet(); }
+    public NavigableSet<K> navigableKeySet() { return new CritBitSubMap.KeySet<K>(this); }
+    public NavigableSet<K> descendingKeySet() { return descendingMap().navigableKeySet(); }
+
+    @Override
+    public Set<Map.Entry<K,V>> entrySet() {
+        return new AbstractSet<Map.Entry<K,V>>() {
+            public Iterator<Map.Entry<K,V>> iterator() { return new EntryIterator(); }
+            public int size() { return ConcurrentCritBitTree.this.size(); }
+            public boolean isEmpty() { return ConcurrentCritBitTree.this.isEmpty(); }
+            public boolean contains(Object o) {
+                if(!(o instanceof Map.Entry)) {
+                    return false;
+                }
+                Map.Entry<?,?> e = (Map.Entry<?,?>)o;
+                Node<K,V> n = find(e.getKey());
+                return n != null && eq(n.getValue(), e.getValue());
+            }
+            public boolean remove(Object o) {
+                if(!(o instanceof Map.Entry)) {
+                    return false;
+                }
+                Map.Entry<?,?> e = (Map.Entry<?,?>)o;
+                return ConcurrentCritBitTree.this.remove(e.getKey(), e.getValue());
+            }
+        };
+    }
+
+    /**
+     * An in-order walk over whatever the child links hold as it reaches
+     * them.  Every subtree's keys sit on one side of its parent's crit
+     * bit no matter how it's changed since, so keys come out strictly
+     * ascending, each present at some point since the iterator was made.
+     */
+    private final class EntryIterator implements Iterator<Map.Entry<K,V>> {
+        private CInternal<?,?>[] stack = new CInternal<?,?>[16];
+        private int depth = 0;
+        private Node<K,V> next;
+        private Node<K,V> last = null;
+
+        EntryIterator() {
+            next = descend(head.left);
+        }
+
+        private Node<K,V> descend(Node<K,V> n) {
+            while(n != null && n.isInternal()) {
+                CInternal<K,V> c = AbstractCritBitTree.<CInternal<K,V>>cast(n);
+                if(depth == stack.length) {
+                    stack = Arrays.copyOf(stack, depth * 2);
+                }
+                stack[depth++] = c;
+                n = c.left;
+            }
+            return n;
+        }
+
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        public Map.Entry<K,V> next() {
+            if(next == null) {
+                throw new NoSuchElementException();
+            }
+            last = next;
+            next = null;
+            if(depth > 0) {
+                CInternal<K,V> c = AbstractCritBitTree.<CInternal<K,V>>cast(stack[--depth]);
+                stack[depth] = null;
+                next = descend(c.right);
+            }
+            return entry(last);
+        }
+
+        public void remove() {
+            if(last == null) {
+                throw new IllegalStateException();
+            }
+            doRemove(last.getKey(), ANY);
+            last = null;
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package io.prelink.critbit;
+
+import io.prelink.critbit.AbstractCritBitTree.Context;
+import io.prelink.critbit.AbstractCritBitTree.Node;
+
+import java.util.function.BinaryOperator;
+
+/**
+ * Structural set operations on crit-bit subtrees, for CritBitTree's union,
+ * intersection, difference and symmetricDifference.
+ *
+ * Every subtree's keys share a prefix up to its crit bit (or all of its
+ * key, for a leaf), and comparing one key from each of two subtrees says
+ * how those prefixes relate.  If they differ below both crit bits, the
+ * subtrees are disjoint and are combined whole; if one crit bit comes
+ * first, the other subtree lies entirely under one side of it.  Subtrees
+ * that are the same object in both trees are taken as they are, and
+ * subtrees that come out unchanged are reused, so the work done tracks
+ * how much the trees differ rather than how big they are.
+ */
+final class CritBitMerge<K,V> {
+
+    static enum Op {
+        UNION, INTERSECTION, DIFFERENCE, SYMMETRIC_DIFFERENCE
+    }
+
+    private final Op op;
+    private final BinaryOperator<V> merge;
+    private final Context<K,V> ctx;
+
+    CritBitMerge(Op op, BinaryOperator<V> merge, Context<K,V> ctx) {
+        this.op = op;
+        this.merge = merge;
+        this.ctx = ctx;
+    }
+
+    /**
+     * Combines a and b (either may be null), returning the new root or
+     * null if the result is empty.
+     */
+    Node<K,V> apply(Node<K,V> a, Node<K,V> b) {
+        if(a == null) {
+            return (op == Op.UNION || op == Op.SYMMETRIC_DIFFERENCE) ? b : null;
+        }
+        if(b == null) {
+            return (op == Op.INTERSECTION) ? null : a;
+        }
+        return merge(a, b);
+    }
+
+    private static int bit(Node<?,?> n) {
+        return n.isInternal() ? n.bit() : Integer.MAX_VALUE;
+    }
+
+    private K anyKey(Node<K,V> n) {
+        while(n.isInternal()) {
+            if(n.hasExternalLeft()) {
+                return n.leftKey();
+            }
+            if(n.hasExternalRight()) {
+                return n.rightKey();
+            }
+            n = n.left(ctx);
+        }
+        return n.getKey();
+    }
+
+    private static boolean same(Node<?,?> x, Node<?,?> y) {
+        return x == y
+            || (!x.isInternal() && !y.isInternal()
+                && x.getKey() == y.getKey() && x.getValue() == y.getValue());
+    }
+
+    /**
+     * Puts l and r back under bit, dropping the node if either side came
+     * out empty, and reusing orig if neither side changed.
+     */
+    private Node<K,V> rebuild(Node<K,V> orig, Node<K,V> origLeft, Node<K,V> origRight,
+                              Node<K,V> l, Node<K,V> r) {
+        if(l == null) {
+            return r;
+        }
+        if(r == null) {
+            return l;
+        }
+        if(same(l, origLeft) && same(r, origRight)) {
+            return orig;
+        }
+        return AbstractCritBitTree.join(orig.bit(), l, r, ctx);
+    }
+
+    private Node<K,V> merge(Node<K,V> a, Node<K,V> b) {
+        if(a == b) {
+            return (op == Op.UNION || op == Op.INTERSECTION) ? a : null;
+        }
+        int ba = bit(a);
+        int bb = bit(b);
+        K ka = anyKey(a);
+        K kb = anyKey(b);
+        int diffBit = ctx.chk.bitIndex(ka, kb);
+
+        if(diffBit >= 0 && diffBit < Math.min(ba, bb)) {
+            //Disjoint: a and b fall on opposite sides of diffBit.
+            switch(op) {
+            case INTERSECTION:
+                return null;
+            case DIFFERENCE:
+                return a;
+            default:
+                return ctx.chk.isBitSet(ka, diffBit) ? AbstractCritBitTree.join(diffBit, b, a, ctx)
+                                                     : AbstractCritBitTree.join(diffBit, a, b, ctx);
+            }
+        }
+
+        if(!a.isInternal() && !b.isInternal()) {
+            //The same key in both.
+            switch(op) {
+            case UNION: //fall through
+            case INTERSECTION:
+                V va = a.getValue();
+                V vb = b.getValue();
+                V v = (va == vb) ? va : merge.apply(va, vb);
+                if(v == null) {
+                    return null;
+                }
+                return (v == va) ? a : ctx.nf.mkLeaf(a.getKey(), v);
+            default:
+                return null;
+            }
+        }
+
+        if(ba == bb) {
+            Node<K,V> al = a.left(ctx), ar = a.right(ctx);
+            Node<K,V> l = apply(al, b.left(ctx));
+            Node<K,V> r = apply(ar, b.right(ctx));
+            return rebuild(a, al, ar, l, r);
+        }
+
+        if(ba < bb) {
+            //b lies entirely under one side of a.
+            Node<K,V> al = a.left(ctx), ar = a.right(ctx);
+            boolean right = ctx.chk.isBitSet(kb, ba);
+            if(op == Op.INTERSECTION) {
+                return merge(right ? ar : al, b);
+            }
+            return right ? rebuild(a, al, ar, al, merge(ar, b))
+                         : rebuild(a, al, ar, merge(al, b), ar);
+        }
+
+        //a lies entirely under one side of b.
+        Node<K,V> bl = b.left(ctx), br = b.right(ctx);
+        boolean right = ctx.chk.isBitSet(ka, bb);
+        switch(op) {
+        case INTERSECTION: //fall through
+        case DIFFERENCE:
+            return merge(a, right ? br : bl);
+        default:
+            return right ? rebuild(b, bl, br, bl, merge(a, br))
+                         : rebuild(b, bl, br, merge(a, bl), br);
+        }
+    }
+
+    /** Counts the leaves under n. */
+    static <K,V> int count(Node<K,V> n, Context<K,V> ctx) {
+        if(n == null) {
+            return 0;
+        }
+        if(!n.isInternal()) {
+            return 1;
+        }
+        return (n.hasExternalLeft() ? 1 : count(n.left(ctx), ctx))
+             + (n.hasExternalRight() ? 1 : count(n.right(ctx), ctx));
+    }
+}
@@ -0,0 +1,368 @@
+package io.prelink.critbit;
+
+import io.prelink.critbit.AbstractCritBitTree.Context;
+import io.prelink.critbit.AbstractCritBitTree.Node;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.SortedMap;
+
+/**
+ * The keys of a crit-bit tree starting with a prefix, seen as a SortedMap.
+ * They all hang off one node, which the view finds with a single descent
+ * and then works from: lookups and first/last start there, iteration walks
+ * just that subtree, and size() counts it once (in O(1) on a counted tree)
+ * and remembers.  prefixMap() narrows further from the same node.
+ *
+ * A view of an MCritBitTree is live.  Writes go through to the tree, and
+ * the node and size are found again after the tree changes; clear()
+ * cuts the whole subtree out with removePrefix().  Iterators support
+ * remove(), but fail with ConcurrentModificationException if the tree is
+ * otherwise written to under them.  Views of a CritBitTree are fixed and
+ * read-only.
+ */
+public final class CritBitPrefixMap<K,V> extends AbstractMap<K,V>
+    implements SortedMap<K,V>, CritBitSubMap.Source<K,V> {
+
+    private final AbstractCritBitTree<K,V> tree;
+    private final MCritBitTree<K,V> target;
+    private final CritBitPrefixMap<K,V> parent;
+    private final K prefix;
+    private final int prefixLen;
+
+    //The node the prefix's keys hang off, and how many there are (-1
+    //until counted), as of the tree's modCount() stamp.
+    private Node<K,V> top;
+    private int size;
+    private int stamp;
+    private boolean found = false;
+
+    CritBitPrefixMap(AbstractCritBitTree<K,V> tree, MCritBitTree<K,V> target,
+                     CritBitPrefixMap<K,V> parent, K prefix) {
+        this.tree = tree;
+        this.target = target;
+        this.parent = parent;
+        this.prefix = prefix;
+        this.prefixLen = tree.ctx().chk.lengthInBits(prefix);
+    }
+
+    private Context<K,V> ctx() {
+        return tree.ctx();
+    }
+
+    private Node<K,V> top() {
+        int mod = tree.modCount();
+        if(!found || mod != stamp) {
+            Node<K,V> n = (parent == null) ? tree.root() : parent.top();
+            if(n != null) {
+                while(n.isInternal() && n.bit() < prefixLen) {
+                    n = n.nextNode(prefix, ctx());
+                }
+                if(!ctx().chk.isPrefix(tree.anyKey(n), prefix)) {
+                    n = null;
+                }
+            }
+            top = n;
+            size = -1;
+            stamp = mod;
+            found = true;
+        }
+        return top;
+    }
+
+    private boolean hasPrefix(K key) {
+        return ctx().chk.isPrefix(key, prefix);
+    }
+
+    private MCritBitTree<K,V> writable() {
+        if(target == null) {
+            throw new UnsupportedOperationException();
+        }
+        return target;
+    }
+
+    private static <K,V> Map.Entry<K,V> entry(Node<K,V> leaf) {
+        return AbstractCritBitTree.<Map.Entry<K,V>>cast(leaf);
+    }
+
+    public K prefix() {
+        return prefix;
+    }
+
+    /**
+     * The keys of this view starting with a longer prefix, found from this
+     * view's node rather than the tree's root.
+     *
+     * @throws IllegalArgumentException if longer doesn't start with this
+     *         view's prefix
+     */
+    public CritBitPrefixMap<K,V> prefixMap(K longer) {
+        if(!hasPrefix(longer)) {
+            throw new IllegalArgumentException("prefix out of range");
+        }
+        return new CritBitPrefixMap<K,V>(tree, target, this, longer);
+    }
+
+    @Override
+    public int size() {
+        Node<K,V> n = top();
+        if(size < 0) {
+            size = (n == null) ? 0 : AbstractCritBitTree.sizeOf(n);
+        }
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return top() == null;
+    }
+
+    private Node<K,V> leaf(K key) {
+        Node<K,V> n = top();
+        if(n == null || !hasPrefix(key)) {
+            return null;
+        }
+        while(n.isInternal()) {
+            n = n.nextNode(key, ctx());
+        }
+        return (ctx().chk.bitIndex(key, n.getKey()) < 0) ? n : null;
+    }
+
+    @Override
+    public V get(Object k) {
+        Node<K,V> leaf = leaf(AbstractCritBitTree.<K>cast(k));
+        return (leaf == null) ? null : leaf.getValue();
+    }
+
+    @Override
+    public boolean containsKey(Object k) {
+        return leaf(AbstractCritBitTree.<K>cast(k)) != null;
+    }
+
+    @Override
+    public V put(K key, V val) {
+        if(!hasPrefix(key)) {
+            throw new IllegalArgumentException("key out of range");
+        }
+        return writable().put(key, val);
+    }
+
+    @Override
+    public V remove(Object k) {
+        if(!hasPrefix(AbstractCritBitTree.<K>cast(k))) {
+            return null;
+        }
+        return writable().remove(k);
+    }
+
+    @Override
+    public void clear() {
+        writable().removePrefix(prefix);
+    }
+
+    public Map.Entry<K,V> firstEntry() {
+        Node<K,V> n = top();
+        if(n == null) {
+            return null;
+        }
+        while(n.isInternal()) {
+            n = n.left(ctx());
+        }
+        return entry(n);
+    }
+
+    public Map.Entry<K,V> lastEntry() {
+        Node<K,V> n = top();
+        if(n == null) {
+            return null;
+        }
+        while(n.isInternal()) {
+            n = n.right(ctx());
+        }
+        return entry(n);
+    }
+
+    public K firstKey() {
+        Map.Entry<K,V> e = firstEntry();
+        if(e == null) {
+            throw new NoSuchElementException();
+        }
+        return e.getKey();
+    }
+
+    public K lastKey() {
+        Map.Entry<K,V> e = lastEntry();
+        if(e == null) {
+            throw new NoSuchElementException();
+        }
+        return e.getKey();
+    }
+
+    /*
+     * Neighbor lookups go to the tree.  A key without the prefix sorts
+     * before all of this view's keys or after all of them.
+     */
+
+    private boolean below(K key) {
+        return AbstractCritBitTree.BitOrder.compare(ctx().chk, key, prefix) < 0;
+    }
+
+    private Map.Entry<K,V> clip(Map.Entry<K,V> e) {
+        return (e == null || !hasPrefix(e.getKey())) ? null : e;
+    }
+
+    public Map.Entry<K,V> ceilingEntry(K key) {
+        if(!hasPrefix(key)) {
+            return below(key) ? firstEntry() : null;
+        }
+        return clip(tree.ceilingEntry(key));
+    }
+
+    public Map.Entry<K,V> higherEntry(K key) {
+        if(!hasPrefix(key)) {
+            return below(key) ? firstEntry() : null;
+        }
+        return clip(tree.higherEntry(key));
+    }
+
+    public Map.Entry<K,V> floorEntry(K key) {
+        if(!hasPrefix(key)) {
+            return below(key) ? null : lastEntry();
+        }
+        return clip(tree.floorEntry(key));
+    }
+
+    public Map.Entry<K,V> lowerEntry(K key) {
+        if(!hasPrefix(key)) {
+            return below(key) ? null : lastEntry();
+        }
+        return clip(tree.lowerEntry(key));
+    }
+
+    public Comparator<? super K> comparator() {
+        return tree.comparator();
+    }
+
+    /*
+     * Key ranges within the prefix are CritBitSubMaps over this view, so
+     * they stay inside it and write through it.
+     */
+
+    public SortedMap<K,V> subMap(K fromKey, K toKey) {
+        return CritBitSubMap.all(this, this).subMap(fromKey, true, toKey, false);
+    }
+
+    public SortedMap<K,V> headMap(K toKey) {
+        return CritBitSubMap.all(this, this).headMap(toKey, false);
+    }
+
+    public SortedMap<K,V> tailMap(K fromKey) {
+        return CritBitSubMap.all(this, this).tailMap(fromKey, true);
+    }
+
+    @Override
+    public Set<Map.Entry<K,V>> entrySet() {
+        return new AbstractSet<Map.Entry<K,V>>() {
+            public Iterator<Map.Entry<K,V>> iterator() { return new EntryIterator(); }
+            public int size() { return CritBitPrefixMap.this.size(); }
+            public boolean isEmpty() { return CritBitPrefixMap.this.isEmpty(); }
+            public void clear() { CritBitPrefixMap.this.clear(); }
+        };
+    }
+
+    /**
+     * Walks the subtree with a stack of the nodes whose right sides are
+     * still to come.  remove() finds its way back the way
+     * MCritBitTree's iterator does.
+     */
+    private final class EntryIterator implements Iterator<Map.Entry<K,V>> {
+        private final List<Node<K,V>> stack = new ArrayList<Node<K,V>>();
+        private Node<K,V> next = null;
+        private Node<K,V> last = null;
+        private int expected;
+
+        EntryIterator() {
+            Node<K,V> n = top();
+            expected = tree.modCount();
+            if(n != null) {
+                descendLeft(n);
+            }
+        }
+
+        private void descendLeft(Node<K,V> n) {
+            while(n.isInternal()) {
+                stack.add(n);
+                n = n.left(ctx());
+            }
+            next = n;
+        }
+
+        private void checkUnchanged() {
+            if(tree.modCount() != expected) {
+                throw new ConcurrentModificationException();
+            }
+        }
+
+        public boolean hasNext() {
+            if(next == null && !stack.isEmpty()) {
+                checkUnchanged();
+                descendLeft(stack.remove(stack.size() - 1).right(ctx()));
+            }
+            return next != null;
+        }
+
+        public Map.Entry<K,V> next() {
+            checkUnchanged();
+            if(!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            last = next;
+            next = null;
+            return entry(last);
+        }
+
+        public void remove() {
+            if(last == null) {
+                throw new IllegalStateException();
+            }
+            checkUnchanged();
+            final K key = last.getKey();
+            last = null;
+            writable().remove(key);
+            expected = tree.modCount();
+            stack.clear();
+            next = null;
+
+            Node<K,V> n = top();
+            if(n == null) {
+                return;
+            }
+            final Node<K,V> start = n;
+            while(n.isInternal()) {
+                n = n.nextNode(key, ctx());
+            }
+            final K near = n.getKey();
+            final int diffBit = ctx().chk.bitIndex(key, near);
+            n = start;
+            while(n.isInternal() && n.bit() < diffBit) {
+                if(ctx().chk.isBitSet(key, n.bit())) {
+                    n = n.right(ctx());
+                } else {
+                    stack.add(n);
+                    n = n.left(ctx());
+                }
+            }
+            if(ctx().chk.isBitSet(near, diffBit)) {
+                descendLeft(n);
+            }
+        }
+    }
+}
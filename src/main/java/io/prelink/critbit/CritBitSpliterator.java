@@ -0,0 +1,108 @@
+package io.prelink.critbit;
+
+import io.prelink.critbit.AbstractCritBitTree.Context;
+import io.prelink.critbit.AbstractCritBitTree.Node;
+
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * Walks a crit-bit tree's entries in key order, splitting along internal
+ * nodes for parallel streams.
+ *
+ * What's left to visit is kept as a run of whole subtrees, smallest keys
+ * first.  Advancing takes the first one apart down to its leftmost leaf,
+ * leaving the right sides it passes behind, so the run is always ordered
+ * and its last subtree is the biggest.  Splitting hands everything but
+ * that last subtree to the new spliterator, or, when only one subtree is
+ * left, its left side.
+ *
+ * Only an unsplit spliterator knows its exact size; a split one guesses
+ * half its parent's.  Trees mustn't be changed while being walked.
+ */
+final class CritBitSpliterator<K,V> implements Spliterator<Map.Entry<K,V>> {
+
+    private final Context<K,V> ctx;
+    private final ArrayDeque<Node<K,V>> pending;
+    private final int extra;
+    private long est;
+    private boolean exact;
+
+    private CritBitSpliterator(Context<K,V> ctx, ArrayDeque<Node<K,V>> pending,
+                               long est, boolean exact, int extra) {
+        this.ctx = ctx;
+        this.pending = pending;
+        this.est = est;
+        this.exact = exact;
+        this.extra = extra;
+    }
+
+    /**
+     * Covers all of root, which holds size entries.  extra is or'ed into
+     * characteristics(), for IMMUTABLE.
+     */
+    CritBitSpliterator(Context<K,V> ctx, Node<K,V> root, int size, int extra) {
+        this(ctx, new ArrayDeque<Node<K,V>>(), size, true, extra);
+        if(root != null) {
+            pending.add(root);
+        }
+    }
+
+    public boolean tryAdvance(Consumer<? super Map.Entry<K,V>> action) {
+        Node<K,V> cur = pending.pollFirst();
+        if(cur == null) {
+            return false;
+        }
+        while(cur.isInternal()) {
+            pending.addFirst(cur.right(ctx));
+            cur = cur.left(ctx);
+        }
+        if(exact) {
+            est--;
+        }
+        action.accept(AbstractCritBitTree.<Map.Entry<K,V>>cast(cur));
+        return true;
+    }
+
+    public void forEachRemaining(Consumer<? super Map.Entry<K,V>> action) {
+        while(tryAdvance(action)) {
+            //Keep going.
+        }
+    }
+
+    public Spliterator<Map.Entry<K,V>> trySplit() {
+        ArrayDeque<Node<K,V>> prefix = new ArrayDeque<Node<K,V>>();
+        if(pending.size() > 1) {
+            Node<K,V> last = pending.pollLast();
+            prefix.addAll(pending);
+            pending.clear();
+            pending.add(last);
+        } else {
+            Node<K,V> only = pending.peekFirst();
+            if(only == null || !only.isInternal()) {
+                return null;
+            }
+            pending.pollFirst();
+            prefix.add(only.left(ctx));
+            pending.add(only.right(ctx));
+        }
+        exact = false;
+        est >>>= 1;
+        return new CritBitSpliterator<K,V>(ctx, prefix, est, false, extra);
+    }
+
+    public long estimateSize() {
+        return est;
+    }
+
+    public int characteristics() {
+        return ORDERED | SORTED | DISTINCT | NONNULL | extra | (exact ? SIZED : 0);
+    }
+
+    public Comparator<? super Map.Entry<K,V>> getComparator() {
+        return Map.Entry.<K,V>comparingByKey(new AbstractCritBitTree.BitOrder<K>(ctx.chk));
+    }
+}
@@ -0,0 +1,220 @@
+package io.prelink.critbit;
+
+import io.prelink.critbit.AbstractCritBitTree.Context;
+import io.prelink.critbit.AbstractCritBitTree.Node;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+
+/**
+ * The shape of a crit-bit tree at one moment: how many of each kind of
+ * node it has, how deep its leaves sit, which bits it branches on, and
+ * roughly how much memory its nodes take.
+ *
+ * A leaf's depth is the number of internal nodes above it, so a tree of
+ * one key has it at depth 0 and a balanced tree of n keys at about log2(n).
+ * Most leaves live inside their parents, as the left or right of a Short
+ * node, and only a tree of one key has a leaf node of its own.
+ *
+ * Sizes are estimated from the node classes' fields for a 64-bit JVM with
+ * compressed references: a 12 byte header, 4 bytes per reference, rounded
+ * up to 8 bytes per object.  They cover the tree's own nodes, not the keys
+ * and values, which belong to the caller.
+ */
+public final class CritBitStats {
+
+    private static final int HEADER = 12;
+    private static final int REFERENCE = 4;
+    private static final int ALIGN = 8;
+
+    private static final ClassValue<Integer> SHALLOW = new ClassValue<Integer>() {
+        protected Integer computeValue(Class<?> type) {
+            long bytes = HEADER;
+            for(Class<?> c=type; c!=null; c=c.getSuperclass()) {
+                for(Field f: c.getDeclaredFields()) {
+                    if(!Modifier.isStatic(f.getModifiers())) {
+                        bytes += fieldSize(f.getType());
+                    }
+                }
+            }
+            return Integer.valueOf((int)((bytes + ALIGN - 1) / ALIGN * ALIGN));
+        }
+    };
+
+    private final int shortBoth;
+    private final int shortLeft;
+    private final int shortRight;
+    private final int tall;
+    private final int leafNodes;
+    private final int leaves;
+    private final int[] depths;
+    private final int[] bits;
+    private final long bytes;
+
+    /**
+     * Walks root with an explicit stack, so any depth of tree is fine.
+     */
+    <K,V> CritBitStats(Node<K,V> root, Context<K,V> ctx) {
+        int sb = 0, sl = 0, sr = 0, tl = 0, ln = 0, lv = 0;
+        int[] depths = new int[1];
+        int[] bits = new int[0];
+        long bytes = 0;
+
+        Object[] stack = new Object[16];
+        int[] stackDepth = new int[16];
+        int top = 0;
+        if(root != null) {
+            stack[top++] = root;
+        }
+        while(top > 0) {
+            Node<K,V> n = AbstractCritBitTree.<Node<K,V>>cast(stack[--top]);
+            int depth = stackDepth[top];
+            stack[top] = null;
+            bytes += shallowSize(n);
+            if(!n.isInternal()) {
+                ln++;
+                lv++;
+                depths[depth]++;
+                continue;
+            }
+            int bit = n.bit();
+            if(bit >= bits.length) {
+                bits = Arrays.copyOf(bits, Math.max(bit + 1, bits.length * 2));
+            }
+            bits[bit]++;
+            if(depth + 1 >= depths.length) {
+                depths = Arrays.copyOf(depths, depth + 2);
+            }
+            if(top + 2 > stack.length) {
+                stack = Arrays.copyOf(stack, stack.length * 2);
+                stackDepth = Arrays.copyOf(stackDepth, stack.length);
+            }
+            boolean extLeft = n.hasExternalLeft();
+            boolean extRight = n.hasExternalRight();
+            if(extLeft && extRight) {
+                sb++;
+            } else if(extLeft) {
+                sl++;
+            } else if(extRight) {
+                sr++;
+            } else {
+                tl++;
+            }
+            if(extLeft) {
+                lv++;
+                depths[depth + 1]++;
+            } else {
+                stackDepth[top] = depth + 1;
+                stack[top++] = n.left(ctx);
+            }
+            if(extRight) {
+                lv++;
+                depths[depth + 1]++;
+            } else {
+                stackDepth[top] = depth + 1;
+                stack[top++] = n.right(ctx);
+            }
+        }
+
+        int maxBit = bits.length - 1;
+        while(maxBit >= 0 && bits[maxBit] == 0) {
+            maxBit--;
+        }
+        this.shortBoth = sb;
+        this.shortLeft = sl;
+        this.shortRight = sr;
+        this.tall = tl;
+        this.leafNodes = ln;
+        this.leaves = lv;
+        this.depths = (lv == 0) ? new int[0] : trim(depths);
+        this.bits = Arrays.copyOf(bits, maxBit + 1);
+        this.bytes = bytes;
+    }
+
+    private static int[] trim(int[] h) {
+        int last = h.length - 1;
+        while(last > 0 && h[last] == 0) {
+            last--;
+        }
+        return Arrays.copyOf(h, last + 1);
+    }
+
+    private static int fieldSize(Class<?> type) {
+        if(type == long.class || type == double.class) {
+            return 8;
+        } else if(type == int.class || type == float.class) {
+            return 4;
+        } else if(type == short.class || type == char.class) {
+            return 2;
+        } else if(type == byte.class || type == boolean.class) {
+            return 1;
+        }
+        return REFERENCE;
+    }
+
+    private static int shallowSize(Object node) {
+        return SHALLOW.get(node.getClass()).intValue();
+    }
+
+    /** Internal nodes with both children inlined as leaves. */
+    public int shortBothNodes() { return shortBoth; }
+
+    /** Internal nodes with just the left child inlined. */
+    public int shortLeftNodes() { return shortLeft; }
+
+    /** Internal nodes with just the right child inlined. */
+    public int shortRightNodes() { return shortRight; }
+
+    /** Internal nodes with two internal children. */
+    public int tallNodes() { return tall; }
+
+    public int internalNodes() { return shortBoth + shortLeft + shortRight + tall; }
+
+    /** Leaves that are nodes of their own rather than inlined; 0 or 1. */
+    public int leafNodes() { return leafNodes; }
+
+    /** The number of keys. */
+    public int leaves() { return leaves; }
+
+    /**
+     * How many leaves sit at each depth; empty for an empty tree.
+     */
+    public int[] depthHistogram() { return depths.clone(); }
+
+    public int maxLeafDepth() { return Math.max(0, depths.length - 1); }
+
+    public double averageLeafDepth() {
+        if(leaves == 0) {
+            return 0;
+        }
+        long sum = 0;
+        for(int d=0; d<depths.length; d++) {
+            sum += (long)d * depths[d];
+        }
+        return (double)sum / leaves;
+    }
+
+    /**
+     * How many internal nodes branch on each bit index.  Keys that share
+     * long runs of bits show up as gaps at the start; a pile-up on a few
+     * bits far in means keys differ only near their ends.
+     */
+    public int[] critBitHistogram() { return bits.clone(); }
+
+    /** Estimated bytes held by the tree's nodes, keys and values aside. */
+    public long estimatedBytes() { return bytes; }
+
+    @Override
+    public String toString() {
+        return "CritBitStats[leaves=" + leaves
+            + ", shortBoth=" + shortBoth
+            + ", shortLeft=" + shortLeft
+            + ", shortRight=" + shortRight
+            + ", tall=" + tall
+            + ", leafNodes=" + leafNodes
+            + ", avgDepth=" + String.format("%.2f", averageLeafDepth())
+            + ", maxDepth=" + maxLeafDepth()
+            + ", estimatedBytes=" + bytes + "]";
+    }
+}
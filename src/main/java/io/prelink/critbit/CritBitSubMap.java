@@ -0,0 +1,370 @@
+package io.prelink.critbit;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+
+/**
+ * A key range of a crit-bit tree seen as a NavigableMap, for subMap,
+ * headMap, tailMap and descendingMap.  Nothing is copied: each call goes
+ * to the backing tree's ceiling/floor/higher/lower lookups and is clipped
+ * to the range, and iteration steps from one entry to the next the same
+ * way.  Writes go through to the backing map if there is one (an
+ * MCritBitTree or ConcurrentCritBitTree); views of a CritBitTree are
+ * fixed and read-only.
+ */
+class CritBitSubMap<K,V> extends AbstractMap<K,V> implements NavigableMap<K,V> {
+
+    /**
+     * The unbounded lookups a view is built from.
+     */
+    static interface Source<K,V> {
+        Map.Entry<K,V> firstEntry();
+        Map.Entry<K,V> lastEntry();
+        Map.Entry<K,V> ceilingEntry(K key);
+        Map.Entry<K,V> higherEntry(K key);
+        Map.Entry<K,V> floorEntry(K key);
+        Map.Entry<K,V> lowerEntry(K key);
+        V get(Object key);
+        boolean containsKey(Object key);
+        Comparator<? super K> comparator();
+    }
+
+    private final Source<K,V> tree;
+    private final Comparator<? super K> cmp;
+    final Map<K,V> target;
+    private final boolean fromStart, loInclusive, toEnd, hiInclusive;
+    private final K lo, hi;
+    private final boolean descending;
+
+    CritBitSubMap(Source<K,V> tree, Map<K,V> target,
+                  boolean fromStart, K lo, boolean loInclusive,
+                  boolean toEnd, K hi, boolean hiInclusive,
+                  boolean descending) {
+        this.cmp = tree.comparator();
+        if(!fromStart && !toEnd && cmp.compare(lo, hi) > 0) {
+            throw new IllegalArgumentException("fromKey > toKey");
+        }
+        this.tree = tree;
+        this.target = target;
+        this.fromStart = fromStart;
+        this.lo = lo;
+        this.loInclusive = loInclusive;
+        this.toEnd = toEnd;
+        this.hi = hi;
+        this.hiInclusive = hiInclusive;
+        this.descending = descending;
+    }
+
+    /** An unbounded, ascending view of tree; target may be null. */
+    static <K,V> CritBitSubMap<K,V> all(Source<K,V> tree, Map<K,V> target) {
+        return new CritBitSubMap<K,V>(tree, target, true, null, false, true, null, false, false);
+    }
+
+    /**
+     * Makes the views handed out by subMap, headMap, tailMap and
+     * descendingMap, so subclasses can return their own kind.
+     */
+    CritBitSubMap<K,V> view(boolean fromStart, K lo, boolean loInclusive,
+                            boolean toEnd, K hi, boolean hiInclusive,
+                            boolean descending) {
+        return new CritBitSubMap<K,V>(tree, target, fromStart, lo, loInclusive,
+                                      toEnd, hi, hiInclusive, descending);
+    }
+
+    private boolean tooLow(K key) {
+        if(fromStart) {
+            return false;
+        }
+        int c = cmp.compare(key, lo);
+        return c < 0 || (c == 0 && !loInclusive);
+    }
+
+    private boolean tooHigh(K key) {
+        if(toEnd) {
+            return false;
+        }
+        int c = cmp.compare(key, hi);
+        return c > 0 || (c == 0 && !hiInclusive);
+    }
+
+    final boolean inRange(K key) {
+        return !tooLow(key) && !tooHigh(key);
+    }
+
+    //Whether key may bound a sub-range: like inRange, but an exclusive
+    //bound may sit on this range's own exclusive bound.
+    private boolean inRange(K key, boolean inclusive) {
+        if(inclusive) {
+            return inRange(key);
+        }
+        return (fromStart || cmp.compare(key, lo) >= 0)
+            && (toEnd || cmp.compare(key, hi) <= 0);
+    }
+
+    private Map<K,V> writable() {
+        if(target == null) {
+            throw new UnsupportedOperationException();
+        }
+        return target;
+    }
+
+    private Map.Entry<K,V> belowHi(Map.Entry<K,V> e) {
+        return (e == null || tooHigh(e.getKey())) ? null : e;
+    }
+
+    private Map.Entry<K,V> aboveLo(Map.Entry<K,V> e) {
+        return (e == null || tooLow(e.getKey())) ? null : e;
+    }
+
+    private Map.Entry<K,V> absLowest() {
+        return belowHi(fromStart ? tree.firstEntry()
+                       : loInclusive ? tree.ceilingEntry(lo) : tree.higherEntry(lo));
+    }
+
+    private Map.Entry<K,V> absHighest() {
+        return aboveLo(toEnd ? tree.lastEntry()
+                       : hiInclusive ? tree.floorEntry(hi) : tree.lowerEntry(hi));
+    }
+
+    private Map.Entry<K,V> absCeiling(K key) {
+        return tooLow(key) ? absLowest() : belowHi(tree.ceilingEntry(key));
+    }
+
+    private Map.Entry<K,V> absHigher(K key) {
+        return tooLow(key) ? absLowest() : belowHi(tree.higherEntry(key));
+    }
+
+    private Map.Entry<K,V> absFloor(K key) {
+        return tooHigh(key) ? absHighest() : aboveLo(tree.floorEntry(key));
+    }
+
+    private Map.Entry<K,V> absLower(K key) {
+        return tooHigh(key) ? absHighest() : aboveLo(tree.lowerEntry(key));
+    }
+
+    private static <K> K key(Map.Entry<K,?> e) {
+        return (e == null) ? null : e.getKey();
+    }
+
+    private static <K> K keyOrThrow(Map.Entry<K,?> e) {
+        if(e == null) {
+            throw new NoSuchElementException();
+        }
+        return e.getKey();
+    }
+
+    public Map.Entry<K,V> firstEntry() { return descending ? absHighest() : absLowest(); }
+    public Map.Entry<K,V> lastEntry() { return descending ? absLowest() : absHighest(); }
+    public Map.Entry<K,V> ceilingEntry(K key) { return descending ? absFloor(key) : absCeiling(key); }
+    public Map.Entry<K,V> floorEntry(K key) { return descending ? absCeiling(key) : absFloor(key); }
+    public Map.Entry<K,V> higherEntry(K key) { return descending ? absLower(key) : absHigher(key); }
+    public Map.Entry<K,V> lowerEntry(K key) { return descending ? absHigher(key) : absLower(key); }
+
+    public K firstKey() { return keyOrThrow(firstEntry()); }
+    public K lastKey() { return keyOrThrow(lastEntry()); }
+    public K ceilingKey(K key) { return key(ceilingEntry(key)); }
+    public K floorKey(K key) { return key(floorEntry(key)); }
+    public K higherKey(K key) { return key(higherEntry(key)); }
+    public K lowerKey(K key) { return key(lowerEntry(key)); }
+
+    public Map.Entry<K,V> pollFirstEntry() {
+        Map<K,V> m = writable();
+        Map.Entry<K,V> e = firstEntry();
+        if(e != null) {
+            m.remove(e.getKey());
+        }
+        return e;
+    }
+
+    public Map.Entry<K,V> pollLastEntry() {
+        Map<K,V> m = writable();
+        Map.Entry<K,V> e = lastEntry();
+        if(e != null) {
+            m.remove(e.getKey());
+        }
+        return e;
+    }
+
+    public Comparator<? super K> comparator() {
+        return descending ? Collections.reverseOrder(cmp) : cmp;
+    }
+
+    @Override
+    public boolean containsKey(Object k) {
+        return inRange(AbstractCritBitTree.<K>cast(k)) && tree.containsKey(k);
+    }
+
+    @Override
+    public V get(Object k) {
+        return inRange(AbstractCritBitTree.<K>cast(k)) ? tree.get(k) : null;
+    }
+
+    @Override
+    public V put(K key, V val) {
+        if(!inRange(key)) {
+            throw new IllegalArgumentException("key out of range");
+        }
+        return writable().put(key, val);
+    }
+
+    @Override
+    public V remove(Object k) {
+        if(!inRange(AbstractCritBitTree.<K>cast(k))) {
+            return null;
+        }
+        return writable().remove(k);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return firstEntry() == null;
+    }
+
+    @Override
+    public int size() {
+        int n = 0;
+        for(Iterator<Map.Entry<K,V>> it = new EntryIterator(); it.hasNext(); it.next()) {
+            n++;
+        }
+        return n;
+    }
+
+    public NavigableMap<K,V> subMap(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive) {
+        if(!inRange(fromKey, fromInclusive)) {
+            throw new IllegalArgumentException("fromKey out of range");
+        }
+        if(!inRange(toKey, toInclusive)) {
+            throw new IllegalArgumentException("toKey out of range");
+        }
+        return descending ? view(false, toKey, toInclusive, false, fromKey, fromInclusive, true)
+                          : view(false, fromKey, fromInclusive, false, toKey, toInclusive, false);
+    }
+
+    public NavigableMap<K,V> headMap(K toKey, boolean inclusive) {
+        if(!inRange(toKey, inclusive)) {
+            throw new IllegalArgumentException("toKey out of range");
+        }
+        return descending ? view(false, toKey, inclusive, toEnd, hi, hiInclusive, true)
+                          : view(fromStart, lo, loInclusive, false, toKey, inclusive, false);
+    }
+
+    public NavigableMap<K,V> tailMap(K fromKey, boolean inclusive) {
+        if(!inRange(fromKey, inclusive)) {
+            throw new IllegalArgumentException("fromKey out of range");
+        }
+        return descending ? view(fromStart, lo, loInclusive, false, fromKey, inclusive, true)
+                          : view(false, fromKey, inclusive, toEnd, hi, hiInclusive, false);
+    }
+
+    public SortedMap<K,V> subMap(K fromKey, K toKey) { return subMap(fromKey, true, toKey, false); }
+    public SortedMap<K,V> headMap(K toKey) { return headMap(toKey, false); }
+    public SortedMap<K,V> tailMap(K fromKey) { return tailMap(fromKey, true); }
+
+    public NavigableMap<K,V> descendingMap() {
+        return view(fromStart, lo, loInclusive, toEnd, hi, hiInclusive, !descending);
+    }
+
+    @Override
+    public Set<K> keySet() { return navigableKeySet(); }
+    public NavigableSet<K> navigableKeySet() { return new KeySet<K>(this); }
+    public NavigableSet<K> descendingKeySet() { return new KeySet<K>(descendingMap()); }
+
+    @Override
+    public Set<Map.Entry<K,V>> entrySet() {
+        return new AbstractSet<Map.Entry<K,V>>() {
+            public Iterator<Map.Entry<K,V>> iterator() { return new EntryIterator(); }
+            public int size() { return CritBitSubMap.this.size(); }
+            public boolean isEmpty() { return CritBitSubMap.this.isEmpty(); }
+        };
+    }
+
+    /**
+     * Steps through the range with higherEntry, which keeps no state in
+     * the tree between calls; so it's unbothered by writes in between and
+     * can support remove().
+     */
+    private final class EntryIterator implements Iterator<Map.Entry<K,V>> {
+        private Map.Entry<K,V> next = firstEntry();
+        private Map.Entry<K,V> last = null;
+        public boolean hasNext() {
+            return next != null;
+        }
+        public Map.Entry<K,V> next() {
+            if(next == null) {
+                throw new NoSuchElementException();
+            }
+            last = next;
+            next = higherEntry(last.getKey());
+            return last;
+        }
+        public void remove() {
+            if(last == null) {
+                throw new IllegalStateException();
+            }
+            writable().remove(last.getKey());
+            last = null;
+        }
+    }
+
+    /**
+     * The keys of a NavigableMap, as a NavigableSet.
+     */
+    static final class KeySet<K> extends AbstractSet<K> implements NavigableSet<K> {
+        private final NavigableMap<K,?> m;
+        KeySet(NavigableMap<K,?> m) {
+            this.m = m;
+        }
+        public Iterator<K> iterator() {
+            final Iterator<? extends Map.Entry<K,?>> it = m.entrySet().iterator();
+            return new Iterator<K>() {
+                public boolean hasNext() { return it.hasNext(); }
+                public K next() { return it.next().getKey(); }
+                public void remove() { it.remove(); }
+            };
+        }
+        public Iterator<K> descendingIterator() { return descendingSet().iterator(); }
+        public int size() { return m.size(); }
+        public boolean isEmpty() { return m.isEmpty(); }
+        public boolean contains(Object o) { return m.containsKey(o); }
+        public void clear() { m.clear(); }
+        public boolean remove(Object o) {
+            if(!m.containsKey(o)) {
+                return false;
+            }
+            m.remove(o);
+            return true;
+        }
+        public K lower(K k) { return m.lowerKey(k); }
+        public K floor(K k) { return m.floorKey(k); }
+        public K ceiling(K k) { return m.ceilingKey(k); }
+        public K higher(K k) { return m.higherKey(k); }
+        public K first() { return m.firstKey(); }
+        public K last() { return m.lastKey(); }
+        public K pollFirst() { return key(m.pollFirstEntry()); }
+        public K pollLast() { return key(m.pollLastEntry()); }
+        public Comparator<? super K> comparator() { return m.comparator(); }
+        public NavigableSet<K> descendingSet() { return new KeySet<K>(m.descendingMap()); }
+        public NavigableSet<K> subSet(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive) {
+            return new KeySet<K>(m.subMap(fromKey, fromInclusive, toKey, toInclusive));
+        }
+        public NavigableSet<K> headSet(K toKey, boolean inclusive) {
+            return new KeySet<K>(m.headMap(toKey, inclusive));
+        }
+        public NavigableSet<K> tailSet(K fromKey, boolean inclusive) {
+            return new KeySet<K>(m.tailMap(fromKey, inclusive));
+        }
+        public SortedSet<K> subSet(K fromKey, K toKey) { return subSet(fromKey, true, toKey, false); }
+        public SortedSet<K> headSet(K toKey) { return headSet(toKey, false); }
+        public SortedSet<K> tailSet(K fromKey) { return tailSet(fromKey, true); }
+    }
+}
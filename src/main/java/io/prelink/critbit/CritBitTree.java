@@ -1,9 +1,12 @@
 package io.prelink.critbit;
 
 import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Spliterator;
+import java.util.function.BiConsumer;
+import java.util.function.BinaryOperator;
 
 import org.ardverk.collection.Cursor;
-import org.ardverk.collection.Cursor.Decision;
 import org.ardverk.collection.KeyAnalyzer;
 
 /**
@@ -11,12 +14,21 @@ import org.ardverk.collection.KeyAnalyzer;
  * djb (http://cr.yp.to/critbit.html),
  * Adam Langley (https://github.com/agl/critbit),
  * and Okasaki (http://www.eecs.usma.edu/webs/people/okasaki/pubs.html)
+ *
+ * Trees are immutable and safe to share between threads, with one
+ * exception.  union(), intersection(), difference(), symmetricDifference(),
+ * removePrefix() and removeRange() don't count the keys they keep.  The
+ * first size() call on such a tree counts them, in O(n), and memoizes the
+ * count in a plain field.  Trees made from it by put() and remove() carry
+ * the count on once it's known.  Threads that race to count just do the
+ * same work and write the same value, so the racy write is benign, as with
+ * String.hashCode().  isEmpty() never counts.
  */
 public final class CritBitTree<K,V> extends AbstractCritBitTree<K,V> {
 
     private static final long serialVersionUID = 20110212L;
 
-    static final class ShortLeftNode<K,V> extends AbstractInternal<K,V> {
+    static class ShortLeftNode<K,V> extends AbstractInternal<K,V> {
         private static final long serialVersionUID = 20110212L;
         private final K leftKey;
         private final V leftVal;
@@ -56,8 +68,10 @@ public final class CritBitTree<K,V> extends AbstractCritBitTree<K,V> {
         }
         public boolean hasExternalLeft() { return true; }
         public boolean hasExternalRight() { return false; }
+        public K leftKey() { return leftKey; }
+        public V leftValue() { return leftVal; }
     }
-    static final class ShortRightNode<K,V> extends AbstractInternal<K,V> {
+    static class ShortRightNode<K,V> extends AbstractInternal<K,V> {
         private static final long serialVersionUID = 20110212L;
         private final Node<K,V> left;
         private final K rightKey;
@@ -95,8 +109,10 @@ public final class CritBitTree<K,V> extends AbstractCritBitTree<K,V> {
         }
         public boolean hasExternalLeft() { return false; }
         public boolean hasExternalRight() { return true; }
+        public K rightKey() { return rightKey; }
+        public V rightValue() { return rightVal; }
     }
-    static final class TallNode<K,V> extends AbstractInternal<K,V> {
+    static class TallNode<K,V> extends AbstractInternal<K,V> {
         private static final long serialVersionUID = 20110212L;
         private final Node<K,V> left;
         private final Node<K,V> right;
@@ -154,22 +170,127 @@ public final class CritBitTree<K,V> extends AbstractCritBitTree<K,V> {
         }
     }
 
+    /*
+     * Counted nodes are the plain ones plus the number of keys under them,
+     * fixed when they're made.  Every edit makes its new nodes through the
+     * factory, so the counts along a changed path are always fresh.
+     */
+
+    static final class CountedShortLeftNode<K,V> extends ShortLeftNode<K,V> implements Counted {
+        private static final long serialVersionUID = 20261017L;
+        private final int count;
+        CountedShortLeftNode(int bit, K leftKey, V leftVal, Node<K,V> right) {
+            super(bit, leftKey, leftVal, right);
+            this.count = childSizes(this);
+        }
+        public int count() { return count; }
+    }
+    static final class CountedShortRightNode<K,V> extends ShortRightNode<K,V> implements Counted {
+        private static final long serialVersionUID = 20261017L;
+        private final int count;
+        CountedShortRightNode(int bit, Node<K,V> left, K rightKey, V rightVal) {
+            super(bit, left, rightKey, rightVal);
+            this.count = childSizes(this);
+        }
+        public int count() { return count; }
+    }
+    static final class CountedTallNode<K,V> extends TallNode<K,V> implements Counted {
+        private static final long serialVersionUID = 20261017L;
+        private final int count;
+        CountedTallNode(int bit, Node<K,V> left, Node<K,V> right) {
+            super(bit, left, right);
+            this.count = childSizes(this);
+        }
+        public int count() { return count; }
+    }
+
+    static final class CountedNodeFactory<K,V> implements CountingNodeFactory<K,V> {
+        private static final long serialVersionUID = 20261017L;
+        public Node<K,V> mkShortBoth(int diffBit, K lk, V lv, K rk, V rv) {
+            //Always holds two.
+            return new ShortBothNode<K,V>(diffBit, lk, lv, rk, rv);
+        }
+        public Node<K,V> mkShortRight(int diffBit, Node<K,V> left, K k, V v) {
+            return new CountedShortRightNode<K,V>(diffBit, left, k, v);
+        }
+        public Node<K,V> mkShortLeft(int diffBit, K k, V v, Node<K,V> right) {
+            return new CountedShortLeftNode<K,V>(diffBit, k, v, right);
+        }
+        public Node<K,V> mkTall(int diffBit, Node<K,V> left, Node<K,V> right) {
+            return new CountedTallNode<K,V>(diffBit, left, right);
+        }
+        public Node<K,V> mkLeaf(K key, V val) {
+            return new LeafNode<K,V>(key, val);
+        }
+    }
+
     private final Node<K,V> root;
-    private final int size;
+    //-1 until known; results of set operations count themselves lazily,
+    //see the class comment.
+    private int size;
 
     public CritBitTree(KeyAnalyzer<K> analyzer) {
         this(null, 0,
              new Context<K,V>(analyzer, new ImmutableNodeFactory<K,V>()));
     }
 
-    private CritBitTree(Node<K,V> root, int size, Context<K,V> context) {
+    CritBitTree(Node<K,V> root, int size, Context<K,V> context) {
         super(context);
         this.root = root;
         this.size = size;
     }
 
+    /**
+     * Returns an empty tree whose internal nodes each keep the number of
+     * keys under them, so rank(), select(), countPrefix(), countRange()
+     * and size() take O(depth) however the tree was arrived at.  Edits
+     * cost about the same; each internal node takes an int more.
+     */
+    public static <K,V> CritBitTree<K,V> counted(KeyAnalyzer<K> analyzer) {
+        return new CritBitTree<K,V>(null, 0,
+                                    new Context<K,V>(analyzer, new CountedNodeFactory<K,V>()));
+    }
+
+    /**
+     * Builds a tree from entries already in ascending key order, as defined
+     * by the analyzer's bit order, in one linear pass.
+     *
+     * @throws IllegalArgumentException if a key isn't strictly greater than
+     *         the one before it
+     */
+    public static <K,V> CritBitTree<K,V> fromSorted(KeyAnalyzer<K> analyzer,
+                                                    Iterable<? extends Map.Entry<? extends K, ? extends V>> entries) {
+        Context<K,V> ctx = new Context<K,V>(analyzer, new ImmutableNodeFactory<K,V>());
+        SortedBuilder<K,V> builder = new SortedBuilder<K,V>(ctx);
+        for(Map.Entry<? extends K, ? extends V> e: entries) {
+            builder.add(e.getKey(), e.getValue());
+        }
+        return new CritBitTree<K,V>(builder.finish(), builder.size(), ctx);
+    }
+
+    /**
+     * Like fromSorted(analyzer, entries), with keys and values in parallel
+     * arrays.
+     */
+    public static <K,V> CritBitTree<K,V> fromSorted(KeyAnalyzer<K> analyzer, K[] keys, V[] vals) {
+        if(keys.length != vals.length) {
+            throw new IllegalArgumentException("keys.length != vals.length");
+        }
+        Context<K,V> ctx = new Context<K,V>(analyzer, new ImmutableNodeFactory<K,V>());
+        SortedBuilder<K,V> builder = new SortedBuilder<K,V>(ctx);
+        for(int i=0; i<keys.length; i++) {
+            builder.add(keys[i], vals[i]);
+        }
+        return new CritBitTree<K,V>(builder.finish(), builder.size(), ctx);
+    }
+
     Node<K,V> root() { return root; }
-    public int size() { return size; }
+    public int size() {
+        if(size < 0) {
+            size = (root == null) ? 0 : sizeOf(root);
+        }
+        return size;
+    }
 
     public CritBitTree<K,V> put(K key, V val) {
         if(root() == null) {
@@ -185,35 +306,196 @@ public final class CritBitTree<K,V> extends AbstractCritBitTree<K,V> {
 
         int diffBit = ctx().chk.bitIndex(key, compKey);
         return new CritBitTree<K,V>(root().insert(diffBit, key, val, ctx()),
-                                    (diffBit < 0) ? size : size + 1,
+                                    (diffBit < 0 || size < 0) ? size : size + 1,
                                     ctx());
     }
 
+    /**
+     * Returns a transient copy of this tree for applying a batch of changes
+     * cheaply; see TransientCritBitTree.  This tree isn't affected.  A
+     * counted tree's transient copies paths as put() does, since a node
+     * changed in place would leave the counts above it stale.
+     */
+    public TransientCritBitTree<K,V> asTransient() {
+        return new TransientCritBitTree<K,V>(root, size(), ctx());
+    }
+
     public CritBitTree<K,V> remove(K key) {
         if(root == null) {
             return this;
         }
         Node<K,V> removed = root.remove(key, ctx(), false);
         return (removed == root) ? this
-                                 : new CritBitTree<K,V>(removed, size - 1, ctx());
-    }
-
-    protected final Decision doTraverse(Node<K,V> top,
-                                        Cursor<? super K, ? super V> cursor) {
-        if(top.isInternal()) {
-            Decision d = doTraverse(top.left(ctx()), cursor);
-            switch(d) {
-            case REMOVE_AND_EXIT: //fall through
-            case EXIT:
-                return d;
-            case REMOVE: //fall through
-            case CONTINUE:
-            default:
-                return doTraverse(top.right(ctx()), cursor);
+                                 : new CritBitTree<K,V>(removed, (size < 0) ? size : size - 1, ctx());
+    }
+
+    private CritBitTree<K,V> merge(CritBitMerge.Op op, CritBitTree<K,V> other, BinaryOperator<V> merge) {
+        if(counted() && !other.counted()) {
+            //Its subtrees may be reused here, so they need counts too.
+            other = recounted(other);
+        }
+        Node<K,V> merged = new CritBitMerge<K,V>(op, merge, ctx()).apply(root, other.root);
+        if(merged == root) {
+            return this;
+        }
+        return new CritBitTree<K,V>(merged, -1, ctx());
+    }
+
+    /**
+     * Returns a tree with the entries of both trees.  For keys in both,
+     * the value is merge.apply(thisValue, otherValue), and a null result
+     * drops the key; merge isn't consulted when both trees hold the very
+     * same value object, which covers any subtrees the trees share.
+     *
+     * Works on the trees' structure: disjoint subtrees are combined
+     * without being visited and unchanged subtrees are reused, so the cost
+     * follows how much the trees differ rather than their size.  The
+     * trees must use the same KeyAnalyzer.
+     */
+    public CritBitTree<K,V> union(CritBitTree<K,V> other, BinaryOperator<V> merge) {
+        return merge(CritBitMerge.Op.UNION, other, merge);
+    }
+
+    /**
+     * Like union(other, merge), with the other tree's values winning.
+     */
+    public CritBitTree<K,V> union(CritBitTree<K,V> other) {
+        return union(other, new BinaryOperator<V>() {
+            public V apply(V mine, V theirs) { return theirs; }
+        });
+    }
+
+    /**
+     * Returns a tree with the keys found in both trees, valued as for
+     * union(other, merge).
+     */
+    public CritBitTree<K,V> intersection(CritBitTree<K,V> other, BinaryOperator<V> merge) {
+        return merge(CritBitMerge.Op.INTERSECTION, other, merge);
+    }
+
+    /**
+     * Returns a tree with this tree's entries whose keys aren't in other.
+     */
+    public CritBitTree<K,V> difference(CritBitTree<K,V> other) {
+        return merge(CritBitMerge.Op.DIFFERENCE, other, null);
+    }
+
+    /**
+     * Returns a tree with the entries whose keys are in exactly one of the
+     * two trees.
+     */
+    public CritBitTree<K,V> symmetricDifference(CritBitTree<K,V> other) {
+        return merge(CritBitMerge.Op.SYMMETRIC_DIFFERENCE, other, null);
+    }
+
+    /**
+     * other, rebuilt with this tree's counted nodes.
+     */
+    private CritBitTree<K,V> recounted(CritBitTree<K,V> other) {
+        final SortedBuilder<K,V> builder = new SortedBuilder<K,V>(ctx());
+        other.forEach(new BiConsumer<K,V>() {
+            public void accept(K key, V val) {
+                builder.add(key, val);
             }
-        } else {
-            Map.Entry<K,V> e = AbstractCritBitTree.<Map.Entry<K,V>>cast(top);
-            return cursor.select(e);
+        });
+        return new CritBitTree<K,V>(builder.finish(), builder.size(), ctx());
+    }
+
+    int spliteratorCharacteristics() {
+        return Spliterator.IMMUTABLE;
+    }
+
+    /*
+     * Range and descending views are read-only CritBitSubMaps over this
+     * version of the tree; building one costs nothing, and each lookup
+     * through it costs a descent or two.
+     */
+
+    public NavigableMap<K,V> descendingMap() {
+        return CritBitSubMap.all(this, null).descendingMap();
+    }
+
+    public NavigableMap<K,V> subMap(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive) {
+        return CritBitSubMap.all(this, null).subMap(fromKey, fromInclusive, toKey, toInclusive);
+    }
+
+    public NavigableMap<K,V> headMap(K toKey, boolean inclusive) {
+        return CritBitSubMap.all(this, null).headMap(toKey, inclusive);
+    }
+
+    public NavigableMap<K,V> tailMap(K fromKey, boolean inclusive) {
+        return CritBitSubMap.all(this, null).tailMap(fromKey, inclusive);
+    }
+
+    /**
+     * A read-only view of the keys starting with prefix; see
+     * CritBitPrefixMap.
+     */
+    public CritBitPrefixMap<K,V> prefixMap(K prefix) {
+        return new CritBitPrefixMap<K,V>(this, null, null, prefix);
+    }
+
+    /**
+     * Runs cursor over the entries in key order, like traverse(), and
+     * returns this tree without the ones it answered REMOVE or
+     * REMOVE_AND_EXIT for.  Only the paths above removed entries are
+     * copied, in the one pass.
+     */
+    public CritBitTree<K,V> prune(Cursor<? super K, ? super V> cursor) {
+        if(root == null) {
+            return this;
+        }
+        Walk<K,V> w = new Walk<K,V>(cursor, true);
+        return pruned(walk(root, w), w);
+    }
+
+    /**
+     * Like prune(cursor), over just the keys starting with key.
+     */
+    public CritBitTree<K,V> pruneWithPrefix(K key, Cursor<? super K, ? super V> cursor) {
+        if(root == null) {
+            return this;
+        }
+        Walk<K,V> w = new Walk<K,V>(cursor, true);
+        return pruned(walkWithPrefix(root, key, ctx().chk.lengthInBits(key), w), w);
+    }
+
+    /**
+     * Returns this tree without the keys starting with prefix.  They all
+     * hang off one node, which is cut out whole: only the path down to it
+     * is copied.
+     */
+    public CritBitTree<K,V> removePrefix(K prefix) {
+        if(root == null) {
+            return this;
+        }
+        Cut<K,V> cut = new Cut<K,V>(false);
+        return excised(cutPrefix(root, prefix, ctx().chk.lengthInBits(prefix), cut), cut);
+    }
+
+    /**
+     * Returns this tree without the keys from from (inclusive) to to
+     * (exclusive).  Whole subtrees between the two bounds are dropped, so
+     * only the search paths to the bounds are copied.
+     */
+    public CritBitTree<K,V> removeRange(K from, K to) {
+        if(root == null) {
+            return this;
+        }
+        Cut<K,V> cut = new Cut<K,V>(false);
+        return excised(cutRange(from, to, cut), cut);
+    }
+
+    //The size is left to be counted when asked for, so excision stays
+    //proportional to the depth.
+    private CritBitTree<K,V> excised(Node<K,V> left, Cut<K,V> cut) {
+        return cut.any ? new CritBitTree<K,V>(left, -1, ctx()) : this;
+    }
+
+    private CritBitTree<K,V> pruned(Node<K,V> left, Walk<K,V> w) {
+        if(w.removed == 0) {
+            return this;
         }
+        return new CritBitTree<K,V>(left, (size < 0) ? size : size - w.removed, ctx());
     }
 }
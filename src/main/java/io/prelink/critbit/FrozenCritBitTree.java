@@ -0,0 +1,289 @@
+package io.prelink.critbit;
+
+import io.prelink.critbit.AbstractCritBitTree.Context;
+import io.prelink.critbit.AbstractCritBitTree.Node;
+
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.ardverk.collection.Cursor;
+import org.ardverk.collection.Cursor.Decision;
+import org.ardverk.collection.KeyAnalyzer;
+
+/**
+ * A read-only crit-bit tree, built by MCritBitTree.freeze() or
+ * CritBitTree.freeze().
+ *
+ * Internal nodes are stored in preorder in two int arrays.  The left child
+ * of internal node i, if internal, is always i+1, so only the right link is
+ * stored; the high bit of bits[i] marks a left child that's a leaf.  Leaves
+ * are stored in key order in their own arrays.  Every subtree covers a
+ * contiguous run of leaves, so prefix traversal and ordered iteration are
+ * plain array scans.
+ */
+public final class FrozenCritBitTree<K,V> extends AbstractMap<K,V> implements Serializable {
+
+    private static final long serialVersionUID = 20261017L;
+
+    private static final int LEFT_LEAF = 0x80000000;
+
+    private final KeyAnalyzer<K> chk;
+    //Crit bit, with LEFT_LEAF set if the left child is a leaf (the first
+    //leaf of the subtree).
+    private final int[] bits;
+    //Index of the right child: an internal node, or ~leaf for a leaf.
+    private final int[] right;
+    private final Object[] keys;
+    private final Object[] vals;
+
+    private FrozenCritBitTree(KeyAnalyzer<K> chk, int size) {
+        this.chk = chk;
+        this.bits = new int[Math.max(size - 1, 0)];
+        this.right = new int[Math.max(size - 1, 0)];
+        this.keys = new Object[size];
+        this.vals = new Object[size];
+    }
+
+    static <K,V> FrozenCritBitTree<K,V> freeze(Node<K,V> root, int size, Context<K,V> ctx) {
+        FrozenCritBitTree<K,V> out = new FrozenCritBitTree<K,V>(ctx.chk, size);
+        if(root == null) {
+            return out;
+        }
+
+        //Preorder over internal nodes, emitting leaves in order.  Each
+        //pending entry is a node plus the internal index whose right link
+        //should point at it, or -1 if nothing should.
+        Node<?,?>[] nodes = new Node<?,?>[64];
+        int[] parents = new int[64];
+        int depth = 0;
+        nodes[depth] = root;
+        parents[depth++] = -1;
+        int nextInternal = 0;
+        int nextLeaf = 0;
+        while(depth > 0) {
+            Node<K,V> cur = AbstractCritBitTree.<Node<K,V>>cast(nodes[--depth]);
+            int parent = parents[depth];
+            nodes[depth] = null;
+            for(;;) {
+                if(!cur.isInternal()) {
+                    if(parent >= 0) {
+                        out.right[parent] = ~nextLeaf;
+                    }
+                    out.keys[nextLeaf] = cur.getKey();
+                    out.vals[nextLeaf++] = cur.getValue();
+                    break;
+                }
+                int i = nextInternal++;
+                if(parent >= 0) {
+                    out.right[parent] = i;
+                }
+                if(depth == nodes.length) {
+                    nodes = Arrays.copyOf(nodes, depth * 2);
+                    parents = Arrays.copyOf(parents, depth * 2);
+                }
+                nodes[depth] = cur.right(ctx);
+                parents[depth++] = i;
+                if(cur.hasExternalLeft()) {
+                    out.bits[i] = cur.bit() | LEFT_LEAF;
+                    out.keys[nextLeaf] = cur.leftKey();
+                    out.vals[nextLeaf++] = cur.leftValue();
+                    break;
+                }
+                out.bits[i] = cur.bit();
+                cur = cur.left(ctx);
+                parent = -1;
+            }
+        }
+        return out;
+    }
+
+    private K key(int leaf) {
+        return AbstractCritBitTree.<K>cast(keys[leaf]);
+    }
+
+    private V val(int leaf) {
+        return AbstractCritBitTree.<V>cast(vals[leaf]);
+    }
+
+    /**
+     * Follows key's crit bits down from the root and returns the index of
+     * the leaf it ends at.
+     */
+    private int findLeaf(K key) {
+        if(bits.length == 0) {
+            return 0;
+        }
+        int i = 0;
+        int base = 0;
+        for(;;) {
+            int b = bits[i];
+            if(chk.isBitSet(key, b & ~LEFT_LEAF)) {
+                int r = right[i];
+                if(r < 0) {
+                    return ~r;
+                }
+                base += r - i;
+                i = r;
+            } else {
+                if((b & LEFT_LEAF) != 0) {
+                    return base;
+                }
+                i++;
+            }
+        }
+    }
+
+    /** Index of the last leaf under internal node i. */
+    private int lastLeaf(int i) {
+        int r = right[i];
+        while(r >= 0) {
+            r = right[r];
+        }
+        return ~r;
+    }
+
+    @Override
+    public int size() { return keys.length; }
+
+    @Override
+    public boolean isEmpty() { return keys.length == 0; }
+
+    @Override
+    public V get(Object k) {
+        if(keys.length == 0) {
+            return null;
+        }
+        K key = AbstractCritBitTree.<K>cast(k);
+        int leaf = findLeaf(key);
+        return chk.bitIndex(key, key(leaf)) < 0 ? val(leaf) : null;
+    }
+
+    @Override
+    public boolean containsKey(Object k) {
+        if(keys.length == 0) {
+            return false;
+        }
+        K key = AbstractCritBitTree.<K>cast(k);
+        return chk.bitIndex(key, key(findLeaf(key))) < 0;
+    }
+
+    private Map.Entry<K,V> entry(int leaf) {
+        return new AbstractMap.SimpleImmutableEntry<K,V>(key(leaf), val(leaf));
+    }
+
+    public Map.Entry<K,V> min() {
+        return keys.length == 0 ? null : entry(0);
+    }
+
+    public Map.Entry<K,V> max() {
+        return keys.length == 0 ? null : entry(keys.length - 1);
+    }
+
+    public void traverse(Cursor<? super K, ? super V> cursor) {
+        doTraverse(0, keys.length, cursor);
+    }
+
+    public void traverseWithPrefix(K key, Cursor<? super K, ? super V> cursor) {
+        if(keys.length == 0) {
+            return;
+        }
+        if(bits.length == 0) {
+            if(chk.isPrefix(key(0), key)) {
+                cursor.select(entry(0));
+            }
+            return;
+        }
+
+        //Find the highest subtree whose crit bit lies past the prefix; its
+        //leaves are [from, to).
+        int keyLen = chk.lengthInBits(key);
+        int i = 0;
+        int base = 0;
+        int from = 0;
+        int to = keys.length;
+        for(;;) {
+            int b = bits[i];
+            int bit = b & ~LEFT_LEAF;
+            boolean goRight = chk.isBitSet(key, bit);
+            int leafChild = -1;
+            int nextBase = base;
+            int next = -1;
+            if(goRight) {
+                int r = right[i];
+                if(r < 0) {
+                    leafChild = ~r;
+                } else {
+                    nextBase += r - i;
+                    next = r;
+                }
+            } else if((b & LEFT_LEAF) != 0) {
+                leafChild = base;
+            } else {
+                next = i + 1;
+            }
+            if(bit < keyLen) {
+                if(leafChild >= 0) {
+                    from = leafChild;
+                    to = leafChild + 1;
+                } else {
+                    from = nextBase;
+                    to = lastLeaf(next) + 1;
+                }
+            }
+            if(leafChild >= 0) {
+                if(!chk.isPrefix(key(leafChild), key)) {
+                    return;
+                }
+                break;
+            }
+            i = next;
+            base = nextBase;
+        }
+        doTraverse(from, to, cursor);
+    }
+
+    private Decision doTraverse(int from, int to, Cursor<? super K, ? super V> cursor) {
+        for(int leaf=from; leaf<to; leaf++) {
+            switch(cursor.select(entry(leaf))) {
+            case REMOVE_AND_EXIT: //fall through
+            case EXIT:
+                return Decision.EXIT;
+            case REMOVE: //fall through
+            case CONTINUE:
+            default:
+                break;
+            }
+        }
+        return Decision.CONTINUE;
+    }
+
+    @Override
+    public Set<Map.Entry<K,V>> entrySet() {
+        return new AbstractSet<Map.Entry<K,V>>() {
+            @Override
+            public Iterator<Map.Entry<K,V>> iterator() {
+                return new Iterator<Map.Entry<K,V>>() {
+                    private int next = 0;
+                    public boolean hasNext() { return next < keys.length; }
+                    public Map.Entry<K,V> next() {
+                        if(next >= keys.length) {
+                            throw new NoSuchElementException();
+                        }
+                        return entry(next++);
+                    }
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+            @Override
+            public int size() { return keys.length; }
+        };
+    }
+}
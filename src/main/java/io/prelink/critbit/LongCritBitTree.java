@@ -0,0 +1,188 @@
+package io.prelink.critbit;
+
+/**
+ * A persistent crit-bit tree keyed by primitive {@code long}s.  Works like
+ * CritBitTree&lt;Long,V&gt; with LongKeyAnalyzer, except keys are stored
+ * unboxed in the nodes and never go through an analyzer.
+ */
+public final class LongCritBitTree<V> extends AbstractLongCritBitTree<V> {
+
+    private static final long serialVersionUID = 20261017L;
+
+    static final class ShortLeftNode<V> extends AbstractInternal<V> {
+        private static final long serialVersionUID = 20261017L;
+        private final long leftKey;
+        private final V leftVal;
+        private final Node<V> right;
+        public ShortLeftNode(int bit, long leftKey, V leftVal, Node<V> right) {
+            super(bit);
+            this.leftKey = leftKey;
+            this.leftVal = leftVal;
+            this.right = right;
+        }
+        public Node<V> left(NodeFactory<V> nf) { return nf.mkLeaf(leftKey, leftVal); }
+        public Node<V> right(NodeFactory<V> nf) { return right; }
+        public Node<V> setLeft(int diffBit, long key, V val, NodeFactory<V> nf) {
+            if(diffBit < 0) {
+                return nf.mkShortLeft(bit(), key, val, right);
+            }
+            Node<V> newLeft = mkShortBothChild(diffBit, key, val, leftKey, leftVal, nf);
+            return nf.mkTall(bit(), newLeft, right);
+        }
+        public Node<V> setRight(int diffBit, long key, V val, NodeFactory<V> nf) {
+            Node<V> newRight = right.insert(diffBit, key, val, nf);
+            return nf.mkShortLeft(bit(), leftKey, leftVal, newRight);
+        }
+        protected Node<V> removeLeft(long key, NodeFactory<V> nf, boolean force) {
+            if(force || key == this.leftKey) {
+                return right;
+            }
+            return this;
+        }
+        protected Node<V> removeRight(long key, NodeFactory<V> nf, boolean force) {
+            Node<V> newRight = right.remove(key, nf, force);
+            if(right == newRight) {
+                return this;
+            }
+            return newRight.isInternal() ? nf.mkShortLeft(bit(), leftKey, leftVal, newRight)
+                                         : nf.mkShortBoth(bit(), leftKey, leftVal, newRight.getKey(), newRight.getValue());
+        }
+        public boolean hasExternalLeft() { return true; }
+        public boolean hasExternalRight() { return false; }
+        public long leftKey() { return leftKey; }
+        public V leftValue() { return leftVal; }
+    }
+    static final class ShortRightNode<V> extends AbstractInternal<V> {
+        private static final long serialVersionUID = 20261017L;
+        private final Node<V> left;
+        private final long rightKey;
+        private final V rightVal;
+        public ShortRightNode(int bit, Node<V> left, long rightKey, V rightVal) {
+            super(bit);
+            this.left = left;
+            this.rightKey = rightKey;
+            this.rightVal = rightVal;
+        }
+        public Node<V> left(NodeFactory<V> nf) { return left; }
+        public Node<V> right(NodeFactory<V> nf) { return nf.mkLeaf(rightKey, rightVal); }
+        public Node<V> setLeft(int diffBit, long key, V val, NodeFactory<V> nf) {
+            Node<V> newLeft = left.insert(diffBit, key, val, nf);
+            return nf.mkShortRight(bit(), newLeft, rightKey, rightVal);
+        }
+        public Node<V> setRight(int diffBit, long key, V val, NodeFactory<V> nf) {
+            if(diffBit < 0) {
+                return nf.mkShortRight(bit(), left, key, val);
+            }
+            Node<V> newRight = mkShortBothChild(diffBit, key, val, rightKey, rightVal, nf);
+            return nf.mkTall(bit(), left, newRight);
+        }
+        protected Node<V> removeLeft(long key, NodeFactory<V> nf, boolean force) {
+            Node<V> newLeft = left.remove(key, nf, force);
+            if(left == newLeft) {
+                return this;
+            }
+            return newLeft.isInternal() ? nf.mkShortRight(bit(), newLeft, rightKey, rightVal)
+                                        : nf.mkShortBoth(bit(), newLeft.getKey(), newLeft.getValue(), rightKey, rightVal);
+        }
+        protected Node<V> removeRight(long key, NodeFactory<V> nf, boolean force) {
+            return (force || key == this.rightKey) ? left
+                                                   : this;
+        }
+        public boolean hasExternalLeft() { return false; }
+        public boolean hasExternalRight() { return true; }
+        public long rightKey() { return rightKey; }
+        public V rightValue() { return rightVal; }
+    }
+    static final class TallNode<V> extends AbstractInternal<V> {
+        private static final long serialVersionUID = 20261017L;
+        private final Node<V> left;
+        private final Node<V> right;
+        public TallNode(int bit, Node<V> left, Node<V> right) {
+            super(bit);
+            this.left = left;
+            this.right = right;
+        }
+        public Node<V> left(NodeFactory<V> nf) { return left; }
+        public Node<V> right(NodeFactory<V> nf) { return right; }
+        public Node<V> setLeft(int diffBit, long key, V val, NodeFactory<V> nf) {
+            Node<V> newLeft = left.insert(diffBit, key, val, nf);
+            return nf.mkTall(bit(), newLeft, right);
+        }
+        public Node<V> setRight(int diffBit, long key, V val, NodeFactory<V> nf) {
+            Node<V> newRight = right.insert(diffBit, key, val, nf);
+            return nf.mkTall(bit(), left, newRight);
+        }
+        protected Node<V> removeLeft(long key, NodeFactory<V> nf, boolean force) {
+            Node<V> newLeft = left.remove(key, nf, force);
+            if(left == newLeft) {
+                return this;
+            }
+            return newLeft.isInternal() ? nf.mkTall(bit(), newLeft, right)
+                                        : nf.mkShortLeft(bit(), newLeft.getKey(), newLeft.getValue(), right);
+        }
+        protected Node<V> removeRight(long key, NodeFactory<V> nf, boolean force) {
+            Node<V> newRight = right.remove(key, nf, force);
+            if(right == newRight) {
+                return this;
+            }
+            return newRight.isInternal() ? nf.mkTall(bit(), left, newRight)
+                                         : nf.mkShortRight(bit(), left, newRight.getKey(), newRight.getValue());
+        }
+        public boolean hasExternalLeft() { return false; }
+        public boolean hasExternalRight() { return false; }
+    }
+
+    static final class ImmutableNodeFactory<V> implements NodeFactory<V> {
+        private static final long serialVersionUID = 20261017L;
+        public Node<V> mkShortBoth(int diffBit, long lk, V lv, long rk, V rv) {
+            return new ShortBothNode<V>(diffBit, lk, lv, rk, rv);
+        }
+        public Node<V> mkShortRight(int diffBit, Node<V> left, long k, V v) {
+            return new ShortRightNode<V>(diffBit, left, k, v);
+        }
+        public Node<V> mkShortLeft(int diffBit, long k, V v, Node<V> right) {
+            return new ShortLeftNode<V>(diffBit, k, v, right);
+        }
+        public Node<V> mkTall(int diffBit, Node<V> left, Node<V> right) {
+            return new TallNode<V>(diffBit, left, right);
+        }
+        public Node<V> mkLeaf(long key, V val) {
+            return new LeafNode<V>(key, val);
+        }
+    }
+
+    private final Node<V> root;
+    private final int size;
+
+    public LongCritBitTree() {
+        this(null, 0, new ImmutableNodeFactory<V>());
+    }
+
+    private LongCritBitTree(Node<V> root, int size, NodeFactory<V> nf) {
+        super(nf);
+        this.root = root;
+        this.size = size;
+    }
+
+    Node<V> root() { return root; }
+    public int size() { return size; }
+
+    public LongCritBitTree<V> put(long key, V val) {
+        if(root == null) {
+            return new LongCritBitTree<V>(nf().mkLeaf(key, val), 1, nf());
+        }
+        int diffBit = bitIndex(key, closestKey(key));
+        return new LongCritBitTree<V>(root.insert(diffBit, key, val, nf()),
+                                      (diffBit < 0) ? size : size + 1,
+                                      nf());
+    }
+
+    public LongCritBitTree<V> remove(long key) {
+        if(root == null) {
+            return this;
+        }
+        Node<V> removed = root.remove(key, nf(), false);
+        return (removed == root) ? this
+                                 : new LongCritBitTree<V>(removed, size - 1, nf());
+    }
+}
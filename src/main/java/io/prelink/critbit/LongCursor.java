@@ -0,0 +1,18 @@
+package io.prelink.critbit;
+
+import org.ardverk.collection.Cursor.Decision;
+
+/**
+ * The primitive-keyed counterpart of {@link org.ardverk.collection.Cursor},
+ * used to traverse {@link LongCritBitTree} and {@link MLongCritBitTree}
+ * without boxing each key.
+ */
+public interface LongCursor<V> {
+
+    /**
+     * Called for each entry in the tree, in unsigned key order.  Return
+     * {@link Decision#EXIT} to stop the traversal, or
+     * {@link Decision#CONTINUE} to go on to the next entry.
+     */
+    public Decision select(long key, V value);
+}
@@ -1,16 +1,19 @@
 package io.prelink.critbit;
 
+import java.io.Serializable;
 import java.util.AbstractSet;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
 import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.SortedMap;
+import java.util.Spliterator;
 
-import org.ardverk.collection.Cursor;
-import org.ardverk.collection.Cursor.Decision;
 import org.ardverk.collection.KeyAnalyzer;
 
 /**
@@ -18,17 +21,41 @@ import org.ardverk.collection.KeyAnalyzer;
  * sense, hypothesis being we can improve performance and cut down on garbage
  * collection a bit.
  */
-public final class MCritBitTree<K,V> extends AbstractCritBitTree<K,V> implements Map<K,V> {
+public final class MCritBitTree<K,V> extends AbstractCritBitTree<K,V> implements NavigableMap<K,V> {
 
     private static final long serialVersionUID = 20110212L;
 
-    static final class MShortLeftNode<K,V> extends AbstractInternal<K,V> {
+    /*
+     * The mutable nodes remember which generation of their tree's factory
+     * made them, and only change in place when edited through that same
+     * generation.  Otherwise they copy themselves like CritBitTree's nodes
+     * do.  snapshot() starts a new generation, so nodes the snapshot can
+     * see are never changed again; the first write to each path copies it,
+     * and writes after that are in place as usual.  Copies are made on the
+     * way up, so a node of the current generation only ever hangs below
+     * others of the current generation.
+     */
+
+    static abstract class MInternal<K,V> extends AbstractInternal<K,V> {
+        private static final long serialVersionUID = 20261017L;
+        private final Generation owner;
+        MInternal(int bit, Generation owner) {
+            super(bit);
+            this.owner = owner;
+        }
+        final boolean owned(Context<K,V> ctx) {
+            return ctx.nf instanceof MutableNodeFactory
+                && ((MutableNodeFactory<?,?>)ctx.nf).current == owner;
+        }
+    }
+
+    static class MShortLeftNode<K,V> extends MInternal<K,V> {
         private static final long serialVersionUID = 20110212L;
         private final K leftKey;
         private V leftVal;
         private Node<K,V> right;
-        public MShortLeftNode(int bit, K leftKey, V leftVal, Node<K,V> right) {
-            super(bit);
+        public MShortLeftNode(int bit, Generation owner, K leftKey, V leftVal, Node<K,V> right) {
+            super(bit, owner);
             this.leftKey = leftKey;
             this.leftVal = leftVal;
             this.right = right;
@@ -37,18 +64,27 @@ public final class MCritBitTree<K,V> extends AbstractCritBitTree<K,V> implements
         public Node<K,V> right(Context<K,V> ctx) { return right; }
         public Node<K,V> setLeft(int diffBit, K key, V val, Context<K,V> ctx) {
             if(diffBit < 0) {
-                this.leftVal = val;
-                return this;
+                if(owned(ctx)) {
+                    this.leftVal = val;
+                    return this;
+                }
+                return ctx.nf.mkShortLeft(bit(), leftKey, val, right);
             }
             Node<K,V> newLeft = mkShortBothChild(diffBit, key, val, leftKey, leftVal, ctx);
             return ctx.nf.mkTall(bit(), newLeft, right);
         }
         public Node<K,V> setRight(int diffBit, K key, V val, Context<K,V> ctx) {
-            this.right = right.insert(diffBit, key, val, ctx);
-            return this;
+            Node<K,V> newRight = right.insert(diffBit, key, val, ctx);
+            if(owned(ctx)) {
+                this.right = newRight;
+                return this;
+            }
+            return ctx.nf.mkShortLeft(bit(), leftKey, leftVal, newRight);
         }
         public boolean hasExternalLeft() { return true; }
         public boolean hasExternalRight() { return false; }
+        public K leftKey() { return leftKey; }
+        public V leftValue() { return leftVal; }
         protected Node<K,V> removeLeft(K key, Context<K,V> ctx, boolean force) {
             if(force || ctx.chk.bitIndex(key, this.leftKey) < 0) {
                 return right;
@@ -57,22 +93,27 @@ public final class MCritBitTree<K,V> extends AbstractCritBitTree<K,V> implements
         }
         protected Node<K,V> removeRight(K key, Context<K,V> ctx, boolean force) {
             Node<K,V> newRight = right.remove(key, ctx, force);
-            if(newRight.isInternal()) {
-                this.right = newRight;
+            if(newRight == right) {
                 return this;
-            } else {
+            }
+            if(!newRight.isInternal()) {
                 return ctx.nf.mkShortBoth(bit(), leftKey, leftVal, newRight.getKey(), newRight.getValue());
             }
+            if(owned(ctx)) {
+                this.right = newRight;
+                return this;
+            }
+            return ctx.nf.mkShortLeft(bit(), leftKey, leftVal, newRight);
         }
     }
 
-    static final class MShortRightNode<K,V> extends AbstractInternal<K,V> {
+    static class MShortRightNode<K,V> extends MInternal<K,V> {
         private static final long serialVersionUID = 20110212L;
         private Node<K,V> left;
         private final K rightKey;
         private V rightVal;
-        public MShortRightNode(int bit, Node<K,V> left, K rightKey, V rightVal) {
-            super(bit);
+        public MShortRightNode(int bit, Generation owner, Node<K,V> left, K rightKey, V rightVal) {
+            super(bit, owner);
             this.left = left;
             this.rightKey = rightKey;
             this.rightVal = rightVal;
@@ -80,25 +121,37 @@ public final class MCritBitTree<K,V> extends AbstractCritBitTree<K,V> implements
         public Node<K,V> left(Context<K,V> ctx) { return left; }
         public Node<K,V> right(Context<K,V> ctx) { return ctx.nf.mkLeaf(rightKey, rightVal); }
         public Node<K,V> setLeft(int diffBit, K key, V val, Context<K,V> ctx) {
-            this.left = left.insert(diffBit, key, val, ctx);
-            return this;
+            Node<K,V> newLeft = left.insert(diffBit, key, val, ctx);
+            if(owned(ctx)) {
+                this.left = newLeft;
+                return this;
+            }
+            return ctx.nf.mkShortRight(bit(), newLeft, rightKey, rightVal);
         }
         public Node<K,V> setRight(int diffBit, K key, V val, Context<K,V> ctx) {
             if(diffBit < 0) {
-                this.rightVal = val;
-                return this;
+                if(owned(ctx)) {
+                    this.rightVal = val;
+                    return this;
+                }
+                return ctx.nf.mkShortRight(bit(), left, rightKey, val);
             }
             Node<K,V> newRight = mkShortBothChild(diffBit, key, val, rightKey, rightVal, ctx);
             return ctx.nf.mkTall(bit(), left, newRight);
         }
         protected Node<K,V> removeLeft(K key, Context<K,V> ctx, boolean force) {
             Node<K,V> newLeft = left.remove(key, ctx, force);
-            if(newLeft.isInternal()) {
-                this.left = newLeft;
+            if(newLeft == left) {
                 return this;
-            } else {
+            }
+            if(!newLeft.isInternal()) {
                 return ctx.nf.mkShortBoth(bit(), newLeft.getKey(), newLeft.getValue(), rightKey, rightVal);
             }
+            if(owned(ctx)) {
+                this.left = newLeft;
+                return this;
+            }
+            return ctx.nf.mkShortRight(bit(), newLeft, rightKey, rightVal);
         }
         protected Node<K,V> removeRight(K key, Context<K,V> ctx, boolean force) {
             if(force || ctx.chk.bitIndex(key, this.rightKey) < 0) {
@@ -108,70 +161,204 @@ public final class MCritBitTree<K,V> extends AbstractCritBitTree<K,V> implements
         }
         public boolean hasExternalLeft() { return false; }
         public boolean hasExternalRight() { return true; }
+        public K rightKey() { return rightKey; }
+        public V rightValue() { return rightVal; }
     }
 
-    static final class MTallNode<K,V> extends AbstractInternal<K,V> {
+    static class MTallNode<K,V> extends MInternal<K,V> {
         private static final long serialVersionUID = 20110212L;
         private Node<K,V> left;
         private Node<K,V> right;
-        public MTallNode(int bit, Node<K,V> left, Node<K,V> right) {
-            super(bit);
+        public MTallNode(int bit, Generation owner, Node<K,V> left, Node<K,V> right) {
+            super(bit, owner);
             this.left = left;
             this.right = right;
         }
         public Node<K,V> left(Context<K,V> ctx) { return left; }
         public Node<K,V> right(Context<K,V> ctx) { return right; }
         public Node<K,V> setLeft(int diffBit, K key, V val, Context<K,V> ctx) {
-            this.left = left.insert(diffBit, key, val, ctx);
-            return this;
+            Node<K,V> newLeft = left.insert(diffBit, key, val, ctx);
+            if(owned(ctx)) {
+                this.left = newLeft;
+                return this;
+            }
+            return ctx.nf.mkTall(bit(), newLeft, right);
         }
         public Node<K,V> setRight(int diffBit, K key, V val, Context<K,V> ctx) {
-            this.right = right.insert(diffBit, key, val, ctx);
-            return this;
+            Node<K,V> newRight = right.insert(diffBit, key, val, ctx);
+            if(owned(ctx)) {
+                this.right = newRight;
+                return this;
+            }
+            return ctx.nf.mkTall(bit(), left, newRight);
         }
         protected Node<K,V> removeLeft(K key, Context<K,V> ctx, boolean force) {
             Node<K,V> newLeft = left.remove(key, ctx, force);
-            if(newLeft.isInternal()) {
-                this.left = newLeft;
+            if(newLeft == left) {
                 return this;
-            } else {
+            }
+            if(!newLeft.isInternal()) {
                 return ctx.nf.mkShortLeft(bit(), newLeft.getKey(), newLeft.getValue(), right);
             }
+            if(owned(ctx)) {
+                this.left = newLeft;
+                return this;
+            }
+            return ctx.nf.mkTall(bit(), newLeft, right);
         }
         protected Node<K,V> removeRight(K key, Context<K,V> ctx, boolean force) {
             Node<K,V> newRight = right.remove(key, ctx, force);
-            if(newRight.isInternal()) {
-                this.right = newRight;
+            if(newRight == right) {
                 return this;
-            } else {
+            }
+            if(!newRight.isInternal()) {
                 return ctx.nf.mkShortRight(bit(), left, newRight.getKey(), newRight.getValue());
             }
+            if(owned(ctx)) {
+                this.right = newRight;
+                return this;
+            }
+            return ctx.nf.mkTall(bit(), left, newRight);
         }
         public boolean hasExternalLeft() { return false; }
         public boolean hasExternalRight() { return false; }
     }
 
-    static final class MutableNodeFactory<K,V> implements NodeFactory<K,V> {
+    /*
+     * Counted nodes add the number of keys under them, summed again from
+     * their children whenever they're changed in place.  That only keeps
+     * counts right if every node on the path gets the chance, so a counted
+     * tree always edits from the root down.
+     */
+
+    static final class CountedMShortLeftNode<K,V> extends MShortLeftNode<K,V> implements Counted {
+        private static final long serialVersionUID = 20261017L;
+        private int count;
+        CountedMShortLeftNode(int bit, Generation owner, K leftKey, V leftVal, Node<K,V> right) {
+            super(bit, owner, leftKey, leftVal, right);
+            this.count = childSizes(this);
+        }
+        public int count() { return count; }
+        private Node<K,V> recount(Node<K,V> n) {
+            if(n == this) {
+                count = childSizes(this);
+            }
+            return n;
+        }
+        public Node<K,V> setLeft(int diffBit, K key, V val, Context<K,V> ctx) {
+            return recount(super.setLeft(diffBit, key, val, ctx));
+        }
+        public Node<K,V> setRight(int diffBit, K key, V val, Context<K,V> ctx) {
+            return recount(super.setRight(diffBit, key, val, ctx));
+        }
+        protected Node<K,V> removeLeft(K key, Context<K,V> ctx, boolean force) {
+            return recount(super.removeLeft(key, ctx, force));
+        }
+        protected Node<K,V> removeRight(K key, Context<K,V> ctx, boolean force) {
+            return recount(super.removeRight(key, ctx, force));
+        }
+    }
+
+    static final class CountedMShortRightNode<K,V> extends MShortRightNode<K,V> implements Counted {
+        private static final long serialVersionUID = 20261017L;
+        private int count;
+        CountedMShortRightNode(int bit, Generation owner, Node<K,V> left, K rightKey, V rightVal) {
+            super(bit, owner, left, rightKey, rightVal);
+            this.count = childSizes(this);
+        }
+        public int count() { return count; }
+        private Node<K,V> recount(Node<K,V> n) {
+            if(n == this) {
+                count = childSizes(this);
+            }
+            return n;
+        }
+        public Node<K,V> setLeft(int diffBit, K key, V val, Context<K,V> ctx) {
+            return recount(super.setLeft(diffBit, key, val, ctx));
+        }
+        public Node<K,V> setRight(int diffBit, K key, V val, Context<K,V> ctx) {
+            return recount(super.setRight(diffBit, key, val, ctx));
+        }
+        protected Node<K,V> removeLeft(K key, Context<K,V> ctx, boolean force) {
+            return recount(super.removeLeft(key, ctx, force));
+        }
+        protected Node<K,V> removeRight(K key, Context<K,V> ctx, boolean force) {
+            return recount(super.removeRight(key, ctx, force));
+        }
+    }
+
+    static final class CountedMTallNode<K,V> extends MTallNode<K,V> implements Counted {
+        private static final long serialVersionUID = 20261017L;
+        private int count;
+        CountedMTallNode(int bit, Generation owner, Node<K,V> left, Node<K,V> right) {
+            super(bit, owner, left, right);
+            this.count = childSizes(this);
+        }
+        public int count() { return count; }
+        private Node<K,V> recount(Node<K,V> n) {
+            if(n == this) {
+                count = childSizes(this);
+            }
+            return n;
+        }
+        public Node<K,V> setLeft(int diffBit, K key, V val, Context<K,V> ctx) {
+            return recount(super.setLeft(diffBit, key, val, ctx));
+        }
+        public Node<K,V> setRight(int diffBit, K key, V val, Context<K,V> ctx) {
+            return recount(super.setRight(diffBit, key, val, ctx));
+        }
+        protected Node<K,V> removeLeft(K key, Context<K,V> ctx, boolean force) {
+            return recount(super.removeLeft(key, ctx, force));
+        }
+        protected Node<K,V> removeRight(K key, Context<K,V> ctx, boolean force) {
+            return recount(super.removeRight(key, ctx, force));
+        }
+    }
+
+    /**
+     * Identifies a generation of one tree's nodes; see snapshot().
+     */
+    static final class Generation implements Serializable {
+        private static final long serialVersionUID = 20261017L;
+    }
+
+    static class MutableNodeFactory<K,V> implements NodeFactory<K,V> {
         private static final long serialVersionUID = 20110212L;
+        Generation current = new Generation();
         public Node<K,V> mkShortBoth(int diffBit, K lk, V lv, K rk, V rv) {
             return new ShortBothNode<K,V>(diffBit, lk, lv, rk, rv);
         }
         public Node<K,V> mkShortRight(int diffBit, Node<K,V> left, K k, V v) {
-            return new MShortRightNode<K,V>(diffBit, left, k, v);
+            return new MShortRightNode<K,V>(diffBit, current, left, k, v);
         }
         public Node<K,V> mkShortLeft(int diffBit, K k, V v, Node<K,V> right) {
-            return new MShortLeftNode<K,V>(diffBit, k, v, right);
+            return new MShortLeftNode<K,V>(diffBit, current, k, v, right);
         }
         public Node<K,V> mkTall(int diffBit, Node<K,V> left, Node<K,V> right) {
-            return new MTallNode<K,V>(diffBit, left, right);
+            return new MTallNode<K,V>(diffBit, current, left, right);
         }
         public Node<K,V> mkLeaf(K key, V val) {
             return new LeafNode<K,V>(key, val);
         }
     }
 
+    static final class CountedMutableNodeFactory<K,V> extends MutableNodeFactory<K,V>
+        implements CountingNodeFactory<K,V> {
+        private static final long serialVersionUID = 20261017L;
+        public Node<K,V> mkShortRight(int diffBit, Node<K,V> left, K k, V v) {
+            return new CountedMShortRightNode<K,V>(diffBit, current, left, k, v);
+        }
+        public Node<K,V> mkShortLeft(int diffBit, K k, V v, Node<K,V> right) {
+            return new CountedMShortLeftNode<K,V>(diffBit, current, k, v, right);
+        }
+        public Node<K,V> mkTall(int diffBit, Node<K,V> left, Node<K,V> right) {
+            return new CountedMTallNode<K,V>(diffBit, current, left, right);
+        }
+    }
+
     private Node<K,V> root;
     private int size = 0;
+    private int modCount = 0;
 
     public MCritBitTree(KeyAnalyzer<K> analyzer) {
         this(null,
@@ -183,10 +370,86 @@ public final class MCritBitTree<K,V> extends AbstractCritBitTree<K,V> implements
         this.root = root;
     }
 
+    /**
+     * Returns an empty tree whose internal nodes each keep the number of
+     * keys under them, so rank(), select(), countPrefix(), countRange(),
+     * removePrefix() and removeRange() take O(depth).  Each internal node
+     * takes an int more, and puts and removes always descend from the root
+     * to keep the counts along the path right.
+     */
+    public static <K,V> MCritBitTree<K,V> counted(KeyAnalyzer<K> analyzer) {
+        return new MCritBitTree<K,V>(null,
+                                     new Context<K,V>(analyzer, new CountedMutableNodeFactory<K,V>()));
+    }
+
+    /**
+     * Builds a tree from entries already in ascending key order, as defined
+     * by the analyzer's bit order, in one linear pass.
+     *
+     * @throws IllegalArgumentException if a key isn't strictly greater than
+     *         the one before it
+     */
+    public static <K,V> MCritBitTree<K,V> fromSorted(KeyAnalyzer<K> analyzer,
+                                                     Iterable<? extends Map.Entry<? extends K, ? extends V>> entries) {
+        Context<K,V> ctx = new Context<K,V>(analyzer, new MutableNodeFactory<K,V>());
+        SortedBuilder<K,V> builder = new SortedBuilder<K,V>(ctx);
+        for(Map.Entry<? extends K, ? extends V> e: entries) {
+            builder.add(e.getKey(), e.getValue());
+        }
+        MCritBitTree<K,V> out = new MCritBitTree<K,V>(builder.finish(), ctx);
+        out.size = builder.size();
+        return out;
+    }
+
+    /**
+     * Like fromSorted(analyzer, entries), with keys and values in parallel
+     * arrays.
+     */
+    public static <K,V> MCritBitTree<K,V> fromSorted(KeyAnalyzer<K> analyzer, K[] keys, V[] vals) {
+        if(keys.length != vals.length) {
+            throw new IllegalArgumentException("keys.length != vals.length");
+        }
+        Context<K,V> ctx = new Context<K,V>(analyzer, new MutableNodeFactory<K,V>());
+        SortedBuilder<K,V> builder = new SortedBuilder<K,V>(ctx);
+        for(int i=0; i<keys.length; i++) {
+            builder.add(keys[i], vals[i]);
+        }
+        MCritBitTree<K,V> out = new MCritBitTree<K,V>(builder.finish(), ctx);
+        out.size = builder.size();
+        return out;
+    }
+
     Node<K,V> root() { return root; }
     public int size() { return size; }
 
+    /**
+     * Nodes this tree can still change in place; only those can be edited
+     * without copying their parent.  Counted nodes are left out: editing
+     * one on its own would leave the counts above it stale.
+     */
+    private boolean owned(Node<K,V> n) {
+        return n instanceof MInternal && !(n instanceof Counted)
+            && AbstractCritBitTree.<MInternal<K,V>>cast(n).owned(ctx());
+    }
+
+    /**
+     * Returns the current contents as a CritBitTree, in constant time.
+     * The snapshot shares this tree's nodes, and later writes to this tree
+     * copy whatever nodes they'd otherwise have changed, so it never sees
+     * them.  Only paths written after a snapshot pay for it, once each.
+     */
+    public CritBitTree<K,V> snapshot() {
+        MutableNodeFactory<K,V> nf = AbstractCritBitTree.<MutableNodeFactory<K,V>>cast(ctx().nf);
+        nf.current = new Generation();
+        NodeFactory<K,V> sealed = counted() ? new CritBitTree.CountedNodeFactory<K,V>()
+                                            : new CritBitTree.ImmutableNodeFactory<K,V>();
+        return new CritBitTree<K,V>(root, size, new Context<K,V>(ctx().chk, sealed));
+    }
+
     public V put(K key, V val) {
+        //Even a new value may mean a new node, if the old one is shared
+        //with a snapshot.
+        modCount++;
         if(root == null) {
             root = ctx().nf.mkLeaf(key, val);
             size++;
@@ -218,6 +481,10 @@ public final class MCritBitTree<K,V> extends AbstractCritBitTree<K,V> implements
             root = root.insert(diffBit, key, val, ctx());
             return out;
         } else if(diffBit < 0 || diffBit >= sr.parent.bit()) {
+            if(!owned(sr.parent)) {
+                root = root.insert(diffBit, key, val, ctx());
+                return out;
+            }
             switch(sr.pDirection) {
             case LEFT:
                 sr.parent.setLeft(diffBit, key, val, ctx());
@@ -237,7 +504,9 @@ public final class MCritBitTree<K,V> extends AbstractCritBitTree<K,V> implements
         Node<K,V> current = prev.nextNode(key, ctx());
         for(;;) {
             if(diffBit < current.bit()) {
-                if(ctx().chk.isBitSet(key, prev.bit())) {
+                if(!owned(prev)) {
+                    root = root.insert(diffBit, key, val, ctx());
+                } else if(ctx().chk.isBitSet(key, prev.bit())) {
                     prev.setRight(diffBit, key, val, ctx());
                 } else {
                     prev.setLeft(diffBit, key, val, ctx());
@@ -266,6 +535,7 @@ public final class MCritBitTree<K,V> extends AbstractCritBitTree<K,V> implements
                 V out = root.getValue();
                 root = null;
                 size--;
+                modCount++;
                 return out;
             } else {
                 return null;
@@ -281,12 +551,13 @@ public final class MCritBitTree<K,V> extends AbstractCritBitTree<K,V> implements
                 if(cur.hasExternalLeft()) {
                     Node<K,V> leftNode = cur.left(ctx());
                     if(ctx().chk.bitIndex(key, leftNode.getKey()) < 0) {
-                        if(grandparent == null) {
+                        if(grandparent == null || !owned(grandparent)) {
                             root = root.remove(key, ctx(), true);
                         } else {
                             grandparent.remove(key, ctx(), true);
                         }
                         size--;
+                        modCount++;
                         return leftNode.getValue();
                     } else {
                         return null;
@@ -300,12 +571,13 @@ public final class MCritBitTree<K,V> extends AbstractCritBitTree<K,V> implements
                 if(cur.hasExternalRight()) {
                     Node<K,V> rightNode = cur.right(ctx());
                     if(ctx().chk.bitIndex(key, rightNode.getKey()) < 0) {
-                        if(grandparent == null) {
+                        if(grandparent == null || !owned(grandparent)) {
                             root = root.remove(key, ctx(), true);
                         } else {
                             grandparent.remove(key, ctx(), true);
                         }
                         size--;
+                        modCount++;
                         return rightNode.getValue();
                     } else {
                         return null;
@@ -322,25 +594,149 @@ public final class MCritBitTree<K,V> extends AbstractCritBitTree<K,V> implements
     public void clear() {
         this.root = null;
         this.size = 0;
+        modCount++;
+    }
+
+    /**
+     * Removes every key starting with prefix by cutting out the one node
+     * they all hang off, and returns how many there were.  The tree itself
+     * changes in O(depth); counting what went takes a walk over it unless
+     * the tree is counted.
+     */
+    public int removePrefix(K prefix) {
+        if(root == null) {
+            return 0;
+        }
+        Cut<K,V> cut = new Cut<K,V>(true);
+        root = cutPrefix(root, prefix, ctx().chk.lengthInBits(prefix), cut);
+        size -= cut.removed;
+        modCount++;
+        return cut.removed;
+    }
+
+    /**
+     * Removes the keys from from (inclusive) to to (exclusive), cutting
+     * out whole subtrees between the two bounds, and returns how many there
+     * were.  Only the search paths to the bounds are relinked.
+     */
+    public int removeRange(K from, K to) {
+        if(root == null) {
+            return 0;
+        }
+        Cut<K,V> cut = new Cut<K,V>(true);
+        root = cutRange(from, to, cut);
+        size -= cut.removed;
+        modCount++;
+        return cut.removed;
+    }
+
+    public K firstKey() {
+        if(root == null) {
+            throw new NoSuchElementException();
+        }
+        return min().getKey();
+    }
+
+    public K lastKey() {
+        if(root == null) {
+            throw new NoSuchElementException();
+        }
+        return max().getKey();
+    }
+
+    public Map.Entry<K,V> pollFirstEntry() {
+        Map.Entry<K,V> e = min();
+        if(e != null) {
+            remove(e.getKey());
+        }
+        return e;
+    }
+
+    public Map.Entry<K,V> pollLastEntry() {
+        Map.Entry<K,V> e = max();
+        if(e != null) {
+            remove(e.getKey());
+        }
+        return e;
+    }
+
+    /*
+     * Range and descending views are CritBitSubMaps: lazy, bounded windows
+     * onto this tree that write through to it.
+     */
+
+    public NavigableMap<K,V> descendingMap() {
+        return CritBitSubMap.all(this, this).descendingMap();
+    }
+
+    public NavigableSet<K> navigableKeySet() {
+        return new CritBitSubMap.KeySet<K>(this);
+    }
+
+    public NavigableSet<K> descendingKeySet() {
+        return descendingMap().navigableKeySet();
+    }
+
+    public NavigableMap<K,V> subMap(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive) {
+        return CritBitSubMap.all(this, this).subMap(fromKey, fromInclusive, toKey, toInclusive);
+    }
+
+    public NavigableMap<K,V> headMap(K toKey, boolean inclusive) {
+        return CritBitSubMap.all(this, this).headMap(toKey, inclusive);
+    }
+
+    public NavigableMap<K,V> tailMap(K fromKey, boolean inclusive) {
+        return CritBitSubMap.all(this, this).tailMap(fromKey, inclusive);
     }
 
-    protected final Decision doTraverse(Node<K,V> top,
-                                        Cursor<? super K, ? super V> cursor) {
-        if(top.isInternal()) {
-            Decision d = doTraverse(top.left(ctx()), cursor);
-            switch(d) {
-            case REMOVE_AND_EXIT: //fall through
-            case EXIT:
-                return Decision.EXIT;
-            case REMOVE: //fall through
-            case CONTINUE:
-            default:
-                return doTraverse(top.right(ctx()), cursor);
+    /**
+     * A live view of the keys starting with prefix; see CritBitPrefixMap.
+     */
+    public CritBitPrefixMap<K,V> prefixMap(K prefix) {
+        return new CritBitPrefixMap<K,V>(this, this, null, prefix);
+    }
+
+    public SortedMap<K,V> subMap(K fromKey, K toKey) { return subMap(fromKey, true, toKey, false); }
+    public SortedMap<K,V> headMap(K toKey) { return headMap(toKey, false); }
+    public SortedMap<K,V> tailMap(K fromKey) { return tailMap(fromKey, true); }
+
+    boolean removesInTraversal() {
+        return true;
+    }
+
+    int modCount() {
+        return modCount;
+    }
+
+    void pruned(Node<K,V> root, int removed) {
+        this.root = root;
+        this.size -= removed;
+        modCount++;
+    }
+
+    /**
+     * Relinks the node in place when the new children fit its shape.
+     */
+    Node<K,V> rejoin(Node<K,V> n, Node<K,V> left, Node<K,V> right) {
+        if(owned(n)) {
+            if(n instanceof MTallNode && left.isInternal() && right.isInternal()) {
+                MTallNode<K,V> t = AbstractCritBitTree.<MTallNode<K,V>>cast(n);
+                t.left = left;
+                t.right = right;
+                return t;
+            }
+            if(n instanceof MShortLeftNode && right.isInternal()
+               && !left.isInternal() && left.getKey() == n.leftKey()) {
+                AbstractCritBitTree.<MShortLeftNode<K,V>>cast(n).right = right;
+                return n;
+            }
+            if(n instanceof MShortRightNode && left.isInternal()
+               && !right.isInternal() && right.getKey() == n.rightKey()) {
+                AbstractCritBitTree.<MShortRightNode<K,V>>cast(n).left = left;
+                return n;
             }
-        } else {
-            Map.Entry<K,V> e = AbstractCritBitTree.<Map.Entry<K,V>>cast(top);
-            return cursor.select(e);
         }
+        return super.rejoin(n, left, right);
     }
 
 	@Override
@@ -367,6 +763,7 @@ public final class MCritBitTree<K,V> extends AbstractCritBitTree<K,V> implements
 		private final MCritBitTree<K,V> tree;
     	private final List<Node<K,V>> stack = new ArrayList<Node<K,V>>();
     	private Node<K,V> next = null;
+    	private Node<K,V> last = null;
 
     	public NodeIterator(MCritBitTree<K,V> tree) {
     		this.tree = tree;
@@ -418,14 +815,57 @@ public final class MCritBitTree<K,V> extends AbstractCritBitTree<K,V> implements
 			if(hasNext()) {
 				final Node<K,V> out = next;
 				next = null;
+				last = out;
 				return out;
 			}
             throw new NoSuchElementException();
         }
 
+		/**
+		 * Removes the last key returned, then finds the way back: the path
+		 * to where that key was, which may have been reshaped, is walked
+		 * again from the root.  Below the bit where the key parts from what's
+		 * left there, every key is on one side of it, so either the whole
+		 * subtree is still to come or none of it is.
+		 */
 		@Override
         public void remove() {
-			throw new UnsupportedOperationException();
+			if(last == null) {
+				throw new IllegalStateException();
+			}
+			final K key = last.getKey();
+			last = null;
+			tree.remove(key);
+			stack.clear();
+			next = null;
+			if(tree.isEmpty()) {
+				return;
+			}
+
+			final Context<K,V> ctx = tree.ctx();
+			Node<K,V> curr = tree.root();
+			while(curr.isInternal()) {
+				curr = curr.nextNode(key, ctx);
+			}
+			final K near = curr.getKey();
+			final int diffBit = ctx.chk.bitIndex(key, near);
+
+			curr = tree.root();
+			while(curr.isInternal() && curr.bit() < diffBit) {
+				if(ctx.chk.isBitSet(key, curr.bit())) {
+					curr = curr.right(ctx);
+				} else {
+					push(curr);
+					curr = curr.left(ctx);
+				}
+			}
+			if(ctx.chk.isBitSet(near, diffBit)) {
+				while(curr.isInternal()) {
+					push(curr);
+					curr = curr.left(ctx);
+				}
+				next = curr;
+			}
         }
     }
 
@@ -441,6 +881,8 @@ public final class MCritBitTree<K,V> extends AbstractCritBitTree<K,V> implements
 	    }
 		@Override
 		public int size() { return tree.size(); }
+		@Override
+		public Spliterator<Entry<K,V>> spliterator() { return tree.spliterator(); }
 		private static class EntryIterator<K,V> implements Iterator<Entry<K,V>> {
 			private final Iterator<Node<K,V>> base;
 			public EntryIterator(Iterator<Node<K,V>> base) {
@@ -0,0 +1,311 @@
+package io.prelink.critbit;
+
+/**
+ * Like LongCritBitTree, except w/ nodes that are mutable where it makes
+ * sense; the primitive-keyed counterpart of MCritBitTree.
+ */
+public final class MLongCritBitTree<V> extends AbstractLongCritBitTree<V> {
+
+    private static final long serialVersionUID = 20261017L;
+
+    static final class MShortLeftNode<V> extends AbstractInternal<V> {
+        private static final long serialVersionUID = 20261017L;
+        private final long leftKey;
+        private V leftVal;
+        private Node<V> right;
+        public MShortLeftNode(int bit, long leftKey, V leftVal, Node<V> right) {
+            super(bit);
+            this.leftKey = leftKey;
+            this.leftVal = leftVal;
+            this.right = right;
+        }
+        public Node<V> left(NodeFactory<V> nf) { return nf.mkLeaf(leftKey, leftVal); }
+        public Node<V> right(NodeFactory<V> nf) { return right; }
+        public Node<V> setLeft(int diffBit, long key, V val, NodeFactory<V> nf) {
+            if(diffBit < 0) {
+                this.leftVal = val;
+                return this;
+            }
+            Node<V> newLeft = mkShortBothChild(diffBit, key, val, leftKey, leftVal, nf);
+            return nf.mkTall(bit(), newLeft, right);
+        }
+        public Node<V> setRight(int diffBit, long key, V val, NodeFactory<V> nf) {
+            this.right = right.insert(diffBit, key, val, nf);
+            return this;
+        }
+        public boolean hasExternalLeft() { return true; }
+        public boolean hasExternalRight() { return false; }
+        public long leftKey() { return leftKey; }
+        public V leftValue() { return leftVal; }
+        protected Node<V> removeLeft(long key, NodeFactory<V> nf, boolean force) {
+            if(force || key == this.leftKey) {
+                return right;
+            }
+            return this;
+        }
+        protected Node<V> removeRight(long key, NodeFactory<V> nf, boolean force) {
+            Node<V> newRight = right.remove(key, nf, force);
+            if(newRight.isInternal()) {
+                this.right = newRight;
+                return this;
+            } else {
+                return nf.mkShortBoth(bit(), leftKey, leftVal, newRight.getKey(), newRight.getValue());
+            }
+        }
+    }
+
+    static final class MShortRightNode<V> extends AbstractInternal<V> {
+        private static final long serialVersionUID = 20261017L;
+        private Node<V> left;
+        private final long rightKey;
+        private V rightVal;
+        public MShortRightNode(int bit, Node<V> left, long rightKey, V rightVal) {
+            super(bit);
+            this.left = left;
+            this.rightKey = rightKey;
+            this.rightVal = rightVal;
+        }
+        public Node<V> left(NodeFactory<V> nf) { return left; }
+        public Node<V> right(NodeFactory<V> nf) { return nf.mkLeaf(rightKey, rightVal); }
+        public Node<V> setLeft(int diffBit, long key, V val, NodeFactory<V> nf) {
+            this.left = left.insert(diffBit, key, val, nf);
+            return this;
+        }
+        public Node<V> setRight(int diffBit, long key, V val, NodeFactory<V> nf) {
+            if(diffBit < 0) {
+                this.rightVal = val;
+                return this;
+            }
+            Node<V> newRight = mkShortBothChild(diffBit, key, val, rightKey, rightVal, nf);
+            return nf.mkTall(bit(), left, newRight);
+        }
+        protected Node<V> removeLeft(long key, NodeFactory<V> nf, boolean force) {
+            Node<V> newLeft = left.remove(key, nf, force);
+            if(newLeft.isInternal()) {
+                this.left = newLeft;
+                return this;
+            } else {
+                return nf.mkShortBoth(bit(), newLeft.getKey(), newLeft.getValue(), rightKey, rightVal);
+            }
+        }
+        protected Node<V> removeRight(long key, NodeFactory<V> nf, boolean force) {
+            if(force || key == this.rightKey) {
+                return left;
+            }
+            return this;
+        }
+        public boolean hasExternalLeft() { return false; }
+        public boolean hasExternalRight() { return true; }
+        public long rightKey() { return rightKey; }
+        public V rightValue() { return rightVal; }
+    }
+
+    static final class MTallNode<V> extends AbstractInternal<V> {
+        private static final long serialVersionUID = 20261017L;
+        private Node<V> left;
+        private Node<V> right;
+        public MTallNode(int bit, Node<V> left, Node<V> right) {
+            super(bit);
+            this.left = left;
+            this.right = right;
+        }
+        public Node<V> left(NodeFactory<V> nf) { return left; }
+        public Node<V> right(NodeFactory<V> nf) { return right; }
+        public Node<V> setLeft(int diffBit, long key, V val, NodeFactory<V> nf) {
+            this.left = left.insert(diffBit, key, val, nf);
+            return this;
+        }
+        public Node<V> setRight(int diffBit, long key, V val, NodeFactory<V> nf) {
+            this.right = right.insert(diffBit, key, val, nf);
+            return this;
+        }
+        protected Node<V> removeLeft(long key, NodeFactory<V> nf, boolean force) {
+            Node<V> newLeft = left.remove(key, nf, force);
+            if(newLeft.isInternal()) {
+                this.left = newLeft;
+                return this;
+            } else {
+                return nf.mkShortLeft(bit(), newLeft.getKey(), newLeft.getValue(), right);
+            }
+        }
+        protected Node<V> removeRight(long key, NodeFactory<V> nf, boolean force) {
+            Node<V> newRight = right.remove(key, nf, force);
+            if(newRight.isInternal()) {
+                this.right = newRight;
+                return this;
+            } else {
+                return nf.mkShortRight(bit(), left, newRight.getKey(), newRight.getValue());
+            }
+        }
+        public boolean hasExternalLeft() { return false; }
+        public boolean hasExternalRight() { return false; }
+    }
+
+    static final class MutableNodeFactory<V> implements NodeFactory<V> {
+        private static final long serialVersionUID = 20261017L;
+        public Node<V> mkShortBoth(int diffBit, long lk, V lv, long rk, V rv) {
+            return new ShortBothNode<V>(diffBit, lk, lv, rk, rv);
+        }
+        public Node<V> mkShortRight(int diffBit, Node<V> left, long k, V v) {
+            return new MShortRightNode<V>(diffBit, left, k, v);
+        }
+        public Node<V> mkShortLeft(int diffBit, long k, V v, Node<V> right) {
+            return new MShortLeftNode<V>(diffBit, k, v, right);
+        }
+        public Node<V> mkTall(int diffBit, Node<V> left, Node<V> right) {
+            return new MTallNode<V>(diffBit, left, right);
+        }
+        public Node<V> mkLeaf(long key, V val) {
+            return new LeafNode<V>(key, val);
+        }
+    }
+
+    private Node<V> root;
+    private int size = 0;
+
+    public MLongCritBitTree() {
+        super(new MutableNodeFactory<V>());
+    }
+
+    Node<V> root() { return root; }
+    public int size() { return size; }
+
+    public V put(long key, V val) {
+        if(root == null) {
+            root = nf().mkLeaf(key, val);
+            size++;
+            return null;
+        }
+        if(!root.isInternal()) {
+            int diffBit = bitIndex(key, root.getKey());
+            V oldVal = root.getValue();
+            root = root.insert(diffBit, key, val, nf());
+            if(diffBit >= 0) {
+                size++;
+                return null;
+            } else {
+                return oldVal;
+            }
+        }
+
+        Node<V> parent = null;
+        Node<V> cur = root;
+        for(;;) {
+            boolean right = isBitSet(key, cur.bit());
+            if(right ? cur.hasExternalRight() : cur.hasExternalLeft()) {
+                break;
+            }
+            parent = cur;
+            cur = right ? cur.right(nf()) : cur.left(nf());
+        }
+        final boolean right = isBitSet(key, cur.bit());
+        final int diffBit = bitIndex(key, right ? cur.rightKey() : cur.leftKey());
+        final V out;
+        if(diffBit >= 0) {
+            out = null;
+            size++;
+        } else {
+            out = right ? cur.rightValue() : cur.leftValue();
+        }
+
+        if(parent == null) {
+            root = root.insert(diffBit, key, val, nf());
+            return out;
+        } else if(diffBit < 0 || diffBit >= parent.bit()) {
+            if(isBitSet(key, parent.bit())) {
+                parent.setRight(diffBit, key, val, nf());
+            } else {
+                parent.setLeft(diffBit, key, val, nf());
+            }
+            return out;
+        }
+
+        if(diffBit < root.bit()) {
+            root = root.insert(diffBit, key, val, nf());
+            return out;
+        }
+
+        Node<V> prev = root;
+        Node<V> current = prev.nextNode(key, nf());
+        for(;;) {
+            if(diffBit < current.bit()) {
+                if(isBitSet(key, prev.bit())) {
+                    prev.setRight(diffBit, key, val, nf());
+                } else {
+                    prev.setLeft(diffBit, key, val, nf());
+                }
+                return out;
+            } else {
+                prev = current;
+                current = current.nextNode(key, nf());
+            }
+        }
+    }
+
+    public V remove(long key) {
+        if(root == null) {
+            return null;
+        }
+        if(!root.isInternal()) {
+            if(key == root.getKey()) {
+                V out = root.getValue();
+                root = null;
+                size--;
+                return out;
+            } else {
+                return null;
+            }
+        }
+
+        Node<V> grandparent = null;
+        Node<V> parent = null;
+        Node<V> cur = root;
+        for(;;) {
+            switch(cur.next(key)) {
+            case LEFT:
+                if(cur.hasExternalLeft()) {
+                    if(key == cur.leftKey()) {
+                        V out = cur.leftValue();
+                        if(grandparent == null) {
+                            root = root.remove(key, nf(), true);
+                        } else {
+                            grandparent.remove(key, nf(), true);
+                        }
+                        size--;
+                        return out;
+                    } else {
+                        return null;
+                    }
+                }
+                grandparent = parent;
+                parent = cur;
+                cur = cur.left(nf());
+                break;
+            case RIGHT:
+                if(cur.hasExternalRight()) {
+                    if(key == cur.rightKey()) {
+                        V out = cur.rightValue();
+                        if(grandparent == null) {
+                            root = root.remove(key, nf(), true);
+                        } else {
+                            grandparent.remove(key, nf(), true);
+                        }
+                        size--;
+                        return out;
+                    } else {
+                        return null;
+                    }
+                }
+                grandparent = parent;
+                parent = cur;
+                cur = cur.right(nf());
+                break;
+            }
+        }
+    }
+
+    public void clear() {
+        this.root = null;
+        this.size = 0;
+    }
+}
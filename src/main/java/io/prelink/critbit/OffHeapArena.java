@@ -0,0 +1,206 @@
+package io.prelink.critbit;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Bump allocator over a list of direct ByteBuffer chunks, for
+ * OffHeapCritBitTree.  A reference is the chunk index in the high 32 bits
+ * and the offset in the low 32.  Allocations are 8-byte aligned, so the low
+ * bits of a reference are free for callers to tag.
+ *
+ * Freed blocks go on a free list per 8-byte size class and are handed back
+ * out before any new space is bumped.  Blocks bigger than the largest class
+ * aren't reused until clear().
+ *
+ * Reads use absolute gets only, so concurrent readers are safe as long as
+ * nobody is writing.  Not otherwise thread safe.
+ *
+ * A direct buffer's memory is normally only freed once the collector finds
+ * the buffer unreachable, however long that takes.  clear() frees chunks
+ * straight away instead, through Unsafe.invokeCleaner on Java 9 and later,
+ * or the buffer's Cleaner on Java 8.  If neither can be reached, the
+ * chunks are just dropped and left to the collector; RELEASES says which.
+ */
+final class OffHeapArena {
+
+    static final long NULL = -1L;
+
+    private static final int ALIGN = 8;
+    private static final int FIRST_CHUNK = 64 * 1024;
+    private static final int MAX_FREE_CLASS = 4096 / ALIGN;
+
+    /**
+     * Frees a direct buffer's memory now.  After that, any access to the
+     * buffer can crash the JVM, so nothing may hold on to it.
+     */
+    private static abstract class Releaser {
+        abstract void release(ByteBuffer buffer) throws Exception;
+
+        static Releaser find() {
+            try {
+                Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+                final Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+                Field f = unsafeClass.getDeclaredField("theUnsafe");
+                f.setAccessible(true);
+                final Object unsafe = f.get(null);
+                return new Releaser() {
+                    void release(ByteBuffer buffer) throws Exception {
+                        invokeCleaner.invoke(unsafe, buffer);
+                    }
+                };
+            } catch(Exception e) {
+                //Not Java 9+, or not allowed; try Java 8's way.
+            }
+            try {
+                final Method cleaner = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+                final Method clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+                return new Releaser() {
+                    void release(ByteBuffer buffer) throws Exception {
+                        clean.invoke(cleaner.invoke(buffer));
+                    }
+                };
+            } catch(Exception e) {
+                return null;
+            }
+        }
+    }
+
+    private static final Releaser RELEASER = Releaser.find();
+
+    /** Whether clear() frees chunks itself rather than leaving it to GC. */
+    static final boolean RELEASES = (RELEASER != null);
+
+    private final int maxChunkSize;
+    private ByteBuffer[] chunks = new ByteBuffer[8];
+    private int chunkCount = 0;
+    private int position = 0;
+    private final long[] freeLists = new long[MAX_FREE_CLASS + 1];
+    private long reserved = 0;
+    private long live = 0;
+
+    OffHeapArena(int maxChunkSize) {
+        if(maxChunkSize < FIRST_CHUNK) {
+            throw new IllegalArgumentException("maxChunkSize=" + maxChunkSize);
+        }
+        this.maxChunkSize = maxChunkSize;
+        Arrays.fill(freeLists, NULL);
+    }
+
+    static int align(int size) {
+        return (size + ALIGN - 1) & -ALIGN;
+    }
+
+    long allocate(int size) {
+        size = align(size);
+        int cls = size / ALIGN;
+        if(cls <= MAX_FREE_CLASS && freeLists[cls] != NULL) {
+            long ref = freeLists[cls];
+            freeLists[cls] = getLong(ref, 0);
+            live += size;
+            return ref;
+        }
+        if(chunkCount == 0 || chunks[chunkCount-1].capacity() - position < size) {
+            newChunk(size);
+        }
+        long ref = ((long)(chunkCount-1) << 32) | position;
+        position += size;
+        live += size;
+        return ref;
+    }
+
+    void free(long ref, int size) {
+        size = align(size);
+        live -= size;
+        int cls = size / ALIGN;
+        if(cls <= MAX_FREE_CLASS) {
+            putLong(ref, 0, freeLists[cls]);
+            freeLists[cls] = ref;
+        }
+    }
+
+    private void newChunk(int atLeast) {
+        int grown = (chunkCount == 0) ? FIRST_CHUNK
+                                      : Math.min(maxChunkSize, chunks[chunkCount-1].capacity() * 2);
+        if(chunkCount == chunks.length) {
+            chunks = Arrays.copyOf(chunks, chunks.length * 2);
+        }
+        ByteBuffer chunk = ByteBuffer.allocateDirect(Math.max(grown, atLeast));
+        chunk.order(ByteOrder.nativeOrder());
+        chunks[chunkCount++] = chunk;
+        reserved += chunk.capacity();
+        position = 0;
+    }
+
+    /**
+     * Drops every chunk, freeing its memory at once where RELEASES allows,
+     * and otherwise once the collector reclaims the buffer objects.
+     */
+    void clear() {
+        for(int i=0; i<chunkCount; i++) {
+            ByteBuffer chunk = chunks[i];
+            chunks[i] = null;
+            release(chunk);
+        }
+        chunkCount = 0;
+        position = 0;
+        reserved = 0;
+        live = 0;
+        Arrays.fill(freeLists, NULL);
+    }
+
+    private static void release(ByteBuffer chunk) {
+        if(RELEASER == null) {
+            return;
+        }
+        try {
+            RELEASER.release(chunk);
+        } catch(Exception e) {
+            //The collector will free it.
+        }
+    }
+
+    /** Bytes of direct memory held by the arena. */
+    long reservedBytes() { return reserved; }
+
+    /** Bytes in blocks that are currently allocated. */
+    long liveBytes() { return live; }
+
+    private ByteBuffer chunk(long ref) {
+        return chunks[(int)(ref >>> 32)];
+    }
+
+    byte getByte(long ref, int off) {
+        return chunk(ref).get((int)ref + off);
+    }
+    int getInt(long ref, int off) {
+        return chunk(ref).getInt((int)ref + off);
+    }
+    long getLong(long ref, int off) {
+        return chunk(ref).getLong((int)ref + off);
+    }
+    void putInt(long ref, int off, int value) {
+        chunk(ref).putInt((int)ref + off, value);
+    }
+    void putLong(long ref, int off, long value) {
+        chunk(ref).putLong((int)ref + off, value);
+    }
+    void getBytes(long ref, int off, byte[] dst) {
+        ByteBuffer chunk = chunk(ref);
+        int base = (int)ref + off;
+        for(int i=0; i<dst.length; i++) {
+            dst[i] = chunk.get(base + i);
+        }
+    }
+    void putBytes(long ref, int off, byte[] src) {
+        //Moving the position is fine here: writers are exclusive, and
+        //readers only use absolute gets.
+        ByteBuffer chunk = chunk(ref);
+        ((Buffer)chunk).position((int)ref + off);
+        chunk.put(src);
+    }
+}
@@ -0,0 +1,613 @@
+package io.prelink.critbit;
+
+import io.prelink.critbit.sharedbytearray.SharedByteArray;
+import io.prelink.critbit.sharedbytearray.ThinSBA;
+
+import java.io.Closeable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.ardverk.collection.Cursor;
+
+/**
+ * A mutable crit-bit tree that keeps its nodes, keys and values outside the
+ * Java heap, in direct ByteBuffer chunks.  The collector sees a handful of
+ * buffer objects no matter how many entries there are, so it's meant for
+ * very large indexes where marking MCritBitTree's node graph dominates GC.
+ *
+ * Keys are byte arrays or SharedByteArrays, compared bitwise from the first
+ * byte with missing bytes read as zero, i.e. with the same ordering and
+ * equality as SBAKeyAnalyzer.  Values are byte arrays; get() and iteration
+ * hand back copies.
+ *
+ * Call close() when done with it: that frees the chunks' memory right
+ * away on HotSpot-derived JVMs (see OffHeapArena), and any further use
+ * throws IllegalStateException.  Elsewhere the memory only goes back once
+ * the collector reclaims the chunk objects, which may not be soon, since
+ * they're few and small on the heap.  Not thread safe.
+ *
+ * Cursors' REMOVE decisions and Iterator.remove() are carried out as in
+ * MCritBitTree.  Iterators are fail-fast: freed blocks get reused, so once
+ * the tree changes other than through the iterator, it throws
+ * ConcurrentModificationException rather than follow a stale reference.
+ */
+public final class OffHeapCritBitTree<K> extends AbstractMap<K, byte[]> implements Closeable {
+
+    /**
+     * Byte-level access to the key types the tree can hold.
+     */
+    public static interface KeyBytes<K> {
+        int length(K key);
+        byte byteAt(K key, int index);
+        byte[] toBytes(K key);
+        K fromBytes(byte[] bytes);
+    }
+
+    public static final KeyBytes<byte[]> BYTE_ARRAY = new KeyBytes<byte[]>() {
+        public int length(byte[] key) { return key.length; }
+        public byte byteAt(byte[] key, int index) { return key[index]; }
+        public byte[] toBytes(byte[] key) { return key; }
+        public byte[] fromBytes(byte[] bytes) { return bytes; }
+    };
+
+    public static final KeyBytes<SharedByteArray> SHARED_BYTE_ARRAY = new KeyBytes<SharedByteArray>() {
+        public int length(SharedByteArray key) { return key.length(); }
+        public byte byteAt(SharedByteArray key, int index) { return key.byteAt(index); }
+        public byte[] toBytes(SharedByteArray key) { return key.toByteArray(); }
+        public SharedByteArray fromBytes(byte[] bytes) { return new ThinSBA(bytes); }
+    };
+
+    public static final int DEFAULT_MAX_CHUNK_SIZE = 64 * 1024 * 1024;
+
+    public static OffHeapCritBitTree<byte[]> forByteArrays() {
+        return new OffHeapCritBitTree<byte[]>(BYTE_ARRAY, DEFAULT_MAX_CHUNK_SIZE);
+    }
+
+    public static OffHeapCritBitTree<SharedByteArray> forSharedByteArrays() {
+        return new OffHeapCritBitTree<SharedByteArray>(SHARED_BYTE_ARRAY, DEFAULT_MAX_CHUNK_SIZE);
+    }
+
+    //References to leaves carry this tag in their (otherwise aligned) low bit.
+    private static final long LEAF = 1L;
+    private static final long NULL = OffHeapArena.NULL;
+
+    //Internal node: int crit bit, 4 bytes padding, long left, long right.
+    private static final int BIT = 0;
+    private static final int LEFT = 8;
+    private static final int RIGHT = 16;
+    private static final int INTERNAL_SIZE = 24;
+
+    //Leaf: int key length, int value length, key bytes, value bytes.
+    private static final int KEY_LEN = 0;
+    private static final int VAL_LEN = 4;
+    private static final int KEY = 8;
+
+    private final KeyBytes<K> keys;
+    private final OffHeapArena arena;
+    private long root = NULL;
+    private int size = 0;
+    //Bumped whenever a block is allocated, freed or relinked.
+    private int modCount = 0;
+    private boolean closed = false;
+
+    public OffHeapCritBitTree(KeyBytes<K> keys, int maxChunkSize) {
+        this.keys = keys;
+        this.arena = new OffHeapArena(maxChunkSize);
+    }
+
+    private static boolean isLeaf(long ref) {
+        return (ref & LEAF) != 0;
+    }
+
+    private static long untag(long ref) {
+        return ref & ~LEAF;
+    }
+
+    private void checkOpen() {
+        if(closed) {
+            throw new IllegalStateException("closed");
+        }
+    }
+
+    private boolean isBitSet(K key, int bit) {
+        int index = bit >>> 3;
+        if(index >= keys.length(key)) {
+            return false;
+        }
+        return (keys.byteAt(key, index) & (0x80 >>> (bit & 7))) != 0;
+    }
+
+    /**
+     * Returns the first bit at which key and the leaf's key differ, or -1
+     * if there is none.
+     */
+    private int bitIndex(K key, long leaf) {
+        int keyLen = keys.length(key);
+        int leafLen = arena.getInt(leaf, KEY_LEN);
+        int length = Math.max(keyLen, leafLen);
+        for(int i=0; i<length; i++) {
+            int b1 = (i < keyLen) ? keys.byteAt(key, i) : 0;
+            int b2 = (i < leafLen) ? arena.getByte(leaf, KEY + i) : 0;
+            if(b1 != b2) {
+                return i * Byte.SIZE + Integer.numberOfLeadingZeros((b1 ^ b2) & 0xFF) - 24;
+            }
+        }
+        return -1;
+    }
+
+    private boolean leafHasPrefix(long leaf, K prefix) {
+        int prefixLen = keys.length(prefix);
+        if(arena.getInt(leaf, KEY_LEN) < prefixLen) {
+            return false;
+        }
+        for(int i=0; i<prefixLen; i++) {
+            if(arena.getByte(leaf, KEY + i) != keys.byteAt(prefix, i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int leafSize(int keyLen, int valLen) {
+        return KEY + keyLen + valLen;
+    }
+
+    private long newLeaf(byte[] key, byte[] value) {
+        long leaf = arena.allocate(leafSize(key.length, value.length));
+        arena.putInt(leaf, KEY_LEN, key.length);
+        arena.putInt(leaf, VAL_LEN, value.length);
+        arena.putBytes(leaf, KEY, key);
+        arena.putBytes(leaf, KEY + key.length, value);
+        return leaf;
+    }
+
+    private void freeLeaf(long leaf) {
+        arena.free(leaf, leafSize(arena.getInt(leaf, KEY_LEN), arena.getInt(leaf, VAL_LEN)));
+    }
+
+    private byte[] readKeyBytes(long leaf) {
+        byte[] out = new byte[arena.getInt(leaf, KEY_LEN)];
+        arena.getBytes(leaf, KEY, out);
+        return out;
+    }
+
+    private byte[] readValue(long leaf) {
+        byte[] out = new byte[arena.getInt(leaf, VAL_LEN)];
+        arena.getBytes(leaf, KEY + arena.getInt(leaf, KEY_LEN), out);
+        return out;
+    }
+
+    private Map.Entry<K, byte[]> entry(long leaf) {
+        return new AbstractMap.SimpleImmutableEntry<K, byte[]>(
+                keys.fromBytes(readKeyBytes(leaf)), readValue(leaf));
+    }
+
+    private void setChild(long parent, int side, long child) {
+        if(parent == NULL) {
+            root = child;
+        } else {
+            arena.putLong(parent, side, child);
+        }
+    }
+
+    /**
+     * Returns the (untagged) leaf key's search ends at.  The tree must not
+     * be empty.
+     */
+    private long findLeaf(K key) {
+        long ref = root;
+        while(!isLeaf(ref)) {
+            int bit = arena.getInt(ref, BIT);
+            ref = arena.getLong(ref, isBitSet(key, bit) ? RIGHT : LEFT);
+        }
+        return untag(ref);
+    }
+
+    @Override
+    public int size() { return size; }
+
+    @Override
+    public boolean isEmpty() { return size == 0; }
+
+    @Override
+    public boolean containsKey(Object k) {
+        checkOpen();
+        K key = AbstractCritBitTree.<K>cast(k);
+        return root != NULL && bitIndex(key, findLeaf(key)) < 0;
+    }
+
+    @Override
+    public boolean containsValue(Object v) {
+        checkOpen();
+        if(!(v instanceof byte[])) {
+            return false;
+        }
+        for(Map.Entry<K, byte[]> e: entrySet()) {
+            if(Arrays.equals((byte[])v, e.getValue())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public byte[] get(Object k) {
+        checkOpen();
+        if(root == NULL) {
+            return null;
+        }
+        K key = AbstractCritBitTree.<K>cast(k);
+        long leaf = findLeaf(key);
+        return (bitIndex(key, leaf) < 0) ? readValue(leaf) : null;
+    }
+
+    @Override
+    public byte[] put(K key, byte[] value) {
+        checkOpen();
+        if(root == NULL) {
+            root = newLeaf(keys.toBytes(key), value) | LEAF;
+            size++;
+            modCount++;
+            return null;
+        }
+
+        long leaf = findLeaf(key);
+        int diffBit = bitIndex(key, leaf);
+        if(diffBit < 0) {
+            return replaceValue(key, leaf, value);
+        }
+
+        long parent = NULL;
+        int side = 0;
+        long cur = root;
+        while(!isLeaf(cur)) {
+            int bit = arena.getInt(cur, BIT);
+            if(bit > diffBit) {
+                break;
+            }
+            parent = cur;
+            side = isBitSet(key, bit) ? RIGHT : LEFT;
+            cur = arena.getLong(cur, side);
+        }
+
+        long newLeaf = newLeaf(keys.toBytes(key), value) | LEAF;
+        long node = arena.allocate(INTERNAL_SIZE);
+        arena.putInt(node, BIT, diffBit);
+        if(isBitSet(key, diffBit)) {
+            arena.putLong(node, LEFT, cur);
+            arena.putLong(node, RIGHT, newLeaf);
+        } else {
+            arena.putLong(node, LEFT, newLeaf);
+            arena.putLong(node, RIGHT, cur);
+        }
+        setChild(parent, side, node);
+        size++;
+        modCount++;
+        return null;
+    }
+
+    private byte[] replaceValue(K key, long leaf, byte[] value) {
+        byte[] old = readValue(leaf);
+        int keyLen = arena.getInt(leaf, KEY_LEN);
+        if(OffHeapArena.align(leafSize(keyLen, old.length))
+                == OffHeapArena.align(leafSize(keyLen, value.length))) {
+            arena.putInt(leaf, VAL_LEN, value.length);
+            arena.putBytes(leaf, KEY + keyLen, value);
+            return old;
+        }
+
+        long parent = NULL;
+        int side = 0;
+        long cur = root;
+        while(!isLeaf(cur)) {
+            parent = cur;
+            side = isBitSet(key, arena.getInt(cur, BIT)) ? RIGHT : LEFT;
+            cur = arena.getLong(cur, side);
+        }
+        setChild(parent, side, newLeaf(readKeyBytes(leaf), value) | LEAF);
+        freeLeaf(leaf);
+        modCount++;
+        return old;
+    }
+
+    @Override
+    public byte[] remove(Object k) {
+        checkOpen();
+        if(root == NULL) {
+            return null;
+        }
+        K key = AbstractCritBitTree.<K>cast(k);
+
+        long grandparent = NULL;
+        int gpSide = 0;
+        long parent = NULL;
+        int side = 0;
+        long cur = root;
+        while(!isLeaf(cur)) {
+            grandparent = parent;
+            gpSide = side;
+            parent = cur;
+            side = isBitSet(key, arena.getInt(cur, BIT)) ? RIGHT : LEFT;
+            cur = arena.getLong(cur, side);
+        }
+
+        long leaf = untag(cur);
+        if(bitIndex(key, leaf) >= 0) {
+            return null;
+        }
+        byte[] out = readValue(leaf);
+        if(parent == NULL) {
+            root = NULL;
+        } else {
+            long sibling = arena.getLong(parent, (side == LEFT) ? RIGHT : LEFT);
+            setChild(grandparent, gpSide, sibling);
+            arena.free(parent, INTERNAL_SIZE);
+        }
+        freeLeaf(leaf);
+        size--;
+        modCount++;
+        return out;
+    }
+
+    @Override
+    public void clear() {
+        checkOpen();
+        arena.clear();
+        root = NULL;
+        size = 0;
+        modCount++;
+    }
+
+    /**
+     * Releases the off-heap storage, at once where the JVM allows it.  The
+     * tree can't be used afterwards.
+     */
+    public void close() {
+        if(!closed) {
+            arena.clear();
+            root = NULL;
+            size = 0;
+            modCount++;
+            closed = true;
+        }
+    }
+
+    /** Bytes of direct memory currently reserved by the tree. */
+    public long reservedBytes() {
+        return arena.reservedBytes();
+    }
+
+    /** Bytes of direct memory in use by live nodes, keys and values. */
+    public long liveBytes() {
+        return arena.liveBytes();
+    }
+
+    public Map.Entry<K, byte[]> min() {
+        checkOpen();
+        if(root == NULL) {
+            return null;
+        }
+        long cur = root;
+        while(!isLeaf(cur)) {
+            cur = arena.getLong(cur, LEFT);
+        }
+        return entry(untag(cur));
+    }
+
+    public Map.Entry<K, byte[]> max() {
+        checkOpen();
+        if(root == NULL) {
+            return null;
+        }
+        long cur = root;
+        while(!isLeaf(cur)) {
+            cur = arena.getLong(cur, RIGHT);
+        }
+        return entry(untag(cur));
+    }
+
+    /**
+     * Runs cursor over every entry in key order.  REMOVE and
+     * REMOVE_AND_EXIT remove the entry, as Iterator.remove() would.
+     */
+    public void traverse(Cursor<? super K, ? super byte[]> cursor) {
+        checkOpen();
+        if(root == NULL) {
+            return;
+        }
+        run(new EntryIterator(), null, cursor);
+    }
+
+    /**
+     * Like traverse(), over just the keys starting with key.
+     */
+    public void traverseWithPrefix(K key, Cursor<? super K, ? super byte[]> cursor) {
+        checkOpen();
+        if(root == NULL) {
+            return;
+        }
+        int keyLen = keys.length(key) * Byte.SIZE;
+        long top = root;
+        long cur = root;
+        while(!isLeaf(cur)) {
+            int bit = arena.getInt(cur, BIT);
+            long next = arena.getLong(cur, isBitSet(key, bit) ? RIGHT : LEFT);
+            if(bit < keyLen) {
+                top = next;
+            }
+            cur = next;
+        }
+        if(!leafHasPrefix(untag(cur), key)) {
+            return;
+        }
+        //The keys with the prefix are all under top, so they follow on
+        //from its first leaf in order.
+        while(!isLeaf(top)) {
+            top = arena.getLong(top, LEFT);
+        }
+        run(new EntryIterator(keys.fromBytes(readKeyBytes(untag(top)))), key, cursor);
+    }
+
+    /**
+     * Runs cursor over the iterator's entries, stopping at the first that
+     * doesn't start with prefix, unless that's null.
+     */
+    private void run(EntryIterator it, K prefix, Cursor<? super K, ? super byte[]> cursor) {
+        while(it.hasNext()) {
+            long leaf = it.peek();
+            if(prefix != null && !leafHasPrefix(leaf, prefix)) {
+                return;
+            }
+            switch(cursor.select(it.next())) {
+            case REMOVE_AND_EXIT:
+                it.remove();
+                return;
+            case EXIT:
+                return;
+            case REMOVE:
+                it.remove();
+                break;
+            case CONTINUE:
+            default:
+                break;
+            }
+        }
+    }
+
+    private static final class NodeStack {
+        private long[] refs = new long[64];
+        private int size = 0;
+        void push(long ref) {
+            if(size == refs.length) {
+                refs = Arrays.copyOf(refs, size * 2);
+            }
+            refs[size++] = ref;
+        }
+        long pop() {
+            return refs[--size];
+        }
+        boolean isEmpty() {
+            return size == 0;
+        }
+        void clear() {
+            size = 0;
+        }
+    }
+
+    @Override
+    public Set<Map.Entry<K, byte[]>> entrySet() {
+        return new AbstractSet<Map.Entry<K, byte[]>>() {
+            @Override
+            public Iterator<Map.Entry<K, byte[]>> iterator() {
+                checkOpen();
+                return new EntryIterator();
+            }
+            @Override
+            public int size() { return size; }
+        };
+    }
+
+    /**
+     * Walks the leaves in order with a stack of the right subtrees still to
+     * visit.  The leaf to return next is found ahead of time, so remove()
+     * knows which key to carry on from.
+     */
+    private final class EntryIterator implements Iterator<Map.Entry<K, byte[]>> {
+        private final NodeStack stack = new NodeStack();
+        private long next = NULL;
+        private K last;
+        private boolean hasLast = false;
+        private int expectedModCount = modCount;
+        EntryIterator() {
+            if(root != NULL) {
+                descend(root);
+            }
+        }
+        /** Starts at the key start, which is in the tree. */
+        EntryIterator(K start) {
+            seek(start);
+        }
+        /** Pushes the right subtrees on the way to cur's first leaf. */
+        private void descend(long cur) {
+            while(!isLeaf(cur)) {
+                stack.push(arena.getLong(cur, RIGHT));
+                cur = arena.getLong(cur, LEFT);
+            }
+            next = untag(cur);
+        }
+        /** Makes key, which is in the tree, the next leaf, from the root. */
+        private void seek(K key) {
+            stack.clear();
+            long cur = root;
+            while(!isLeaf(cur)) {
+                long right = arena.getLong(cur, RIGHT);
+                if(isBitSet(key, arena.getInt(cur, BIT))) {
+                    cur = right;
+                } else {
+                    stack.push(right);
+                    cur = arena.getLong(cur, LEFT);
+                }
+            }
+            next = untag(cur);
+        }
+        private void checkForComodification() {
+            checkOpen();
+            if(modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+        }
+        /** The leaf next() will return; there must be one. */
+        long peek() {
+            checkForComodification();
+            return next;
+        }
+        @Override
+        public boolean hasNext() {
+            return next != NULL;
+        }
+        @Override
+        public Map.Entry<K, byte[]> next() {
+            if(next == NULL) {
+                throw new NoSuchElementException();
+            }
+            checkForComodification();
+            Map.Entry<K, byte[]> e = entry(next);
+            last = e.getKey();
+            hasLast = true;
+            if(stack.isEmpty()) {
+                next = NULL;
+            } else {
+                descend(stack.pop());
+            }
+            return e;
+        }
+        /**
+         * Removes the last key returned.  That frees its leaf and parent,
+         * which may be on the stack, so the path to the next leaf is found
+         * again from the root.
+         */
+        @Override
+        public void remove() {
+            if(!hasLast) {
+                throw new IllegalStateException();
+            }
+            checkForComodification();
+            K nextKey = (next == NULL) ? null : keys.fromBytes(readKeyBytes(next));
+            OffHeapCritBitTree.this.remove(last);
+            expectedModCount = modCount;
+            last = null;
+            hasLast = false;
+            if(nextKey == null) {
+                stack.clear();
+            } else {
+                seek(nextKey);
+            }
+        }
+    }
+}
@@ -0,0 +1,345 @@
+package io.prelink.critbit;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.ardverk.collection.Cursor;
+import org.ardverk.collection.KeyAnalyzer;
+
+/**
+ * A map split across 2^k MCritBitTrees by the top k bits of each key, each
+ * tree behind its own read/write lock, so writers to different shards
+ * don't wait on each other.
+ *
+ * Shard i holds exactly the keys whose top k bits spell i, so the shards
+ * cover disjoint key ranges in ascending order.  Ordered traversal, prefix
+ * traversal, min and max just visit shards in order, locking one at a
+ * time: each shard is seen consistently, but a traversal can see changes
+ * to shards it hasn't reached yet.  Cursors run under a shard's read lock
+ * and mustn't write to the map; their REMOVE decisions are ignored.
+ *
+ * Keys whose top bits are always the same all land in one shard; ASCII
+ * strings, for one, start with nine clear bits.  Pass leadingZeroBits to
+ * route on the bits after those instead.  Keys with any of them set are
+ * rejected, since they'd fall outside every shard's range.
+ */
+public final class ShardedCritBitMap<K,V> extends AbstractMap<K,V> {
+
+    private static final int MAX_SHARD_BITS = 16;
+
+    private final KeyAnalyzer<K> chk;
+    private final int skip;
+    private final int bits;
+    private final MCritBitTree<K,V>[] shards;
+    private final ReentrantReadWriteLock[] locks;
+
+    public ShardedCritBitMap(KeyAnalyzer<K> analyzer, int shardBits) {
+        this(analyzer, 0, shardBits);
+    }
+
+    public ShardedCritBitMap(KeyAnalyzer<K> analyzer, int leadingZeroBits, int shardBits) {
+        if(shardBits < 0 || shardBits > MAX_SHARD_BITS) {
+            throw new IllegalArgumentException("shardBits must be in [0, " + MAX_SHARD_BITS + "]: " + shardBits);
+        }
+        if(leadingZeroBits < 0) {
+            throw new IllegalArgumentException("leadingZeroBits < 0: " + leadingZeroBits);
+        }
+        this.chk = analyzer;
+        this.skip = leadingZeroBits;
+        this.bits = shardBits;
+        int n = 1 << shardBits;
+        this.shards = AbstractCritBitTree.<MCritBitTree<K,V>[]>cast(new MCritBitTree<?,?>[n]);
+        this.locks = new ReentrantReadWriteLock[n];
+        for(int i=0; i<n; i++) {
+            shards[i] = new MCritBitTree<K,V>(analyzer);
+            locks[i] = new ReentrantReadWriteLock();
+        }
+    }
+
+    public int shardCount() {
+        return shards.length;
+    }
+
+    private int shardOf(K key) {
+        int idx = 0;
+        for(int b=0; b<bits; b++) {
+            idx = (idx << 1) | (chk.isBitSet(key, skip + b) ? 1 : 0);
+        }
+        return idx;
+    }
+
+    private int checkedShardOf(K key) {
+        for(int b=0; b<skip; b++) {
+            if(chk.isBitSet(key, b)) {
+                throw new IllegalArgumentException("Key has bit " + b + " set, but the first "
+                                                   + skip + " bits must be clear: " + key);
+            }
+        }
+        return shardOf(key);
+    }
+
+    private boolean outOfRange(K key) {
+        for(int b=0; b<skip; b++) {
+            if(chk.isBitSet(key, b)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public V get(Object k) {
+        K key = AbstractCritBitTree.<K>cast(k);
+        if(outOfRange(key)) {
+            return null;
+        }
+        int i = shardOf(key);
+        Lock lock = locks[i].readLock();
+        lock.lock();
+        try {
+            return shards[i].get(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean containsKey(Object k) {
+        K key = AbstractCritBitTree.<K>cast(k);
+        if(outOfRange(key)) {
+            return false;
+        }
+        int i = shardOf(key);
+        Lock lock = locks[i].readLock();
+        lock.lock();
+        try {
+            return shards[i].containsKey(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public V put(K key, V val) {
+        int i = checkedShardOf(key);
+        Lock lock = locks[i].writeLock();
+        lock.lock();
+        try {
+            return shards[i].put(key, val);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public V remove(Object k) {
+        K key = AbstractCritBitTree.<K>cast(k);
+        if(outOfRange(key)) {
+            return null;
+        }
+        int i = shardOf(key);
+        Lock lock = locks[i].writeLock();
+        lock.lock();
+        try {
+            return shards[i].remove(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void clear() {
+        for(int i=0; i<shards.length; i++) {
+            Lock lock = locks[i].writeLock();
+            lock.lock();
+            try {
+                shards[i].clear();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Sums the shard sizes, one shard at a time.
+     */
+    @Override
+    public int size() {
+        int n = 0;
+        for(int i=0; i<shards.length; i++) {
+            Lock lock = locks[i].readLock();
+            lock.lock();
+            try {
+                n += shards[i].size();
+            } finally {
+                lock.unlock();
+            }
+        }
+        return n;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return min() == null;
+    }
+
+    public Map.Entry<K,V> min() {
+        for(int i=0; i<shards.length; i++) {
+            Lock lock = locks[i].readLock();
+            lock.lock();
+            try {
+                Map.Entry<K,V> e = shards[i].min();
+                if(e != null) {
+                    return e;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        return null;
+    }
+
+    public Map.Entry<K,V> max() {
+        for(int i=shards.length-1; i>=0; i--) {
+            Lock lock = locks[i].readLock();
+            lock.lock();
+            try {
+                Map.Entry<K,V> e = shards[i].max();
+                if(e != null) {
+                    return e;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Passes entries through to the real cursor, noting whether it asked
+     * to stop so the next shard isn't started.  Shards are only read
+     * locked while traversed, so REMOVE and REMOVE_AND_EXIT are passed on
+     * as CONTINUE and EXIT.
+     */
+    private static final class StopCursor<K,V> implements Cursor<K,V> {
+        private final Cursor<? super K, ? super V> cursor;
+        private boolean stopped = false;
+        StopCursor(Cursor<? super K, ? super V> cursor) {
+            this.cursor = cursor;
+        }
+        public Decision select(Map.Entry<? extends K, ? extends V> entry) {
+            switch(cursor.select(entry)) {
+            case EXIT: //fall through
+            case REMOVE_AND_EXIT:
+                stopped = true;
+                return Decision.EXIT;
+            default:
+                return Decision.CONTINUE;
+            }
+        }
+    }
+
+    public void traverse(Cursor<? super K, ? super V> cursor) {
+        StopCursor<K,V> stop = new StopCursor<K,V>(cursor);
+        for(int i=0; i<shards.length && !stop.stopped; i++) {
+            Lock lock = locks[i].readLock();
+            lock.lock();
+            try {
+                shards[i].traverse(stop);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * A prefix at least as long as the routing bits names one shard; a
+     * shorter one fixes only the top few bits of the shard number, so it
+     * covers a contiguous run of shards.
+     */
+    public void traverseWithPrefix(K prefix, Cursor<? super K, ? super V> cursor) {
+        int len = chk.lengthInBits(prefix);
+        for(int b=0; b<Math.min(skip, len); b++) {
+            if(chk.isBitSet(prefix, b)) {
+                return;
+            }
+        }
+        int fixed = Math.max(0, Math.min(bits, len - skip));
+        int first = 0;
+        for(int b=0; b<fixed; b++) {
+            first = (first << 1) | (chk.isBitSet(prefix, skip + b) ? 1 : 0);
+        }
+        first <<= (bits - fixed);
+        int last = first + (1 << (bits - fixed));
+
+        StopCursor<K,V> stop = new StopCursor<K,V>(cursor);
+        for(int i=first; i<last && !stop.stopped; i++) {
+            Lock lock = locks[i].readLock();
+            lock.lock();
+            try {
+                shards[i].traverseWithPrefix(prefix, stop);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Iterates in key order, copying out one shard's entries at a time
+     * under its read lock.  remove() is supported.
+     */
+    @Override
+    public Set<Map.Entry<K,V>> entrySet() {
+        return new AbstractSet<Map.Entry<K,V>>() {
+            public Iterator<Map.Entry<K,V>> iterator() { return new EntryIterator(); }
+            public int size() { return ShardedCritBitMap.this.size(); }
+        };
+    }
+
+    private final class EntryIterator implements Iterator<Map.Entry<K,V>> {
+        private int shard = 0;
+        private Iterator<Map.Entry<K,V>> cur = Collections.<Map.Entry<K,V>>emptyList().iterator();
+        private Map.Entry<K,V> last = null;
+
+        public boolean hasNext() {
+            while(!cur.hasNext() && shard < shards.length) {
+                List<Map.Entry<K,V>> copy;
+                Lock lock = locks[shard].readLock();
+                lock.lock();
+                try {
+                    copy = new ArrayList<Map.Entry<K,V>>(shards[shard].entrySet());
+                } finally {
+                    lock.unlock();
+                }
+                shard++;
+                cur = copy.iterator();
+            }
+            return cur.hasNext();
+        }
+
+        public Map.Entry<K,V> next() {
+            if(!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            last = cur.next();
+            return last;
+        }
+
+        public void remove() {
+            if(last == null) {
+                throw new IllegalStateException();
+            }
+            ShardedCritBitMap.this.remove(last.getKey());
+            last = null;
+        }
+    }
+}
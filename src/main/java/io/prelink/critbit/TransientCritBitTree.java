@@ -0,0 +1,316 @@
+package io.prelink.critbit;
+
+/**
+ * A batch-mutable view of a CritBitTree, a la Clojure's transients.  Get
+ * one from CritBitTree.asTransient(), apply any number of puts and removes,
+ * then call persistent() to seal the result into a new CritBitTree in O(1).
+ *
+ * The first edit to a path copies it, like CritBitTree.put does, but the
+ * copies belong to this transient and later edits change them in place.
+ * Nodes that came from the source tree are never touched, so versions
+ * already handed out are unaffected.  Once persistent() has been called
+ * the transient can't be used again.  Not thread safe.
+ */
+public final class TransientCritBitTree<K,V> extends AbstractCritBitTree<K,V> {
+
+    private static final long serialVersionUID = 20261017L;
+
+    /*
+     * MCritBitTree's node types can't be reused as is: they mutate whenever
+     * asked, so a tree sealed by persistent() would still be changed by the
+     * next transient made from it.  These check that the edit comes through
+     * the factory that made them and otherwise behave like CritBitTree's
+     * immutable nodes.  After persistent() that factory is never used
+     * again, so sealed nodes are effectively immutable.
+     */
+
+    static final class TShortLeftNode<K,V> extends AbstractInternal<K,V> {
+        private static final long serialVersionUID = 20261017L;
+        private final transient Object owner;
+        private K leftKey;
+        private V leftVal;
+        private Node<K,V> right;
+        public TShortLeftNode(Object owner, int bit, K leftKey, V leftVal, Node<K,V> right) {
+            super(bit);
+            this.owner = owner;
+            this.leftKey = leftKey;
+            this.leftVal = leftVal;
+            this.right = right;
+        }
+        public Node<K,V> left(Context<K,V> ctx) { return ctx.nf.mkLeaf(leftKey, leftVal); }
+        public Node<K,V> right(Context<K,V> ctx) { return right; }
+        public Node<K,V> setLeft(int diffBit, K key, V val, Context<K,V> ctx) {
+            if(diffBit < 0) {
+                if(owner == ctx.nf) {
+                    this.leftKey = key;
+                    this.leftVal = val;
+                    return this;
+                }
+                return ctx.nf.mkShortLeft(bit(), key, val, right);
+            }
+            Node<K,V> newLeft = mkShortBothChild(diffBit, key, val, leftKey, leftVal, ctx);
+            return ctx.nf.mkTall(bit(), newLeft, right);
+        }
+        public Node<K,V> setRight(int diffBit, K key, V val, Context<K,V> ctx) {
+            Node<K,V> newRight = right.insert(diffBit, key, val, ctx);
+            if(owner == ctx.nf) {
+                this.right = newRight;
+                return this;
+            }
+            return ctx.nf.mkShortLeft(bit(), leftKey, leftVal, newRight);
+        }
+        protected Node<K,V> removeLeft(K key, Context<K,V> ctx, boolean force) {
+            if(force || ctx.chk.bitIndex(key, this.leftKey) < 0) {
+                return right;
+            }
+            return this;
+        }
+        protected Node<K,V> removeRight(K key, Context<K,V> ctx, boolean force) {
+            Node<K,V> newRight = right.remove(key, ctx, force);
+            if(right == newRight) {
+                return this;
+            }
+            if(!newRight.isInternal()) {
+                return ctx.nf.mkShortBoth(bit(), leftKey, leftVal, newRight.getKey(), newRight.getValue());
+            }
+            if(owner == ctx.nf) {
+                this.right = newRight;
+                return this;
+            }
+            return ctx.nf.mkShortLeft(bit(), leftKey, leftVal, newRight);
+        }
+        public boolean hasExternalLeft() { return true; }
+        public boolean hasExternalRight() { return false; }
+        public K leftKey() { return leftKey; }
+        public V leftValue() { return leftVal; }
+    }
+
+    static final class TShortRightNode<K,V> extends AbstractInternal<K,V> {
+        private static final long serialVersionUID = 20261017L;
+        private final transient Object owner;
+        private Node<K,V> left;
+        private K rightKey;
+        private V rightVal;
+        public TShortRightNode(Object owner, int bit, Node<K,V> left, K rightKey, V rightVal) {
+            super(bit);
+            this.owner = owner;
+            this.left = left;
+            this.rightKey = rightKey;
+            this.rightVal = rightVal;
+        }
+        public Node<K,V> left(Context<K,V> ctx) { return left; }
+        public Node<K,V> right(Context<K,V> ctx) { return ctx.nf.mkLeaf(rightKey, rightVal); }
+        public Node<K,V> setLeft(int diffBit, K key, V val, Context<K,V> ctx) {
+            Node<K,V> newLeft = left.insert(diffBit, key, val, ctx);
+            if(owner == ctx.nf) {
+                this.left = newLeft;
+                return this;
+            }
+            return ctx.nf.mkShortRight(bit(), newLeft, rightKey, rightVal);
+        }
+        public Node<K,V> setRight(int diffBit, K key, V val, Context<K,V> ctx) {
+            if(diffBit < 0) {
+                if(owner == ctx.nf) {
+                    this.rightKey = key;
+                    this.rightVal = val;
+                    return this;
+                }
+                return ctx.nf.mkShortRight(bit(), left, key, val);
+            }
+            Node<K,V> newRight = mkShortBothChild(diffBit, key, val, rightKey, rightVal, ctx);
+            return ctx.nf.mkTall(bit(), left, newRight);
+        }
+        protected Node<K,V> removeLeft(K key, Context<K,V> ctx, boolean force) {
+            Node<K,V> newLeft = left.remove(key, ctx, force);
+            if(left == newLeft) {
+                return this;
+            }
+            if(!newLeft.isInternal()) {
+                return ctx.nf.mkShortBoth(bit(), newLeft.getKey(), newLeft.getValue(), rightKey, rightVal);
+            }
+            if(owner == ctx.nf) {
+                this.left = newLeft;
+                return this;
+            }
+            return ctx.nf.mkShortRight(bit(), newLeft, rightKey, rightVal);
+        }
+        protected Node<K,V> removeRight(K key, Context<K,V> ctx, boolean force) {
+            return (force || ctx.chk.bitIndex(key, this.rightKey) < 0) ? left
+                                                                       : this;
+        }
+        public boolean hasExternalLeft() { return false; }
+        public boolean hasExternalRight() { return true; }
+        public K rightKey() { return rightKey; }
+        public V rightValue() { return rightVal; }
+    }
+
+    static final class TTallNode<K,V> extends AbstractInternal<K,V> {
+        private static final long serialVersionUID = 20261017L;
+        private final transient Object owner;
+        private Node<K,V> left;
+        private Node<K,V> right;
+        public TTallNode(Object owner, int bit, Node<K,V> left, Node<K,V> right) {
+            super(bit);
+            this.owner = owner;
+            this.left = left;
+            this.right = right;
+        }
+        public Node<K,V> left(Context<K,V> ctx) { return left; }
+        public Node<K,V> right(Context<K,V> ctx) { return right; }
+        public Node<K,V> setLeft(int diffBit, K key, V val, Context<K,V> ctx) {
+            Node<K,V> newLeft = left.insert(diffBit, key, val, ctx);
+            if(owner == ctx.nf) {
+                this.left = newLeft;
+                return this;
+            }
+            return ctx.nf.mkTall(bit(), newLeft, right);
+        }
+        public Node<K,V> setRight(int diffBit, K key, V val, Context<K,V> ctx) {
+            Node<K,V> newRight = right.insert(diffBit, key, val, ctx);
+            if(owner == ctx.nf) {
+                this.right = newRight;
+                return this;
+            }
+            return ctx.nf.mkTall(bit(), left, newRight);
+        }
+        protected Node<K,V> removeLeft(K key, Context<K,V> ctx, boolean force) {
+            Node<K,V> newLeft = left.remove(key, ctx, force);
+            if(left == newLeft) {
+                return this;
+            }
+            if(!newLeft.isInternal()) {
+                return ctx.nf.mkShortLeft(bit(), newLeft.getKey(), newLeft.getValue(), right);
+            }
+            if(owner == ctx.nf) {
+                this.left = newLeft;
+                return this;
+            }
+            return ctx.nf.mkTall(bit(), newLeft, right);
+        }
+        protected Node<K,V> removeRight(K key, Context<K,V> ctx, boolean force) {
+            Node<K,V> newRight = right.remove(key, ctx, force);
+            if(right == newRight) {
+                return this;
+            }
+            if(!newRight.isInternal()) {
+                return ctx.nf.mkShortRight(bit(), left, newRight.getKey(), newRight.getValue());
+            }
+            if(owner == ctx.nf) {
+                this.right = newRight;
+                return this;
+            }
+            return ctx.nf.mkTall(bit(), left, newRight);
+        }
+        public boolean hasExternalLeft() { return false; }
+        public boolean hasExternalRight() { return false; }
+    }
+
+    /**
+     * Makes nodes owned by (and only editable through) this factory.
+     */
+    static final class TransientNodeFactory<K,V> implements NodeFactory<K,V> {
+        private static final long serialVersionUID = 20261017L;
+        public Node<K,V> mkShortBoth(int diffBit, K lk, V lv, K rk, V rv) {
+            return new ShortBothNode<K,V>(diffBit, lk, lv, rk, rv);
+        }
+        public Node<K,V> mkShortRight(int diffBit, Node<K,V> left, K k, V v) {
+            return new TShortRightNode<K,V>(this, diffBit, left, k, v);
+        }
+        public Node<K,V> mkShortLeft(int diffBit, K k, V v, Node<K,V> right) {
+            return new TShortLeftNode<K,V>(this, diffBit, k, v, right);
+        }
+        public Node<K,V> mkTall(int diffBit, Node<K,V> left, Node<K,V> right) {
+            return new TTallNode<K,V>(this, diffBit, left, right);
+        }
+        public Node<K,V> mkLeaf(K key, V val) {
+            return new LeafNode<K,V>(key, val);
+        }
+    }
+
+    private final Context<K,V> sealedCtx;
+    private Node<K,V> root;
+    private int size;
+    private boolean editable = true;
+
+    TransientCritBitTree(Node<K,V> root, int size, Context<K,V> sealedCtx) {
+        //Counted trees keep their own nodes, which edits copy rather than
+        //change, so the counts stay right.
+        super((sealedCtx.nf instanceof CountingNodeFactory)
+              ? sealedCtx
+              : new Context<K,V>(sealedCtx.chk, new TransientNodeFactory<K,V>()));
+        this.sealedCtx = sealedCtx;
+        this.root = root;
+        this.size = size;
+    }
+
+    private void ensureEditable() {
+        if(!editable) {
+            throw new IllegalStateException("Transient used after persistent() call");
+        }
+    }
+
+    Node<K,V> root() {
+        ensureEditable();
+        return root;
+    }
+
+    public int size() {
+        ensureEditable();
+        return size;
+    }
+
+    public TransientCritBitTree<K,V> put(K key, V val) {
+        ensureEditable();
+        if(root == null) {
+            root = ctx().nf.mkLeaf(key, val);
+            size++;
+            return this;
+        }
+        K compKey;
+        if(root.isInternal()) {
+            Node<K,V> par = searchExternal(root, key);
+            compKey = ctx().chk.isBitSet(key, par.bit()) ? par.rightKey() : par.leftKey();
+        } else {
+            compKey = root.getKey();
+        }
+
+        int diffBit = ctx().chk.bitIndex(key, compKey);
+        root = root.insert(diffBit, key, val, ctx());
+        if(diffBit >= 0) {
+            size++;
+        }
+        return this;
+    }
+
+    public TransientCritBitTree<K,V> remove(K key) {
+        //Nodes edited in place come back unchanged, so removal can't be
+        //detected by identity the way CritBitTree.remove does it.
+        if(!containsKey(key)) {
+            return this;
+        }
+        root = root.remove(key, ctx(), true);
+        size--;
+        return this;
+    }
+
+    boolean removesInTraversal() {
+        return true;
+    }
+
+    void pruned(Node<K,V> root, int removed) {
+        this.root = root;
+        this.size -= removed;
+    }
+
+    /**
+     * Seals this transient into a CritBitTree, without copying.  The
+     * transient can't be used afterwards.
+     */
+    public CritBitTree<K,V> persistent() {
+        ensureEditable();
+        editable = false;
+        CritBitTree<K,V> out = new CritBitTree<K,V>(root, size, sealedCtx);
+        root = null;
+        return out;
+    }
+}
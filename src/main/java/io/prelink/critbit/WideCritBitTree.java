@@ -0,0 +1,645 @@
+package io.prelink.critbit;
+
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.ardverk.collection.Cursor;
+import org.ardverk.collection.KeyAnalyzer;
+
+/**
+ * A mutable crit-bit tree whose internal nodes branch on a whole chunk of
+ * bits instead of one.  It's a Map with MCritBitTree's min, max, traverse
+ * and traverseWithPrefix, and like MCritBitTree it carries out cursors'
+ * REMOVE decisions and supports removal through its iterators.  It isn't
+ * a NavigableMap.
+ *
+ * Key bits are split into aligned chunks of stride bits (8 by default).  A
+ * branch sits at the first chunk where the keys under it differ, and has
+ * one child per chunk value in use there; chunks where they all agree are
+ * skipped, as crit-bit trees skip bits, and a search checks them against
+ * the leaf it ends at.  Children are kept in chunk order, so keys come out
+ * in the same order as the binary trees and prefix traversal works the
+ * same way.  A branch stores its children the way ART does, picking the
+ * smallest layout that fits: up to 4 or 16 children in sorted arrays, up
+ * to 48 behind a 256-entry index, otherwise a direct 256-entry array.  It
+ * switches layout in place as children come and go.
+ *
+ * With a stride of 8 a tree is about an eighth as deep as a binary one, at
+ * the cost of reading stride bits from the analyzer at every branch.
+ */
+public final class WideCritBitTree<K,V> extends AbstractMap<K,V> implements Serializable {
+
+    private static final long serialVersionUID = 20261017L;
+
+    public static final int DEFAULT_STRIDE = 8;
+
+    private final KeyAnalyzer<K> chk;
+    private final int stride;
+    private Object root = null;
+    private int size = 0;
+
+    public WideCritBitTree(KeyAnalyzer<K> analyzer) {
+        this(analyzer, DEFAULT_STRIDE);
+    }
+
+    /**
+     * stride is the number of bits each branch looks at, from 1 to 8.
+     */
+    public WideCritBitTree(KeyAnalyzer<K> analyzer, int stride) {
+        if(stride < 1 || stride > 8) {
+            throw new IllegalArgumentException("stride must be in [1, 8]: " + stride);
+        }
+        this.chk = analyzer;
+        this.stride = stride;
+    }
+
+    static final class Leaf<K,V> extends AbstractMap.SimpleEntry<K,V> {
+        private static final long serialVersionUID = 20261017L;
+        Leaf(K key, V val) {
+            super(key, val);
+        }
+    }
+
+    /**
+     * Children are Branches or Leaves.  Which layout is in use follows
+     * from kids.length: with 4 or 16, kids is sorted by chunk and the
+     * chunks are packed a byte apiece into lo and hi, so a search reads no
+     * array but kids; with 48, index[c] is one more than the slot of chunk
+     * c's child, or 0; with 256, kids[c] is chunk c's child.  Positions, as
+     * used by next() and at(), are indexes into kids for the sorted
+     * layouts and chunk values for the other two.
+     */
+    static final class Branch implements Serializable {
+        private static final long serialVersionUID = 20261017L;
+
+        final int offset;
+        int count;
+        long lo;
+        long hi;
+        byte[] index;
+        Object[] kids;
+
+        Branch(int offset, int c1, Object kid1, int c2, Object kid2) {
+            this.offset = offset;
+            this.count = 2;
+            this.kids = new Object[4];
+            if(c1 < c2) {
+                set(0, c1, kid1);
+                set(1, c2, kid2);
+            } else {
+                set(0, c2, kid2);
+                set(1, c1, kid1);
+            }
+        }
+
+        /** The chunk of sorted child i. */
+        private int chunk(int i) {
+            return (int)((i < 8) ? lo >>> (i << 3) : hi >>> ((i - 8) << 3)) & 0xFF;
+        }
+
+        private void set(int i, int c, Object kid) {
+            if(i < 8) {
+                int shift = i << 3;
+                lo = (lo & ~(0xFFL << shift)) | ((long)c << shift);
+            } else {
+                int shift = (i - 8) << 3;
+                hi = (hi & ~(0xFFL << shift)) | ((long)c << shift);
+            }
+            kids[i] = kid;
+        }
+
+        private boolean sorted() {
+            return kids.length <= 16;
+        }
+
+        Object find(int c) {
+            Object[] k = kids;
+            if(k.length <= 16) {
+                long w = lo;
+                for(int i=0; i<count; i++) {
+                    if(i == 8) {
+                        w = hi;
+                    }
+                    int x = (int)w & 0xFF;
+                    if(x >= c) {
+                        return (x == c) ? k[i] : null;
+                    }
+                    w >>>= 8;
+                }
+                return null;
+            }
+            if(k.length == 48) {
+                int slot = index[c] & 0xFF;
+                return (slot == 0) ? null : k[slot - 1];
+            }
+            return k[c];
+        }
+
+        /** The position after pos holding a child, or -1. */
+        int next(int pos) {
+            if(sorted()) {
+                return (pos + 1 < count) ? pos + 1 : -1;
+            }
+            for(int c=pos+1; c<256; c++) {
+                if((kids.length == 48) ? index[c] != 0 : kids[c] != null) {
+                    return c;
+                }
+            }
+            return -1;
+        }
+
+        /** The last position holding a child. */
+        int last() {
+            if(sorted()) {
+                return count - 1;
+            }
+            int c = 255;
+            while((kids.length == 48) ? index[c] == 0 : kids[c] == null) {
+                c--;
+            }
+            return c;
+        }
+
+        Object at(int pos) {
+            return (kids.length == 48) ? kids[(index[pos] & 0xFF) - 1] : kids[pos];
+        }
+
+        int chunkAt(int pos) {
+            return sorted() ? chunk(pos) : pos;
+        }
+
+        Object first() {
+            return at(next(-1));
+        }
+
+        /** The position of chunk c, which has a child. */
+        int position(int c) {
+            return sorted() ? find(c, 0) : c;
+        }
+
+        /** The position of chunk c, which has a child, in a sorted layout. */
+        private int find(int c, int from) {
+            int i = from;
+            while(chunk(i) != c) {
+                i++;
+            }
+            return i;
+        }
+
+        /** Adds a child for chunk c, which has none. */
+        void add(int c, Object kid) {
+            if(count == kids.length && kids.length < 256) {
+                resize((kids.length == 4) ? 16 : (kids.length == 16) ? 48 : 256);
+            }
+            if(sorted()) {
+                int i = count;
+                while(i > 0 && chunk(i-1) > c) {
+                    set(i, chunk(i-1), kids[i-1]);
+                    i--;
+                }
+                set(i, c, kid);
+            } else if(kids.length == 48) {
+                int slot = 0;
+                while(kids[slot] != null) {
+                    slot++;
+                }
+                kids[slot] = kid;
+                index[c] = (byte)(slot + 1);
+            } else {
+                kids[c] = kid;
+            }
+            count++;
+        }
+
+        /** Points chunk c, which has a child, at kid instead. */
+        void replace(int c, Object kid) {
+            if(sorted()) {
+                kids[find(c, 0)] = kid;
+            } else if(kids.length == 48) {
+                kids[(index[c] & 0xFF) - 1] = kid;
+            } else {
+                kids[c] = kid;
+            }
+        }
+
+        /** Drops chunk c's child, shrinking once a smaller layout is roomy. */
+        void remove(int c) {
+            if(sorted()) {
+                for(int i=find(c, 0); i<count-1; i++) {
+                    set(i, chunk(i+1), kids[i+1]);
+                }
+                kids[count - 1] = null;
+            } else if(kids.length == 48) {
+                kids[(index[c] & 0xFF) - 1] = null;
+                index[c] = 0;
+            } else {
+                kids[c] = null;
+            }
+            count--;
+            int shrinkAt = (kids.length == 256) ? 36 : (kids.length == 48) ? 12 : (kids.length == 16) ? 3 : -1;
+            if(count <= shrinkAt) {
+                resize((kids.length == 256) ? 48 : (kids.length == 48) ? 16 : 4);
+            }
+        }
+
+        private void resize(int capacity) {
+            int n = count;
+            int[] cs = new int[n];
+            Object[] ks = new Object[n];
+            int j = 0;
+            for(int pos=next(-1); pos>=0; pos=next(pos)) {
+                cs[j] = chunkAt(pos);
+                ks[j++] = at(pos);
+            }
+            kids = new Object[capacity];
+            index = (capacity == 48) ? new byte[256] : null;
+            lo = 0;
+            hi = 0;
+            for(int i=0; i<n; i++) {
+                if(capacity <= 16) {
+                    set(i, cs[i], ks[i]);
+                } else if(capacity == 48) {
+                    kids[i] = ks[i];
+                    index[cs[i]] = (byte)(i + 1);
+                } else {
+                    kids[cs[i]] = ks[i];
+                }
+            }
+        }
+    }
+
+    /** The stride bits of key starting at offset, as an int. */
+    private int chunk(K key, int offset) {
+        int c = 0;
+        for(int i=0; i<stride; i++) {
+            c = (c << 1) | (chk.isBitSet(key, offset + i) ? 1 : 0);
+        }
+        return c;
+    }
+
+    private Leaf<K,V> leaf(Object n) {
+        return AbstractCritBitTree.<Leaf<K,V>>cast(n);
+    }
+
+    /** Some leaf under n; they all agree on the bits above n's offset. */
+    private Leaf<K,V> anyLeaf(Object n) {
+        while(n instanceof Branch) {
+            n = ((Branch)n).first();
+        }
+        return leaf(n);
+    }
+
+    /** The leaf key's chunks lead to, or null if one of them is missing. */
+    private Leaf<K,V> findLeaf(K key) {
+        Object n = root;
+        while(n instanceof Branch) {
+            Branch b = (Branch)n;
+            n = b.find(chunk(key, b.offset));
+        }
+        return leaf(n);
+    }
+
+    @Override
+    public int size() { return size; }
+
+    @Override
+    public boolean isEmpty() { return size == 0; }
+
+    @Override
+    public V get(Object k) {
+        K key = AbstractCritBitTree.<K>cast(k);
+        Leaf<K,V> l = findLeaf(key);
+        return (l != null && chk.bitIndex(key, l.getKey()) < 0) ? l.getValue() : null;
+    }
+
+    @Override
+    public boolean containsKey(Object k) {
+        K key = AbstractCritBitTree.<K>cast(k);
+        Leaf<K,V> l = findLeaf(key);
+        return l != null && chk.bitIndex(key, l.getKey()) < 0;
+    }
+
+    @Override
+    public V put(K key, V val) {
+        if(root == null) {
+            root = new Leaf<K,V>(key, val);
+            size++;
+            return null;
+        }
+
+        //Any leaf that agrees with key wherever the tree checks will do:
+        //where key's chunk is missing, every child differs from it there.
+        Object n = root;
+        while(n instanceof Branch) {
+            Branch b = (Branch)n;
+            Object next = b.find(chunk(key, b.offset));
+            n = (next != null) ? next : b.first();
+        }
+        Leaf<K,V> near = leaf(n);
+        int diffBit = chk.bitIndex(key, near.getKey());
+        if(diffBit < 0) {
+            return near.setValue(val);
+        }
+
+        int offset = diffBit - diffBit % stride;
+        Branch parent = null;
+        int parentChunk = 0;
+        n = root;
+        while(n instanceof Branch && ((Branch)n).offset < offset) {
+            parent = (Branch)n;
+            parentChunk = chunk(key, parent.offset);
+            n = parent.find(parentChunk);
+        }
+        Leaf<K,V> added = new Leaf<K,V>(key, val);
+        if(n instanceof Branch && ((Branch)n).offset == offset) {
+            ((Branch)n).add(chunk(key, offset), added);
+        } else {
+            Branch b = new Branch(offset, chunk(near.getKey(), offset), n, chunk(key, offset), added);
+            if(parent == null) {
+                root = b;
+            } else {
+                parent.replace(parentChunk, b);
+            }
+        }
+        size++;
+        return null;
+    }
+
+    @Override
+    public V remove(Object k) {
+        K key = AbstractCritBitTree.<K>cast(k);
+        Branch grandparent = null;
+        int grandparentChunk = 0;
+        Branch parent = null;
+        int parentChunk = 0;
+        Object n = root;
+        while(n instanceof Branch) {
+            grandparent = parent;
+            grandparentChunk = parentChunk;
+            parent = (Branch)n;
+            parentChunk = chunk(key, parent.offset);
+            n = parent.find(parentChunk);
+        }
+        if(n == null || chk.bitIndex(key, leaf(n).getKey()) >= 0) {
+            return null;
+        }
+
+        if(parent == null) {
+            root = null;
+        } else {
+            parent.remove(parentChunk);
+            if(parent.count == 1) {
+                Object only = parent.first();
+                if(grandparent == null) {
+                    root = only;
+                } else {
+                    grandparent.replace(grandparentChunk, only);
+                }
+            }
+        }
+        size--;
+        return leaf(n).getValue();
+    }
+
+    @Override
+    public void clear() {
+        root = null;
+        size = 0;
+    }
+
+    public Map.Entry<K,V> min() {
+        return (root == null) ? null : anyLeaf(root);
+    }
+
+    public Map.Entry<K,V> max() {
+        if(root == null) {
+            return null;
+        }
+        Object n = root;
+        while(n instanceof Branch) {
+            Branch b = (Branch)n;
+            n = b.at(b.last());
+        }
+        return leaf(n);
+    }
+
+    /**
+     * Runs cursor over every entry in key order.  REMOVE and
+     * REMOVE_AND_EXIT remove the entry, as Iterator.remove() would.
+     */
+    public void traverse(Cursor<? super K, ? super V> cursor) {
+        if(root != null) {
+            run(new EntryIterator(), null, cursor);
+        }
+    }
+
+    /**
+     * Like traverse(), over just the keys starting with key.
+     */
+    public void traverseWithPrefix(K key, Cursor<? super K, ? super V> cursor) {
+        Leaf<K,V> start = firstWithPrefix(key);
+        if(start != null) {
+            run(new EntryIterator(start), key, cursor);
+        }
+    }
+
+    /**
+     * The first leaf whose key starts with prefix, or null.  The keys that
+     * do are all under one node, or a run of one branch's children, so
+     * they follow on from it in order.
+     */
+    private Leaf<K,V> firstWithPrefix(K prefix) {
+        if(root == null) {
+            return null;
+        }
+        int keyLen = chk.lengthInBits(prefix);
+        Object n = root;
+        while(n instanceof Branch) {
+            Branch b = (Branch)n;
+            if(b.offset >= keyLen) {
+                break;
+            }
+            if(b.offset + stride > keyLen) {
+                //The prefix ends inside this chunk, so it picks out a run
+                //of children: those agreeing with it up to keyLen.
+                int shift = b.offset + stride - keyLen;
+                int want = chunk(prefix, b.offset) >>> shift;
+                n = null;
+                for(int pos=b.next(-1); pos>=0; pos=b.next(pos)) {
+                    if((b.chunkAt(pos) >>> shift) == want) {
+                        n = b.at(pos);
+                        break;
+                    }
+                }
+                break;
+            }
+            n = b.find(chunk(prefix, b.offset));
+        }
+        if(n == null) {
+            return null;
+        }
+        //Every key under n agrees on the prefix bits, so one key decides
+        //for all of them.
+        Leaf<K,V> first = anyLeaf(n);
+        return chk.isPrefix(first.getKey(), prefix) ? first : null;
+    }
+
+    /**
+     * Runs cursor over the iterator's entries, stopping at the first that doesn't
+     * start with prefix, unless that's null.
+     */
+    private void run(EntryIterator it, K prefix, Cursor<? super K, ? super V> cursor) {
+        while(it.hasNext()) {
+            Map.Entry<K,V> e = it.next();
+            if(prefix != null && !chk.isPrefix(e.getKey(), prefix)) {
+                return;
+            }
+            switch(cursor.select(e)) {
+            case REMOVE_AND_EXIT:
+                it.remove();
+                return;
+            case EXIT:
+                return;
+            case REMOVE:
+                it.remove();
+                break;
+            case CONTINUE:
+            default:
+                break;
+            }
+        }
+    }
+
+    /**
+     * How many keys sit at each depth, counting the branches above them.
+     */
+    int[] depthHistogram() {
+        int[] out = new int[1];
+        if(root != null) {
+            out = depths(root, 0, out);
+        }
+        return out;
+    }
+
+    private int[] depths(Object n, int depth, int[] out) {
+        if(depth >= out.length) {
+            out = Arrays.copyOf(out, depth + 1);
+        }
+        if(n instanceof Branch) {
+            Branch b = (Branch)n;
+            for(int pos=b.next(-1); pos>=0; pos=b.next(pos)) {
+                out = depths(b.at(pos), depth + 1, out);
+            }
+        } else {
+            out[depth]++;
+        }
+        return out;
+    }
+
+    @Override
+    public Set<Map.Entry<K,V>> entrySet() {
+        return new AbstractSet<Map.Entry<K,V>>() {
+            @Override
+            public Iterator<Map.Entry<K,V>> iterator() {
+                return new EntryIterator();
+            }
+            @Override
+            public int size() { return size; }
+        };
+    }
+
+    private final class EntryIterator implements Iterator<Map.Entry<K,V>> {
+        private Branch[] branches = new Branch[8];
+        private int[] positions = new int[8];
+        private int depth = 0;
+        private Leaf<K,V> next;
+        private Leaf<K,V> last = null;
+        EntryIterator() {
+            next = (root == null) ? null : descend(root);
+        }
+        /** Starts at start, which is in the tree. */
+        EntryIterator(Leaf<K,V> start) {
+            seek(start);
+        }
+        private void push(Branch b, int pos) {
+            if(depth == branches.length) {
+                branches = Arrays.copyOf(branches, depth * 2);
+                positions = Arrays.copyOf(positions, depth * 2);
+            }
+            branches[depth] = b;
+            positions[depth++] = pos;
+        }
+        /** Pushes the path to n's first leaf and returns that leaf. */
+        private Leaf<K,V> descend(Object n) {
+            while(n instanceof Branch) {
+                Branch b = (Branch)n;
+                int pos = b.next(-1);
+                push(b, pos);
+                n = b.at(pos);
+            }
+            return leaf(n);
+        }
+        /** Makes l, which is in the tree, the next leaf, from the root. */
+        private void seek(Leaf<K,V> l) {
+            Arrays.fill(branches, 0, depth, null);
+            depth = 0;
+            K key = l.getKey();
+            Object n = root;
+            while(n instanceof Branch) {
+                Branch b = (Branch)n;
+                int pos = b.position(chunk(key, b.offset));
+                push(b, pos);
+                n = b.at(pos);
+            }
+            next = l;
+        }
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+        @Override
+        public Map.Entry<K,V> next() {
+            if(next == null) {
+                throw new NoSuchElementException();
+            }
+            last = next;
+            next = null;
+            while(depth > 0) {
+                Branch b = branches[depth-1];
+                int pos = b.next(positions[depth-1]);
+                if(pos >= 0) {
+                    positions[depth-1] = pos;
+                    next = descend(b.at(pos));
+                    break;
+                }
+                branches[--depth] = null;
+            }
+            return last;
+        }
+        /**
+         * Removes the last key returned.  Removing can collapse or re-lay
+         * out the branches on the path, so the path to the next leaf is
+         * found again from the root.
+         */
+        @Override
+        public void remove() {
+            if(last == null) {
+                throw new IllegalStateException();
+            }
+            WideCritBitTree.this.remove(last.getKey());
+            last = null;
+            if(next == null) {
+                Arrays.fill(branches, 0, depth, null);
+                depth = 0;
+            } else {
+                seek(next);
+            }
+        }
+    }
+}
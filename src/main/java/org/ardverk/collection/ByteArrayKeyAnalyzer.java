@@ -17,6 +17,7 @@
 package org.ardverk.collection;
 
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 
 /**
  * A {@link KeyAnalyzer} for {@code byte[]}s
@@ -35,6 +36,11 @@ public class ByteArrayKeyAnalyzer extends AbstractKeyAnalyzer<byte[]>
      */
     private static final int MSB = 1 << Byte.SIZE-1;
     
+    /**
+     * The number of bytes compared at once
+     */
+    private static final int WORD = Long.SIZE / Byte.SIZE;
+    
     private final int maxLengthInBits;
     
     public ByteArrayKeyAnalyzer() {
@@ -99,32 +105,35 @@ public class ByteArrayKeyAnalyzer extends AbstractKeyAnalyzer<byte[]>
     @Override
     public int bitIndex(byte[] key, byte[] otherKey) {
         
-        int length1 = lengthInBits(key);
-        int length2 = lengthInBits(otherKey);
-        int length = Math.max(length1, length2);
-        int prefix = maxLengthInBits - length;
+        int length = Math.max(key.length, otherKey.length);
+        int prefix = maxLengthInBits - length * Byte.SIZE;
                 
         if (prefix < 0) {
             return KeyAnalyzer.OUT_OF_BOUNDS_BIT_KEY;
         }
         
-        boolean allNull = true;
-        for (int i = 0; i < length; i++) {
-            int bitIndex = prefix + i;
-            boolean value = isBitSet(key, bitIndex);
-                
-            if (value) {
-                allNull = false;
-            }
-            
-            boolean otherValue = isBitSet(otherKey, bitIndex);
-            
-            if (value != otherValue) {
-                return bitIndex;
-            }
+        // Keys are right-aligned within the wider of the two, so the
+        // shorter one has implicit leading zero bytes.
+        int offset1 = length - key.length;
+        int offset2 = length - otherKey.length;
+        int shared = Math.max(offset1, offset2);
+        
+        // Leading bytes that only the longer key has
+        byte[] longer = (offset1 < offset2) ? key : otherKey;
+        int i = firstNonZero(longer, 0, shared);
+        if (i < shared) {
+            return prefix + bitIndex(i, longer[i]);
         }
         
-        if (allNull) {
+        // Bytes that both keys have
+        int from1 = shared - offset1;
+        int from2 = shared - offset2;
+        int j = mismatch(key, from1, otherKey, from2, length - shared);
+        if (j >= 0) {
+            return prefix + bitIndex(shared + j, key[from1 + j] ^ otherKey[from2 + j]);
+        }
+        
+        if (firstNonZero(key, 0, key.length) == key.length) {
             return KeyAnalyzer.NULL_BIT_KEY;
         }
         
@@ -152,4 +161,64 @@ public class ByteArrayKeyAnalyzer extends AbstractKeyAnalyzer<byte[]>
     private static int mask(int bit) {
         return MSB >>> bit;
     }
+    
+    /**
+     * Returns the index of the first bit set in {@code diff}, counting
+     * from the start of the byte at {@code index}
+     */
+    private static int bitIndex(int index, int diff) {
+        return index * Byte.SIZE 
+            + Integer.numberOfLeadingZeros(diff & 0xFF) - (Integer.SIZE - Byte.SIZE);
+    }
+    
+    /**
+     * Returns the index of the first non-zero byte in 
+     * {@code values[from, to)}, or {@code to} if there is none.
+     * Reads 8 bytes at a time while it can.
+     */
+    private static int firstNonZero(byte[] values, int from, int to) {
+        int i = from;
+        if (to - i >= WORD) {
+            ByteBuffer buf = ByteBuffer.wrap(values);
+            for (; to - i >= WORD; i += WORD) {
+                long word = buf.getLong(i);
+                if (word != 0L) {
+                    return i + Long.numberOfLeadingZeros(word) / Byte.SIZE;
+                }
+            }
+        }
+        for (; i < to; i++) {
+            if (values[i] != 0) {
+                return i;
+            }
+        }
+        return to;
+    }
+    
+    /**
+     * Returns the relative index of the first byte that differs in
+     * {@code a[aFrom, aFrom+length)} and {@code b[bFrom, bFrom+length)},
+     * or -1 if the ranges are equal.  Compares 8 bytes at a time while
+     * it can: ByteBuffers are big-endian, so the leading zeros of the
+     * XOR of two words count the equal bits before the first mismatch.
+     */
+    private static int mismatch(byte[] a, int aFrom, byte[] b, int bFrom, int length) {
+        int i = 0;
+        if (length >= WORD) {
+            ByteBuffer bufA = ByteBuffer.wrap(a);
+            ByteBuffer bufB = ByteBuffer.wrap(b);
+            for (; length - i >= WORD; i += WORD) {
+                long diff = bufA.getLong(aFrom + i) ^ bufB.getLong(bFrom + i);
+                if (diff != 0L) {
+                    return i + Long.numberOfLeadingZeros(diff) / Byte.SIZE;
+                }
+            }
+        }
+        for (; i < length; i++) {
+            if (a[aFrom + i] != b[bFrom + i]) {
+                return i;
+            }
+        }
+        return -1;
+    }
 }
@@ -37,6 +37,11 @@ public class CharArrayKeyAnalyzer extends AbstractKeyAnalyzer<char[]> implements
      */
     private static final int MSB = 0x8000;
     
+    /**
+     * The number of chars compared at once
+     */
+    private static final int WORD = Long.SIZE / Character.SIZE;
+    
     private final int maxLengthInBits;
     
     public CharArrayKeyAnalyzer() {
@@ -101,32 +106,35 @@ public class CharArrayKeyAnalyzer extends AbstractKeyAnalyzer<char[]> implements
     @Override
     public int bitIndex(char[] key, char[] otherKey) {
         
-        int length1 = lengthInBits(key);
-        int length2 = lengthInBits(otherKey);
-        int length = Math.max(length1, length2);
-        int prefix = maxLengthInBits - length;
+        int length = Math.max(key.length, otherKey.length);
+        int prefix = maxLengthInBits - length * Character.SIZE;
                 
         if (prefix < 0) {
             return KeyAnalyzer.OUT_OF_BOUNDS_BIT_KEY;
         }
         
-        boolean allNull = true;
-        for (int i = 0; i < length; i++) {
-            int bitIndex = prefix + i;
-            boolean value = isBitSet(key, bitIndex);
-                
-            if (value) {
-                allNull = false;
-            }
-            
-            boolean otherValue = isBitSet(otherKey, bitIndex);
-            
-            if (value != otherValue) {
-                return bitIndex;
-            }
+        // Keys are right-aligned within the wider of the two, so the
+        // shorter one has implicit leading zero chars.
+        int offset1 = length - key.length;
+        int offset2 = length - otherKey.length;
+        int shared = Math.max(offset1, offset2);
+        
+        // Leading chars that only the longer key has
+        char[] longer = (offset1 < offset2) ? key : otherKey;
+        int i = firstNonZero(longer, 0, shared);
+        if (i < shared) {
+            return prefix + bitIndex(i, longer[i]);
+        }
+        
+        // Chars that both keys have
+        int from1 = shared - offset1;
+        int from2 = shared - offset2;
+        int j = mismatch(key, from1, otherKey, from2, length - shared);
+        if (j >= 0) {
+            return prefix + bitIndex(shared + j, key[from1 + j] ^ otherKey[from2 + j]);
         }
         
-        if (allNull) {
+        if (firstNonZero(key, 0, key.length) == key.length) {
             return KeyAnalyzer.NULL_BIT_KEY;
         }
         
@@ -154,4 +162,68 @@ public class CharArrayKeyAnalyzer extends AbstractKeyAnalyzer<char[]> implements
     private static int mask(int bit) {
         return MSB >>> bit;
     }
+    
+    /**
+     * Returns the index of the first bit set in {@code diff}, counting
+     * from the start of the char at {@code index}
+     */
+    private static int bitIndex(int index, int diff) {
+        return index * Character.SIZE 
+            + Integer.numberOfLeadingZeros(diff & 0xFFFF) - (Integer.SIZE - Character.SIZE);
+    }
+    
+    /**
+     * Returns the 4 chars from {@code values[index]} on as one long,
+     * the first in the high bits
+     */
+    private static long word(char[] values, int index) {
+        return (long) values[index] << 48
+            | (long) values[index + 1] << 32
+            | (long) values[index + 2] << 16
+            | values[index + 3];
+    }
+    
+    /**
+     * Returns the index of the first non-zero char in 
+     * {@code values[from, to)}, or {@code to} if there is none.
+     * Tests 4 chars at a time while it can.
+     */
+    private static int firstNonZero(char[] values, int from, int to) {
+        int i = from;
+        for (; to - i >= WORD; i += WORD) {
+            long word = word(values, i);
+            if (word != 0L) {
+                return i + Long.numberOfLeadingZeros(word) / Character.SIZE;
+            }
+        }
+        for (; i < to; i++) {
+            if (values[i] != 0) {
+                return i;
+            }
+        }
+        return to;
+    }
+    
+    /**
+     * Returns the relative index of the first char that differs in
+     * {@code a[aFrom, aFrom+length)} and {@code b[bFrom, bFrom+length)},
+     * or -1 if the ranges are equal.  Compares 4 chars at a time while
+     * it can; there's no view of a char[] as longs on Java 8, so each
+     * word is put together from its chars, but it's one test per word.
+     */
+    private static int mismatch(char[] a, int aFrom, char[] b, int bFrom, int length) {
+        int i = 0;
+        for (; length - i >= WORD; i += WORD) {
+            long diff = word(a, aFrom + i) ^ word(b, bFrom + i);
+            if (diff != 0L) {
+                return i + Long.numberOfLeadingZeros(diff) / Character.SIZE;
+            }
+        }
+        for (; i < length; i++) {
+            if (a[aFrom + i] != b[bFrom + i]) {
+                return i;
+            }
+        }
+        return -1;
+    }
 }
\ No newline at end of file
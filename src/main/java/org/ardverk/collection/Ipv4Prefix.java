@@ -0,0 +1,140 @@
+package org.ardverk.collection;
+
+import java.io.Serializable;
+
+/**
+ * An IPv4 CIDR block, like 10.0.0.0/8: an address held as an int, and a
+ * prefix length.  Bits past the prefix length are cleared, so blocks that
+ * cover the same addresses are equal.
+ *
+ * Blocks order the way {@link Ipv4PrefixKeyAnalyzer} lays them out in a
+ * crit-bit tree: by address bits, with a block before every block it
+ * covers.
+ */
+public final class Ipv4Prefix implements Comparable<Ipv4Prefix>, Serializable {
+
+    private static final long serialVersionUID = 20261017L;
+
+    private final int address;
+    private final int length;
+
+    private Ipv4Prefix(int address, int length) {
+        this.address = address & mask(length);
+        this.length = length;
+    }
+
+    /**
+     * Returns a mask of the top length bits.
+     */
+    static int mask(int length) {
+        return (length == 0) ? 0 : -1 << (Integer.SIZE - length);
+    }
+
+    public static Ipv4Prefix of(int address, int length) {
+        if (length < 0 || length > Integer.SIZE) {
+            throw new IllegalArgumentException("length must be in [0, 32]: " + length);
+        }
+        return new Ipv4Prefix(address, length);
+    }
+
+    /**
+     * Returns the /32 block holding just address.
+     */
+    public static Ipv4Prefix host(int address) {
+        return new Ipv4Prefix(address, Integer.SIZE);
+    }
+
+    /**
+     * Parses "a.b.c.d/len", or "a.b.c.d" as a /32.
+     */
+    public static Ipv4Prefix parse(String s) {
+        int slash = s.indexOf('/');
+        int length = Integer.SIZE;
+        String addr = s;
+        if (slash >= 0) {
+            length = parseInt(s.substring(slash + 1), s);
+            addr = s.substring(0, slash);
+        }
+        String[] parts = addr.split("\\.", -1);
+        if (parts.length != 4) {
+            throw new IllegalArgumentException("Not an IPv4 prefix: " + s);
+        }
+        int address = 0;
+        for (String part : parts) {
+            int octet = parseInt(part, s);
+            if (octet > 255) {
+                throw new IllegalArgumentException("Not an IPv4 prefix: " + s);
+            }
+            address = (address << 8) | octet;
+        }
+        if (length > Integer.SIZE) {
+            throw new IllegalArgumentException("Not an IPv4 prefix: " + s);
+        }
+        return new Ipv4Prefix(address, length);
+    }
+
+    private static int parseInt(String part, String whole) {
+        if (part.isEmpty() || part.length() > 3) {
+            throw new IllegalArgumentException("Not an IPv4 prefix: " + whole);
+        }
+        for (int i = 0; i < part.length(); i++) {
+            if (part.charAt(i) < '0' || part.charAt(i) > '9') {
+                throw new IllegalArgumentException("Not an IPv4 prefix: " + whole);
+            }
+        }
+        return Integer.parseInt(part);
+    }
+
+    public int address() {
+        return address;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    /**
+     * Returns {@code true} if bit i (counting from the most significant)
+     * of the address is set.
+     */
+    public boolean isAddressBitSet(int i) {
+        return (address & (1 << (Integer.SIZE - 1 - i))) != 0;
+    }
+
+    /**
+     * Returns {@code true} if this block covers all of other.
+     */
+    public boolean contains(Ipv4Prefix other) {
+        return length <= other.length
+            && ((address ^ other.address) & mask(length)) == 0;
+    }
+
+    @Override
+    public int compareTo(Ipv4Prefix o) {
+        int common = Math.min(length, o.length);
+        if (Integer.numberOfLeadingZeros(address ^ o.address) < common) {
+            return Integer.compareUnsigned(address, o.address);
+        }
+        return Integer.compare(length, o.length);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof Ipv4Prefix)) {
+            return false;
+        }
+        Ipv4Prefix other = (Ipv4Prefix) o;
+        return address == other.address && length == other.length;
+    }
+
+    @Override
+    public int hashCode() {
+        return address * 31 + length;
+    }
+
+    @Override
+    public String toString() {
+        return (address >>> 24) + "." + ((address >>> 16) & 0xFF) + "."
+            + ((address >>> 8) & 0xFF) + "." + (address & 0xFF) + "/" + length;
+    }
+}
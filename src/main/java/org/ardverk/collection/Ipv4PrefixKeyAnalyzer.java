@@ -0,0 +1,55 @@
+package org.ardverk.collection;
+
+import java.io.Serializable;
+
+/**
+ * A {@link KeyAnalyzer} for {@link Ipv4Prefix} CIDR blocks.
+ *
+ * A block's bits are its address bits, each preceded by a bit that says
+ * one follows: 10.0.0.0/8 reads 1,0 1,0 1,0 1,0 1,1 1,0 1,1 1,0 and then
+ * zeros.  So a block is only as long as its prefix (lengthInBits is twice
+ * the prefix length), 10.0.0.0/8 and 10.0.0.0/16 are different keys, and
+ * a block is a prefix of exactly the blocks it covers.  In a crit-bit tree
+ * the blocks inside one are the keys prefixed by it, and
+ * longestPrefixOf(host) finds the most specific block covering an address.
+ */
+public class Ipv4PrefixKeyAnalyzer extends AbstractKeyAnalyzer<Ipv4Prefix>
+        implements Serializable {
+
+    private static final long serialVersionUID = 20261017L;
+
+    public static final Ipv4PrefixKeyAnalyzer INSTANCE = new Ipv4PrefixKeyAnalyzer();
+
+    @Override
+    public int lengthInBits(Ipv4Prefix key) {
+        return 2 * key.length();
+    }
+
+    @Override
+    public boolean isBitSet(Ipv4Prefix key, int bitIndex) {
+        int i = bitIndex >>> 1;
+        if (i >= key.length()) {
+            return false;
+        }
+        return (bitIndex & 1) == 0 || key.isAddressBitSet(i);
+    }
+
+    @Override
+    public int bitIndex(Ipv4Prefix key, Ipv4Prefix otherKey) {
+        int common = Math.min(key.length(), otherKey.length());
+        int diff = Integer.numberOfLeadingZeros(key.address() ^ otherKey.address());
+        if (diff < common) {
+            return 2 * diff + 1;
+        }
+        if (key.length() != otherKey.length()) {
+            //The shorter one ends here.
+            return 2 * common;
+        }
+        return (key.length() == 0) ? NULL_BIT_KEY : EQUAL_BIT_KEY;
+    }
+
+    @Override
+    public boolean isPrefix(Ipv4Prefix key, Ipv4Prefix prefix) {
+        return prefix.contains(key);
+    }
+}
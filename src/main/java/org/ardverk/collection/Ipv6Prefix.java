@@ -0,0 +1,217 @@
+package org.ardverk.collection;
+
+import java.io.Serializable;
+
+/**
+ * An IPv6 CIDR block, like 2001:db8::/32: an address held as two longs,
+ * and a prefix length.  Bits past the prefix length are cleared, so blocks
+ * that cover the same addresses are equal.
+ *
+ * Blocks order the way {@link Ipv6PrefixKeyAnalyzer} lays them out in a
+ * crit-bit tree: by address bits, with a block before every block it
+ * covers.
+ */
+public final class Ipv6Prefix implements Comparable<Ipv6Prefix>, Serializable {
+
+    private static final long serialVersionUID = 20261017L;
+
+    private static final int BITS = 2 * Long.SIZE;
+
+    private final long high;
+    private final long low;
+    private final int length;
+
+    private Ipv6Prefix(long high, long low, int length) {
+        this.high = high & highMask(length);
+        this.low = low & lowMask(length);
+        this.length = length;
+    }
+
+    static long highMask(int length) {
+        if (length == 0) {
+            return 0L;
+        }
+        return (length >= Long.SIZE) ? -1L : -1L << (Long.SIZE - length);
+    }
+
+    static long lowMask(int length) {
+        return (length <= Long.SIZE) ? 0L : highMask(length - Long.SIZE);
+    }
+
+    public static Ipv6Prefix of(long high, long low, int length) {
+        if (length < 0 || length > BITS) {
+            throw new IllegalArgumentException("length must be in [0, 128]: " + length);
+        }
+        return new Ipv6Prefix(high, low, length);
+    }
+
+    /**
+     * Returns the /128 block holding just the given address.
+     */
+    public static Ipv6Prefix host(long high, long low) {
+        return new Ipv6Prefix(high, low, BITS);
+    }
+
+    /**
+     * Parses eight colon-separated hex groups, with "::" standing in for a
+     * run of zero groups, and an optional "/len"; without one the block is
+     * a /128.  Dotted IPv4 tails aren't accepted.
+     */
+    public static Ipv6Prefix parse(String s) {
+        int slash = s.indexOf('/');
+        int length = BITS;
+        String addr = s;
+        if (slash >= 0) {
+            String len = s.substring(slash + 1);
+            if (len.isEmpty() || len.length() > 3 || !isDigits(len)) {
+                throw new IllegalArgumentException("Not an IPv6 prefix: " + s);
+            }
+            length = Integer.parseInt(len);
+            if (length > BITS) {
+                throw new IllegalArgumentException("Not an IPv6 prefix: " + s);
+            }
+            addr = s.substring(0, slash);
+        }
+
+        int gap = addr.indexOf("::");
+        if (gap >= 0 && addr.indexOf("::", gap + 1) >= 0) {
+            throw new IllegalArgumentException("Not an IPv6 prefix: " + s);
+        }
+        String[] head = groups((gap >= 0) ? addr.substring(0, gap) : addr);
+        String[] tail = (gap >= 0) ? groups(addr.substring(gap + 2)) : new String[0];
+        int missing = 8 - head.length - tail.length;
+        if ((gap < 0 && missing != 0) || (gap >= 0 && missing < 1)) {
+            throw new IllegalArgumentException("Not an IPv6 prefix: " + s);
+        }
+
+        long[] words = new long[2];
+        int g = 0;
+        for (String group : head) {
+            put(words, g++, parseGroup(group, s));
+        }
+        g += (gap >= 0) ? missing : 0;
+        for (String group : tail) {
+            put(words, g++, parseGroup(group, s));
+        }
+        return new Ipv6Prefix(words[0], words[1], length);
+    }
+
+    private static String[] groups(String part) {
+        if (part.isEmpty()) {
+            return new String[0];
+        }
+        return part.split(":", -1);
+    }
+
+    private static boolean isDigits(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) < '0' || s.charAt(i) > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int parseGroup(String group, String whole) {
+        if (group.isEmpty() || group.length() > 4) {
+            throw new IllegalArgumentException("Not an IPv6 prefix: " + whole);
+        }
+        int value = 0;
+        for (int i = 0; i < group.length(); i++) {
+            int digit = Character.digit(group.charAt(i), 16);
+            if (digit < 0) {
+                throw new IllegalArgumentException("Not an IPv6 prefix: " + whole);
+            }
+            value = (value << 4) | digit;
+        }
+        return value;
+    }
+
+    private static void put(long[] words, int group, int value) {
+        int shift = 16 * (3 - (group & 3));
+        words[group >>> 2] |= ((long) value) << shift;
+    }
+
+    public long high() {
+        return high;
+    }
+
+    public long low() {
+        return low;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    /**
+     * Returns {@code true} if bit i (counting from the most significant)
+     * of the address is set.
+     */
+    public boolean isAddressBitSet(int i) {
+        if (i < Long.SIZE) {
+            return (high & (1L << (Long.SIZE - 1 - i))) != 0;
+        }
+        return (low & (1L << (BITS - 1 - i))) != 0;
+    }
+
+    /**
+     * Returns the index of the first address bit where this and other
+     * differ, or 128 if they're the same.
+     */
+    int firstDifference(Ipv6Prefix other) {
+        long x = high ^ other.high;
+        if (x != 0) {
+            return Long.numberOfLeadingZeros(x);
+        }
+        return Long.SIZE + Long.numberOfLeadingZeros(low ^ other.low);
+    }
+
+    /**
+     * Returns {@code true} if this block covers all of other.
+     */
+    public boolean contains(Ipv6Prefix other) {
+        return length <= other.length
+            && ((high ^ other.high) & highMask(length)) == 0
+            && ((low ^ other.low) & lowMask(length)) == 0;
+    }
+
+    @Override
+    public int compareTo(Ipv6Prefix o) {
+        int common = Math.min(length, o.length);
+        if (firstDifference(o) < common) {
+            return (high != o.high) ? Long.compareUnsigned(high, o.high)
+                                    : Long.compareUnsigned(low, o.low);
+        }
+        return Integer.compare(length, o.length);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof Ipv6Prefix)) {
+            return false;
+        }
+        Ipv6Prefix other = (Ipv6Prefix) o;
+        return high == other.high && low == other.low && length == other.length;
+    }
+
+    @Override
+    public int hashCode() {
+        long h = high * 31 + low;
+        return (int) (h ^ (h >>> 32)) * 31 + length;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int g = 0; g < 8; g++) {
+            long word = (g < 4) ? high : low;
+            int value = (int) (word >>> (16 * (3 - (g & 3)))) & 0xFFFF;
+            if (g > 0) {
+                sb.append(':');
+            }
+            sb.append(Integer.toHexString(value));
+        }
+        return sb.append('/').append(length).toString();
+    }
+}
@@ -0,0 +1,50 @@
+package org.ardverk.collection;
+
+import java.io.Serializable;
+
+/**
+ * A {@link KeyAnalyzer} for {@link Ipv6Prefix} CIDR blocks, with the same
+ * bit layout as {@link Ipv4PrefixKeyAnalyzer}: each address bit is
+ * preceded by a bit saying one follows, so a block is a prefix of exactly
+ * the blocks it covers.
+ */
+public class Ipv6PrefixKeyAnalyzer extends AbstractKeyAnalyzer<Ipv6Prefix>
+        implements Serializable {
+
+    private static final long serialVersionUID = 20261017L;
+
+    public static final Ipv6PrefixKeyAnalyzer INSTANCE = new Ipv6PrefixKeyAnalyzer();
+
+    @Override
+    public int lengthInBits(Ipv6Prefix key) {
+        return 2 * key.length();
+    }
+
+    @Override
+    public boolean isBitSet(Ipv6Prefix key, int bitIndex) {
+        int i = bitIndex >>> 1;
+        if (i >= key.length()) {
+            return false;
+        }
+        return (bitIndex & 1) == 0 || key.isAddressBitSet(i);
+    }
+
+    @Override
+    public int bitIndex(Ipv6Prefix key, Ipv6Prefix otherKey) {
+        int common = Math.min(key.length(), otherKey.length());
+        int diff = key.firstDifference(otherKey);
+        if (diff < common) {
+            return 2 * diff + 1;
+        }
+        if (key.length() != otherKey.length()) {
+            //The shorter one ends here.
+            return 2 * common;
+        }
+        return (key.length() == 0) ? NULL_BIT_KEY : EQUAL_BIT_KEY;
+    }
+
+    @Override
+    public boolean isPrefix(Ipv6Prefix key, Ipv6Prefix prefix) {
+        return prefix.contains(key);
+    }
+}
@@ -0,0 +1,177 @@
+package io.prelink.critbit;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.function.UnaryOperator;
+
+import junit.framework.TestCase;
+
+import org.ardverk.collection.StringKeyAnalyzer;
+import org.junit.Test;
+
+public class AtomicCritBitTest extends TestCase {
+
+    private static final int THREADS = 8;
+
+    private static AtomicCritBitMap<String, String> newMap() {
+        return new AtomicCritBitMap<String, String>(StringKeyAnalyzer.INSTANCE);
+    }
+
+    private static String key(int i) {
+        return Integer.toString(i, 36);
+    }
+
+    @Test
+    public void testSequential() {
+        Random rand = new Random(42);
+        AtomicCritBitMap<String, String> map = newMap();
+        TreeMap<String, String> expected = new TreeMap<String, String>();
+        assertTrue(map.isEmpty());
+        for(int i=0; i<20000; i++) {
+            String k = key(rand.nextInt(3000));
+            switch(rand.nextInt(6)) {
+            case 0:
+                assertEquals(expected.remove(k), map.remove(k));
+                break;
+            case 1:
+                assertEquals(expected.putIfAbsent(k, "p" + i), map.putIfAbsent(k, "p" + i));
+                break;
+            case 2:
+                assertEquals(expected.replace(k, "r" + i), map.replace(k, "r" + i));
+                break;
+            case 3:
+                String v = expected.get(k);
+                assertEquals(expected.remove(k, v), map.remove(k, v));
+                break;
+            default:
+                assertEquals(expected.put(k, "v" + i), map.put(k, "v" + i));
+                break;
+            }
+        }
+        assertEquals(expected, map);
+        assertEquals(expected.size(), map.size());
+        assertEquals(new ArrayList<String>(expected.keySet()), new ArrayList<String>(map.keySet()));
+
+        //A snapshot doesn't see later writes.
+        CritBitTree<String, String> snap = map.snapshot();
+        String first = expected.firstKey();
+        map.remove(first);
+        assertEquals(expected.get(first), snap.get(first));
+        assertNull(map.get(first));
+
+        for(Iterator<String> it = map.keySet().iterator(); it.hasNext(); ) {
+            if(it.next().startsWith("1")) {
+                it.remove();
+            }
+        }
+        for(String k: map.keySet()) {
+            assertFalse(k.startsWith("1"));
+        }
+        map.clear();
+        assertTrue(map.isEmpty());
+    }
+
+    @Test
+    public void testUpdate() {
+        AtomicCritBitMap<String, String> map = newMap();
+        map.put("a", "1");
+        final CritBitTree<String, String> other =
+            new CritBitTree<String, String>(StringKeyAnalyzer.INSTANCE).put("b", "2").put("c", "3");
+        CritBitTree<String, String> result = map.update(new UnaryOperator<CritBitTree<String, String>>() {
+            public CritBitTree<String, String> apply(CritBitTree<String, String> t) {
+                return t.union(other);
+            }
+        });
+        assertSame(result, map.snapshot());
+        assertEquals(3, map.size());
+        assertEquals("3", map.get("c"));
+
+        try {
+            map.update(new UnaryOperator<CritBitTree<String, String>>() {
+                public CritBitTree<String, String> apply(CritBitTree<String, String> t) {
+                    throw new IllegalStateException();
+                }
+            });
+            fail();
+        } catch(IllegalStateException e) {}
+        assertSame(result, map.snapshot());
+    }
+
+    /**
+     * Every thread increments shared counters, half through replace(k,
+     * old, new) and half through update(); a lost write drops a count.
+     */
+    @Test
+    public void testContendedIncrements() throws InterruptedException {
+        final AtomicCritBitMap<String, Integer> map =
+            new AtomicCritBitMap<String, Integer>(StringKeyAnalyzer.INSTANCE);
+        final int counters = 5, increments = 5000;
+        for(int c=0; c<counters; c++) {
+            map.put("c" + c, 0);
+        }
+        Race.run(THREADS, new Race.Body() {
+            public void run(int id) {
+                Random rand = new Random(id);
+                for(int i=0; i<increments; i++) {
+                    final String k = "c" + rand.nextInt(counters);
+                    if(id % 2 == 0) {
+                        for(;;) {
+                            Integer cur = map.get(k);
+                            if(map.replace(k, cur, cur + 1)) {
+                                break;
+                            }
+                        }
+                    } else {
+                        map.update(new UnaryOperator<CritBitTree<String, Integer>>() {
+                            public CritBitTree<String, Integer> apply(CritBitTree<String, Integer> t) {
+                                return t.put(k, t.get(k) + 1);
+                            }
+                        });
+                    }
+                    map.put(k + "t" + id, i);
+                }
+            }
+        });
+        int sum = 0;
+        for(int c=0; c<counters; c++) {
+            sum += map.get("c" + c);
+        }
+        assertEquals(THREADS * increments, sum);
+    }
+
+    /**
+     * Threads own disjoint key stripes; afterwards the map holds exactly
+     * what their owners left there.
+     */
+    @Test
+    public void testDisjointChurn() throws InterruptedException {
+        final AtomicCritBitMap<String, String> map = newMap();
+        final List<Map<String, String>> expected = new ArrayList<Map<String, String>>();
+        for(int t=0; t<THREADS; t++) {
+            expected.add(new TreeMap<String, String>());
+        }
+        Race.run(THREADS, new Race.Body() {
+            public void run(int id) {
+                Random rand = new Random(id);
+                Map<String, String> mine = expected.get(id);
+                for(int i=0; i<20000; i++) {
+                    String k = key(rand.nextInt(2000) * THREADS + id);
+                    if(rand.nextBoolean()) {
+                        assertEquals(mine.put(k, "v" + i), map.put(k, "v" + i));
+                    } else {
+                        assertEquals(mine.remove(k), map.remove(k));
+                    }
+                }
+            }
+        });
+        Map<String, String> all = new TreeMap<String, String>();
+        for(Map<String, String> m: expected) {
+            all.putAll(m);
+        }
+        assertEquals(all, map);
+    }
+}
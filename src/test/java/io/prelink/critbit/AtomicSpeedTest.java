@@ -0,0 +1,79 @@
+package io.prelink.critbit;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.ardverk.collection.StringKeyAnalyzer;
+
+/**
+ * Put throughput of AtomicCritBitMap against the hand-rolled alternative,
+ * an AtomicReference<CritBitTree> with a compareAndSet retry loop, over
+ * 100K possible keys at 1, 2, 4, ... threads up to the number of available
+ * cores (or the count given as an argument).  Also reports how many trees
+ * the retry loop built and threw away.
+ */
+public class AtomicSpeedTest {
+    private static final int KEYS = 100000;
+    private static final int OPS_PER_THREAD = 200000;
+    private static final int SEED = 42;
+
+    private static interface Writer {
+        void put(String key, String val);
+    }
+
+    private static long run(final Writer w, final String[] keys, int threads)
+        throws InterruptedException {
+        return Race.run(threads, new Race.Body() {
+            public void run(int id) {
+                Random rand = new Random(SEED + id);
+                for(int i=0; i<OPS_PER_THREAD; i++) {
+                    String k = keys[rand.nextInt(KEYS)];
+                    w.put(k, k);
+                }
+            }
+        });
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int maxThreads = (args.length > 0) ? Integer.parseInt(args[0])
+                                           : Runtime.getRuntime().availableProcessors();
+        Random rand = new Random(SEED);
+        String[] keys = new String[KEYS];
+        for(int i=0; i<KEYS; i++) {
+            keys[i] = Long.toString(rand.nextLong() & Long.MAX_VALUE, 36);
+        }
+
+        for(int warm=0; warm<2; warm++) {
+            for(int threads=1; threads<=maxThreads; threads*=2) {
+                long ops = (long)threads * OPS_PER_THREAD;
+                final AtomicCritBitMap<String,String> map =
+                    new AtomicCritBitMap<String,String>(StringKeyAnalyzer.INSTANCE);
+                long combined = run(new Writer() {
+                    public void put(String key, String val) { map.put(key, val); }
+                }, keys, threads);
+
+                final AtomicReference<CritBitTree<String,String>> ref =
+                    new AtomicReference<CritBitTree<String,String>>(
+                        new CritBitTree<String,String>(StringKeyAnalyzer.INSTANCE));
+                final long[] wasted = new long[1];
+                long retry = run(new Writer() {
+                    public void put(String key, String val) {
+                        for(;;) {
+                            CritBitTree<String,String> cur = ref.get();
+                            if(ref.compareAndSet(cur, cur.put(key, val))) {
+                                return;
+                            }
+                            wasted[0]++; //racy, but only a rough count
+                        }
+                    }
+                }, keys, threads);
+
+                System.out.println(threads + " threads, Mputs/s: AtomicCritBitMap "
+                                   + String.format("%.2f", ops * 1000.0 / combined)
+                                   + ", CAS retry loop "
+                                   + String.format("%.2f", ops * 1000.0 / retry)
+                                   + " (~" + wasted[0] + " failed CASes)");
+            }
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package io.prelink.critbit;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.ardverk.collection.StringKeyAnalyzer;
+
+/**
+ * Compares a loop of get() against getAll() and getAllSorted() for batches
+ * of 256 random keys, on a tree large enough that most levels miss cache.
+ */
+public class BatchLookupSpeedTest {
+    private static final int ITEMS = 4000000;
+    private static final int BATCH = 256;
+    private static final int BATCHES = 5000;
+    private static final int SEED = 42;
+
+    public static void main(String[] args) {
+        Random rand = new Random(SEED);
+        String[] keys = new String[ITEMS];
+        MCritBitTree<String,String> tree =
+            new MCritBitTree<String,String>(StringKeyAnalyzer.INSTANCE);
+        for(int i=0; i<ITEMS; i++) {
+            keys[i] = Long.toString(rand.nextLong() & Long.MAX_VALUE, 36);
+            tree.put(keys[i], keys[i]);
+        }
+
+        String[][] batches = new String[BATCHES][];
+        String[][] sortedBatches = new String[BATCHES][];
+        for(int b=0; b<BATCHES; b++) {
+            batches[b] = new String[BATCH];
+            for(int i=0; i<BATCH; i++) {
+                batches[b][i] = keys[rand.nextInt(ITEMS)];
+            }
+            //Tree order and String order agree for these keys.
+            sortedBatches[b] = batches[b].clone();
+            Arrays.sort(sortedBatches[b]);
+        }
+        String[] out = new String[BATCH];
+
+        for(int warm=0; warm<3; warm++) {
+            int hits = 0;
+            long start = System.nanoTime();
+            for(String[] batch: batches) {
+                for(int i=0; i<BATCH; i++) {
+                    out[i] = tree.get(batch[i]);
+                }
+                hits += (out[BATCH-1] != null) ? 1 : 0;
+            }
+            long loop = System.nanoTime();
+            for(String[] batch: batches) {
+                tree.getAll(batch, out);
+                hits += (out[BATCH-1] != null) ? 1 : 0;
+            }
+            long all = System.nanoTime();
+            for(String[] batch: sortedBatches) {
+                tree.getAllSorted(batch, out);
+                hits += (out[BATCH-1] != null) ? 1 : 0;
+            }
+            long sorted = System.nanoTime();
+            for(String[] batch: sortedBatches) {
+                for(int i=0; i<BATCH; i++) {
+                    out[i] = tree.get(batch[i]);
+                }
+                hits += (out[BATCH-1] != null) ? 1 : 0;
+            }
+            long sortedLoop = System.nanoTime();
+            long lookups = (long)BATCHES * BATCH;
+            System.out.println("ns/lookup: get loop " + (loop - start) / lookups
+                               + ", getAll " + (all - loop) / lookups
+                               + ", sorted get loop " + (sortedLoop - sorted) / lookups
+                               + ", getAllSorted " + (sorted - all) / lookups
+                               + " (" + hits + ")");
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package io.prelink.critbit;
+
+import java.util.Random;
+
+import org.ardverk.collection.StringKeyAnalyzer;
+
+/**
+ * Compares building an MCritBitTree from sorted keys with a put loop
+ * against MCritBitTree.fromSorted.
+ */
+public class BulkLoadSpeedTest {
+    private static final int ITEMS = 2000000;
+    private static final int ROUNDS = 5;
+    private static final int SEED = 42;
+
+    public static void main(String[] args) {
+        //Sort by building a tree once; its order is the analyzer's order.
+        Random rand = new Random(SEED);
+        MCritBitTree<String,String> sorter =
+            new MCritBitTree<String,String>(StringKeyAnalyzer.INSTANCE);
+        for(int i=0; i<ITEMS; i++) {
+            String k = Long.toString(rand.nextLong() & Long.MAX_VALUE, 36);
+            sorter.put(k, k);
+        }
+        String[] keys = sorter.keySet().toArray(new String[0]);
+        sorter = null;
+
+        for(int warm=0; warm<2; warm++) {
+            long putMs = 0, bulkMs = 0;
+            int size = 0;
+            for(int r=0; r<ROUNDS; r++) {
+                long start = System.currentTimeMillis();
+                MCritBitTree<String,String> tree =
+                    new MCritBitTree<String,String>(StringKeyAnalyzer.INSTANCE);
+                for(String k: keys) {
+                    tree.put(k, k);
+                }
+                long mid = System.currentTimeMillis();
+                MCritBitTree<String,String> bulk =
+                    MCritBitTree.fromSorted(StringKeyAnalyzer.INSTANCE, keys, keys);
+                long end = System.currentTimeMillis();
+                size += tree.size() + bulk.size();
+                putMs += mid - start;
+                bulkMs += end - mid;
+            }
+            System.out.println(keys.length + " sorted keys: put loop " + putMs / ROUNDS
+                               + "ms, fromSorted " + bulkMs / ROUNDS + "ms (" + size + ")");
+        }
+    }
+}
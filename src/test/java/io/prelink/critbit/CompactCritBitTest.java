@@ -0,0 +1,217 @@
+package io.prelink.critbit;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Predicate;
+
+import junit.framework.TestCase;
+
+import org.ardverk.collection.Cursor;
+import org.ardverk.collection.Cursor.Decision;
+import org.ardverk.collection.StringKeyAnalyzer;
+import org.junit.Test;
+
+public class CompactCritBitTest extends TestCase {
+
+    private static final int SEED = 42;
+
+    private static String randomKey(Random rand) {
+        //Short alphabet and lengths so there are lots of shared prefixes.
+        StringBuilder sb = new StringBuilder();
+        int len = 1 + rand.nextInt(6);
+        for(int i=0; i<len; i++) {
+            sb.append((char)('a' + rand.nextInt(4)));
+        }
+        return sb.toString();
+    }
+
+    private static <V> List<String> collect(Map<String,V> map) {
+        List<String> out = new ArrayList<String>();
+        for(Map.Entry<String,V> e: map.entrySet()) {
+            out.add(e.getKey());
+        }
+        return out;
+    }
+
+    private static class CollectingCursor implements Cursor<String,String> {
+        final List<String> keys = new ArrayList<String>();
+        public Decision select(Map.Entry<? extends String, ? extends String> e) {
+            keys.add(e.getKey());
+            return Decision.CONTINUE;
+        }
+    }
+
+    @Test
+    public void testAgainstMCritBitTree() {
+        CompactCritBitTree<String,String> compact =
+            new CompactCritBitTree<String,String>(StringKeyAnalyzer.INSTANCE);
+        MCritBitTree<String,String> tree =
+            new MCritBitTree<String,String>(StringKeyAnalyzer.INSTANCE);
+
+        assertNull(compact.min());
+        assertNull(compact.remove("a"));
+        compact.traverse(new CollectingCursor());
+
+        Random rand = new Random(SEED);
+        for(int i=0; i<50000; i++) {
+            String key = randomKey(rand);
+            if(rand.nextInt(3) == 0) {
+                assertEquals(tree.remove(key), compact.remove(key));
+            } else {
+                String val = Integer.toString(i);
+                assertEquals(tree.put(key, val), compact.put(key, val));
+            }
+            assertEquals(tree.size(), compact.size());
+        }
+
+        for(Map.Entry<String,String> e: tree.entrySet()) {
+            assertTrue(compact.containsKey(e.getKey()));
+            assertEquals(e.getValue(), compact.get(e.getKey()));
+        }
+        assertEquals(collect(tree), collect(compact));
+        assertEquals(tree.min().getKey(), compact.min().getKey());
+        assertEquals(tree.max().getKey(), compact.max().getKey());
+
+        CollectingCursor all = new CollectingCursor();
+        compact.traverse(all);
+        assertEquals(collect(tree), all.keys);
+
+        for(String prefix: new String[] { "a", "ab", "abc", "dddddd", "z" }) {
+            CollectingCursor expected = new CollectingCursor();
+            tree.traverseWithPrefix(prefix, expected);
+            CollectingCursor actual = new CollectingCursor();
+            compact.traverseWithPrefix(prefix, actual);
+            assertEquals(expected.keys, actual.keys);
+        }
+
+        compact.trimToSize();
+        assertEquals(collect(tree), collect(compact));
+        compact.put("trimmed", "t");
+        assertEquals("t", compact.get("trimmed"));
+
+        for(String key: new ArrayList<String>(tree.keySet())) {
+            assertEquals(tree.remove(key), compact.remove(key));
+        }
+        assertEquals(1, compact.size());
+        compact.clear();
+        assertTrue(compact.isEmpty());
+        assertNull(compact.get("trimmed"));
+    }
+
+    /**
+     * Removes keys ending in 'a' or 'c', then the first key after "cc"
+     * that it comes to, and exits.
+     */
+    private static class PruningCursor implements Cursor<String,String> {
+        final List<String> seen = new ArrayList<String>();
+        public Decision select(Map.Entry<? extends String, ? extends String> e) {
+            String k = e.getKey();
+            seen.add(k);
+            if(k.compareTo("cc") > 0) {
+                return Decision.REMOVE_AND_EXIT;
+            }
+            return (k.charAt(k.length() - 1) % 2 == 1) ? Decision.REMOVE : Decision.CONTINUE;
+        }
+    }
+
+    private static void fill(Random rand, MCritBitTree<String,String> tree,
+                             CompactCritBitTree<String,String> compact) {
+        for(int i=0; i<20000; i++) {
+            String key = randomKey(rand);
+            tree.put(key, key);
+            compact.put(key, key);
+        }
+    }
+
+    private static void checkSame(MCritBitTree<String,String> tree,
+                                  CompactCritBitTree<String,String> compact) {
+        assertEquals(tree.size(), compact.size());
+        assertEquals(collect(tree), collect(compact));
+        for(String prefix: new String[] { "a", "b", "cd" }) {
+            CollectingCursor expected = new CollectingCursor();
+            tree.traverseWithPrefix(prefix, expected);
+            CollectingCursor actual = new CollectingCursor();
+            compact.traverseWithPrefix(prefix, actual);
+            assertEquals(expected.keys, actual.keys);
+        }
+    }
+
+    @Test
+    public void testCursorRemove() {
+        Random rand = new Random(SEED);
+        MCritBitTree<String,String> tree = new MCritBitTree<String,String>(StringKeyAnalyzer.INSTANCE);
+        CompactCritBitTree<String,String> compact =
+            new CompactCritBitTree<String,String>(StringKeyAnalyzer.INSTANCE);
+        fill(rand, tree, compact);
+        for(String prefix: new String[] { "a", "ab", "b", "d", "" }) {
+            PruningCursor expected = new PruningCursor();
+            tree.traverseWithPrefix(prefix, expected);
+            PruningCursor actual = new PruningCursor();
+            compact.traverseWithPrefix(prefix, actual);
+            assertEquals(expected.seen, actual.seen);
+            checkSame(tree, compact);
+        }
+        PruningCursor expected = new PruningCursor();
+        tree.traverse(expected);
+        PruningCursor actual = new PruningCursor();
+        compact.traverse(actual);
+        assertEquals(expected.seen, actual.seen);
+        checkSame(tree, compact);
+
+        //Everything, one REMOVE at a time.
+        compact.traverse(new Cursor<String,String>() {
+            public Decision select(Map.Entry<? extends String, ? extends String> e) {
+                return Decision.REMOVE;
+            }
+        });
+        assertTrue(compact.isEmpty());
+        assertNull(compact.min());
+    }
+
+    @Test
+    public void testIteratorRemove() {
+        Random rand = new Random(SEED);
+        MCritBitTree<String,String> tree = new MCritBitTree<String,String>(StringKeyAnalyzer.INSTANCE);
+        CompactCritBitTree<String,String> compact =
+            new CompactCritBitTree<String,String>(StringKeyAnalyzer.INSTANCE);
+        fill(rand, tree, compact);
+
+        Iterator<Map.Entry<String,String>> ci = compact.entrySet().iterator();
+        Iterator<Map.Entry<String,String>> ti = tree.entrySet().iterator();
+        while(ti.hasNext()) {
+            assertTrue(ci.hasNext());
+            String k = ti.next().getKey();
+            assertEquals(k, ci.next().getKey());
+            if(rand.nextInt(3) != 0) {
+                ti.remove();
+                ci.remove();
+            }
+        }
+        assertFalse(ci.hasNext());
+        checkSame(tree, compact);
+        try {
+            compact.entrySet().iterator().remove();
+            fail();
+        } catch(IllegalStateException e) {}
+
+        //The views remove through the iterator too.
+        String first = tree.firstKey();
+        assertTrue(tree.keySet().remove(first));
+        assertTrue(compact.keySet().remove(first));
+        assertFalse(compact.keySet().remove(first));
+        assertTrue(tree.values().remove(tree.lastKey()));
+        assertTrue(compact.values().remove(compact.max().getValue()));
+        Predicate<Map.Entry<String,String>> even = new Predicate<Map.Entry<String,String>>() {
+            public boolean test(Map.Entry<String,String> e) {
+                return e.getKey().length() % 2 == 0;
+            }
+        };
+        assertEquals(tree.entrySet().removeIf(even), compact.entrySet().removeIf(even));
+        checkSame(tree, compact);
+        assertTrue(compact.keySet().retainAll(new ArrayList<String>(tree.headMap("b").keySet())));
+        assertEquals(new ArrayList<String>(tree.headMap("b").keySet()), collect(compact));
+    }
+}
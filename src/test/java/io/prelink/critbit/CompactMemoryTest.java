@@ -0,0 +1,75 @@
+package io.prelink.critbit;
+
+import java.util.Map;
+import java.util.Random;
+
+import org.ardverk.collection.StringKeyAnalyzer;
+
+/**
+ * Reports retained heap per entry for MCritBitTree, CritBitTree and
+ * CompactCritBitTree.  Keys and the value are allocated up front and shared,
+ * so the numbers only cover tree structure.
+ */
+public class CompactMemoryTest {
+    private static final int ITEMS = 1000000;
+    private static final int SEED = 42;
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime rt = Runtime.getRuntime();
+        for(int i=0; i<4; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    private static String[] keys() {
+        Random rand = new Random(SEED);
+        String[] out = new String[ITEMS];
+        for(int i=0; i<ITEMS; i++) {
+            out[i] = Long.toString(rand.nextLong() & Long.MAX_VALUE, 36);
+        }
+        return out;
+    }
+
+    private static void report(String name, long before, Object tree, int size) throws Exception {
+        long after = usedHeap();
+        System.out.println(name + ": " + (after - before) / size + " bytes/entry"
+                           + " (" + tree.getClass().getSimpleName() + ")");
+    }
+
+    private static void fill(Map<String,String> map, String[] keys, String val) {
+        for(String k: keys) {
+            map.put(k, val);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        String[] keys = keys();
+        String val = "value";
+
+        long before = usedHeap();
+        MCritBitTree<String,String> mutable =
+            new MCritBitTree<String,String>(StringKeyAnalyzer.INSTANCE);
+        fill(mutable, keys, val);
+        report("MCritBitTree", before, mutable, mutable.size());
+        mutable = null;
+
+        before = usedHeap();
+        CritBitTree<String,String> persistent =
+            new CritBitTree<String,String>(StringKeyAnalyzer.INSTANCE);
+        for(String k: keys) {
+            persistent = persistent.put(k, val);
+        }
+        report("CritBitTree", before, persistent, persistent.size());
+        persistent = null;
+
+        before = usedHeap();
+        CompactCritBitTree<String,String> compact =
+            new CompactCritBitTree<String,String>(StringKeyAnalyzer.INSTANCE);
+        fill(compact, keys, val);
+        report("CompactCritBitTree", before, compact, compact.size());
+        compact.trimToSize();
+        report("CompactCritBitTree, trimmed", before, compact, compact.size());
+    }
+}
@@ -0,0 +1,270 @@
+package io.prelink.critbit;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.ardverk.collection.StringKeyAnalyzer;
+import org.junit.Test;
+
+public class ConcurrentCritBitTest extends TestCase {
+
+    private static final int THREADS = 8;
+
+    private static ConcurrentCritBitTree<String, String> newTree() {
+        return new ConcurrentCritBitTree<String, String>(StringKeyAnalyzer.INSTANCE);
+    }
+
+    private static String key(int i) {
+        return Integer.toString(i, 36);
+    }
+
+    @Test
+    public void testSequential() {
+        Random rand = new Random(42);
+        ConcurrentCritBitTree<String, String> tree = newTree();
+        TreeMap<String, String> expected = new TreeMap<String, String>();
+        assertTrue(tree.isEmpty());
+        assertNull(tree.firstEntry());
+        for(int i=0; i<20000; i++) {
+            String k = key(rand.nextInt(3000));
+            switch(rand.nextInt(5)) {
+            case 0:
+                assertEquals(expected.remove(k), tree.remove(k));
+                break;
+            case 1:
+                assertEquals(expected.putIfAbsent(k, "p" + i), tree.putIfAbsent(k, "p" + i));
+                break;
+            case 2:
+                assertEquals(expected.replace(k, "r" + i), tree.replace(k, "r" + i));
+                break;
+            default:
+                assertEquals(expected.put(k, "v" + i), tree.put(k, "v" + i));
+                break;
+            }
+        }
+        assertEquals(expected, tree);
+        assertEquals(expected.size(), tree.size());
+        assertEquals(new ArrayList<String>(expected.keySet()), new ArrayList<String>(tree.keySet()));
+        for(int i=0; i<500; i++) {
+            String k = key(rand.nextInt(3000));
+            assertEquals(expected.ceilingKey(k), tree.ceilingKey(k));
+            assertEquals(expected.floorKey(k), tree.floorKey(k));
+            assertEquals(expected.higherKey(k), tree.higherKey(k));
+            assertEquals(expected.lowerKey(k), tree.lowerKey(k));
+        }
+        NavigableMap<String, String> sub = expected.subMap("a", true, "m", false).descendingMap();
+        ConcurrentNavigableMap<String, String> tsub = tree.subMap("a", true, "m", false).descendingMap();
+        assertEquals(new ArrayList<String>(sub.keySet()), new ArrayList<String>(tsub.keySet()));
+        assertEquals(expected.firstKey(), tree.pollFirstEntry().getKey());
+        tree.clear();
+        assertTrue(tree.isEmpty());
+        assertEquals(0, tree.size());
+    }
+
+    /**
+     * Threads own disjoint key stripes and churn them; afterwards each
+     * stripe must hold exactly what its owner left there, and keys never
+     * removed must have stayed visible throughout.
+     */
+    @Test
+    public void testDisjointChurn() throws InterruptedException {
+        final ConcurrentCritBitTree<String, String> tree = newTree();
+        final int stable = 2000;
+        for(int i=0; i<stable; i++) {
+            tree.put("s:" + key(i), "stable");
+        }
+        final List<Map<String, String>> expected = new ArrayList<Map<String, String>>();
+        for(int t=0; t<THREADS; t++) {
+            expected.add(new TreeMap<String, String>());
+        }
+        Race.run(THREADS, new Race.Body() {
+            public void run(int id) {
+                Random rand = new Random(id);
+                Map<String, String> mine = expected.get(id);
+                for(int i=0; i<50000; i++) {
+                    String k = "c:" + key(rand.nextInt(4000) * THREADS + id);
+                    if(rand.nextBoolean()) {
+                        assertEquals(mine.put(k, "v" + i), tree.put(k, "v" + i));
+                    } else {
+                        assertEquals(mine.remove(k), tree.remove(k));
+                    }
+                    String s = "s:" + key(rand.nextInt(stable));
+                    assertEquals("stable", tree.get(s));
+                }
+            }
+        });
+        Map<String, String> all = new TreeMap<String, String>();
+        for(Map<String, String> m: expected) {
+            all.putAll(m);
+        }
+        for(int i=0; i<stable; i++) {
+            all.put("s:" + key(i), "stable");
+        }
+        assertEquals(all, tree);
+        assertEquals(all.size(), tree.size());
+    }
+
+    /**
+     * Every thread increments the same few counters with replace(k, old,
+     * new); if any two replaces of one value both won, a count goes
+     * missing.
+     */
+    @Test
+    public void testReplaceIsAtomic() throws InterruptedException {
+        final ConcurrentCritBitTree<String, Integer> tree =
+            new ConcurrentCritBitTree<String, Integer>(StringKeyAnalyzer.INSTANCE);
+        final int counters = 5, increments = 20000;
+        for(int c=0; c<counters; c++) {
+            tree.put("c" + c, 0);
+        }
+        Race.run(THREADS, new Race.Body() {
+            public void run(int id) {
+                Random rand = new Random(id);
+                for(int i=0; i<increments; i++) {
+                    String k = "c" + rand.nextInt(counters);
+                    for(;;) {
+                        Integer cur = tree.get(k);
+                        if(tree.replace(k, cur, cur + 1)) {
+                            break;
+                        }
+                    }
+                    //Churn the neighbourhood so replaces race with splices.
+                    String t = "c" + rand.nextInt(counters) + "t" + id;
+                    if(tree.putIfAbsent(t, 0) != null) {
+                        tree.remove(t);
+                    }
+                }
+            }
+        });
+        int sum = 0;
+        for(int c=0; c<counters; c++) {
+            sum += tree.get("c" + c);
+        }
+        assertEquals(THREADS * increments, sum);
+    }
+
+    /**
+     * Threads race putIfAbsent and remove(k, v) over the same keys with
+     * values naming themselves; each key's claims and releases must pair
+     * up exactly.
+     */
+    @Test
+    public void testClaimRelease() throws InterruptedException {
+        final ConcurrentCritBitTree<String, String> tree = newTree();
+        final AtomicInteger claims = new AtomicInteger();
+        final AtomicInteger releases = new AtomicInteger();
+        Race.run(THREADS, new Race.Body() {
+            public void run(int id) {
+                Random rand = new Random(id);
+                String me = "t" + id;
+                for(int i=0; i<50000; i++) {
+                    String k = key(rand.nextInt(64));
+                    String prev = tree.putIfAbsent(k, me);
+                    if(prev == null) {
+                        claims.incrementAndGet();
+                        assertEquals(me, tree.get(k));
+                        assertFalse(tree.remove(k, "nobody"));
+                        assertTrue(tree.remove(k, me));
+                        releases.incrementAndGet();
+                    } else {
+                        assertFalse(prev.equals(me));
+                    }
+                }
+            }
+        });
+        assertEquals(claims.get(), releases.get());
+        assertTrue(tree.isEmpty());
+    }
+
+    /**
+     * Iterators run alongside writers; keys must come out strictly
+     * ascending and be ones that were put.
+     */
+    @Test
+    public void testWeaklyConsistentIteration() throws InterruptedException {
+        final ConcurrentCritBitTree<String, String> tree = newTree();
+        Race.run(THREADS, new Race.Body() {
+            public void run(int id) {
+                Random rand = new Random(id);
+                if(id % 2 == 0) {
+                    for(int i=0; i<50000; i++) {
+                        String k = key(rand.nextInt(5000));
+                        if(rand.nextBoolean()) {
+                            tree.put(k, k);
+                        } else {
+                            tree.remove(k);
+                        }
+                    }
+                } else {
+                    for(int pass=0; pass<200; pass++) {
+                        String prev = null;
+                        for(Map.Entry<String, String> e: tree.entrySet()) {
+                            assertEquals(e.getKey(), e.getValue());
+                            assertTrue(Integer.parseInt(e.getKey(), 36) < 5000);
+                            if(prev != null) {
+                                assertTrue(prev.compareTo(e.getKey()) < 0);
+                            }
+                            prev = e.getKey();
+                        }
+                        String k = key(rand.nextInt(5000));
+                        String c = tree.ceilingKey(k);
+                        assertTrue(c == null || c.compareTo(k) >= 0);
+                        String f = tree.lowerKey(k);
+                        assertTrue(f == null || f.compareTo(k) < 0);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Runs an insert's Replace again after the key it put was removed, as
+     * a helper that read the insert's flag and then stalled would.  The
+     * node the insert displaced must not be back in the link it CASes.
+     */
+    private static void replayStaleInsert(String[] keys, String late) {
+        ConcurrentCritBitTree<String, String> tree = newTree();
+        for(String k: keys) {
+            tree.put(k, k);
+        }
+        tree.put(late, late);
+        ConcurrentCritBitTree.Update done = tree.head.update;
+        ConcurrentCritBitTree.Replace<String, String> op =
+            AbstractCritBitTree.<ConcurrentCritBitTree.Replace<String, String>>cast(done.info);
+        assertEquals(late, tree.remove(late));
+
+        tree.helpReplace(op);
+        assertNull(tree.get(late));
+        assertFalse(tree.containsKey(late));
+        assertEquals(keys.length, tree.size());
+        assertEquals(new TreeMap<String, String>(tree).keySet(), tree.keySet());
+        assertFalse(tree.keySet().contains(late));
+
+        //Writes under the old spot still finish.
+        tree.put(late + "x", "x");
+        assertEquals("x", tree.remove(late + "x"));
+        for(String k: keys) {
+            assertEquals(k, tree.remove(k));
+        }
+        assertTrue(tree.isEmpty());
+    }
+
+    @Test
+    public void testStaleReplaceOverLeaf() {
+        replayStaleInsert(new String[] { "a" }, "b");
+    }
+
+    @Test
+    public void testStaleReplaceOverInternal() {
+        //q branches off above the node holding a and b.
+        replayStaleInsert(new String[] { "a", "b" }, "q");
+    }
+}
@@ -0,0 +1,68 @@
+package io.prelink.critbit;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import org.ardverk.collection.StringKeyAnalyzer;
+
+/**
+ * Throughput of ConcurrentCritBitTree against ConcurrentSkipListMap and a
+ * synchronized MCritBitTree, for a write-heavy mix (50% put, 25% remove,
+ * 25% get) over 1M possible keys, at 1, 2, 4, ... threads up to the number
+ * of available cores (or the count given as an argument).
+ */
+public class ConcurrentSpeedTest {
+    private static final int KEYS = 1000000;
+    private static final int OPS_PER_THREAD = 1000000;
+    private static final int SEED = 42;
+
+    private static long run(final Map<String,String> map, final String[] keys, int threads)
+        throws InterruptedException {
+        return Race.run(threads, new Race.Body() {
+            public void run(int id) {
+                Random rand = new Random(SEED + id);
+                for(int i=0; i<OPS_PER_THREAD; i++) {
+                    String k = keys[rand.nextInt(KEYS)];
+                    int op = rand.nextInt(4);
+                    if(op < 2) {
+                        map.put(k, k);
+                    } else if(op == 2) {
+                        map.remove(k);
+                    } else {
+                        map.get(k);
+                    }
+                }
+            }
+        });
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int maxThreads = (args.length > 0) ? Integer.parseInt(args[0])
+                                           : Runtime.getRuntime().availableProcessors();
+        Random rand = new Random(SEED);
+        String[] keys = new String[KEYS];
+        for(int i=0; i<KEYS; i++) {
+            keys[i] = Long.toString(rand.nextLong() & Long.MAX_VALUE, 36);
+        }
+
+        for(int warm=0; warm<2; warm++) {
+            for(int threads=1; threads<=maxThreads; threads*=2) {
+                long ops = (long)threads * OPS_PER_THREAD;
+                long crit = run(new ConcurrentCritBitTree<String,String>(StringKeyAnalyzer.INSTANCE),
+                                keys, threads);
+                long skip = run(new ConcurrentSkipListMap<String,String>(), keys, threads);
+                long locked = run(Collections.synchronizedMap(
+                                      new MCritBitTree<String,String>(StringKeyAnalyzer.INSTANCE)),
+                                  keys, threads);
+                System.out.println(threads + " threads, Mops/s: ConcurrentCritBitTree "
+                                   + String.format("%.2f", ops * 1000.0 / crit)
+                                   + ", ConcurrentSkipListMap "
+                                   + String.format("%.2f", ops * 1000.0 / skip)
+                                   + ", synchronized MCritBitTree "
+                                   + String.format("%.2f", ops * 1000.0 / locked));
+            }
+        }
+    }
+}
@@ -6,13 +6,33 @@ import io.prelink.critbit.sharedbytearray.ThinSBA;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Random;
+import java.util.SortedMap;
+import java.util.Spliterator;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.BinaryOperator;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
 
 import junit.framework.TestCase;
 
+import org.ardverk.collection.ByteArrayKeyAnalyzer;
 import org.ardverk.collection.Cursor;
+import org.ardverk.collection.Cursor.Decision;
 import org.ardverk.collection.StringKeyAnalyzer;
 import org.junit.Test;
 
@@ -141,6 +161,1162 @@ public class CritBitTest extends TestCase {
         commonTests(new MutableCBWrapper<SharedByteArray>(test), bytekier);
     }
 
+    @Test
+    public void testFromSorted() {
+        assertTrue(CritBitTree.fromSorted(StringKeyAnalyzer.INSTANCE,
+                new ArrayList<Map.Entry<String,String>>()).isEmpty());
+
+        Random rand = new Random(42);
+        MCritBitTree<String, String> expected =
+            new MCritBitTree<String, String>(StringKeyAnalyzer.INSTANCE);
+        for(int i=0; i<5000; i++) {
+            String s = Integer.toString(rand.nextInt(100000), 36);
+            expected.put(s, s);
+        }
+        List<String> expectedKeys = new ArrayList<String>(expected.keySet());
+
+        MCritBitTree<String, String> mutable =
+            MCritBitTree.fromSorted(StringKeyAnalyzer.INSTANCE, expected.entrySet());
+        String[] keyArray = expectedKeys.toArray(new String[0]);
+        CritBitTree<String, String> immutable =
+            CritBitTree.fromSorted(StringKeyAnalyzer.INSTANCE, keyArray, keyArray);
+
+        assertEquals(expected.size(), mutable.size());
+        assertEquals(expected.size(), immutable.size());
+        assertEquals(expectedKeys, new ArrayList<String>(mutable.keySet()));
+        List<String> immutableKeys = new ArrayList<String>();
+        immutable.traverse(new ValueListCursor<String>(immutableKeys));
+        assertEquals(expectedKeys, immutableKeys);
+        for(String s: expectedKeys) {
+            assertEquals(s, mutable.get(s));
+            assertEquals(s, immutable.get(s));
+        }
+
+        //The built trees keep working as ordinary trees.
+        for(String s: expectedKeys.subList(0, 100)) {
+            mutable.remove(s);
+            immutable = immutable.remove(s);
+        }
+        mutable.put("zzzzzz", "z");
+        immutable = immutable.put("zzzzzz", "z");
+        assertEquals(expected.size() - 99, mutable.size());
+        assertEquals(expected.size() - 99, immutable.size());
+        assertEquals("z", mutable.max().getValue());
+        assertEquals("z", immutable.max().getValue());
+        commonTests(new MutableCBWrapper<String>(MCritBitTree.fromSorted(
+                StringKeyAnalyzer.INSTANCE, new String[0], new String[0])), skier);
+
+        try {
+            CritBitTree.fromSorted(StringKeyAnalyzer.INSTANCE,
+                    new String[]{"a", "c", "b"}, new String[3]);
+            fail();
+        } catch(IllegalArgumentException expectedEx) {}
+        try {
+            MCritBitTree.fromSorted(StringKeyAnalyzer.INSTANCE,
+                    new String[]{"a", "b", "b"}, new String[3]);
+            fail();
+        } catch(IllegalArgumentException expectedEx) {}
+    }
+
+    private static void checkBatch(AbstractCritBitTree<String, String> tree, String[] keys) {
+        String[] out = new String[keys.length];
+        String[] sortedOut = new String[keys.length];
+        tree.getAll(keys, out);
+        tree.getAllSorted(keys, sortedOut);
+        BitSet found = tree.containsAll(keys);
+        for(int i=0; i<keys.length; i++) {
+            assertEquals(tree.get(keys[i]), out[i]);
+            assertEquals(tree.get(keys[i]), sortedOut[i]);
+            assertEquals(tree.containsKey(keys[i]), found.get(i));
+        }
+    }
+
+    @Test
+    public void testBatchLookup() {
+        MCritBitTree<String, String> mutable =
+            new MCritBitTree<String, String>(StringKeyAnalyzer.INSTANCE);
+        String[] keys = new String[500];
+        Random rand = new Random(42);
+        for(int i=0; i<keys.length; i++) {
+            keys[i] = Integer.toString(rand.nextInt(2000), 36);
+        }
+        checkBatch(mutable, keys);
+        mutable.put(keys[0], "only");
+        checkBatch(mutable, keys);
+
+        for(int i=0; i<1000; i++) {
+            String s = Integer.toString(rand.nextInt(2000), 36);
+            mutable.put(s, s);
+        }
+        checkBatch(mutable, keys);
+        checkBatch(mutable, new String[0]);
+
+        String[] sorted = mutable.keySet().toArray(new String[0]);
+        checkBatch(mutable, sorted);
+        checkBatch(CritBitTree.fromSorted(StringKeyAnalyzer.INSTANCE, sorted, sorted), keys);
+        checkBatch(CritBitTree.fromSorted(StringKeyAnalyzer.INSTANCE, sorted, sorted), sorted);
+    }
+
+    @Test
+    public void testTransient() {
+        final CritBitTree<String, String> cb =
+            new CritBitTree<String, String>(StringKeyAnalyzer.INSTANCE);
+        final TransientCritBitTree<String, String> t = cb.asTransient();
+        commonTests(new CBWrapper<String>() {
+            public void put(String key, String val) { t.put(key, val); }
+            public void remove(String key) { t.remove(key); }
+            public AbstractCritBitTree<String, String> get() { return t; }
+        }, skier);
+        assertTrue(cb.isEmpty());
+
+        CritBitTree<String, String> sealed = t.persistent();
+        assertEquals(9, sealed.size());
+        assertEquals("a", sealed.min().getValue());
+        try {
+            t.put("a", "a");
+            fail();
+        } catch(IllegalStateException expected) {}
+    }
+
+    @Test
+    public void testTransientLeavesVersionsAlone() {
+        Random rand = new Random(42);
+        CritBitTree<String, String> version =
+            new CritBitTree<String, String>(StringKeyAnalyzer.INSTANCE);
+        MCritBitTree<String, String> expected =
+            new MCritBitTree<String, String>(StringKeyAnalyzer.INSTANCE);
+        List<CritBitTree<String, String>> versions = new ArrayList<CritBitTree<String, String>>();
+        List<List<String>> snapshots = new ArrayList<List<String>>();
+
+        for(int batch=0; batch<20; batch++) {
+            TransientCritBitTree<String, String> t = version.asTransient();
+            for(int i=0; i<200; i++) {
+                String s = Integer.toString(rand.nextInt(500), 36);
+                if(rand.nextInt(3) == 0) {
+                    t.remove(s);
+                    expected.remove(s);
+                } else {
+                    String val = s + batch;
+                    t.put(s, val);
+                    expected.put(s, val);
+                }
+                assertEquals(expected.size(), t.size());
+            }
+            version = t.persistent();
+            versions.add(version);
+            List<String> vals = new ArrayList<String>();
+            version.traverse(new ValueListCursor<String>(vals));
+            assertEquals(new ArrayList<String>(expected.values()), vals);
+            snapshots.add(vals);
+
+            //Plain persistent updates on top of a sealed transient must
+            //copy rather than edit.
+            version.put("zz", "zz").remove(expected.min().getKey());
+        }
+
+        for(int i=0; i<versions.size(); i++) {
+            List<String> vals = new ArrayList<String>();
+            versions.get(i).traverse(new ValueListCursor<String>(vals));
+            assertEquals(snapshots.get(i), vals);
+        }
+    }
+
+    @Test
+    public void testSnapshot() {
+        Random rand = new Random(42);
+        MCritBitTree<String, String> live =
+            new MCritBitTree<String, String>(StringKeyAnalyzer.INSTANCE);
+        TreeMap<String, String> expected = new TreeMap<String, String>();
+        List<CritBitTree<String, String>> snaps = new ArrayList<CritBitTree<String, String>>();
+        List<Map<String, String>> wanted = new ArrayList<Map<String, String>>();
+
+        for(int batch=0; batch<20; batch++) {
+            for(int i=0; i<200; i++) {
+                String s = Integer.toString(rand.nextInt(500), 36);
+                if(rand.nextInt(3) == 0) {
+                    assertEquals(expected.remove(s), live.remove(s));
+                } else {
+                    assertEquals(expected.put(s, s + batch), live.put(s, s + batch));
+                }
+            }
+            assertEquals(expected, live);
+            CritBitTree<String, String> snap = live.snapshot();
+            assertEquals(expected.size(), snap.size());
+            snaps.add(snap);
+            wanted.add(new TreeMap<String, String>(expected));
+
+            //Writing to the snapshot doesn't touch the live tree either.
+            snap.put("zz", "zz").remove(expected.firstKey());
+            assertFalse(live.containsKey("zz"));
+            assertTrue(live.containsKey(expected.firstKey()));
+        }
+        live.clear();
+        for(int i=0; i<snaps.size(); i++) {
+            assertTreeEquals(wanted.get(i), snaps.get(i));
+        }
+    }
+
+    /**
+     * Removes keys whose last digit is in drop, stopping after limit
+     * removals (or never, if limit is negative).
+     */
+    private static class PurgeCursor implements Cursor<String, String> {
+        private final String drop;
+        private int limit;
+        final List<String> seen = new ArrayList<String>();
+        PurgeCursor(String drop, int limit) {
+            this.drop = drop;
+            this.limit = limit;
+        }
+        public Decision select(Map.Entry<? extends String, ? extends String> e) {
+            seen.add(e.getKey());
+            String k = e.getKey();
+            if(drop.indexOf(k.charAt(k.length() - 1)) < 0) {
+                return Decision.CONTINUE;
+            }
+            return (--limit == 0) ? Decision.REMOVE_AND_EXIT : Decision.REMOVE;
+        }
+    }
+
+    private static void purge(TreeMap<String, String> expected, String prefix, String drop, int limit) {
+        for(Iterator<String> it = expected.keySet().iterator(); it.hasNext() && limit != 0; ) {
+            String k = it.next();
+            if(k.startsWith(prefix) && drop.indexOf(k.charAt(k.length() - 1)) >= 0) {
+                it.remove();
+                limit--;
+            }
+        }
+    }
+
+    @Test
+    public void testTraverseRemove() {
+        Random rand = new Random(42);
+        TreeMap<String, String> expected = new TreeMap<String, String>();
+        MCritBitTree<String, String> m = new MCritBitTree<String, String>(StringKeyAnalyzer.INSTANCE);
+        for(int i=0; i<5000; i++) {
+            String k = Integer.toString(rand.nextInt(100000), 36);
+            expected.put(k, k);
+            m.put(k, k);
+        }
+        CritBitTree<String, String> before = m.snapshot();
+        TreeMap<String, String> original = new TreeMap<String, String>(expected);
+
+        PurgeCursor all = new PurgeCursor("0123", -1);
+        m.traverse(all);
+        assertEquals(new ArrayList<String>(expected.keySet()), all.seen);
+        purge(expected, "", "0123", -1);
+        assertEquals(expected, m);
+        assertEquals(expected.size(), m.size());
+
+        m.traverse(new PurgeCursor("45", 100));
+        purge(expected, "", "45", 100);
+        assertEquals(expected, m);
+
+        m.traverseWithPrefix("1", new PurgeCursor("6789abcdef", -1));
+        purge(expected, "1", "6789abcdef", -1);
+        assertEquals(expected, m);
+        m.traverseWithPrefix("zz", new PurgeCursor("0123456789", -1));
+        assertEquals(expected, m);
+
+        //The snapshot taken before doesn't see any of it.
+        assertTreeEquals(original, before);
+
+        //CritBitTree hands back the pruned tree and keeps its own contents.
+        CritBitTree<String, String> pruned = before.prune(new PurgeCursor("0123", -1));
+        TreeMap<String, String> want = new TreeMap<String, String>(original);
+        purge(want, "", "0123", -1);
+        assertTreeEquals(want, pruned);
+        assertEquals(want.size(), pruned.size());
+        assertTreeEquals(original, before);
+        CritBitTree<String, String> prefixPruned = before.pruneWithPrefix("2", new PurgeCursor("ab", 10));
+        want = new TreeMap<String, String>(original);
+        purge(want, "2", "ab", 10);
+        assertTreeEquals(want, prefixPruned);
+        assertSame(before, before.prune(new PurgeCursor("", -1)));
+
+        //So does a transient.
+        TransientCritBitTree<String, String> t = before.asTransient();
+        t.traverse(new PurgeCursor("0123", -1));
+        want = new TreeMap<String, String>(original);
+        purge(want, "", "0123", -1);
+        assertEquals(want.size(), t.size());
+        assertTreeEquals(want, t.persistent());
+
+        //Removing everything leaves an empty tree.
+        m.traverse(new PurgeCursor("0123456789abcdefghijklmnopqrstuvwxyz", -1));
+        assertTrue(m.isEmpty());
+        assertNull(m.min());
+    }
+
+    @Test
+    public void testIteratorRemove() {
+        Random rand = new Random(42);
+        TreeMap<String, String> expected = new TreeMap<String, String>();
+        MCritBitTree<String, String> m = new MCritBitTree<String, String>(StringKeyAnalyzer.INSTANCE);
+        for(int i=0; i<3000; i++) {
+            String k = Integer.toString(rand.nextInt(100000), 36);
+            expected.put(k, k);
+            m.put(k, k);
+        }
+        CritBitTree<String, String> before = m.snapshot();
+        List<String> seen = new ArrayList<String>();
+        for(Iterator<Map.Entry<String, String>> it = m.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String, String> e = it.next();
+            seen.add(e.getKey());
+            if(rand.nextInt(3) > 0) {
+                it.remove();
+                expected.remove(e.getKey());
+                if(rand.nextBoolean()) {
+                    try {
+                        it.remove();
+                        fail();
+                    } catch(IllegalStateException ok) {}
+                }
+            }
+        }
+        assertEquals(new ArrayList<String>(before.descendingMap().descendingKeySet()), seen);
+        assertEquals(expected, m);
+        assertEquals(expected.size(), m.size());
+
+        for(Iterator<String> it = m.keySet().iterator(); it.hasNext(); ) {
+            it.next();
+            it.remove();
+        }
+        assertTrue(m.isEmpty());
+        assertFalse(m.keySet().iterator().hasNext());
+    }
+
+    @Test
+    public void testExcision() {
+        Random rand = new Random(42);
+        TreeMap<String, String> expected = new TreeMap<String, String>();
+        for(int i=0; i<5000; i++) {
+            String k = Integer.toString(rand.nextInt(200000), 36);
+            expected.put(k, k);
+        }
+        MCritBitTree<String, String> m = new MCritBitTree<String, String>(StringKeyAnalyzer.INSTANCE);
+        m.putAll(expected);
+        CritBitTree<String, String> p = m.snapshot();
+        final CritBitTree<String, String> first = p;
+        final TreeMap<String, String> original = new TreeMap<String, String>(expected);
+
+        String[] prefixes = { "1", "a3", "zz", "b", "", "q" };
+        for(String prefix: prefixes) {
+            int count = 0;
+            for(Iterator<String> it = expected.keySet().iterator(); it.hasNext(); ) {
+                if(it.next().startsWith(prefix)) {
+                    it.remove();
+                    count++;
+                }
+            }
+            CritBitTree<String, String> before = p;
+            p = p.removePrefix(prefix);
+            assertEquals(count, m.removePrefix(prefix));
+            assertEquals(expected, m);
+            assertEquals(expected.size(), m.size());
+            assertTreeEquals(expected, p);
+            assertEquals(expected.size(), p.size());
+            if(count == 0) {
+                assertSame(before, p);
+            }
+            if(prefix.length() == 0) {
+                assertTrue(m.isEmpty());
+                assertTrue(p.isEmpty());
+            }
+        }
+        assertTreeEquals(original, first);
+
+        //Ranges, with bounds both in the tree and not.
+        List<String> keys = new ArrayList<String>(original.keySet());
+        for(int round=0; round<50; round++) {
+            expected = new TreeMap<String, String>(original);
+            m.clear();
+            m.putAll(original);
+            p = CritBitTree.fromSorted(StringKeyAnalyzer.INSTANCE, original.entrySet());
+            CritBitTree<String, String> untouched = p;
+            for(int cut=0; cut<4; cut++) {
+                String from = rand.nextBoolean() ? keys.get(rand.nextInt(keys.size()))
+                                                 : Integer.toString(rand.nextInt(200000), 36);
+                String to = rand.nextBoolean() ? keys.get(rand.nextInt(keys.size()))
+                                               : Integer.toString(rand.nextInt(200000), 36);
+                int count = 0;
+                if(from.compareTo(to) < 0) {
+                    Map<String, String> doomed = expected.subMap(from, to);
+                    count = doomed.size();
+                    doomed.clear();
+                }
+                assertEquals(count, m.removeRange(from, to));
+                p = p.removeRange(from, to);
+                assertEquals(expected, m);
+                assertEquals(expected.size(), m.size());
+                assertTreeEquals(expected, p);
+                assertEquals(expected.size(), p.size());
+            }
+            assertTreeEquals(original, untouched);
+        }
+        assertEquals(0, new MCritBitTree<String, String>(StringKeyAnalyzer.INSTANCE).removeRange("a", "b"));
+    }
+
+    /**
+     * Checks that every internal node of a counted tree is counted, and
+     * counted right.
+     */
+    private static <K,V> int checkCounts(AbstractCritBitTree.Node<K,V> n) {
+        if(!n.isInternal()) {
+            return 1;
+        }
+        int count = (n.hasExternalLeft() ? 1 : checkCounts(n.left(null)))
+                  + (n.hasExternalRight() ? 1 : checkCounts(n.right(null)));
+        if(n instanceof AbstractCritBitTree.Counted) {
+            assertEquals(count, ((AbstractCritBitTree.Counted)n).count());
+        } else {
+            assertEquals(2, count);
+        }
+        return count;
+    }
+
+    private static void checkStatistics(TreeMap<String, String> expected,
+                                        AbstractCritBitTree<String, String> tree,
+                                        Random rand) {
+        if(tree.counted() && tree.root() != null) {
+            assertEquals(expected.size(), checkCounts(tree.root()));
+        }
+        List<String> keys = new ArrayList<String>(expected.keySet());
+        for(int i=0; i<keys.size(); i++) {
+            assertEquals(keys.get(i), tree.select(i).getKey());
+            assertEquals(i, tree.rank(keys.get(i)));
+        }
+        for(int i=0; i<200; i++) {
+            String k = Integer.toString(rand.nextInt(200000), 36);
+            String other = Integer.toString(rand.nextInt(200000), 36);
+            assertEquals(expected.headMap(k).size(), tree.rank(k));
+            assertEquals((k.compareTo(other) < 0) ? expected.subMap(k, other).size() : 0,
+                         tree.countRange(k, other));
+        }
+        for(String prefix: new String[] { "", "1", "a3", "zz", "b", "q", "5k" }) {
+            int count = 0;
+            for(String k: keys) {
+                if(k.startsWith(prefix)) {
+                    count++;
+                }
+            }
+            assertEquals(count, tree.countPrefix(prefix));
+        }
+        for(int i: new int[] { -1, keys.size() }) {
+            try {
+                tree.select(i);
+                fail();
+            } catch(IndexOutOfBoundsException e) {}
+        }
+    }
+
+    @Test
+    public void testOrderStatistics() {
+        Random rand = new Random(42);
+        TreeMap<String, String> expected = new TreeMap<String, String>();
+        MCritBitTree<String, String> m = MCritBitTree.counted(StringKeyAnalyzer.INSTANCE);
+        checkStatistics(expected, m, rand);
+        for(int i=0; i<5000; i++) {
+            String k = Integer.toString(rand.nextInt(200000), 36);
+            if(rand.nextInt(4) == 0) {
+                assertEquals(expected.remove(k), m.remove(k));
+            } else {
+                assertEquals(expected.put(k, "v" + i), m.put(k, "v" + i));
+            }
+        }
+        checkStatistics(expected, m, rand);
+
+        //Snapshots and the tree's later, copied paths stay counted.
+        TreeMap<String, String> atSnapshot = new TreeMap<String, String>(expected);
+        CritBitTree<String, String> snap = m.snapshot();
+        for(int i=0; i<1000; i++) {
+            String k = Integer.toString(rand.nextInt(200000), 36);
+            expected.put(k, k);
+            m.put(k, k);
+        }
+        checkStatistics(expected, m, rand);
+        checkStatistics(atSnapshot, snap, rand);
+        snap = snap.put("zzzzz", "z");
+        atSnapshot.put("zzzzz", "z");
+        checkStatistics(atSnapshot, snap, rand);
+
+        //Excision, pruning traversals and iterator removal.
+        assertEquals(expected.subMap("3", "5").size(), m.removeRange("3", "5"));
+        expected.subMap("3", "5").clear();
+        int count = m.countPrefix("a");
+        assertEquals(count, m.removePrefix("a"));
+        expected.subMap("a", "b").clear();
+        m.traverseWithPrefix("1", new PurgeCursor("0123", -1));
+        purge(expected, "1", "0123", -1);
+        for(Iterator<String> it = m.keySet().iterator(); it.hasNext(); ) {
+            if(it.next().endsWith("7")) {
+                it.remove();
+            }
+        }
+        for(Iterator<String> it = expected.keySet().iterator(); it.hasNext(); ) {
+            if(it.next().endsWith("7")) {
+                it.remove();
+            }
+        }
+        assertEquals(expected, m);
+        checkStatistics(expected, m, rand);
+
+        //Persistent counted trees, through set operations with an
+        //uncounted tree and a transient.
+        CritBitTree<String, String> c = CritBitTree.counted(StringKeyAnalyzer.INSTANCE);
+        for(Map.Entry<String, String> e: expected.entrySet()) {
+            c = c.put(e.getKey(), e.getValue());
+        }
+        CritBitTree<String, String> plain = new CritBitTree<String, String>(StringKeyAnalyzer.INSTANCE);
+        for(int i=0; i<500; i++) {
+            String k = Integer.toString(rand.nextInt(200000), 36);
+            plain = plain.put(k, k);
+            expected.put(k, k);
+        }
+        c = c.union(plain);
+        checkStatistics(expected, c, rand);
+        TransientCritBitTree<String, String> t = c.asTransient();
+        for(int i=0; i<500; i++) {
+            String k = Integer.toString(rand.nextInt(200000), 36);
+            t.put(k, k);
+            expected.put(k, k);
+            String gone = expected.firstKey();
+            t.remove(gone);
+            expected.remove(gone);
+        }
+        c = t.persistent();
+        checkStatistics(expected, c, rand);
+        c = c.removePrefix("b").prune(new PurgeCursor("89", -1));
+        expected.subMap("b", "c").clear();
+        purge(expected, "", "89", -1);
+        checkStatistics(expected, c, rand);
+
+        //Uncounted trees answer the same, just slower.
+        checkStatistics(expected, CritBitTree.fromSorted(StringKeyAnalyzer.INSTANCE, expected.entrySet()), rand);
+    }
+
+    private static TreeMap<String, String> withPrefix(TreeMap<String, String> all, String prefix) {
+        TreeMap<String, String> out = new TreeMap<String, String>();
+        for(Map.Entry<String, String> e: all.entrySet()) {
+            if(e.getKey().startsWith(prefix)) {
+                out.put(e.getKey(), e.getValue());
+            }
+        }
+        return out;
+    }
+
+    private static void checkPrefixMap(TreeMap<String, String> all, String prefix,
+                                       SortedMap<String, String> view) {
+        TreeMap<String, String> expected = withPrefix(all, prefix);
+        assertEquals(expected, view);
+        assertEquals(expected.size(), view.size());
+        assertEquals(expected.isEmpty(), view.isEmpty());
+        assertEquals(new ArrayList<String>(expected.keySet()), new ArrayList<String>(view.keySet()));
+        if(!expected.isEmpty()) {
+            assertEquals(expected.firstKey(), view.firstKey());
+            assertEquals(expected.lastKey(), view.lastKey());
+        }
+        for(String k: new String[] { prefix, prefix + "0", prefix + "zz", "", "5", "zzzzz" }) {
+            assertEquals(expected.get(k), view.get(k));
+            assertEquals(expected.containsKey(k), view.containsKey(k));
+        }
+    }
+
+    @Test
+    public void testPrefixMap() {
+        Random rand = new Random(42);
+        TreeMap<String, String> expected = new TreeMap<String, String>();
+        MCritBitTree<String, String> m = new MCritBitTree<String, String>(StringKeyAnalyzer.INSTANCE);
+        for(int i=0; i<5000; i++) {
+            String k = Integer.toString(rand.nextInt(200000), 36);
+            expected.put(k, k);
+            m.put(k, k);
+        }
+        for(String prefix: new String[] { "", "1", "a3", "b", "zz", "q", "5k" }) {
+            checkPrefixMap(expected, prefix, m.prefixMap(prefix));
+        }
+
+        //Live, and narrowed from the same view.
+        CritBitPrefixMap<String, String> ones = m.prefixMap("1");
+        CritBitPrefixMap<String, String> oneAs = ones.prefixMap("1a");
+        checkPrefixMap(expected, "1a", oneAs);
+        m.put("1a", "x");
+        expected.put("1a", "x");
+        assertNull(ones.put("1azzz", "y"));
+        expected.put("1azzz", "y");
+        assertEquals("x", ones.remove("1a"));
+        expected.remove("1a");
+        assertNull(ones.remove("2"));
+        m.remove(expected.firstKey());
+        expected.remove(expected.firstKey());
+        checkPrefixMap(expected, "1", ones);
+        checkPrefixMap(expected, "1a", oneAs);
+        try {
+            ones.put("2", "z");
+            fail();
+        } catch(IllegalArgumentException e) {}
+        try {
+            ones.prefixMap("2");
+            fail();
+        } catch(IllegalArgumentException e) {}
+
+        //Key ranges within the prefix.
+        SortedMap<String, String> sub = ones.subMap("1b", "1m");
+        assertEquals(withPrefix(expected, "1").subMap("1b", "1m"), sub);
+        assertEquals(withPrefix(expected, "1").headMap("1c"), ones.headMap("1c"));
+        assertEquals(withPrefix(expected, "1").tailMap("0"), ones.tailMap("0"));
+        assertEquals(withPrefix(expected, "1").tailMap("1x"), ones.tailMap("1x"));
+        try {
+            sub.put("1z", "z");
+            fail();
+        } catch(IllegalArgumentException e) {}
+
+        //Iterator removal, then a write from elsewhere.
+        for(Iterator<String> it = ones.keySet().iterator(); it.hasNext(); ) {
+            String k = it.next();
+            if(k.endsWith("3") || k.endsWith("7") || k.endsWith("a")) {
+                it.remove();
+                expected.remove(k);
+            }
+        }
+        assertEquals(expected, m);
+        checkPrefixMap(expected, "1", ones);
+        Iterator<String> it = ones.keySet().iterator();
+        it.next();
+        m.put("1-", "-");
+        try {
+            it.next();
+            fail();
+        } catch(ConcurrentModificationException e) {}
+        m.remove("1-");
+
+        oneAs.clear();
+        expected.keySet().removeAll(withPrefix(expected, "1a").keySet());
+        assertTrue(oneAs.isEmpty());
+        ones.clear();
+        expected.keySet().removeAll(withPrefix(expected, "1").keySet());
+        assertTrue(ones.isEmpty());
+        assertEquals(expected, m);
+        m.put("1q", "q");
+        assertEquals(1, ones.size());
+
+        //Views of a CritBitTree are fixed and read-only.
+        CritBitTree<String, String> p = CritBitTree.fromSorted(StringKeyAnalyzer.INSTANCE, expected.entrySet());
+        CritBitPrefixMap<String, String> b = p.prefixMap("b");
+        checkPrefixMap(expected, "b", b);
+        checkPrefixMap(expected, "b2", b.prefixMap("b2"));
+        p.put("bbbbb", "b");
+        checkPrefixMap(expected, "b", b);
+        try {
+            b.put("bbbbb", "b");
+            fail();
+        } catch(UnsupportedOperationException e) {}
+        checkPrefixMap(new TreeMap<String, String>(), "x",
+                       new CritBitTree<String, String>(StringKeyAnalyzer.INSTANCE).prefixMap("x"));
+    }
+
+    @Test
+    public void testLongestPrefixOf() {
+        Random rand = new Random(42);
+        List<String> keys = new ArrayList<String>();
+        MCritBitTree<String, String> m = new MCritBitTree<String, String>(StringKeyAnalyzer.INSTANCE);
+        assertNull(m.longestPrefixOf("a"));
+        for(int i=0; i<2000; i++) {
+            String k = Integer.toString(rand.nextInt(50000), 36);
+            k = k.substring(0, 1 + rand.nextInt(k.length()));
+            if(m.put(k, k) == null) {
+                keys.add(k);
+            }
+        }
+        CritBitTree<String, String> p = CritBitTree.fromSorted(StringKeyAnalyzer.INSTANCE, m.entrySet());
+        for(int i=0; i<2000; i++) {
+            String q = Integer.toString(rand.nextInt(50000), 36) + ((i % 3 == 0) ? "" : "\u0000z");
+            String expected = null;
+            for(String k: keys) {
+                if(q.startsWith(k) && (expected == null || k.length() > expected.length())) {
+                    expected = k;
+                }
+            }
+            Map.Entry<String, String> fromM = m.longestPrefixOf(q);
+            Map.Entry<String, String> fromP = p.longestPrefixOf(q);
+            assertEquals(expected, (fromM == null) ? null : fromM.getKey());
+            assertEquals(expected, (fromP == null) ? null : fromP.getKey());
+        }
+        m.put("", "root");
+        assertEquals("", m.longestPrefixOf("~~~").getKey());
+    }
+
+    private static byte[] xor(byte[] a, byte[] b) {
+        byte[] out = new byte[a.length];
+        for(int i=0; i<a.length; i++) {
+            out[i] = (byte)(a[i] ^ b[i]);
+        }
+        return out;
+    }
+
+    private static int compareUnsigned(byte[] a, byte[] b) {
+        for(int i=0; i<a.length; i++) {
+            int c = (a[i] & 0xFF) - (b[i] & 0xFF);
+            if(c != 0) {
+                return c;
+            }
+        }
+        return 0;
+    }
+
+    private static List<byte[]> nearest(List<byte[]> keys, final byte[] target, int n) {
+        List<byte[]> sorted = new ArrayList<byte[]>(keys);
+        sorted.sort(new Comparator<byte[]>() {
+            public int compare(byte[] a, byte[] b) {
+                return compareUnsigned(xor(a, target), xor(b, target));
+            }
+        });
+        return sorted.subList(0, Math.min(n, sorted.size()));
+    }
+
+    private static List<byte[]> selectN(AbstractCritBitTree<byte[], String> tree, byte[] target, int n) {
+        final List<byte[]> out = new ArrayList<byte[]>();
+        tree.selectN(target, n, new Cursor<byte[], String>() {
+            public Decision select(Map.Entry<? extends byte[], ? extends String> e) {
+                out.add(e.getKey());
+                return Decision.CONTINUE;
+            }
+        });
+        return out;
+    }
+
+    private static void assertSameKeys(List<byte[]> expected, List<byte[]> actual) {
+        assertEquals(expected.size(), actual.size());
+        for(int i=0; i<expected.size(); i++) {
+            assertTrue(Arrays.equals(expected.get(i), actual.get(i)));
+        }
+    }
+
+    @Test
+    public void testSelectNearest() {
+        Random rand = new Random(42);
+        List<byte[]> keys = new ArrayList<byte[]>();
+        MCritBitTree<byte[], String> m = new MCritBitTree<byte[], String>(ByteArrayKeyAnalyzer.INSTANCE);
+        assertNull(m.select(new byte[20]));
+        for(int i=0; i<2000; i++) {
+            byte[] k = new byte[20];
+            rand.nextBytes(k);
+            keys.add(k);
+            m.put(k, Integer.toString(i));
+        }
+        CritBitTree<byte[], String> p = CritBitTree.fromSorted(ByteArrayKeyAnalyzer.INSTANCE, m.entrySet());
+        for(int i=0; i<200; i++) {
+            byte[] target = new byte[20];
+            rand.nextBytes(target);
+            if(i % 4 == 0) {
+                target = keys.get(rand.nextInt(keys.size())).clone();
+            }
+            List<byte[]> expected = nearest(keys, target, 50);
+            assertTrue(Arrays.equals(expected.get(0), m.select(target).getKey()));
+            assertTrue(Arrays.equals(expected.get(0), p.select(target).getKey()));
+            int n = 1 + rand.nextInt(50);
+            assertSameKeys(expected.subList(0, n), selectN(m, target, n));
+            assertSameKeys(expected.subList(0, n), selectN(p, target, n));
+        }
+        assertSameKeys(nearest(keys, new byte[20], 2000), selectN(m, new byte[20], 5000));
+        assertEquals(0, selectN(m, new byte[20], 0).size());
+
+        //Exiting early, and removing what's visited.
+        final byte[] target = keys.get(7);
+        final List<byte[]> seen = new ArrayList<byte[]>();
+        m.selectN(target, 10, new Cursor<byte[], String>() {
+            public Decision select(Map.Entry<? extends byte[], ? extends String> e) {
+                seen.add(e.getKey());
+                return (seen.size() == 3) ? Decision.EXIT : Decision.CONTINUE;
+            }
+        });
+        assertSameKeys(nearest(keys, target, 3), seen);
+        m.selectN(target, 5, new Cursor<byte[], String>() {
+            public Decision select(Map.Entry<? extends byte[], ? extends String> e) {
+                return Decision.REMOVE;
+            }
+        });
+        List<byte[]> gone = nearest(keys, target, 5);
+        assertEquals(1995, m.size());
+        for(byte[] k: gone) {
+            assertFalse(m.containsKey(k));
+        }
+        keys.removeAll(gone);
+        assertSameKeys(nearest(keys, target, 20), selectN(m, target, 20));
+        try {
+            m.selectN(target, -1, null);
+            fail();
+        } catch(IllegalArgumentException e) {}
+    }
+
+    private static Map<String, String> contents(CritBitTree<String, String> tree) {
+        final Map<String, String> out = new LinkedHashMap<String, String>();
+        tree.traverse(new Cursor<String, String>() {
+            public Decision select(Map.Entry<? extends String, ? extends String> e) {
+                out.put(e.getKey(), e.getValue());
+                return Decision.CONTINUE;
+            }
+        });
+        return out;
+    }
+
+    private static void assertTreeEquals(Map<String, String> expected,
+                                         CritBitTree<String, String> actual) {
+        MCritBitTree<String, String> ordered =
+            new MCritBitTree<String, String>(StringKeyAnalyzer.INSTANCE);
+        ordered.putAll(expected);
+        Map<String, String> actualContents = contents(actual);
+        assertEquals(new ArrayList<String>(ordered.keySet()),
+                     new ArrayList<String>(actualContents.keySet()));
+        assertEquals(expected, actualContents);
+        assertEquals(expected.size(), actual.size());
+    }
+
+    @Test
+    public void testEmptyResults() {
+        CritBitTree<String, String> tree =
+            new CritBitTree<String, String>(StringKeyAnalyzer.INSTANCE);
+        for(int i=0; i<100; i++) {
+            String s = Integer.toString(i, 36);
+            tree = tree.put(s, s);
+        }
+        //These don't know their sizes, so isEmpty() must not ask.
+        assertTrue(tree.difference(tree).isEmpty());
+        assertTrue(tree.removePrefix("").isEmpty());
+        assertTrue(tree.removeRange("0", "zz").isEmpty());
+        assertFalse(tree.union(tree).isEmpty());
+        assertFalse(tree.removePrefix("1").isEmpty());
+        assertEquals(100, tree.union(tree).size());
+        assertEquals(0, tree.difference(tree).size());
+
+        AtomicCritBitMap<String, String> map = new AtomicCritBitMap<String, String>(StringKeyAnalyzer.INSTANCE);
+        map.put("a", "a");
+        final CritBitTree<String, String> other = tree;
+        map.update(new UnaryOperator<CritBitTree<String, String>>() {
+            public CritBitTree<String, String> apply(CritBitTree<String, String> t) {
+                return t.difference(t.union(other));
+            }
+        });
+        assertTrue(map.isEmpty());
+        assertEquals(0, map.size());
+    }
+
+    @Test
+    public void testSetOperations() {
+        Random rand = new Random(42);
+        CritBitTree<String, String> base =
+            new CritBitTree<String, String>(StringKeyAnalyzer.INSTANCE);
+        for(int i=0; i<2000; i++) {
+            String s = Integer.toString(rand.nextInt(5000), 36);
+            base = base.put(s, s);
+        }
+        BinaryOperator<String> concat = new BinaryOperator<String>() {
+            public String apply(String a, String b) { return a + "+" + b; }
+        };
+
+        for(int round=0; round<20; round++) {
+            //Versions of a common base share most of their structure;
+            //unrelated trees share none.
+            CritBitTree<String, String> a = base, b = base;
+            if(round % 4 == 3) {
+                b = new CritBitTree<String, String>(StringKeyAnalyzer.INSTANCE);
+            }
+            int edits = (round % 2 == 0) ? 20 : 2000;
+            for(int i=0; i<edits; i++) {
+                String s = Integer.toString(rand.nextInt(5000), 36);
+                switch(rand.nextInt(4)) {
+                case 0: a = a.remove(s); break;
+                case 1: b = b.remove(s); break;
+                case 2: a = a.put(s, "a" + s); break;
+                default: b = b.put(s, "b" + s); break;
+                }
+            }
+            Map<String, String> ma = contents(a), mb = contents(b);
+
+            Map<String, String> union = new HashMap<String, String>(ma);
+            Map<String, String> inter = new HashMap<String, String>();
+            for(Map.Entry<String, String> e: mb.entrySet()) {
+                String mine = ma.get(e.getKey());
+                if(mine == null) {
+                    union.put(e.getKey(), e.getValue());
+                } else {
+                    String merged = mine.equals(e.getValue()) ? mine : mine + "+" + e.getValue();
+                    union.put(e.getKey(), merged);
+                    inter.put(e.getKey(), merged);
+                }
+            }
+            Map<String, String> diff = new HashMap<String, String>(ma);
+            diff.keySet().removeAll(mb.keySet());
+            Map<String, String> symdiff = new HashMap<String, String>(diff);
+            for(Map.Entry<String, String> e: mb.entrySet()) {
+                if(!ma.containsKey(e.getKey())) {
+                    symdiff.put(e.getKey(), e.getValue());
+                }
+            }
+
+            assertTreeEquals(union, a.union(b, concat));
+            assertTreeEquals(inter, a.intersection(b, concat));
+            assertTreeEquals(diff, a.difference(b));
+            assertTreeEquals(symdiff, a.symmetricDifference(b));
+        }
+
+        assertSame(base, base.union(base));
+        assertSame(base, base.intersection(base, concat));
+        assertTrue(base.difference(base).isEmpty());
+        assertTrue(base.symmetricDifference(base).isEmpty());
+        CritBitTree<String, String> empty =
+            new CritBitTree<String, String>(StringKeyAnalyzer.INSTANCE);
+        assertSame(base, base.union(empty));
+        assertEquals(base.size(), empty.union(base).size());
+        assertTrue(empty.intersection(base, concat).isEmpty());
+
+        //A null from the merge function drops the key.
+        CritBitTree<String, String> other = base.put(base.min().getKey(), "changed");
+        CritBitTree<String, String> dropped = base.union(other, new BinaryOperator<String>() {
+            public String apply(String a, String b) { return null; }
+        });
+        assertEquals(base.size() - 1, dropped.size());
+        assertFalse(dropped.containsKey(base.min().getKey()));
+    }
+
+    private static void assertSameEntry(Map.Entry<String, String> expected,
+                                        Map.Entry<String, String> actual) {
+        if(expected == null) {
+            assertNull(actual);
+        } else {
+            assertNotNull(actual);
+            assertEquals(expected.getKey(), actual.getKey());
+            assertEquals(expected.getValue(), actual.getValue());
+        }
+    }
+
+    private static void checkNavigation(NavigableMap<String, String> expected,
+                                        NavigableMap<String, String> actual,
+                                        String[] probes) {
+        assertEquals(new ArrayList<String>(expected.keySet()),
+                     new ArrayList<String>(actual.keySet()));
+        assertEquals(expected.size(), actual.size());
+        assertSameEntry(expected.firstEntry(), actual.firstEntry());
+        assertSameEntry(expected.lastEntry(), actual.lastEntry());
+        for(String p: probes) {
+            assertSameEntry(expected.ceilingEntry(p), actual.ceilingEntry(p));
+            assertSameEntry(expected.floorEntry(p), actual.floorEntry(p));
+            assertSameEntry(expected.higherEntry(p), actual.higherEntry(p));
+            assertSameEntry(expected.lowerEntry(p), actual.lowerEntry(p));
+            assertEquals(expected.get(p), actual.get(p));
+        }
+    }
+
+    @Test
+    public void testNavigation() {
+        //Tree order and String order agree for these keys.
+        Random rand = new Random(42);
+        TreeMap<String, String> expected = new TreeMap<String, String>();
+        MCritBitTree<String, String> mtree =
+            new MCritBitTree<String, String>(StringKeyAnalyzer.INSTANCE);
+        CritBitTree<String, String> tree =
+            new CritBitTree<String, String>(StringKeyAnalyzer.INSTANCE);
+        for(int i=0; i<500; i++) {
+            String s = Integer.toString(rand.nextInt(3000), 36);
+            expected.put(s, s);
+            mtree.put(s, s);
+            tree = tree.put(s, s);
+        }
+        String[] probes = new String[200];
+        for(int i=0; i<probes.length; i++) {
+            probes[i] = Integer.toString(rand.nextInt(3000), 36);
+        }
+
+        checkNavigation(expected, mtree, probes);
+        checkNavigation(expected.descendingMap(), mtree.descendingMap(), probes);
+        checkNavigation(expected.descendingMap(), tree.descendingMap(), probes);
+        for(int i=0; i<probes.length; i+=2) {
+            String lo = probes[i], hi = probes[i+1];
+            if(lo.compareTo(hi) > 0) {
+                String t = lo; lo = hi; hi = t;
+            }
+            boolean loIn = (i % 4 == 0), hiIn = (i % 8 < 4);
+            checkNavigation(expected.subMap(lo, loIn, hi, hiIn),
+                            mtree.subMap(lo, loIn, hi, hiIn), probes);
+            checkNavigation(expected.subMap(lo, loIn, hi, hiIn),
+                            tree.subMap(lo, loIn, hi, hiIn), probes);
+            checkNavigation(expected.headMap(hi, hiIn).descendingMap(),
+                            tree.headMap(hi, hiIn).descendingMap(), probes);
+            checkNavigation(expected.tailMap(lo, loIn).descendingMap().headMap(hi, true),
+                            mtree.tailMap(lo, loIn).descendingMap().headMap(hi, true), probes);
+        }
+
+        //Views of an MCritBitTree write through; CritBitTree's are read-only.
+        NavigableMap<String, String> view = mtree.subMap("a", true, "b", false);
+        try {
+            view.put("c", "c");
+            fail();
+        } catch(IllegalArgumentException e) {}
+        view.put("a0", "x");
+        assertEquals("x", mtree.get("a0"));
+        Iterator<String> it = view.keySet().iterator();
+        while(it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+        assertTrue(view.isEmpty());
+        expected.subMap("a", true, "b", false).clear();
+        checkNavigation(expected, mtree, probes);
+        try {
+            tree.headMap("m", true).pollFirstEntry();
+            fail();
+        } catch(UnsupportedOperationException e) {}
+
+        assertEquals(expected.pollFirstEntry().getKey(), mtree.pollFirstEntry().getKey());
+        assertEquals(expected.pollLastEntry().getKey(), mtree.pollLastEntry().getKey());
+        assertEquals(expected.firstKey(), mtree.firstKey());
+        assertEquals(new ArrayList<String>(expected.descendingKeySet()),
+                     new ArrayList<String>(mtree.descendingKeySet()));
+    }
+
+    //Splits s all the way down, collecting keys from the pieces in order.
+    private static void splitAll(Spliterator<Map.Entry<String, String>> s, final List<String> out) {
+        Spliterator<Map.Entry<String, String>> prefix = s.trySplit();
+        if(prefix != null) {
+            assertTrue(prefix.hasCharacteristics(Spliterator.ORDERED));
+            splitAll(prefix, out);
+            splitAll(s, out);
+            return;
+        }
+        s.forEachRemaining(new Consumer<Map.Entry<String, String>>() {
+            public void accept(Map.Entry<String, String> e) { out.add(e.getKey()); }
+        });
+    }
+
+    @Test
+    public void testSpliterator() {
+        Random rand = new Random(42);
+        TreeMap<String, String> expected = new TreeMap<String, String>();
+        MCritBitTree<String, String> mtree =
+            new MCritBitTree<String, String>(StringKeyAnalyzer.INSTANCE);
+        CritBitTree<String, String> tree =
+            new CritBitTree<String, String>(StringKeyAnalyzer.INSTANCE);
+        assertEquals(0, tree.stream().count());
+        assertNull(tree.spliterator().trySplit());
+        for(int i=0; i<5000; i++) {
+            String s = Integer.toString(rand.nextInt(100000), 36);
+            expected.put(s, s);
+            mtree.put(s, s);
+            tree = tree.put(s, s);
+        }
+        List<String> keys = new ArrayList<String>(expected.keySet());
+
+        for(AbstractCritBitTree<String, String> t: Arrays.<AbstractCritBitTree<String, String>>asList(mtree, tree)) {
+            Spliterator<Map.Entry<String, String>> s = t.spliterator();
+            assertTrue(s.hasCharacteristics(Spliterator.SIZED | Spliterator.SORTED | Spliterator.DISTINCT));
+            assertEquals(keys.size(), s.getExactSizeIfKnown());
+            assertEquals(t == tree, s.hasCharacteristics(Spliterator.IMMUTABLE));
+
+            List<String> split = new ArrayList<String>();
+            splitAll(s, split);
+            assertEquals(keys, split);
+
+            List<String> streamed = t.stream().map(new Function<Map.Entry<String, String>, String>() {
+                public String apply(Map.Entry<String, String> e) { return e.getKey(); }
+            }).collect(Collectors.<String>toList());
+            assertEquals(keys, streamed);
+            List<String> parallel = t.parallelStream().map(new Function<Map.Entry<String, String>, String>() {
+                public String apply(Map.Entry<String, String> e) { return e.getKey(); }
+            }).collect(Collectors.<String>toList());
+            assertEquals(keys, parallel);
+
+            final ConcurrentHashMap<String, String> seen = new ConcurrentHashMap<String, String>();
+            t.parallelForEach(new BiConsumer<String, String>() {
+                public void accept(String k, String v) { assertNull(seen.put(k, v)); }
+            });
+            assertEquals(expected, seen);
+        }
+        assertEquals(keys.size(), mtree.entrySet().parallelStream().count());
+    }
+
+    private static int sum(int[] h) {
+        int total = 0;
+        for(int n: h) {
+            total += n;
+        }
+        return total;
+    }
+
+    @Test
+    public void testStats() {
+        CritBitTree<String, String> tree =
+            new CritBitTree<String, String>(StringKeyAnalyzer.INSTANCE);
+        CritBitStats empty = tree.stats();
+        assertEquals(0, empty.leaves());
+        assertEquals(0, empty.internalNodes());
+        assertEquals(0, empty.depthHistogram().length);
+        assertEquals(0, empty.critBitHistogram().length);
+        assertEquals(0, empty.maxLeafDepth());
+        assertEquals(0.0, empty.averageLeafDepth());
+        assertEquals(0, empty.estimatedBytes());
+
+        tree = tree.put("a", "a");
+        CritBitStats one = tree.stats();
+        assertEquals(1, one.leaves());
+        assertEquals(1, one.leafNodes());
+        assertEquals(0, one.internalNodes());
+        assertTrue(Arrays.equals(new int[] { 1 }, one.depthHistogram()));
+        assertTrue(one.estimatedBytes() > 0);
+
+        tree = tree.put("b", "b");
+        CritBitStats two = tree.stats();
+        assertEquals(1, two.shortBothNodes());
+        assertEquals(0, two.leafNodes());
+        assertTrue(Arrays.equals(new int[] { 0, 2 }, two.depthHistogram()));
+        assertEquals(1.0, two.averageLeafDepth());
+        int[] bits = two.critBitHistogram();
+        assertEquals(1, sum(bits));
+        assertEquals(1, bits[bits.length - 1]);
+        assertEquals(StringKeyAnalyzer.INSTANCE.bitIndex("a", "b"), bits.length - 1);
+
+        //Both trees take the same shape from the same keys.
+        Random rand = new Random(42);
+        MCritBitTree<String, String> mtree =
+            new MCritBitTree<String, String>(StringKeyAnalyzer.INSTANCE);
+        mtree.put("a", "a");
+        mtree.put("b", "b");
+        for(int i=0; i<5000; i++) {
+            String s = Integer.toString(rand.nextInt(100000), 36);
+            mtree.put(s, s);
+            tree = tree.put(s, s);
+        }
+        CritBitStats is = tree.stats();
+        CritBitStats ms = mtree.stats();
+        for(CritBitStats s: Arrays.asList(is, ms)) {
+            assertEquals(tree.size(), s.leaves());
+            assertEquals(tree.size(), sum(s.depthHistogram()));
+            assertEquals(tree.size() - 1, s.internalNodes());
+            assertEquals(s.internalNodes(), sum(s.critBitHistogram()));
+            assertEquals(tree.size(), 2 * s.shortBothNodes() + s.shortLeftNodes() + s.shortRightNodes());
+            assertTrue(s.averageLeafDepth() <= s.maxLeafDepth());
+        }
+        assertEquals(is.shortBothNodes(), ms.shortBothNodes());
+        assertEquals(is.shortLeftNodes(), ms.shortLeftNodes());
+        assertEquals(is.tallNodes(), ms.tallNodes());
+        assertTrue(Arrays.equals(is.depthHistogram(), ms.depthHistogram()));
+        assertTrue(Arrays.equals(is.critBitHistogram(), ms.critBitHistogram()));
+        //Mutable nodes also point at their generation.
+        assertTrue(ms.estimatedBytes() > is.estimatedBytes());
+
+        //Each key a prefix of the next makes a tree as deep as it is big.
+        MCritBitTree<String, String> deep =
+            new MCritBitTree<String, String>(StringKeyAnalyzer.INSTANCE);
+        StringBuilder sb = new StringBuilder();
+        for(int i=0; i<3000; i++) {
+            sb.append('a');
+            deep.put(sb.toString(), "");
+        }
+        CritBitStats ds = deep.stats();
+        assertEquals(2999, ds.maxLeafDepth());
+        assertEquals(3000, sum(ds.depthHistogram()));
+        assertEquals(2999, ds.shortLeftNodes() + ds.shortRightNodes() + ds.shortBothNodes());
+    }
+
     private static class ImmutableCBWrapper<K> implements CBWrapper<K> {
         private CritBitTree<K, String> test;
         public ImmutableCBWrapper(CritBitTree<K,String> cb) {
@@ -0,0 +1,87 @@
+package io.prelink.critbit;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.ardverk.collection.Cursor;
+import org.ardverk.collection.StringKeyAnalyzer;
+
+/**
+ * Deletes 100 of 1000 tenants (keys "t<n>:...", 1000 keys each) from an
+ * MCritBitTree and from a CritBitTree, once a key at a time and once with
+ * removePrefix.
+ */
+public class ExcisionSpeedTest {
+    private static final int TENANTS = 1000;
+    private static final int KEYS_PER_TENANT = 1000;
+    private static final int DELETED = 100;
+    private static final int SEED = 42;
+
+    private static List<String> keysOf(AbstractCritBitTree<String,String> tree, String prefix) {
+        final List<String> out = new ArrayList<String>();
+        tree.traverseWithPrefix(prefix, new Cursor<String,String>() {
+            public Decision select(Map.Entry<? extends String, ? extends String> e) {
+                out.add(e.getKey());
+                return Decision.CONTINUE;
+            }
+        });
+        return out;
+    }
+
+    public static void main(String[] args) {
+        Random rand = new Random(SEED);
+        MCritBitTree<String,String> sorter = new MCritBitTree<String,String>(StringKeyAnalyzer.INSTANCE);
+        for(int t=0; t<TENANTS; t++) {
+            for(int i=0; i<KEYS_PER_TENANT; i++) {
+                String k = "t" + t + ":" + Long.toString(rand.nextLong() & Long.MAX_VALUE, 36);
+                sorter.put(k, k);
+            }
+        }
+        String[] doomed = new String[DELETED];
+        for(int i=0; i<DELETED; i++) {
+            doomed[i] = "t" + (i * (TENANTS / DELETED)) + ":";
+        }
+
+        for(int warm=0; warm<3; warm++) {
+            MCritBitTree<String,String> m1 = MCritBitTree.fromSorted(StringKeyAnalyzer.INSTANCE, sorter.entrySet());
+            MCritBitTree<String,String> m2 = MCritBitTree.fromSorted(StringKeyAnalyzer.INSTANCE, sorter.entrySet());
+            CritBitTree<String,String> c1 = CritBitTree.fromSorted(StringKeyAnalyzer.INSTANCE, sorter.entrySet());
+            CritBitTree<String,String> c2 = c1;
+
+            long start = System.nanoTime();
+            for(String prefix: doomed) {
+                for(String k: keysOf(m1, prefix)) {
+                    m1.remove(k);
+                }
+            }
+            long mKeys = System.nanoTime() - start;
+            start = System.nanoTime();
+            for(String prefix: doomed) {
+                m2.removePrefix(prefix);
+            }
+            long mPrefix = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for(String prefix: doomed) {
+                for(String k: keysOf(c1, prefix)) {
+                    c1 = c1.remove(k);
+                }
+            }
+            long cKeys = System.nanoTime() - start;
+            start = System.nanoTime();
+            for(String prefix: doomed) {
+                c2 = c2.removePrefix(prefix);
+            }
+            long cPrefix = System.nanoTime() - start;
+
+            if(m1.size() != m2.size() || c1.size() != c2.size() || m1.size() != c1.size()) {
+                throw new AssertionError("sizes differ");
+            }
+            System.out.println("MCritBitTree: per key " + (mKeys / 1000) + " us, removePrefix "
+                               + (mPrefix / 1000) + " us; CritBitTree: per key " + (cKeys / 1000)
+                               + " us, removePrefix " + (cPrefix / 1000) + " us");
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package io.prelink.critbit;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.ardverk.collection.Cursor;
+import org.ardverk.collection.Cursor.Decision;
+import org.ardverk.collection.StringKeyAnalyzer;
+import org.junit.Test;
+
+public class FrozenCritBitTest extends TestCase {
+
+    private static final int SEED = 42;
+
+    private static String randomKey(Random rand) {
+        StringBuilder sb = new StringBuilder();
+        int len = 1 + rand.nextInt(6);
+        for(int i=0; i<len; i++) {
+            sb.append((char)('a' + rand.nextInt(4)));
+        }
+        return sb.toString();
+    }
+
+    private static class CollectingCursor implements Cursor<String,String> {
+        final List<String> keys = new ArrayList<String>();
+        public Decision select(Map.Entry<? extends String, ? extends String> e) {
+            keys.add(e.getKey());
+            return Decision.CONTINUE;
+        }
+    }
+
+    private static List<String> keys(Map<String,String> map) {
+        return new ArrayList<String>(map.keySet());
+    }
+
+    private void compare(AbstractCritBitTree<String,String> tree,
+                         FrozenCritBitTree<String,String> frozen,
+                         Random rand) {
+        assertEquals(tree.size(), frozen.size());
+        CollectingCursor all = new CollectingCursor();
+        tree.traverse(all);
+        assertEquals(all.keys, keys(frozen));
+        CollectingCursor frozenAll = new CollectingCursor();
+        frozen.traverse(frozenAll);
+        assertEquals(all.keys, frozenAll.keys);
+
+        for(String key: all.keys) {
+            assertTrue(frozen.containsKey(key));
+            assertEquals(tree.get(key), frozen.get(key));
+        }
+        for(int i=0; i<1000; i++) {
+            String key = randomKey(rand);
+            assertEquals(tree.containsKey(key), frozen.containsKey(key));
+            assertEquals(tree.get(key), frozen.get(key));
+        }
+        if(!tree.isEmpty()) {
+            assertEquals(tree.min().getKey(), frozen.min().getKey());
+            assertEquals(tree.max().getKey(), frozen.max().getKey());
+        }
+        for(String prefix: new String[] { "a", "b", "ab", "abc", "dddd", "z" }) {
+            CollectingCursor expected = new CollectingCursor();
+            tree.traverseWithPrefix(prefix, expected);
+            CollectingCursor actual = new CollectingCursor();
+            frozen.traverseWithPrefix(prefix, actual);
+            assertEquals(prefix, expected.keys, actual.keys);
+        }
+    }
+
+    @Test
+    public void testFreezeMutable() {
+        Random rand = new Random(SEED);
+        MCritBitTree<String,String> tree =
+            new MCritBitTree<String,String>(StringKeyAnalyzer.INSTANCE);
+        assertTrue(tree.freeze().isEmpty());
+        assertNull(tree.freeze().min());
+        tree.put("ab", "ab");
+        compare(tree, tree.freeze(), rand);
+
+        for(int i=0; i<5000; i++) {
+            tree.put(randomKey(rand), Integer.toString(i));
+        }
+        FrozenCritBitTree<String,String> frozen = tree.freeze();
+        compare(tree, frozen, rand);
+
+        //Later changes don't leak into the frozen copy.
+        String first = frozen.min().getKey();
+        tree.remove(first);
+        assertTrue(frozen.containsKey(first));
+        try {
+            frozen.put("x", "x");
+            fail();
+        } catch(UnsupportedOperationException expected) {}
+    }
+
+    @Test
+    public void testFreezePersistent() {
+        Random rand = new Random(SEED);
+        CritBitTree<String,String> tree =
+            new CritBitTree<String,String>(StringKeyAnalyzer.INSTANCE);
+        for(int i=0; i<5000; i++) {
+            tree = tree.put(randomKey(rand), Integer.toString(i));
+        }
+        compare(tree, tree.freeze(), rand);
+    }
+}
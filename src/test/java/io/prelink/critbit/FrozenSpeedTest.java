@@ -0,0 +1,115 @@
+package io.prelink.critbit;
+
+import java.util.Map;
+import java.util.Random;
+
+import org.ardverk.collection.Cursor;
+import org.ardverk.collection.StringKeyAnalyzer;
+
+/**
+ * Compares MCritBitTree against its frozen copy for lookup speed, full and
+ * prefix scans, and retained heap per entry (structure only; keys and the
+ * value are shared).
+ */
+public class FrozenSpeedTest {
+    private static final int ITEMS = 1000000;
+    private static final int ROUNDS = 5;
+    private static final int SEED = 42;
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime rt = Runtime.getRuntime();
+        for(int i=0; i<4; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    private static final class CountingCursor implements Cursor<String,String> {
+        int count = 0;
+        public Decision select(Map.Entry<? extends String, ? extends String> e) {
+            count++;
+            return Decision.CONTINUE;
+        }
+    }
+
+    private static interface Reader {
+        String get(String key);
+        void traverse(Cursor<String,String> cursor);
+        void traverseWithPrefix(String prefix, Cursor<String,String> cursor);
+    }
+
+    private static void speedTest(String name, String[] keys, Reader reader) {
+        long getMs = 0, scanMs = 0, prefixMs = 0;
+        int hits = 0;
+        CountingCursor counter = new CountingCursor();
+        for(int r=0; r<ROUNDS; r++) {
+            long start = System.currentTimeMillis();
+            for(String k: keys) {
+                if(reader.get(k) != null) {
+                    hits++;
+                }
+            }
+            long mid = System.currentTimeMillis();
+            reader.traverse(counter);
+            long mid2 = System.currentTimeMillis();
+            for(int i=0; i<36*36; i++) {
+                String prefix = Integer.toString(i, 36);
+                reader.traverseWithPrefix(prefix, counter);
+            }
+            long end = System.currentTimeMillis();
+            getMs += mid - start;
+            scanMs += mid2 - mid;
+            prefixMs += end - mid2;
+        }
+        System.out.println(name + ": get " + getMs / ROUNDS + "ms, scan " + scanMs / ROUNDS
+                           + "ms, prefix scans " + prefixMs / ROUNDS + "ms"
+                           + " (" + hits + " hits, " + counter.count + " visited)");
+    }
+
+    public static void main(String[] args) throws Exception {
+        Random rand = new Random(SEED);
+        String[] keys = new String[ITEMS];
+        for(int i=0; i<ITEMS; i++) {
+            keys[i] = Long.toString(rand.nextLong() & Long.MAX_VALUE, 36);
+        }
+        String val = "value";
+
+        long before = usedHeap();
+        final MCritBitTree<String,String> tree =
+            new MCritBitTree<String,String>(StringKeyAnalyzer.INSTANCE);
+        for(String k: keys) {
+            tree.put(k, val);
+        }
+        long mid = usedHeap();
+        final FrozenCritBitTree<String,String> frozen = tree.freeze();
+        long after = usedHeap();
+        System.out.println("MCritBitTree: " + (mid - before) / ITEMS + " bytes/entry");
+        System.out.println("FrozenCritBitTree: " + (after - mid) / ITEMS + " bytes/entry");
+
+        //Shuffle so lookups don't follow insertion order.
+        for(int i=ITEMS-1; i>0; i--) {
+            int j = rand.nextInt(i + 1);
+            String tmp = keys[i];
+            keys[i] = keys[j];
+            keys[j] = tmp;
+        }
+
+        for(int warm=0; warm<2; warm++) {
+            speedTest("MCritBitTree", keys, new Reader() {
+                public String get(String key) { return tree.get(key); }
+                public void traverse(Cursor<String,String> c) { tree.traverse(c); }
+                public void traverseWithPrefix(String p, Cursor<String,String> c) {
+                    tree.traverseWithPrefix(p, c);
+                }
+            });
+            speedTest("FrozenCritBitTree", keys, new Reader() {
+                public String get(String key) { return frozen.get(key); }
+                public void traverse(Cursor<String,String> c) { frozen.traverse(c); }
+                public void traverseWithPrefix(String p, Cursor<String,String> c) {
+                    frozen.traverseWithPrefix(p, c);
+                }
+            });
+        }
+    }
+}
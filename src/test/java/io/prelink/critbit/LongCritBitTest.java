@@ -0,0 +1,143 @@
+package io.prelink.critbit;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.TreeMap;
+
+import junit.framework.TestCase;
+
+import org.ardverk.collection.Cursor.Decision;
+import org.junit.Test;
+
+public class LongCritBitTest extends TestCase {
+
+    private static final int SEED = 42;
+
+    private static interface LCBWrapper {
+        String put(long key, String val);
+        String remove(long key);
+        AbstractLongCritBitTree<String> get();
+    }
+
+    private static final Comparator<Long> UNSIGNED = new Comparator<Long>() {
+        public int compare(Long a, Long b) {
+            return Long.compareUnsigned(a, b);
+        }
+    };
+
+    private void commonTests(LCBWrapper wrap) {
+        assertTrue(wrap.get().isEmpty());
+        assertNull(wrap.get().get(0L));
+        assertFalse(wrap.get().containsKey(0L));
+        try {
+            wrap.get().firstKey();
+            fail();
+        } catch(NoSuchElementException expected) {}
+
+        long[] edges = { 0L, -1L, Long.MIN_VALUE, Long.MAX_VALUE, 1L };
+        for(long k: edges) {
+            wrap.put(k, Long.toString(k));
+        }
+        for(long k: edges) {
+            assertEquals(Long.toString(k), wrap.get().get(k));
+        }
+        assertEquals(0L, wrap.get().firstKey());
+        assertEquals(-1L, wrap.get().lastKey());
+        for(long k: edges) {
+            wrap.remove(k);
+        }
+        assertTrue(wrap.get().isEmpty());
+
+        Random rand = new Random(SEED);
+        TreeMap<Long, String> expected = new TreeMap<Long, String>(UNSIGNED);
+        for(int i=0; i<20000; i++) {
+            //Small key space so we get plenty of replaces and removes.
+            long key = rand.nextBoolean() ? rand.nextInt(2000)
+                                          : rand.nextInt(2000) * 0x0123456789ABCDEFL;
+            String val = Integer.toString(i);
+            if(rand.nextInt(3) == 0) {
+                assertEquals(expected.remove(key), wrap.remove(key));
+            } else {
+                assertEquals(expected.put(key, val), wrap.put(key, val));
+            }
+            assertEquals(expected.size(), wrap.get().size());
+        }
+
+        for(Map.Entry<Long, String> e: expected.entrySet()) {
+            assertTrue(wrap.get().containsKey(e.getKey()));
+            assertEquals(e.getValue(), wrap.get().get(e.getKey()));
+        }
+        assertEquals(expected.firstKey().longValue(), wrap.get().firstKey());
+        assertEquals(expected.lastKey().longValue(), wrap.get().lastKey());
+
+        final List<Long> keys = new ArrayList<Long>();
+        wrap.get().traverse(new LongCursor<String>() {
+            public Decision select(long key, String value) {
+                keys.add(key);
+                return Decision.CONTINUE;
+            }
+        });
+        assertEquals(new ArrayList<Long>(expected.keySet()), keys);
+
+        final List<Long> limited = new ArrayList<Long>();
+        wrap.get().traverse(new LongCursor<String>() {
+            public Decision select(long key, String value) {
+                limited.add(key);
+                return limited.size() < 3 ? Decision.CONTINUE : Decision.EXIT;
+            }
+        });
+        assertEquals(keys.subList(0, 3), limited);
+    }
+
+    @Test
+    public void testMutable() {
+        final MLongCritBitTree<String> tree = new MLongCritBitTree<String>();
+        commonTests(new LCBWrapper() {
+            public String put(long key, String val) { return tree.put(key, val); }
+            public String remove(long key) { return tree.remove(key); }
+            public AbstractLongCritBitTree<String> get() { return tree; }
+        });
+        tree.clear();
+        assertTrue(tree.isEmpty());
+    }
+
+    @Test
+    public void testImmutable() {
+        commonTests(new LCBWrapper() {
+            private LongCritBitTree<String> tree = new LongCritBitTree<String>();
+            public String put(long key, String val) {
+                String out = tree.get(key);
+                tree = tree.put(key, val);
+                return out;
+            }
+            public String remove(long key) {
+                String out = tree.get(key);
+                LongCritBitTree<String> removed = tree.remove(key);
+                assertTrue((out == null) == (removed == tree));
+                tree = removed;
+                return out;
+            }
+            public AbstractLongCritBitTree<String> get() { return tree; }
+        });
+    }
+
+    @Test
+    public void testPersistence() {
+        LongCritBitTree<String> empty = new LongCritBitTree<String>();
+        LongCritBitTree<String> one = empty.put(1L, "one");
+        LongCritBitTree<String> two = one.put(2L, "two");
+        LongCritBitTree<String> replaced = two.put(1L, "uno");
+        assertTrue(empty.isEmpty());
+        assertEquals(1, one.size());
+        assertNull(one.get(2L));
+        assertEquals("one", two.get(1L));
+        assertEquals("uno", replaced.get(1L));
+        assertEquals(2, replaced.size());
+        assertEquals(1, replaced.remove(2L).size());
+        assertEquals("two", replaced.get(2L));
+    }
+}
@@ -0,0 +1,96 @@
+package io.prelink.critbit;
+
+import java.util.Random;
+
+import org.ardverk.collection.LongKeyAnalyzer;
+
+/**
+ * Compares boxed MCritBitTree&lt;Long,V&gt; against MLongCritBitTree for
+ * insert and lookup throughput, and for retained heap per entry.
+ */
+public class LongKeySpeedTest {
+    private static final int ITEMS = 1000000;
+    private static final int ROUNDS = 5;
+    private static final int SEED = 42;
+
+    private static interface LongMap {
+        String name();
+        void put(long key, String val);
+        String get(long key);
+        void clear();
+    }
+
+    private static long[] keys() {
+        Random rand = new Random(SEED);
+        long[] out = new long[ITEMS];
+        for(int i=0; i<ITEMS; i++) {
+            long k;
+            do {
+                k = rand.nextLong();
+            } while(k == 0); //LongKeyAnalyzer can't tell 0 from "no bits"
+            out[i] = k;
+        }
+        return out;
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime rt = Runtime.getRuntime();
+        for(int i=0; i<4; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    private static void speedTest(long[] keys, String val, LongMap map) throws Exception {
+        System.out.println("Testing " + map.name() + "...");
+        long putMs = 0, getMs = 0, bytes = 0;
+        int hits = 0;
+        for(int r=0; r<ROUNDS; r++) {
+            map.clear();
+            long before = usedHeap();
+            long start = System.currentTimeMillis();
+            for(long k: keys) {
+                map.put(k, val);
+            }
+            long mid = System.currentTimeMillis();
+            for(long k: keys) {
+                if(map.get(k) != null) {
+                    hits++;
+                }
+            }
+            long end = System.currentTimeMillis();
+            bytes = usedHeap() - before;
+            if(r > 0) { //first round is warmup
+                putMs += mid - start;
+                getMs += end - mid;
+            }
+        }
+        System.out.println(String.format(
+            "  put: %s ms/round, get: %s ms/round, %s bytes/entry (%s hits)",
+            putMs / (ROUNDS - 1), getMs / (ROUNDS - 1),
+            bytes / keys.length, hits));
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final long[] keys = keys();
+        final String val = "v";
+
+        speedTest(keys, val, new LongMap() {
+            final MCritBitTree<Long, String> tree =
+                new MCritBitTree<Long, String>(LongKeyAnalyzer.INSTANCE);
+            public String name() { return "MCritBitTree<Long,V>"; }
+            public void put(long k, String v) { tree.put(k, v); }
+            public String get(long k) { return tree.get(k); }
+            public void clear() { tree.clear(); }
+        });
+
+        speedTest(keys, val, new LongMap() {
+            final MLongCritBitTree<String> tree = new MLongCritBitTree<String>();
+            public String name() { return "MLongCritBitTree<V>"; }
+            public void put(long k, String v) { tree.put(k, v); }
+            public String get(long k) { return tree.get(k); }
+            public void clear() { tree.clear(); }
+        });
+    }
+}
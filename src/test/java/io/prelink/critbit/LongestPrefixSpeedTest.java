@@ -0,0 +1,156 @@
+package io.prelink.critbit;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.ardverk.collection.Ipv4Prefix;
+import org.ardverk.collection.Ipv4PrefixKeyAnalyzer;
+
+/**
+ * Times longest-prefix-match of host addresses against a routing-table-like
+ * set of IPv4 blocks: longestPrefixOf on both trees, a TreeMap probed with
+ * floorEntry and shortened on each miss, and a linear scan (on far fewer
+ * queries).
+ *
+ * longestPrefixOf is one descent, plus a left-edge walk for each candidate
+ * block that turns out not to cover the address.  Covering blocks here
+ * are sparse, so few candidates fail and lookups stay close to O(depth).
+ * Tables with many nested short blocks along one path approach the
+ * O(depth^2) worst case, and this test doesn't measure that.
+ */
+public class LongestPrefixSpeedTest {
+    private static final int BLOCKS = 1000000;
+    private static final int QUERIES = 1000000;
+    private static final int LINEAR_QUERIES = 200;
+    private static final int SEED = 42;
+
+    private static Ipv4Prefix[] blocks() {
+        Random rand = new Random(SEED);
+        Ipv4Prefix[] out = new Ipv4Prefix[BLOCKS];
+        for(int i=0; i<BLOCKS; i++) {
+            //Mostly /16 to /24, like a real table, with some covering blocks.
+            int len = (i % 10 == 0) ? 8 + rand.nextInt(8) : 16 + rand.nextInt(9);
+            out[i] = Ipv4Prefix.of(rand.nextInt(), len);
+        }
+        return out;
+    }
+
+    private static Ipv4Prefix[] hosts(Ipv4Prefix[] blocks, int n) {
+        Random rand = new Random(SEED + 1);
+        Ipv4Prefix[] out = new Ipv4Prefix[n];
+        for(int i=0; i<n; i++) {
+            Ipv4Prefix near = blocks[rand.nextInt(blocks.length)];
+            out[i] = Ipv4Prefix.host(near.address() ^ (rand.nextInt() >>> 12));
+        }
+        return out;
+    }
+
+    private static Ipv4Prefix floorSearch(TreeMap<Ipv4Prefix, String> map, Ipv4Prefix host) {
+        Ipv4Prefix q = host;
+        while(true) {
+            Map.Entry<Ipv4Prefix, String> e = map.floorEntry(q);
+            if(e == null) {
+                return null;
+            }
+            Ipv4Prefix k = e.getKey();
+            if(k.contains(host)) {
+                return k;
+            }
+            //Nothing between k and q covers host, so only blocks covering
+            //both of them can: continue from their common block.
+            int common = Math.min(k.length(), Integer.numberOfLeadingZeros(k.address() ^ host.address()));
+            if(common == q.length()) {
+                common--;
+            }
+            if(common < 0) {
+                return null;
+            }
+            q = Ipv4Prefix.of(host.address(), common);
+        }
+    }
+
+    private static Ipv4Prefix linearSearch(List<Ipv4Prefix> table, Ipv4Prefix host) {
+        Ipv4Prefix best = null;
+        for(Ipv4Prefix p: table) {
+            if(p.contains(host) && (best == null || p.length() > best.length())) {
+                best = p;
+            }
+        }
+        return best;
+    }
+
+    private static void report(String name, long start, int queries, long found) {
+        long ns = System.nanoTime() - start;
+        System.out.println(name + ": " + (ns / queries) + " ns/query (" + found + " matched)");
+    }
+
+    public static void main(String[] args) {
+        Ipv4Prefix[] blocks = blocks();
+        Ipv4Prefix[] hosts = hosts(blocks, QUERIES);
+
+        MCritBitTree<Ipv4Prefix, String> m =
+            new MCritBitTree<Ipv4Prefix, String>(Ipv4PrefixKeyAnalyzer.INSTANCE);
+        TreeMap<Ipv4Prefix, String> treeMap = new TreeMap<Ipv4Prefix, String>();
+        for(Ipv4Prefix b: blocks) {
+            m.put(b, "route");
+            treeMap.put(b, "route");
+        }
+        CritBitTree<Ipv4Prefix, String> p =
+            CritBitTree.fromSorted(Ipv4PrefixKeyAnalyzer.INSTANCE, m.entrySet());
+        List<Ipv4Prefix> table = new ArrayList<Ipv4Prefix>(treeMap.keySet());
+        System.out.println(m.size() + " distinct blocks");
+
+        for(int round=0; round<3; round++) {
+            long start = System.nanoTime();
+            long found = 0;
+            for(Ipv4Prefix h: hosts) {
+                if(m.longestPrefixOf(h) != null) {
+                    found++;
+                }
+            }
+            report("MCritBitTree.longestPrefixOf", start, QUERIES, found);
+
+            start = System.nanoTime();
+            found = 0;
+            for(Ipv4Prefix h: hosts) {
+                if(p.longestPrefixOf(h) != null) {
+                    found++;
+                }
+            }
+            report("CritBitTree.longestPrefixOf", start, QUERIES, found);
+
+            start = System.nanoTime();
+            found = 0;
+            for(Ipv4Prefix h: hosts) {
+                if(floorSearch(treeMap, h) != null) {
+                    found++;
+                }
+            }
+            report("TreeMap floorEntry", start, QUERIES, found);
+
+            start = System.nanoTime();
+            found = 0;
+            for(int i=0; i<LINEAR_QUERIES; i++) {
+                if(linearSearch(table, hosts[i]) != null) {
+                    found++;
+                }
+            }
+            report("linear scan", start, LINEAR_QUERIES, found);
+        }
+
+        //All three agree.
+        for(int i=0; i<LINEAR_QUERIES; i++) {
+            Ipv4Prefix expected = linearSearch(table, hosts[i]);
+            Map.Entry<Ipv4Prefix, String> e = m.longestPrefixOf(hosts[i]);
+            Ipv4Prefix actual = (e == null) ? null : e.getKey();
+            Ipv4Prefix floor = floorSearch(treeMap, hosts[i]);
+            if(expected == null ? (actual != null || floor != null)
+                                : !(expected.equals(actual) && expected.equals(floor))) {
+                throw new AssertionError(hosts[i] + ": " + expected + " " + actual + " " + floor);
+            }
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package io.prelink.critbit;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.ardverk.collection.StringKeyAnalyzer;
+import org.junit.Test;
+
+/**
+ * Checks that get/containsKey allocate nothing per call, for hits and misses,
+ * using the HotSpot per-thread allocation counter (the same number the JMH
+ * gc profiler reports as B/op).
+ */
+public class LookupAllocationTest extends TestCase {
+
+    private static final int ITEMS = 10000;
+    private static final int OPS = 200000;
+    private static final int SEED = 42;
+
+    private static interface Lookup {
+        Object get(String key);
+        boolean containsKey(String key);
+    }
+
+    @Test
+    public void testMutableLookupsDoNotAllocate() {
+        final MCritBitTree<String, String> tree =
+            new MCritBitTree<String, String>(StringKeyAnalyzer.INSTANCE);
+        List<String> keys = keys(ITEMS, 0);
+        for(String k: keys) {
+            tree.put(k, k);
+        }
+        assertNoAllocation(new Lookup() {
+            public Object get(String key) { return tree.get(key); }
+            public boolean containsKey(String key) { return tree.containsKey(key); }
+        }, keys, keys(ITEMS, 1));
+    }
+
+    @Test
+    public void testImmutableLookupsDoNotAllocate() {
+        CritBitTree<String, String> cb =
+            new CritBitTree<String, String>(StringKeyAnalyzer.INSTANCE);
+        List<String> keys = keys(ITEMS, 0);
+        for(String k: keys) {
+            cb = cb.put(k, k);
+        }
+        final CritBitTree<String, String> tree = cb;
+        assertNoAllocation(new Lookup() {
+            public Object get(String key) { return tree.get(key); }
+            public boolean containsKey(String key) { return tree.containsKey(key); }
+        }, keys, keys(ITEMS, 1));
+    }
+
+    private static void assertNoAllocation(Lookup lookup,
+                                           List<String> hits,
+                                           List<String> misses) {
+        if(!(ManagementFactory.getThreadMXBean()
+                instanceof com.sun.management.ThreadMXBean)) {
+            return; //No allocation counter on this JVM.
+        }
+        String[] hitArr = hits.toArray(new String[hits.size()]);
+        String[] missArr = misses.toArray(new String[misses.size()]);
+
+        //Warm up, and check we're measuring what we think we are.
+        for(int i=0; i<OPS; i++) {
+            assertNotNull(lookup.get(hitArr[i % hitArr.length]));
+            assertNull(lookup.get(missArr[i % missArr.length]));
+        }
+
+        assertEquals(0, bytesPerOp(lookup, hitArr, true), 1.0);
+        assertEquals(0, bytesPerOp(lookup, missArr, true), 1.0);
+        assertEquals(0, bytesPerOp(lookup, hitArr, false), 1.0);
+        assertEquals(0, bytesPerOp(lookup, missArr, false), 1.0);
+    }
+
+    private static double bytesPerOp(Lookup lookup, String[] keys, boolean get) {
+        long tid = Thread.currentThread().getId();
+        com.sun.management.ThreadMXBean mx =
+            (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+        int sink = 0;
+        long before = mx.getThreadAllocatedBytes(tid);
+        for(int i=0; i<OPS; i++) {
+            String k = keys[i % keys.length];
+            if(get) {
+                sink += (lookup.get(k) == null) ? 0 : 1;
+            } else {
+                sink += lookup.containsKey(k) ? 1 : 0;
+            }
+        }
+        long after = mx.getThreadAllocatedBytes(tid);
+        assertTrue(sink >= 0);
+        return (after - before) / (double)OPS;
+    }
+
+    private static List<String> keys(int count, int salt) {
+        Random rand = new Random(SEED + salt);
+        List<String> out = new ArrayList<String>(count);
+        for(int i=0; i<count; i++) {
+            out.add(Long.toHexString(rand.nextLong()) + "-" + salt + "-" + i);
+        }
+        return out;
+    }
+}
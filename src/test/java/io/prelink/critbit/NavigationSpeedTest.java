@@ -0,0 +1,67 @@
+package io.prelink.critbit;
+
+import java.util.Map;
+import java.util.Random;
+
+import org.ardverk.collection.Cursor;
+import org.ardverk.collection.StringKeyAnalyzer;
+
+/**
+ * Compares ceilingEntry() against the old way of answering it, a traverse
+ * with a Cursor that stops at the first key at or past the probe, on a
+ * 200k-entry MCritBitTree.
+ */
+public class NavigationSpeedTest {
+    private static final int ITEMS = 200000;
+    private static final int PROBES = 2000;
+    private static final int SEED = 42;
+
+    private static String randomKey(Random rand) {
+        return Long.toString(rand.nextLong() & Long.MAX_VALUE, 36);
+    }
+
+    private static Map.Entry<String,String> scanCeiling(MCritBitTree<String,String> tree,
+                                                         final String key) {
+        final Object[] out = { null };
+        tree.traverse(new Cursor<String,String>() {
+            public Decision select(Map.Entry<? extends String, ? extends String> e) {
+                //Tree order and String order agree for these keys.
+                if(e.getKey().compareTo(key) >= 0) {
+                    out[0] = e;
+                    return Decision.EXIT;
+                }
+                return Decision.CONTINUE;
+            }
+        });
+        return AbstractCritBitTree.<Map.Entry<String,String>>cast(out[0]);
+    }
+
+    public static void main(String[] args) {
+        Random rand = new Random(SEED);
+        MCritBitTree<String,String> tree =
+            new MCritBitTree<String,String>(StringKeyAnalyzer.INSTANCE);
+        for(int i=0; i<ITEMS; i++) {
+            String k = randomKey(rand);
+            tree.put(k, k);
+        }
+        String[] probes = new String[PROBES];
+        for(int i=0; i<PROBES; i++) {
+            probes[i] = randomKey(rand);
+        }
+
+        for(int warm=0; warm<3; warm++) {
+            int hits = 0;
+            long start = System.nanoTime();
+            for(String p: probes) {
+                hits += (tree.ceilingEntry(p) != null) ? 1 : 0;
+            }
+            long mid = System.nanoTime();
+            for(String p: probes) {
+                hits += (scanCeiling(tree, p) != null) ? 1 : 0;
+            }
+            long end = System.nanoTime();
+            System.out.println("ns/probe: ceilingEntry " + (mid - start) / PROBES
+                               + ", traverse " + (end - mid) / PROBES + " (" + hits + ")");
+        }
+    }
+}
@@ -0,0 +1,339 @@
+package io.prelink.critbit;
+
+import io.prelink.critbit.sharedbytearray.SBAKeyAnalyzer;
+import io.prelink.critbit.sharedbytearray.SharedByteArray;
+import io.prelink.critbit.sharedbytearray.ThinSBA;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Predicate;
+
+import junit.framework.TestCase;
+
+import org.ardverk.collection.Cursor;
+import org.ardverk.collection.Cursor.Decision;
+import org.junit.Test;
+
+public class OffHeapCritBitTest extends TestCase {
+
+    private static final int SEED = 42;
+
+    private static SharedByteArray sba(String s) {
+        return new ThinSBA(s.getBytes());
+    }
+
+    private static String str(SharedByteArray sba) {
+        return new String(sba.toByteArray());
+    }
+
+    private static String str(byte[] bytes) {
+        return (bytes == null) ? null : new String(bytes);
+    }
+
+    private static String randomKey(Random rand) {
+        //Short alphabet and lengths so there are lots of shared prefixes.
+        StringBuilder sb = new StringBuilder();
+        int len = 1 + rand.nextInt(6);
+        for(int i=0; i<len; i++) {
+            sb.append((char)('a' + rand.nextInt(4)));
+        }
+        return sb.toString();
+    }
+
+    private static byte[] randomValue(Random rand) {
+        //Sizes vary so replaces exercise both in-place and relinked leaves.
+        byte[] out = new byte[rand.nextInt(40)];
+        rand.nextBytes(out);
+        return out;
+    }
+
+    @Test
+    public void testAgainstMCritBitTree() {
+        OffHeapCritBitTree<SharedByteArray> offHeap = OffHeapCritBitTree.forSharedByteArrays();
+        MCritBitTree<SharedByteArray, byte[]> onHeap =
+            new MCritBitTree<SharedByteArray, byte[]>(new SBAKeyAnalyzer());
+
+        Random rand = new Random(SEED);
+        for(int i=0; i<50000; i++) {
+            SharedByteArray key = sba(randomKey(rand));
+            if(rand.nextInt(3) == 0) {
+                assertTrue(Arrays.equals(onHeap.remove(key), offHeap.remove(key)));
+            } else {
+                byte[] val = randomValue(rand);
+                assertTrue(Arrays.equals(onHeap.put(key, val), offHeap.put(key, val)));
+            }
+            assertEquals(onHeap.size(), offHeap.size());
+        }
+
+        final List<String> expected = new ArrayList<String>();
+        for(Map.Entry<SharedByteArray, byte[]> e: onHeap.entrySet()) {
+            expected.add(str(e.getKey()));
+            assertTrue(offHeap.containsKey(e.getKey()));
+            assertTrue(Arrays.equals(e.getValue(), offHeap.get(e.getKey())));
+        }
+        List<String> actual = new ArrayList<String>();
+        for(Map.Entry<SharedByteArray, byte[]> e: offHeap.entrySet()) {
+            actual.add(str(e.getKey()));
+        }
+        assertEquals(expected, actual);
+        assertEquals(expected.get(0), str(offHeap.min().getKey()));
+        assertEquals(expected.get(expected.size()-1), str(offHeap.max().getKey()));
+
+        final List<String> onHeapPrefixed = new ArrayList<String>();
+        onHeap.traverseWithPrefix(sba("ab"), new Cursor<SharedByteArray, byte[]>() {
+            public Decision select(Map.Entry<? extends SharedByteArray, ? extends byte[]> e) {
+                onHeapPrefixed.add(str(e.getKey()));
+                return Decision.CONTINUE;
+            }
+        });
+        final List<String> offHeapPrefixed = new ArrayList<String>();
+        offHeap.traverseWithPrefix(sba("ab"), new Cursor<SharedByteArray, byte[]>() {
+            public Decision select(Map.Entry<? extends SharedByteArray, ? extends byte[]> e) {
+                offHeapPrefixed.add(str(e.getKey()));
+                return Decision.CONTINUE;
+            }
+        });
+        assertFalse(onHeapPrefixed.isEmpty());
+        assertEquals(onHeapPrefixed, offHeapPrefixed);
+
+        offHeap.close();
+    }
+
+    @Test
+    public void testByteArrayKeys() {
+        OffHeapCritBitTree<byte[]> tree = OffHeapCritBitTree.forByteArrays();
+        assertTrue(tree.isEmpty());
+        assertNull(tree.get("a".getBytes()));
+        assertNull(tree.remove("a".getBytes()));
+        assertNull(tree.min());
+
+        assertNull(tree.put("a".getBytes(), "1".getBytes()));
+        assertNull(tree.put("b".getBytes(), "2".getBytes()));
+        assertNull(tree.put("ab".getBytes(), "3".getBytes()));
+        assertEquals("1", str(tree.put("a".getBytes(), "one".getBytes())));
+        assertEquals("one", str(tree.get("a".getBytes())));
+        assertEquals(3, tree.size());
+        assertTrue(tree.containsValue("3".getBytes()));
+        assertFalse(tree.containsValue("4".getBytes()));
+
+        final List<String> seen = new ArrayList<String>();
+        tree.traverse(new Cursor<byte[], byte[]>() {
+            public Decision select(Map.Entry<? extends byte[], ? extends byte[]> e) {
+                seen.add(str(e.getKey()));
+                return seen.size() < 2 ? Decision.CONTINUE : Decision.EXIT;
+            }
+        });
+        assertEquals(Arrays.asList("a", "ab"), seen);
+
+        assertEquals("2", str(tree.remove("b".getBytes())));
+        assertEquals(2, tree.size());
+        tree.clear();
+        assertTrue(tree.isEmpty());
+        assertEquals(0, tree.reservedBytes());
+        assertNull(tree.put("c".getBytes(), "3".getBytes()));
+        assertEquals("3", str(tree.get("c".getBytes())));
+
+        tree.close();
+        try {
+            tree.get("c".getBytes());
+            fail();
+        } catch(IllegalStateException expected) {}
+    }
+
+    @Test
+    public void testFreedSpaceIsReused() {
+        OffHeapCritBitTree<byte[]> tree = OffHeapCritBitTree.forByteArrays();
+        byte[] val = new byte[16];
+        for(int round=0; round<5; round++) {
+            for(int i=0; i<10000; i++) {
+                tree.put(Integer.toString(i).getBytes(), val);
+            }
+            for(int i=0; i<10000; i++) {
+                tree.remove(Integer.toString(i).getBytes());
+            }
+            assertEquals(0, tree.liveBytes());
+        }
+        long reserved = tree.reservedBytes();
+        for(int i=0; i<10000; i++) {
+            tree.put(Integer.toString(i).getBytes(), val);
+        }
+        assertEquals(reserved, tree.reservedBytes());
+        tree.close();
+    }
+
+    private static List<String> keysOf(Map<SharedByteArray, byte[]> map) {
+        List<String> out = new ArrayList<String>();
+        for(Map.Entry<SharedByteArray, byte[]> e: map.entrySet()) {
+            out.add(str(e.getKey()));
+        }
+        return out;
+    }
+
+    /**
+     * Removes keys ending in 'a' or 'c', then the first key after "cc"
+     * that it comes to, and exits.
+     */
+    private static class PruningCursor implements Cursor<SharedByteArray, byte[]> {
+        final List<String> seen = new ArrayList<String>();
+        public Decision select(Map.Entry<? extends SharedByteArray, ? extends byte[]> e) {
+            String k = str(e.getKey());
+            seen.add(k);
+            if(k.compareTo("cc") > 0) {
+                return Decision.REMOVE_AND_EXIT;
+            }
+            return (k.charAt(k.length() - 1) % 2 == 1) ? Decision.REMOVE : Decision.CONTINUE;
+        }
+    }
+
+    private static void fill(Random rand, MCritBitTree<SharedByteArray, byte[]> onHeap,
+                             OffHeapCritBitTree<SharedByteArray> offHeap) {
+        for(int i=0; i<20000; i++) {
+            SharedByteArray key = sba(randomKey(rand));
+            byte[] val = randomValue(rand);
+            onHeap.put(key, val);
+            offHeap.put(key, val);
+        }
+    }
+
+    @Test
+    public void testCursorRemove() {
+        Random rand = new Random(SEED);
+        MCritBitTree<SharedByteArray, byte[]> onHeap =
+            new MCritBitTree<SharedByteArray, byte[]>(new SBAKeyAnalyzer());
+        OffHeapCritBitTree<SharedByteArray> offHeap = OffHeapCritBitTree.forSharedByteArrays();
+        fill(rand, onHeap, offHeap);
+        for(String prefix: new String[] { "a", "ab", "b", "d", "" }) {
+            PruningCursor expected = new PruningCursor();
+            onHeap.traverseWithPrefix(sba(prefix), expected);
+            PruningCursor actual = new PruningCursor();
+            offHeap.traverseWithPrefix(sba(prefix), actual);
+            assertEquals(expected.seen, actual.seen);
+            assertEquals(keysOf(onHeap), keysOf(offHeap));
+        }
+        PruningCursor expected = new PruningCursor();
+        onHeap.traverse(expected);
+        PruningCursor actual = new PruningCursor();
+        offHeap.traverse(actual);
+        assertEquals(expected.seen, actual.seen);
+        assertEquals(keysOf(onHeap), keysOf(offHeap));
+        assertEquals(onHeap.size(), offHeap.size());
+
+        //Everything, one REMOVE at a time.
+        offHeap.traverse(new Cursor<SharedByteArray, byte[]>() {
+            public Decision select(Map.Entry<? extends SharedByteArray, ? extends byte[]> e) {
+                return Decision.REMOVE;
+            }
+        });
+        assertTrue(offHeap.isEmpty());
+        assertEquals(0, offHeap.liveBytes());
+        offHeap.close();
+    }
+
+    @Test
+    public void testIteratorRemove() {
+        Random rand = new Random(SEED);
+        MCritBitTree<SharedByteArray, byte[]> onHeap =
+            new MCritBitTree<SharedByteArray, byte[]>(new SBAKeyAnalyzer());
+        OffHeapCritBitTree<SharedByteArray> offHeap = OffHeapCritBitTree.forSharedByteArrays();
+        fill(rand, onHeap, offHeap);
+
+        Iterator<Map.Entry<SharedByteArray, byte[]>> oi = offHeap.entrySet().iterator();
+        Iterator<Map.Entry<SharedByteArray, byte[]>> ti = onHeap.entrySet().iterator();
+        while(ti.hasNext()) {
+            assertTrue(oi.hasNext());
+            Map.Entry<SharedByteArray, byte[]> e = ti.next();
+            Map.Entry<SharedByteArray, byte[]> o = oi.next();
+            assertEquals(str(e.getKey()), str(o.getKey()));
+            assertTrue(Arrays.equals(e.getValue(), o.getValue()));
+            if(rand.nextInt(3) != 0) {
+                ti.remove();
+                oi.remove();
+            }
+        }
+        assertFalse(oi.hasNext());
+        assertEquals(keysOf(onHeap), keysOf(offHeap));
+        try {
+            offHeap.entrySet().iterator().remove();
+            fail();
+        } catch(IllegalStateException e) {}
+
+        //The views remove through the iterator too.
+        SharedByteArray first = onHeap.firstKey();
+        assertTrue(onHeap.keySet().remove(first));
+        assertTrue(offHeap.keySet().remove(first));
+        assertFalse(offHeap.keySet().remove(first));
+        Predicate<Map.Entry<SharedByteArray, byte[]>> even = new Predicate<Map.Entry<SharedByteArray, byte[]>>() {
+            public boolean test(Map.Entry<SharedByteArray, byte[]> e) {
+                return e.getKey().length() % 2 == 0;
+            }
+        };
+        assertEquals(onHeap.entrySet().removeIf(even), offHeap.entrySet().removeIf(even));
+        assertEquals(keysOf(onHeap), keysOf(offHeap));
+        assertEquals(onHeap.size(), offHeap.size());
+        offHeap.close();
+    }
+
+    @Test
+    public void testIteratorFailsFast() {
+        OffHeapCritBitTree<byte[]> tree = OffHeapCritBitTree.forByteArrays();
+        for(String k: new String[] { "a", "b", "c", "d" }) {
+            tree.put(k.getBytes(), k.getBytes());
+        }
+        Iterator<Map.Entry<byte[], byte[]>> it = tree.entrySet().iterator();
+        assertEquals("a", str(it.next().getKey()));
+        //Frees "b"'s blocks, then hands them to "e".
+        tree.remove("b".getBytes());
+        tree.put("e".getBytes(), "e".getBytes());
+        try {
+            it.next();
+            fail();
+        } catch(ConcurrentModificationException expected) {}
+
+        //Replacing a value in place moves nothing.
+        it = tree.entrySet().iterator();
+        it.next();
+        tree.put("c".getBytes(), "C".getBytes());
+        assertEquals("C", str(it.next().getValue()));
+
+        it = tree.entrySet().iterator();
+        it.next();
+        tree.close();
+        try {
+            it.next();
+            fail();
+        } catch(IllegalStateException expected) {}
+    }
+
+    private static long directBytes() {
+        for(BufferPoolMXBean pool: ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if("direct".equals(pool.getName())) {
+                return pool.getMemoryUsed();
+            }
+        }
+        return -1;
+    }
+
+    @Test
+    public void testCloseFreesMemory() {
+        if(!OffHeapArena.RELEASES || directBytes() < 0) {
+            return;
+        }
+        OffHeapCritBitTree<byte[]> tree = OffHeapCritBitTree.forByteArrays();
+        byte[] val = new byte[64];
+        for(int i=0; i<10000; i++) {
+            tree.put(Integer.toString(i).getBytes(), val);
+        }
+        long reserved = tree.reservedBytes();
+        long before = directBytes();
+        tree.close();
+        //No GC in between: the chunks must be freed by close() itself.
+        assertTrue(before - directBytes() >= reserved);
+    }
+}
@@ -0,0 +1,112 @@
+package io.prelink.critbit;
+
+import io.prelink.critbit.sharedbytearray.SBAKeyAnalyzer;
+import io.prelink.critbit.sharedbytearray.SharedByteArray;
+import io.prelink.critbit.sharedbytearray.ThinSBA;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Soak test for GC cost: fills a tree, then churns it (replace, remove,
+ * re-insert) while recording collector counts and time, for MCritBitTree
+ * and OffHeapCritBitTree.  Size it with -Ditems=N; run with a large heap
+ * and enough -XX:MaxDirectMemorySize, e.g.
+ *
+ *   java -Xmx16g -XX:MaxDirectMemorySize=32g -Ditems=100000000 ...
+ */
+public class OffHeapSoakTest {
+    private static final int ITEMS = Integer.getInteger("items", 5000000);
+    private static final int CHURN_ROUNDS = 5;
+    private static final int SEED = 42;
+
+    private static interface SoakMap {
+        String name();
+        void put(SharedByteArray key, byte[] val);
+        byte[] get(SharedByteArray key);
+        void remove(SharedByteArray key);
+        void close();
+    }
+
+    private static SharedByteArray key(long i) {
+        //Zero-padded so keys have realistic shared prefixes.
+        return new ThinSBA(String.format("user:%016x", i * 0x9E3779B97F4A7C15L).getBytes());
+    }
+
+    private static long[] gcStats() {
+        long count = 0, time = 0;
+        for(GarbageCollectorMXBean gc: ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+            time += Math.max(0, gc.getCollectionTime());
+        }
+        return new long[] { count, time };
+    }
+
+    private static void soak(SoakMap map) {
+        System.out.println("Testing " + map.name() + " with " + ITEMS + " items...");
+        byte[] val = new byte[16];
+        long[] gc0 = gcStats();
+        long start = System.currentTimeMillis();
+        for(long i=0; i<ITEMS; i++) {
+            map.put(key(i), val);
+        }
+        long[] gc1 = gcStats();
+        long mid = System.currentTimeMillis();
+        System.out.println("  fill:  " + (mid - start) + "ms, "
+                           + (gc1[0] - gc0[0]) + " GCs, " + (gc1[1] - gc0[1]) + "ms in GC");
+
+        Random rand = new Random(SEED);
+        int hits = 0;
+        for(int r=0; r<CHURN_ROUNDS; r++) {
+            for(int i=0; i<ITEMS; i++) {
+                long k = rand.nextInt(ITEMS);
+                switch(rand.nextInt(4)) {
+                case 0:
+                    map.remove(key(k));
+                    break;
+                case 1:
+                    map.put(key(k), val);
+                    break;
+                default:
+                    if(map.get(key(k)) != null) {
+                        hits++;
+                    }
+                }
+            }
+        }
+        long[] gc2 = gcStats();
+        long end = System.currentTimeMillis();
+        System.out.println("  churn: " + (end - mid) + "ms, "
+                           + (gc2[0] - gc1[0]) + " GCs, " + (gc2[1] - gc1[1]) + "ms in GC"
+                           + " (" + hits + " hits)");
+        map.close();
+        System.gc();
+    }
+
+    public static void main(String[] args) {
+        soak(new SoakMap() {
+            private MCritBitTree<SharedByteArray, byte[]> tree =
+                new MCritBitTree<SharedByteArray, byte[]>(new SBAKeyAnalyzer());
+            public String name() { return "MCritBitTree"; }
+            public void put(SharedByteArray key, byte[] val) { tree.put(key, val); }
+            public byte[] get(SharedByteArray key) { return tree.get(key); }
+            public void remove(SharedByteArray key) { tree.remove(key); }
+            public void close() { tree = null; }
+        });
+        soak(new SoakMap() {
+            private final OffHeapCritBitTree<SharedByteArray> tree =
+                OffHeapCritBitTree.forSharedByteArrays();
+            public String name() { return "OffHeapCritBitTree"; }
+            public void put(SharedByteArray key, byte[] val) { tree.put(key, val); }
+            public byte[] get(SharedByteArray key) { return tree.get(key); }
+            public void remove(SharedByteArray key) { tree.remove(key); }
+            public void close() {
+                System.out.println("  " + (tree.reservedBytes() >> 20) + "MB reserved, "
+                                   + (tree.liveBytes() >> 20) + "MB live off-heap");
+                tree.close();
+            }
+        });
+    }
+}
@@ -0,0 +1,98 @@
+package io.prelink.critbit;
+
+import java.util.Random;
+
+import org.ardverk.collection.StringKeyAnalyzer;
+
+/**
+ * Reports what counted nodes cost in heap per internal node, and times
+ * rank() and select() on counted trees against the same calls on plain
+ * ones, which have to count the subtrees they step past.
+ */
+public class OrderStatisticSpeedTest {
+    private static final int ITEMS = 1000000;
+    private static final int QUERIES = 100000;
+    private static final int PLAIN_QUERIES = 20;
+    private static final int SEED = 42;
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime rt = Runtime.getRuntime();
+        for(int i=0; i<4; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    private static String[] keys() {
+        Random rand = new Random(SEED);
+        String[] out = new String[ITEMS];
+        for(int i=0; i<ITEMS; i++) {
+            out[i] = Long.toString(rand.nextLong() & Long.MAX_VALUE, 36);
+        }
+        return out;
+    }
+
+    private static double perInternal(long bytes, int size) {
+        return (double)bytes / (size - 1);
+    }
+
+    private static void time(String name, AbstractCritBitTree<String,String> tree,
+                             String[] keys, int queries) {
+        Random rand = new Random(SEED);
+        long start = System.nanoTime();
+        long sum = 0;
+        for(int i=0; i<queries; i++) {
+            sum += tree.rank(keys[rand.nextInt(keys.length)]);
+            sum += tree.select(rand.nextInt(tree.size())).getKey().length();
+        }
+        long ns = System.nanoTime() - start;
+        System.out.println(name + ": " + (ns / queries / 2) + " ns/query (" + sum + ")");
+    }
+
+    public static void main(String[] args) throws Exception {
+        String[] keys = keys();
+        String val = "value";
+
+        long before = usedHeap();
+        MCritBitTree<String,String> plainM = new MCritBitTree<String,String>(StringKeyAnalyzer.INSTANCE);
+        for(String k: keys) {
+            plainM.put(k, val);
+        }
+        long plainMBytes = usedHeap() - before;
+
+        before = usedHeap();
+        MCritBitTree<String,String> countedM = MCritBitTree.counted(StringKeyAnalyzer.INSTANCE);
+        for(String k: keys) {
+            countedM.put(k, val);
+        }
+        long countedMBytes = usedHeap() - before;
+        int size = countedM.size();
+        System.out.println("MCritBitTree: " + perInternal(plainMBytes, size) + " bytes/internal node plain, "
+                           + perInternal(countedMBytes, size) + " counted, "
+                           + perInternal(countedMBytes - plainMBytes, size) + " extra");
+        time("MCritBitTree, counted", countedM, keys, QUERIES);
+        time("MCritBitTree, plain", plainM, keys, PLAIN_QUERIES);
+        plainM = null;
+        countedM = null;
+
+        before = usedHeap();
+        CritBitTree<String,String> plain = new CritBitTree<String,String>(StringKeyAnalyzer.INSTANCE);
+        for(String k: keys) {
+            plain = plain.put(k, val);
+        }
+        long plainBytes = usedHeap() - before;
+
+        before = usedHeap();
+        CritBitTree<String,String> counted = CritBitTree.counted(StringKeyAnalyzer.INSTANCE);
+        for(String k: keys) {
+            counted = counted.put(k, val);
+        }
+        long countedBytes = usedHeap() - before;
+        System.out.println("CritBitTree: " + perInternal(plainBytes, size) + " bytes/internal node plain, "
+                           + perInternal(countedBytes, size) + " counted, "
+                           + perInternal(countedBytes - plainBytes, size) + " extra");
+        time("CritBitTree, counted", counted, keys, QUERIES);
+        time("CritBitTree, plain", plain, keys, PLAIN_QUERIES);
+    }
+}
@@ -0,0 +1,77 @@
+package io.prelink.critbit;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.ToLongFunction;
+
+import org.ardverk.collection.StringKeyAnalyzer;
+
+/**
+ * Runs the same CPU-bound reduction over a 2M-entry CritBitTree with
+ * parallelStream() in fork-join pools of 1, 2, 4, ... up to the number of
+ * available cores, and reports the speedup over one thread.  Pass an
+ * entry count to override the default.
+ */
+public class ParallelStreamSpeedTest {
+    private static final int DEFAULT_ITEMS = 2000000;
+    private static final int SEED = 42;
+
+    //A bit of per-entry work, so the split overhead isn't all we measure.
+    private static final ToLongFunction<Map.Entry<String,String>> WORK =
+        new ToLongFunction<Map.Entry<String,String>>() {
+            public long applyAsLong(Map.Entry<String,String> e) {
+                long h = 0;
+                String k = e.getKey();
+                for(int r=0; r<20; r++) {
+                    for(int i=0; i<k.length(); i++) {
+                        h = h * 31 + (k.charAt(i) ^ r);
+                    }
+                }
+                return h;
+            }
+        };
+
+    private static long run(ForkJoinPool pool, final CritBitTree<String,String> tree) throws Exception {
+        return pool.submit(new Callable<Long>() {
+            public Long call() {
+                return tree.parallelStream().mapToLong(WORK).sum();
+            }
+        }).get();
+    }
+
+    public static void main(String[] args) throws Exception {
+        int items = (args.length > 0) ? Integer.parseInt(args[0]) : DEFAULT_ITEMS;
+        Random rand = new Random(SEED);
+        MCritBitTree<String,String> sorter =
+            new MCritBitTree<String,String>(StringKeyAnalyzer.INSTANCE);
+        for(int i=0; i<items; i++) {
+            String k = Long.toString(rand.nextLong() & Long.MAX_VALUE, 36);
+            sorter.put(k, k);
+        }
+        CritBitTree<String,String> tree =
+            CritBitTree.fromSorted(StringKeyAnalyzer.INSTANCE, sorter.entrySet());
+        sorter = null;
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        long sequential = 0;
+        for(int warm=0; warm<2; warm++) {
+            long start = System.nanoTime();
+            long check = tree.stream().mapToLong(WORK).sum();
+            sequential = System.nanoTime() - start;
+            System.out.println("stream(): " + sequential / 1000000 + "ms (" + check + ")");
+            for(int threads=1; threads<=cores; threads*=2) {
+                ForkJoinPool pool = new ForkJoinPool(threads);
+                run(pool, tree);
+                start = System.nanoTime();
+                check = run(pool, tree);
+                long elapsed = System.nanoTime() - start;
+                pool.shutdown();
+                System.out.println(threads + " threads: " + elapsed / 1000000 + "ms, "
+                                   + String.format("%.2fx", (double)sequential / elapsed)
+                                   + " (" + check + ")");
+            }
+        }
+    }
+}
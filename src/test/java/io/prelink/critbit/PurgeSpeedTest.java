@@ -0,0 +1,70 @@
+package io.prelink.critbit;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.ardverk.collection.Cursor;
+import org.ardverk.collection.StringKeyAnalyzer;
+
+/**
+ * Purges a third of a 1M-entry MCritBitTree, once by collecting the keys
+ * in a traversal and removing them one by one, and once by answering
+ * REMOVE from the cursor.
+ */
+public class PurgeSpeedTest {
+    private static final int ITEMS = 1000000;
+    private static final int SEED = 42;
+
+    private static boolean expired(Map.Entry<? extends String, ? extends Integer> e) {
+        return e.getValue() % 3 == 0;
+    }
+
+    public static void main(String[] args) {
+        Random rand = new Random(SEED);
+        String[] keys = new String[ITEMS];
+        for(int i=0; i<ITEMS; i++) {
+            keys[i] = Long.toString(rand.nextLong() & Long.MAX_VALUE, 36);
+        }
+
+        for(int warm=0; warm<3; warm++) {
+            MCritBitTree<String,Integer> a = new MCritBitTree<String,Integer>(StringKeyAnalyzer.INSTANCE);
+            MCritBitTree<String,Integer> b = new MCritBitTree<String,Integer>(StringKeyAnalyzer.INSTANCE);
+            for(int i=0; i<ITEMS; i++) {
+                a.put(keys[i], i);
+                b.put(keys[i], i);
+            }
+
+            long start = System.nanoTime();
+            final List<String> doomed = new ArrayList<String>();
+            a.traverse(new Cursor<String,Integer>() {
+                public Decision select(Map.Entry<? extends String, ? extends Integer> e) {
+                    if(expired(e)) {
+                        doomed.add(e.getKey());
+                    }
+                    return Decision.CONTINUE;
+                }
+            });
+            for(String k: doomed) {
+                a.remove(k);
+            }
+            long collectNs = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            b.traverse(new Cursor<String,Integer>() {
+                public Decision select(Map.Entry<? extends String, ? extends Integer> e) {
+                    return expired(e) ? Decision.REMOVE : Decision.CONTINUE;
+                }
+            });
+            long removeNs = System.nanoTime() - start;
+
+            if(a.size() != b.size()) {
+                throw new AssertionError(a.size() + " != " + b.size());
+            }
+            System.out.println("collect and remove: " + (collectNs / 1000000) + " ms, "
+                               + "REMOVE in traversal: " + (removeNs / 1000000) + " ms ("
+                               + a.size() + " left)");
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package io.prelink.critbit;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Starts threads together and waits for them all, for the concurrency
+ * tests and the multi-threaded speed tests.
+ */
+final class Race {
+
+    static interface Body {
+        void run(int id) throws Exception;
+    }
+
+    private Race() {}
+
+    /**
+     * Runs body on the given number of threads, released at once, and
+     * returns the nanoseconds from their release to the last one's end.
+     * The first failure in any thread is rethrown as an AssertionError.
+     */
+    static long run(int threads, final Body body) throws InterruptedException {
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        Thread[] workers = new Thread[threads];
+        for(int t=0; t<threads; t++) {
+            final int id = t;
+            workers[t] = new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                        body.run(id);
+                    } catch(Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            };
+            workers[t].start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        for(Thread w: workers) {
+            w.join();
+        }
+        long elapsed = System.nanoTime() - begin;
+        if(failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+        return elapsed;
+    }
+}
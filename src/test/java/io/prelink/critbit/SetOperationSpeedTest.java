@@ -0,0 +1,70 @@
+package io.prelink.critbit;
+
+import java.util.Map;
+import java.util.Random;
+
+import org.ardverk.collection.Cursor;
+import org.ardverk.collection.StringKeyAnalyzer;
+
+/**
+ * Times union of two versions of a 1M-entry CritBitTree that differ by a
+ * varying number of edits, structurally and by traversing one tree and
+ * putting each entry into the other.  size() on a union result counts
+ * lazily, so it's left out of the timing.
+ */
+public class SetOperationSpeedTest {
+    private static final int ITEMS = 1000000;
+    private static final int SEED = 42;
+
+    private static String randomKey(Random rand) {
+        return Long.toString(rand.nextLong() & Long.MAX_VALUE, 36);
+    }
+
+    private static CritBitTree<String,String> naiveUnion(CritBitTree<String,String> a,
+                                                         CritBitTree<String,String> b) {
+        final CritBitTree<?,?>[] out = { a };
+        b.traverse(new Cursor<String,String>() {
+            public Decision select(Map.Entry<? extends String, ? extends String> e) {
+                CritBitTree<String,String> cur = AbstractCritBitTree.<CritBitTree<String,String>>cast(out[0]);
+                out[0] = cur.put(e.getKey(), e.getValue());
+                return Decision.CONTINUE;
+            }
+        });
+        return AbstractCritBitTree.<CritBitTree<String,String>>cast(out[0]);
+    }
+
+    public static void main(String[] args) {
+        Random rand = new Random(SEED);
+        MCritBitTree<String,String> sorter =
+            new MCritBitTree<String,String>(StringKeyAnalyzer.INSTANCE);
+        for(int i=0; i<ITEMS; i++) {
+            String k = randomKey(rand);
+            sorter.put(k, k);
+        }
+        CritBitTree<String,String> base =
+            CritBitTree.fromSorted(StringKeyAnalyzer.INSTANCE, sorter.entrySet());
+        sorter = null;
+
+        for(int warm=0; warm<2; warm++) {
+            for(int edits: new int[] { 10, 1000, 100000 }) {
+                CritBitTree<String,String> a = base, b = base;
+                for(int i=0; i<edits; i++) {
+                    String k = randomKey(rand);
+                    if(i % 2 == 0) {
+                        a = a.put(k, k);
+                    } else {
+                        b = b.put(k, k);
+                    }
+                }
+                long start = System.nanoTime();
+                CritBitTree<String,String> structural = a.union(b);
+                long mid = System.nanoTime();
+                CritBitTree<String,String> naive = naiveUnion(a, b);
+                long end = System.nanoTime();
+                System.out.println(edits + " edits apart: union " + (mid - start) / 1000 + "us, "
+                                   + "traverse+put " + (end - mid) / 1000 + "us ("
+                                   + structural.size() + ", " + naive.size() + ")");
+            }
+        }
+    }
+}
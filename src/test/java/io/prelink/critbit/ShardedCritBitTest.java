@@ -0,0 +1,115 @@
+package io.prelink.critbit;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import junit.framework.TestCase;
+
+import org.ardverk.collection.Cursor;
+import org.ardverk.collection.StringKeyAnalyzer;
+import org.junit.Test;
+
+public class ShardedCritBitTest extends TestCase {
+
+    private static class KeyListCursor implements Cursor<String, String> {
+        final List<String> keys = new ArrayList<String>();
+        private final int limit;
+        KeyListCursor(int limit) {
+            this.limit = limit;
+        }
+        public Decision select(Map.Entry<? extends String, ? extends String> e) {
+            keys.add(e.getKey());
+            return (keys.size() == limit) ? Decision.EXIT : Decision.CONTINUE;
+        }
+    }
+
+    private static void checkAgainst(TreeMap<String, String> expected,
+                                     ShardedCritBitMap<String, String> sharded) {
+        assertEquals(expected, sharded);
+        assertEquals(expected.size(), sharded.size());
+        List<String> keys = new ArrayList<String>(expected.keySet());
+        assertEquals(keys, new ArrayList<String>(sharded.keySet()));
+
+        KeyListCursor all = new KeyListCursor(-1);
+        sharded.traverse(all);
+        assertEquals(keys, all.keys);
+        KeyListCursor some = new KeyListCursor(10);
+        sharded.traverse(some);
+        assertEquals(keys.subList(0, 10), some.keys);
+
+        assertEquals(expected.firstKey(), sharded.min().getKey());
+        assertEquals(expected.lastKey(), sharded.max().getKey());
+
+        for(String prefix: new String[] { "", "1", "a", "b3", "zz", "q" }) {
+            KeyListCursor c = new KeyListCursor(-1);
+            sharded.traverseWithPrefix(prefix, c);
+            List<String> want = new ArrayList<String>();
+            for(String k: keys) {
+                if(k.startsWith(prefix)) {
+                    want.add(k);
+                }
+            }
+            assertEquals(want, c.keys);
+        }
+    }
+
+    @Test
+    public void testShardedMatchesTreeMap() {
+        Random rand = new Random(42);
+        TreeMap<String, String> expected = new TreeMap<String, String>();
+        //ASCII strings start with 9 clear bits; 4 bits after those pick
+        //one of 16 shards.
+        ShardedCritBitMap<String, String> sharded =
+            new ShardedCritBitMap<String, String>(StringKeyAnalyzer.INSTANCE, 9, 4);
+        assertEquals(16, sharded.shardCount());
+        assertTrue(sharded.isEmpty());
+        assertNull(sharded.min());
+        for(int i=0; i<5000; i++) {
+            String k = Integer.toString(rand.nextInt(50000), 36);
+            if(rand.nextInt(4) == 0) {
+                assertEquals(expected.remove(k), sharded.remove(k));
+            } else {
+                assertEquals(expected.put(k, "v" + i), sharded.put(k, "v" + i));
+            }
+        }
+        checkAgainst(expected, sharded);
+
+        //Unskipped routing works too, it just uses fewer shards.
+        ShardedCritBitMap<String, String> top =
+            new ShardedCritBitMap<String, String>(StringKeyAnalyzer.INSTANCE, 3);
+        top.putAll(expected);
+        checkAgainst(expected, top);
+
+        try {
+            sharded.put("Ā", "x");
+            fail();
+        } catch(IllegalArgumentException e) {}
+        assertNull(sharded.get("Ā"));
+
+        sharded.clear();
+        assertTrue(sharded.isEmpty());
+    }
+
+    @Test
+    public void testConcurrentIngest() throws InterruptedException {
+        final ShardedCritBitMap<String, String> sharded =
+            new ShardedCritBitMap<String, String>(StringKeyAnalyzer.INSTANCE, 9, 6);
+        Race.run(8, new Race.Body() {
+            public void run(int id) {
+                for(int i=0; i<20000; i++) {
+                    String k = Integer.toString(i * 8 + id, 36);
+                    sharded.put(k, k);
+                }
+            }
+        });
+        assertEquals(160000, sharded.size());
+        String prev = null;
+        for(String k: sharded.keySet()) {
+            assertTrue(prev == null || prev.compareTo(k) < 0);
+            prev = k;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package io.prelink.critbit;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Random;
+
+import org.ardverk.collection.StringKeyAnalyzer;
+
+/**
+ * Put throughput of a ShardedCritBitMap (64 shards routed past the nine
+ * clear leading bits of ASCII keys) against a single synchronized
+ * MCritBitTree, with each thread loading its own slice of 1M keys, at 1,
+ * 2, 4, ... threads up to the number of available cores (or the count
+ * given as an argument).
+ */
+public class ShardedIngestSpeedTest {
+    private static final int KEYS = 1000000;
+    private static final int SEED = 42;
+
+    private static long run(final Map<String,String> map, final String[] keys, final int threads)
+        throws InterruptedException {
+        return Race.run(threads, new Race.Body() {
+            public void run(int id) {
+                for(int i=id; i<KEYS; i+=threads) {
+                    map.put(keys[i], keys[i]);
+                }
+            }
+        });
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int maxThreads = (args.length > 0) ? Integer.parseInt(args[0])
+                                           : Runtime.getRuntime().availableProcessors();
+        Random rand = new Random(SEED);
+        String[] keys = new String[KEYS];
+        for(int i=0; i<KEYS; i++) {
+            keys[i] = Long.toString(rand.nextLong() & Long.MAX_VALUE, 36);
+        }
+
+        for(int warm=0; warm<2; warm++) {
+            for(int threads=1; threads<=maxThreads; threads*=2) {
+                long sharded = run(new ShardedCritBitMap<String,String>(StringKeyAnalyzer.INSTANCE, 9, 6),
+                                   keys, threads);
+                long locked = run(Collections.synchronizedMap(
+                                      new MCritBitTree<String,String>(StringKeyAnalyzer.INSTANCE)),
+                                  keys, threads);
+                System.out.println(threads + " threads, Mputs/s: ShardedCritBitMap "
+                                   + String.format("%.2f", KEYS * 1000.0 / sharded)
+                                   + ", synchronized MCritBitTree "
+                                   + String.format("%.2f", KEYS * 1000.0 / locked));
+            }
+        }
+    }
+}
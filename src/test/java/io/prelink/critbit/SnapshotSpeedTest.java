@@ -0,0 +1,63 @@
+package io.prelink.critbit;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import org.ardverk.collection.StringKeyAnalyzer;
+
+/**
+ * Overwrites random keys of a 1M-entry MCritBitTree, taking a snapshot()
+ * every 0 (never), 100000, 1000 and 10 writes, and reports time and bytes
+ * allocated per write.  The gap to the no-snapshot run is the price of
+ * copying paths first written since the last snapshot.
+ */
+public class SnapshotSpeedTest {
+    private static final int ITEMS = 1000000;
+    private static final int WRITES = 1000000;
+    private static final int SEED = 42;
+
+    private static long allocated() {
+        com.sun.management.ThreadMXBean bean =
+            (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+        return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    public static void main(String[] args) {
+        Random rand = new Random(SEED);
+        String[] keys = new String[ITEMS];
+        for(int i=0; i<ITEMS; i++) {
+            keys[i] = Long.toString(rand.nextLong() & Long.MAX_VALUE, 36);
+        }
+        int[] order = new int[WRITES];
+        for(int i=0; i<WRITES; i++) {
+            order[i] = rand.nextInt(ITEMS);
+        }
+
+        int[] intervals = { 0, 100000, 1000, 10 };
+        for(int warm=0; warm<3; warm++) {
+            for(int every: intervals) {
+                MCritBitTree<String,String> tree =
+                    new MCritBitTree<String,String>(StringKeyAnalyzer.INSTANCE);
+                for(String k: keys) {
+                    tree.put(k, k);
+                }
+                CritBitTree<String,String> last = null;
+                long bytes = allocated();
+                long start = System.nanoTime();
+                for(int i=0; i<WRITES; i++) {
+                    if(every > 0 && i % every == 0) {
+                        last = tree.snapshot();
+                    }
+                    String k = keys[order[i]];
+                    tree.put(k, k);
+                }
+                long ns = System.nanoTime() - start;
+                bytes = allocated() - bytes;
+                System.out.println("snapshot every " + (every == 0 ? "never" : Integer.toString(every))
+                                   + ": " + (ns / WRITES) + " ns/write, "
+                                   + (bytes / WRITES) + " bytes/write"
+                                   + (last == null ? "" : " (last snapshot " + last.size() + ")"));
+            }
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package io.prelink.critbit;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import org.ardverk.collection.StringKeyAnalyzer;
+
+/**
+ * Applies 10k-entry batches to a 1M-entry CritBitTree, once through a loop
+ * of put() and once through a transient, reporting time and bytes
+ * allocated per batch.
+ */
+public class TransientSpeedTest {
+    private static final int ITEMS = 1000000;
+    private static final int BATCH = 10000;
+    private static final int ROUNDS = 20;
+    private static final int SEED = 42;
+
+    private static long allocated() {
+        com.sun.management.ThreadMXBean bean =
+            (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+        return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    public static void main(String[] args) {
+        Random rand = new Random(SEED);
+        String[] keys = new String[ITEMS];
+        for(int i=0; i<ITEMS; i++) {
+            keys[i] = Long.toString(rand.nextLong() & Long.MAX_VALUE, 36);
+        }
+        MCritBitTree<String,String> sorter =
+            new MCritBitTree<String,String>(StringKeyAnalyzer.INSTANCE);
+        for(String k: keys) {
+            sorter.put(k, k);
+        }
+        final CritBitTree<String,String> base =
+            CritBitTree.fromSorted(StringKeyAnalyzer.INSTANCE, sorter.entrySet());
+        sorter = null;
+
+        String[][] batches = new String[ROUNDS][BATCH];
+        for(int r=0; r<ROUNDS; r++) {
+            for(int i=0; i<BATCH; i++) {
+                batches[r][i] = (i % 2 == 0) ? keys[rand.nextInt(ITEMS)]
+                                             : Long.toString(rand.nextLong() & Long.MAX_VALUE, 36);
+            }
+        }
+
+        for(int warm=0; warm<3; warm++) {
+            long putNs = 0, transientNs = 0, putBytes = 0, transientBytes = 0;
+            int size = 0;
+            for(String[] batch: batches) {
+                long a0 = allocated();
+                long t0 = System.nanoTime();
+                CritBitTree<String,String> v = base;
+                for(String k: batch) {
+                    v = v.put(k, "new");
+                }
+                long t1 = System.nanoTime();
+                long a1 = allocated();
+                TransientCritBitTree<String,String> t = base.asTransient();
+                for(String k: batch) {
+                    t.put(k, "new");
+                }
+                CritBitTree<String,String> w = t.persistent();
+                long t2 = System.nanoTime();
+                long a2 = allocated();
+                putNs += t1 - t0;
+                transientNs += t2 - t1;
+                putBytes += a1 - a0;
+                transientBytes += a2 - a1;
+                size += v.size() + w.size();
+            }
+            System.out.println("per 10k batch: put loop " + putNs / ROUNDS / 1000000 + "ms, "
+                               + putBytes / ROUNDS / 1024 + "KB; transient "
+                               + transientNs / ROUNDS / 1000000 + "ms, "
+                               + transientBytes / ROUNDS / 1024 + "KB (" + size + ")");
+        }
+    }
+}
@@ -0,0 +1,304 @@
+package io.prelink.critbit;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Predicate;
+
+import junit.framework.TestCase;
+
+import org.ardverk.collection.Cursor;
+import org.ardverk.collection.Ipv4Prefix;
+import org.ardverk.collection.Ipv4PrefixKeyAnalyzer;
+import org.ardverk.collection.KeyAnalyzer;
+import org.ardverk.collection.StringKeyAnalyzer;
+import org.junit.Test;
+
+public class WideCritBitTest extends TestCase {
+
+    private static final int SEED = 42;
+
+    private static String randomKey(Random rand, int alphabet) {
+        StringBuilder sb = new StringBuilder();
+        int len = 1 + rand.nextInt(6);
+        for(int i=0; i<len; i++) {
+            sb.append((char)('a' + rand.nextInt(alphabet)));
+        }
+        return sb.toString();
+    }
+
+    private static <K,V> List<K> collect(Map<K,V> map) {
+        List<K> out = new ArrayList<K>();
+        for(Map.Entry<K,V> e: map.entrySet()) {
+            out.add(e.getKey());
+        }
+        return out;
+    }
+
+    private static class CollectingCursor<K> implements Cursor<K,String> {
+        final List<K> keys = new ArrayList<K>();
+        public Decision select(Map.Entry<? extends K, ? extends String> e) {
+            keys.add(e.getKey());
+            return Decision.CONTINUE;
+        }
+    }
+
+    private static <K> void checkSame(MCritBitTree<K,String> tree, WideCritBitTree<K,String> wide,
+                                      List<K> prefixes) {
+        assertEquals(tree.size(), wide.size());
+        for(Map.Entry<K,String> e: tree.entrySet()) {
+            assertTrue(wide.containsKey(e.getKey()));
+            assertEquals(e.getValue(), wide.get(e.getKey()));
+        }
+        assertEquals(collect(tree), collect(wide));
+        if(!tree.isEmpty()) {
+            assertEquals(tree.min().getKey(), wide.min().getKey());
+            assertEquals(tree.max().getKey(), wide.max().getKey());
+        }
+        CollectingCursor<K> all = new CollectingCursor<K>();
+        wide.traverse(all);
+        assertEquals(collect(tree), all.keys);
+        for(K prefix: prefixes) {
+            CollectingCursor<K> expected = new CollectingCursor<K>();
+            tree.traverseWithPrefix(prefix, expected);
+            CollectingCursor<K> actual = new CollectingCursor<K>();
+            wide.traverseWithPrefix(prefix, actual);
+            assertEquals(expected.keys, actual.keys);
+        }
+        int total = 0;
+        for(int n: wide.depthHistogram()) {
+            total += n;
+        }
+        assertEquals(wide.size(), total);
+    }
+
+    private void againstMCritBitTree(int stride, int alphabet) {
+        KeyAnalyzer<String> chk = StringKeyAnalyzer.INSTANCE;
+        WideCritBitTree<String,String> wide = new WideCritBitTree<String,String>(chk, stride);
+        MCritBitTree<String,String> tree = new MCritBitTree<String,String>(chk);
+        List<String> prefixes = new ArrayList<String>();
+        prefixes.add("");
+        prefixes.add("a");
+        prefixes.add("ab");
+        prefixes.add("abc");
+        prefixes.add("z");
+
+        assertNull(wide.min());
+        assertNull(wide.max());
+        assertNull(wide.remove("a"));
+        assertNull(wide.get("a"));
+        checkSame(tree, wide, prefixes);
+
+        Random rand = new Random(SEED);
+        for(int i=0; i<30000; i++) {
+            String key = randomKey(rand, alphabet);
+            if(rand.nextInt(3) == 0) {
+                assertEquals(tree.remove(key), wide.remove(key));
+            } else {
+                String val = Integer.toString(i);
+                assertEquals(tree.put(key, val), wide.put(key, val));
+            }
+            assertEquals(tree.size(), wide.size());
+            if(i % 5000 == 0) {
+                prefixes.add(key.substring(0, 1 + rand.nextInt(key.length())));
+                checkSame(tree, wide, prefixes);
+            }
+        }
+        checkSame(tree, wide, prefixes);
+
+        //Empty it again, shrinking every branch on the way down.
+        for(String key: new ArrayList<String>(tree.keySet())) {
+            assertEquals(tree.remove(key), wide.remove(key));
+            if(tree.size() % 3000 == 0) {
+                checkSame(tree, wide, prefixes);
+            }
+        }
+        assertTrue(wide.isEmpty());
+        wide.put("again", "a");
+        assertEquals("a", wide.get("again"));
+        wide.clear();
+        assertTrue(wide.isEmpty());
+        assertNull(wide.get("again"));
+    }
+
+    @Test
+    public void testAgainstMCritBitTree() {
+        againstMCritBitTree(8, 4);
+        againstMCritBitTree(4, 4);
+        againstMCritBitTree(1, 4);
+        againstMCritBitTree(3, 26);
+    }
+
+    @Test
+    public void testWideFanOut() {
+        //Every char value at one position, so branches pass through all
+        //four layouts both ways.
+        againstMCritBitTree(8, 400);
+        againstMCritBitTree(5, 400);
+    }
+
+    @Test
+    public void testPrefixEndingInsideChunk() {
+        //Block lengths are two bits per address bit, so prefixes end at any
+        //bit, not just on chunk boundaries.
+        Random rand = new Random(SEED);
+        for(int stride: new int[] { 8, 4, 3 }) {
+            WideCritBitTree<Ipv4Prefix,String> wide =
+                new WideCritBitTree<Ipv4Prefix,String>(Ipv4PrefixKeyAnalyzer.INSTANCE, stride);
+            MCritBitTree<Ipv4Prefix,String> tree =
+                new MCritBitTree<Ipv4Prefix,String>(Ipv4PrefixKeyAnalyzer.INSTANCE);
+            for(int i=0; i<5000; i++) {
+                Ipv4Prefix block = Ipv4Prefix.of(rand.nextInt() >>> 4, 4 + rand.nextInt(29));
+                tree.put(block, block.toString());
+                wide.put(block, block.toString());
+            }
+            List<Ipv4Prefix> prefixes = new ArrayList<Ipv4Prefix>();
+            for(int i=0; i<200; i++) {
+                prefixes.add(Ipv4Prefix.of(rand.nextInt() >>> 4, rand.nextInt(20)));
+            }
+            checkSame(tree, wide, prefixes);
+        }
+    }
+
+    @Test
+    public void testDepth() {
+        Random rand = new Random(SEED);
+        WideCritBitTree<String,String> wide = new WideCritBitTree<String,String>(StringKeyAnalyzer.INSTANCE);
+        for(int i=0; i<100000; i++) {
+            String k = Long.toString(rand.nextLong() & Long.MAX_VALUE, 36);
+            wide.put(k, k);
+        }
+        //Random keys fan out at every branch, so a handful of levels hold
+        //them all where a binary tree needs about 17.
+        int[] h = wide.depthHistogram();
+        assertTrue(h.length <= 8);
+    }
+
+    /**
+     * Removes keys whose last char is odd, then the first key after
+     * "stop" that it comes to, and exits.
+     */
+    private static class PruningCursor implements Cursor<String,String> {
+        final List<String> seen = new ArrayList<String>();
+        public Decision select(Map.Entry<? extends String, ? extends String> e) {
+            String k = e.getKey();
+            seen.add(k);
+            if(k.compareTo("stop") > 0) {
+                return Decision.REMOVE_AND_EXIT;
+            }
+            return (k.charAt(k.length() - 1) % 2 == 1) ? Decision.REMOVE : Decision.CONTINUE;
+        }
+    }
+
+    private static void fill(Random rand, int alphabet, MCritBitTree<String,String> tree,
+                             WideCritBitTree<String,String> wide) {
+        for(int i=0; i<20000; i++) {
+            String key = randomKey(rand, alphabet);
+            tree.put(key, key);
+            wide.put(key, key);
+        }
+    }
+
+    @Test
+    public void testCursorRemove() {
+        Random rand = new Random(SEED);
+        for(int stride: new int[] { 8, 3, 1 }) {
+            for(int alphabet: new int[] { 4, 26, 400 }) {
+                MCritBitTree<String,String> tree = new MCritBitTree<String,String>(StringKeyAnalyzer.INSTANCE);
+                WideCritBitTree<String,String> wide =
+                    new WideCritBitTree<String,String>(StringKeyAnalyzer.INSTANCE, stride);
+                fill(rand, alphabet, tree, wide);
+                List<String> prefixes = new ArrayList<String>();
+                for(String p: new String[] { "a", "ab", "b", "c", "q", "" }) {
+                    prefixes.add(p);
+                    PruningCursor expected = new PruningCursor();
+                    tree.traverseWithPrefix(p, expected);
+                    PruningCursor actual = new PruningCursor();
+                    wide.traverseWithPrefix(p, actual);
+                    assertEquals(expected.seen, actual.seen);
+                    checkSame(tree, wide, prefixes);
+                }
+                PruningCursor expected = new PruningCursor();
+                tree.traverse(expected);
+                PruningCursor actual = new PruningCursor();
+                wide.traverse(actual);
+                assertEquals(expected.seen, actual.seen);
+                checkSame(tree, wide, prefixes);
+
+                //Everything, one REMOVE at a time.
+                wide.traverse(new Cursor<String,String>() {
+                    public Decision select(Map.Entry<? extends String, ? extends String> e) {
+                        return Decision.REMOVE;
+                    }
+                });
+                assertTrue(wide.isEmpty());
+                assertNull(wide.min());
+            }
+        }
+    }
+
+    @Test
+    public void testIteratorRemove() {
+        Random rand = new Random(SEED);
+        for(int stride: new int[] { 8, 3, 1 }) {
+            for(int alphabet: new int[] { 4, 26, 400 }) {
+                MCritBitTree<String,String> tree = new MCritBitTree<String,String>(StringKeyAnalyzer.INSTANCE);
+                WideCritBitTree<String,String> wide =
+                    new WideCritBitTree<String,String>(StringKeyAnalyzer.INSTANCE, stride);
+                fill(rand, alphabet, tree, wide);
+                List<String> prefixes = new ArrayList<String>();
+                prefixes.add("a");
+                prefixes.add("b");
+
+                List<String> visited = new ArrayList<String>();
+                Iterator<Map.Entry<String,String>> wi = wide.entrySet().iterator();
+                Iterator<Map.Entry<String,String>> ti = tree.entrySet().iterator();
+                while(ti.hasNext()) {
+                    assertTrue(wi.hasNext());
+                    String k = ti.next().getKey();
+                    assertEquals(k, wi.next().getKey());
+                    visited.add(k);
+                    if(rand.nextInt(3) != 0) {
+                        ti.remove();
+                        wi.remove();
+                    }
+                }
+                assertFalse(wi.hasNext());
+                checkSame(tree, wide, prefixes);
+                try {
+                    wide.entrySet().iterator().remove();
+                    fail();
+                } catch(IllegalStateException e) {}
+
+                //The views remove through the iterator too.
+                String first = tree.firstKey();
+                assertTrue(tree.keySet().remove(first));
+                assertTrue(wide.keySet().remove(first));
+                assertFalse(wide.keySet().remove(first));
+                assertTrue(tree.values().remove(tree.lastKey()));
+                assertTrue(wide.values().remove(wide.max().getValue()));
+                Predicate<Map.Entry<String,String>> even = new Predicate<Map.Entry<String,String>>() {
+                    public boolean test(Map.Entry<String,String> e) {
+                        return e.getKey().length() % 2 == 0;
+                    }
+                };
+                assertEquals(tree.entrySet().removeIf(even), wide.entrySet().removeIf(even));
+                checkSame(tree, wide, prefixes);
+            }
+        }
+    }
+
+    @Test
+    public void testBadStride() {
+        try {
+            new WideCritBitTree<String,String>(StringKeyAnalyzer.INSTANCE, 0);
+            fail();
+        } catch(IllegalArgumentException e) {}
+        try {
+            new WideCritBitTree<String,String>(StringKeyAnalyzer.INSTANCE, 9);
+            fail();
+        } catch(IllegalArgumentException e) {}
+    }
+}
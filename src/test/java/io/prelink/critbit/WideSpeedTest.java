@@ -0,0 +1,128 @@
+package io.prelink.critbit;
+
+import io.prelink.critbit.AbstractCritBitTree.Context;
+import io.prelink.critbit.AbstractCritBitTree.Node;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+
+import org.ardverk.collection.ByteArrayKeyAnalyzer;
+import org.ardverk.collection.KeyAnalyzer;
+
+/**
+ * Prints leaf depth histograms and times get() for MCritBitTree against
+ * WideCritBitTree at strides 8 and 4, on 64-byte keys that share long
+ * prefixes (tenant, table, then random row ids) and on random 20-byte ids.
+ */
+public class WideSpeedTest {
+    private static final int ITEMS = 1000000;
+    private static final int LOOKUPS = 2000000;
+    private static final int SEED = 42;
+
+    private static byte[][] structuredKeys(Random rand) {
+        byte[][] tenants = new byte[500][16];
+        byte[][] tables = new byte[40][16];
+        for(byte[] t: tenants) {
+            rand.nextBytes(t);
+        }
+        for(byte[] t: tables) {
+            rand.nextBytes(t);
+        }
+        byte[][] out = new byte[ITEMS][];
+        for(int i=0; i<ITEMS; i++) {
+            byte[] k = new byte[64];
+            System.arraycopy(tenants[rand.nextInt(tenants.length)], 0, k, 0, 16);
+            System.arraycopy(tables[rand.nextInt(tables.length)], 0, k, 16, 16);
+            byte[] row = new byte[32];
+            rand.nextBytes(row);
+            System.arraycopy(row, 0, k, 32, 32);
+            out[i] = k;
+        }
+        return out;
+    }
+
+    private static byte[][] randomKeys(Random rand) {
+        byte[][] out = new byte[ITEMS][20];
+        for(byte[] k: out) {
+            rand.nextBytes(k);
+        }
+        return out;
+    }
+
+    private static int[] depths(Node<byte[],String> n, Context<byte[],String> ctx, int depth, int[] out) {
+        if(depth >= out.length) {
+            out = Arrays.copyOf(out, depth + 1);
+        }
+        if(n.isInternal()) {
+            out = depths(n.left(ctx), ctx, depth + 1, out);
+            out = depths(n.right(ctx), ctx, depth + 1, out);
+        } else {
+            out[depth]++;
+        }
+        return out;
+    }
+
+    private static void printHistogram(String name, int[] h) {
+        long total = 0;
+        long sum = 0;
+        int max = 0;
+        StringBuilder sb = new StringBuilder();
+        for(int d=0; d<h.length; d++) {
+            total += h[d];
+            sum += (long)d * h[d];
+            if(h[d] > 0) {
+                max = d;
+                sb.append(' ').append(d).append(':').append(h[d]);
+            }
+        }
+        System.out.println(name + ": mean depth " + String.format("%.1f", (double)sum / total)
+                           + ", max " + max);
+        System.out.println("   " + sb);
+    }
+
+    private static void time(String name, Map<byte[],String> map, byte[][] probes) {
+        long start = System.nanoTime();
+        long hits = 0;
+        for(byte[] k: probes) {
+            if(map.get(k) != null) {
+                hits++;
+            }
+        }
+        long ns = System.nanoTime() - start;
+        System.out.println(name + ": " + (ns / probes.length) + " ns/get (" + hits + " hits)");
+    }
+
+    private static void run(String name, byte[][] keys) {
+        System.out.println("== " + name);
+        KeyAnalyzer<byte[]> chk = new ByteArrayKeyAnalyzer(keys[0].length * Byte.SIZE);
+        MCritBitTree<byte[],String> binary = new MCritBitTree<byte[],String>(chk);
+        WideCritBitTree<byte[],String> wide8 = new WideCritBitTree<byte[],String>(chk, 8);
+        WideCritBitTree<byte[],String> wide4 = new WideCritBitTree<byte[],String>(chk, 4);
+        for(byte[] k: keys) {
+            binary.put(k, "v");
+            wide8.put(k, "v");
+            wide4.put(k, "v");
+        }
+        printHistogram("MCritBitTree", depths(binary.root(), binary.ctx(), 0, new int[1]));
+        printHistogram("WideCritBitTree/8", wide8.depthHistogram());
+        printHistogram("WideCritBitTree/4", wide4.depthHistogram());
+
+        Random rand = new Random(SEED);
+        byte[][] probes = new byte[LOOKUPS][];
+        for(int i=0; i<LOOKUPS; i++) {
+            probes[i] = keys[rand.nextInt(keys.length)].clone();
+        }
+        for(int round=0; round<3; round++) {
+            time("MCritBitTree", binary, probes);
+            time("WideCritBitTree/8", wide8, probes);
+            time("WideCritBitTree/4", wide4, probes);
+        }
+    }
+
+    public static void main(String[] args) {
+        Random rand = new Random(SEED);
+        run("64-byte keys, shared prefixes", structuredKeys(rand));
+        run("20-byte random ids", randomKeys(rand));
+    }
+}
@@ -0,0 +1,121 @@
+package io.prelink.critbit;
+
+import java.util.Comparator;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import org.ardverk.collection.ByteArrayKeyAnalyzer;
+import org.ardverk.collection.Cursor;
+
+/**
+ * Times finding the K keys nearest a target by XOR distance, Kademlia
+ * style, over random 160-bit ids: selectN on both trees against a scan of
+ * every id through a bounded heap (on far fewer queries).
+ */
+public class XorSelectSpeedTest {
+    private static final int ITEMS = 1000000;
+    private static final int QUERIES = 100000;
+    private static final int SCAN_QUERIES = 20;
+    private static final int K = 20;
+    private static final int ID_BYTES = 20;
+    private static final int SEED = 42;
+
+    private static byte[][] ids(Random rand, int n) {
+        byte[][] out = new byte[n][];
+        for(int i=0; i<n; i++) {
+            out[i] = new byte[ID_BYTES];
+            rand.nextBytes(out[i]);
+        }
+        return out;
+    }
+
+    private static int compareDistance(byte[] a, byte[] b, byte[] target) {
+        for(int i=0; i<ID_BYTES; i++) {
+            int c = ((a[i] ^ target[i]) & 0xFF) - ((b[i] ^ target[i]) & 0xFF);
+            if(c != 0) {
+                return c;
+            }
+        }
+        return 0;
+    }
+
+    private static byte[] scan(byte[][] ids, final byte[] target) {
+        //Farthest on top, so it's the one to drop.
+        PriorityQueue<byte[]> heap = new PriorityQueue<byte[]>(K + 1, new Comparator<byte[]>() {
+            public int compare(byte[] a, byte[] b) {
+                return compareDistance(b, a, target);
+            }
+        });
+        for(byte[] id: ids) {
+            heap.add(id);
+            if(heap.size() > K) {
+                heap.poll();
+            }
+        }
+        byte[] nearest = null;
+        while(!heap.isEmpty()) {
+            nearest = heap.poll();
+        }
+        return nearest;
+    }
+
+    private static final class Nearest implements Cursor<byte[], String> {
+        byte[] first;
+        int seen;
+        public Decision select(Map.Entry<? extends byte[], ? extends String> e) {
+            if(seen++ == 0) {
+                first = e.getKey();
+            }
+            return Decision.CONTINUE;
+        }
+    }
+
+    private static void time(String name, AbstractCritBitTree<byte[], String> tree, byte[][] targets) {
+        long start = System.nanoTime();
+        long seen = 0;
+        for(byte[] t: targets) {
+            Nearest c = new Nearest();
+            tree.selectN(t, K, c);
+            seen += c.seen;
+        }
+        long ns = System.nanoTime() - start;
+        System.out.println(name + ": " + (ns / targets.length) + " ns/query (" + seen + " ids)");
+    }
+
+    public static void main(String[] args) {
+        Random rand = new Random(SEED);
+        byte[][] ids = ids(rand, ITEMS);
+        byte[][] targets = ids(rand, QUERIES);
+
+        MCritBitTree<byte[], String> m =
+            new MCritBitTree<byte[], String>(ByteArrayKeyAnalyzer.INSTANCE);
+        for(byte[] id: ids) {
+            m.put(id, "contact");
+        }
+        CritBitTree<byte[], String> p =
+            CritBitTree.fromSorted(ByteArrayKeyAnalyzer.INSTANCE, m.entrySet());
+
+        for(int round=0; round<3; round++) {
+            time("MCritBitTree.selectN", m, targets);
+            time("CritBitTree.selectN", p, targets);
+
+            long start = System.nanoTime();
+            long sum = 0;
+            for(int i=0; i<SCAN_QUERIES; i++) {
+                sum += scan(ids, targets[i])[0];
+            }
+            long ns = System.nanoTime() - start;
+            System.out.println("scan: " + (ns / SCAN_QUERIES) + " ns/query (" + sum + ")");
+        }
+
+        //Same answers.
+        for(int i=0; i<SCAN_QUERIES; i++) {
+            Nearest c = new Nearest();
+            m.selectN(targets[i], K, c);
+            if(compareDistance(c.first, scan(ids, targets[i]), targets[i]) != 0) {
+                throw new AssertionError("query " + i);
+            }
+        }
+    }
+}
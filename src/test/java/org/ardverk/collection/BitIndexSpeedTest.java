@@ -0,0 +1,79 @@
+package org.ardverk.collection;
+
+import java.util.Random;
+
+/**
+ * Times the word-at-a-time {@code bitIndex} against the original
+ * bit-at-a-time loop on pairs of 40-200 byte keys that differ in one bit.
+ */
+public class BitIndexSpeedTest {
+    private static final int KEYS = 10000;
+    private static final int WARMUPS = 200;
+    private static final int ITERS = 200;
+    private static final int SEED = 42;
+
+    private static interface Indexer {
+        String name();
+        int bitIndex(byte[] key, byte[] otherKey);
+    }
+
+    private static byte[][] keys(Random rand) {
+        byte[] base = new byte[200];
+        rand.nextBytes(base);
+        byte[][] out = new byte[KEYS][];
+        for(int i=0; i<KEYS; i+=2) {
+            byte[] key = new byte[40 + rand.nextInt(161)];
+            System.arraycopy(base, 0, key, 0, key.length);
+            byte[] other = key.clone();
+            other[rand.nextInt(key.length)] ^= 1 << rand.nextInt(8);
+            out[i] = key;
+            out[i+1] = other;
+        }
+        return out;
+    }
+
+    private static void bitIndexTest(byte[][] keys, Indexer ix) {
+        System.out.print("Warming up " + ix.name() + "... ");
+        long sink = 0;
+        for(int i=0; i<WARMUPS; i++) {
+            sink += pass(keys, ix);
+        }
+        System.out.println("Done!");
+        System.out.print(String.format("Starting test for %s...", ix.name()));
+        final long start = System.currentTimeMillis();
+        for(int i=0; i<ITERS; i++) {
+            sink += pass(keys, ix);
+        }
+        final long end = System.currentTimeMillis();
+        System.out.println(
+            String.format("Done! %s comparisons in %s ms (%s)",
+                          (long)ITERS * keys.length / 2, end-start, sink));
+    }
+
+    private static long pass(byte[][] keys, Indexer ix) {
+        long out = 0;
+        for(int i=0; i<keys.length; i+=2) {
+            out += ix.bitIndex(keys[i], keys[i+1]);
+        }
+        return out;
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final byte[][] keys = keys(new Random(SEED));
+        final ByteArrayKeyAnalyzer ka = ByteArrayKeyAnalyzer.INSTANCE;
+
+        bitIndexTest(keys, new Indexer() {
+            public String name() { return "bit-at-a-time"; }
+            public int bitIndex(byte[] k1, byte[] k2) {
+                return LegacyBitIndex.bitIndex(ka, k1, k2);
+            }
+        });
+
+        bitIndexTest(keys, new Indexer() {
+            public String name() { return "word-at-a-time"; }
+            public int bitIndex(byte[] k1, byte[] k2) {
+                return ka.bitIndex(k1, k2);
+            }
+        });
+    }
+}
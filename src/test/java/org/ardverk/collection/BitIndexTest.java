@@ -0,0 +1,128 @@
+package org.ardverk.collection;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+/**
+ * Differential test of the {@code bitIndex} implementations, which compare
+ * 64 bits at a time and finish off element by element, against the original
+ * bit-at-a-time loops in {@link LegacyBitIndex}.
+ */
+public class BitIndexTest {
+
+    private static final int ROUNDS = 200000;
+    private static final int SEED = 42;
+
+    private static final int[] BYTE_MAX_LENGTHS = {
+        ByteArrayKeyAnalyzer.INSTANCE.getMaxLengthInBits(), 64, 61, 96, 8, 0
+    };
+
+    private static final int[] CHAR_MAX_LENGTHS = {
+        CharArrayKeyAnalyzer.INSTANCE.getMaxLengthInBits(), 128, 125, 192, 16, 0
+    };
+
+    @Test
+    public void byteArrays() {
+        Random rand = new Random(SEED);
+        for (int maxLength : BYTE_MAX_LENGTHS) {
+            ByteArrayKeyAnalyzer ka = new ByteArrayKeyAnalyzer(maxLength);
+            for (int i = 0; i < ROUNDS / BYTE_MAX_LENGTHS.length; i++) {
+                byte[] key = randomBytes(rand, null);
+                byte[] other = randomBytes(rand, rand.nextBoolean() ? key : null);
+                TestCase.assertEquals(
+                        LegacyBitIndex.bitIndex(ka, key, other),
+                        ka.bitIndex(key, other));
+                TestCase.assertEquals(
+                        LegacyBitIndex.bitIndex(ka, other, key),
+                        ka.bitIndex(other, key));
+            }
+        }
+    }
+
+    @Test
+    public void charArrays() {
+        Random rand = new Random(SEED);
+        for (int maxLength : CHAR_MAX_LENGTHS) {
+            CharArrayKeyAnalyzer ka = new CharArrayKeyAnalyzer(maxLength);
+            for (int i = 0; i < ROUNDS / CHAR_MAX_LENGTHS.length; i++) {
+                char[] key = randomChars(rand, null);
+                char[] other = randomChars(rand, rand.nextBoolean() ? key : null);
+                TestCase.assertEquals(
+                        LegacyBitIndex.bitIndex(ka, key, other),
+                        ka.bitIndex(key, other));
+                TestCase.assertEquals(
+                        LegacyBitIndex.bitIndex(ka, other, key),
+                        ka.bitIndex(other, key));
+            }
+        }
+    }
+
+    @Test
+    public void specialResults() {
+        ByteArrayKeyAnalyzer bka = ByteArrayKeyAnalyzer.INSTANCE;
+        TestCase.assertEquals(KeyAnalyzer.NULL_BIT_KEY,
+                bka.bitIndex(new byte[0], new byte[0]));
+        TestCase.assertEquals(KeyAnalyzer.NULL_BIT_KEY,
+                bka.bitIndex(new byte[] { 0, 0 }, new byte[] { 0 }));
+        TestCase.assertEquals(KeyAnalyzer.EQUAL_BIT_KEY,
+                bka.bitIndex(new byte[] { 0, 5 }, new byte[] { 5 }));
+        TestCase.assertEquals(KeyAnalyzer.OUT_OF_BOUNDS_BIT_KEY,
+                new ByteArrayKeyAnalyzer(8).bitIndex(new byte[2], new byte[1]));
+
+        CharArrayKeyAnalyzer cka = CharArrayKeyAnalyzer.INSTANCE;
+        TestCase.assertEquals(KeyAnalyzer.NULL_BIT_KEY,
+                cka.bitIndex(new char[] { 0 }, new char[0]));
+        TestCase.assertEquals(KeyAnalyzer.EQUAL_BIT_KEY,
+                cka.bitIndex("ab".toCharArray(), "ab".toCharArray()));
+        TestCase.assertEquals(KeyAnalyzer.OUT_OF_BOUNDS_BIT_KEY,
+                new CharArrayKeyAnalyzer(16).bitIndex(new char[2], new char[1]));
+    }
+
+    /**
+     * Keys of up to a few words with lots of zeros, sometimes in a long
+     * leading run, optionally derived from {@code base} so that long
+     * shared prefixes are common.
+     */
+    private static byte[] randomBytes(Random rand, byte[] base) {
+        byte[] out;
+        if (base != null) {
+            out = new byte[Math.max(0, base.length + rand.nextInt(3) - 1)];
+            System.arraycopy(base, 0, out, 0, Math.min(base.length, out.length));
+        } else {
+            out = new byte[rand.nextInt(40)];
+        }
+        int zeros = (base == null && rand.nextInt(4) == 0) ? rand.nextInt(out.length + 1) : 0;
+        for (int i = zeros; i < out.length; i++) {
+            if (base == null || i >= base.length || rand.nextInt(16) == 0) {
+                out[i] = rand.nextInt(3) == 0 ? 0 : (byte) rand.nextInt();
+            }
+        }
+        if (out.length > 0 && rand.nextInt(4) == 0) {
+            out[rand.nextInt(out.length)] ^= 1 << rand.nextInt(Byte.SIZE);
+        }
+        return out;
+    }
+
+    private static char[] randomChars(Random rand, char[] base) {
+        char[] out;
+        if (base != null) {
+            out = new char[Math.max(0, base.length + rand.nextInt(3) - 1)];
+            System.arraycopy(base, 0, out, 0, Math.min(base.length, out.length));
+        } else {
+            out = new char[rand.nextInt(20)];
+        }
+        int zeros = (base == null && rand.nextInt(4) == 0) ? rand.nextInt(out.length + 1) : 0;
+        for (int i = zeros; i < out.length; i++) {
+            if (base == null || i >= base.length || rand.nextInt(16) == 0) {
+                out[i] = rand.nextInt(3) == 0 ? 0 : (char) rand.nextInt();
+            }
+        }
+        if (out.length > 0 && rand.nextInt(4) == 0) {
+            out[rand.nextInt(out.length)] ^= 1 << rand.nextInt(Character.SIZE);
+        }
+        return out;
+    }
+}
@@ -0,0 +1,195 @@
+package org.ardverk.collection;
+
+import io.prelink.critbit.CritBitTree;
+import io.prelink.critbit.MCritBitTree;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+public class IpPrefixKeyAnalyzerTest {
+
+    private static Ipv4Prefix randomV4(Random rand) {
+        return Ipv4Prefix.of(rand.nextInt(), 8 + rand.nextInt(25));
+    }
+
+    private static Ipv6Prefix randomV6(Random rand) {
+        return Ipv6Prefix.of(rand.nextLong(), rand.nextLong(), rand.nextInt(129));
+    }
+
+    /**
+     * bitIndex, isBitSet, isPrefix and compare must all agree.
+     */
+    private static <K> void checkConsistent(KeyAnalyzer<K> ka, K a, K b) {
+        int diff = ka.bitIndex(a, b);
+        int len = Math.max(ka.lengthInBits(a), ka.lengthInBits(b));
+        if (diff < 0) {
+            TestCase.assertEquals(0, ka.compare(a, b));
+            TestCase.assertEquals(a, b);
+        } else {
+            for (int i = 0; i < diff; i++) {
+                TestCase.assertEquals(ka.isBitSet(a, i), ka.isBitSet(b, i));
+            }
+            TestCase.assertTrue(ka.isBitSet(a, diff) != ka.isBitSet(b, diff));
+            TestCase.assertTrue(diff <= len);
+            TestCase.assertEquals(ka.isBitSet(a, diff) ? 1 : -1, Integer.signum(ka.compare(a, b)));
+        }
+        //Past its length a key is all zeros.
+        TestCase.assertFalse(ka.isBitSet(a, ka.lengthInBits(a)));
+        TestCase.assertFalse(ka.isBitSet(a, ka.lengthInBits(a) + 1));
+    }
+
+    @Test
+    public void parse() {
+        TestCase.assertEquals("10.0.0.0/8", Ipv4Prefix.parse("10.1.2.3/8").toString());
+        TestCase.assertEquals(Ipv4Prefix.of(0xC0A80101, 32), Ipv4Prefix.parse("192.168.1.1"));
+        TestCase.assertEquals(Ipv4Prefix.of(0, 0), Ipv4Prefix.parse("255.255.255.255/0"));
+        TestCase.assertTrue(Ipv4Prefix.parse("10.0.0.0/8").contains(Ipv4Prefix.parse("10.200.0.0/16")));
+        TestCase.assertFalse(Ipv4Prefix.parse("10.0.0.0/16").contains(Ipv4Prefix.parse("10.0.0.0/8")));
+        for (String bad : new String[] { "10.0.0/8", "10.0.0.256", "10.0.0.0/33", "a.b.c.d", "10.0.0.0/" }) {
+            try {
+                Ipv4Prefix.parse(bad);
+                TestCase.fail(bad);
+            } catch (IllegalArgumentException e) {}
+        }
+
+        TestCase.assertEquals("2001:db8:0:0:0:0:0:0/32", Ipv6Prefix.parse("2001:db8:ffff::1/32").toString());
+        TestCase.assertEquals(Ipv6Prefix.of(0, 1, 128), Ipv6Prefix.parse("::1"));
+        TestCase.assertEquals(Ipv6Prefix.of(0xfe80000000000000L, 0, 10), Ipv6Prefix.parse("fe80::/10"));
+        TestCase.assertEquals(Ipv6Prefix.of(0x0001000200030004L, 0x0005000600070008L, 128),
+                              Ipv6Prefix.parse("1:2:3:4:5:6:7:8"));
+        for (String bad : new String[] { "1::2::3", "1:2:3:4:5:6:7", "1:2:3:4:5:6:7:8:9", "12345::", "::/129", "g::" }) {
+            try {
+                Ipv6Prefix.parse(bad);
+                TestCase.fail(bad);
+            } catch (IllegalArgumentException e) {}
+        }
+    }
+
+    @Test
+    public void consistency() {
+        Random rand = new Random(42);
+        for (int i = 0; i < 20000; i++) {
+            Ipv4Prefix a = randomV4(rand);
+            //Often related: a shortened or extended copy.
+            Ipv4Prefix b = rand.nextBoolean() ? randomV4(rand)
+                : Ipv4Prefix.of(a.address() ^ (rand.nextInt() >>> 16), rand.nextInt(33));
+            checkConsistent(Ipv4PrefixKeyAnalyzer.INSTANCE, a, b);
+            TestCase.assertEquals(b.contains(a), Ipv4PrefixKeyAnalyzer.INSTANCE.isPrefix(a, b));
+
+            Ipv6Prefix c = randomV6(rand);
+            Ipv6Prefix d = rand.nextBoolean() ? randomV6(rand)
+                : Ipv6Prefix.of(c.high(), c.low() ^ rand.nextInt(), rand.nextInt(129));
+            checkConsistent(Ipv6PrefixKeyAnalyzer.INSTANCE, c, d);
+            TestCase.assertEquals(d.contains(c), Ipv6PrefixKeyAnalyzer.INSTANCE.isPrefix(c, d));
+        }
+    }
+
+    private static Ipv4Prefix bruteForce(List<Ipv4Prefix> table, Ipv4Prefix key) {
+        Ipv4Prefix best = null;
+        for (Ipv4Prefix p : table) {
+            if (p.contains(key) && (best == null || p.length() > best.length())) {
+                best = p;
+            }
+        }
+        return best;
+    }
+
+    @Test
+    public void longestPrefixOfV4() {
+        Random rand = new Random(42);
+        List<Ipv4Prefix> table = new ArrayList<Ipv4Prefix>();
+        MCritBitTree<Ipv4Prefix, String> m = new MCritBitTree<Ipv4Prefix, String>(Ipv4PrefixKeyAnalyzer.INSTANCE);
+        CritBitTree<Ipv4Prefix, String> p = CritBitTree.counted(Ipv4PrefixKeyAnalyzer.INSTANCE);
+        //Few top-level blocks, so blocks nest.
+        for (int i = 0; i < 5000; i++) {
+            Ipv4Prefix block = Ipv4Prefix.of((rand.nextInt(16) << 28) | rand.nextInt(1 << 28), 4 + rand.nextInt(29));
+            if (!m.containsKey(block)) {
+                table.add(block);
+            }
+            m.put(block, block.toString());
+            p = p.put(block, block.toString());
+        }
+        TestCase.assertNull(new MCritBitTree<Ipv4Prefix, String>(Ipv4PrefixKeyAnalyzer.INSTANCE)
+                            .longestPrefixOf(Ipv4Prefix.host(1)));
+
+        for (int i = 0; i < 5000; i++) {
+            Ipv4Prefix key;
+            switch (rand.nextInt(3)) {
+            case 0:
+                key = Ipv4Prefix.host(rand.nextInt());
+                break;
+            case 1:
+                Ipv4Prefix near = table.get(rand.nextInt(table.size()));
+                key = Ipv4Prefix.host(near.address() | (rand.nextInt() & ~Ipv4Prefix.mask(near.length())));
+                break;
+            default:
+                key = randomV4(rand);
+                break;
+            }
+            Ipv4Prefix expected = bruteForce(table, key);
+            Map.Entry<Ipv4Prefix, String> fromM = m.longestPrefixOf(key);
+            Map.Entry<Ipv4Prefix, String> fromP = p.longestPrefixOf(key);
+            if (expected == null) {
+                TestCase.assertNull(fromM);
+                TestCase.assertNull(fromP);
+            } else {
+                TestCase.assertEquals(expected, fromM.getKey());
+                TestCase.assertEquals(expected.toString(), fromM.getValue());
+                TestCase.assertEquals(expected, fromP.getKey());
+            }
+        }
+
+        //Keys in bit order are in Ipv4Prefix order, and a block's keys are
+        //exactly the blocks it covers.
+        TreeMap<Ipv4Prefix, String> sorted = new TreeMap<Ipv4Prefix, String>();
+        for (Ipv4Prefix block : table) {
+            sorted.put(block, block.toString());
+        }
+        TestCase.assertEquals(new ArrayList<Ipv4Prefix>(sorted.keySet()), new ArrayList<Ipv4Prefix>(m.keySet()));
+        for (int i = 0; i < 100; i++) {
+            Ipv4Prefix block = (i % 2 == 0) ? table.get(rand.nextInt(table.size())) : randomV4(rand);
+            List<Ipv4Prefix> inside = new ArrayList<Ipv4Prefix>();
+            for (Ipv4Prefix k : sorted.keySet()) {
+                if (block.contains(k)) {
+                    inside.add(k);
+                }
+            }
+            TestCase.assertEquals(inside, new ArrayList<Ipv4Prefix>(m.prefixMap(block).keySet()));
+            TestCase.assertEquals(inside.size(), p.countPrefix(block));
+        }
+    }
+
+    @Test
+    public void longestPrefixOfV6() {
+        Random rand = new Random(42);
+        List<Ipv6Prefix> table = new ArrayList<Ipv6Prefix>();
+        MCritBitTree<Ipv6Prefix, String> m = new MCritBitTree<Ipv6Prefix, String>(Ipv6PrefixKeyAnalyzer.INSTANCE);
+        for (int i = 0; i < 3000; i++) {
+            Ipv6Prefix block = Ipv6Prefix.of(0x2001000000000000L | (rand.nextLong() >>> 20), rand.nextLong(),
+                                             16 + rand.nextInt(113));
+            if (m.put(block, block.toString()) == null) {
+                table.add(block);
+            }
+        }
+        for (int i = 0; i < 3000; i++) {
+            Ipv6Prefix near = table.get(rand.nextInt(table.size()));
+            Ipv6Prefix key = Ipv6Prefix.host(near.high() ^ (rand.nextLong() >>> (20 + rand.nextInt(44))),
+                                             rand.nextLong());
+            Ipv6Prefix expected = null;
+            for (Ipv6Prefix block : table) {
+                if (block.contains(key) && (expected == null || block.length() > expected.length())) {
+                    expected = block;
+                }
+            }
+            Map.Entry<Ipv6Prefix, String> found = m.longestPrefixOf(key);
+            TestCase.assertEquals(expected, (found == null) ? null : found.getKey());
+        }
+    }
+}
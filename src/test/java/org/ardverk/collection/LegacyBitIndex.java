@@ -0,0 +1,93 @@
+/*
+ * Copyright 2005-2010 Roger Kapsi, Sam Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.ardverk.collection;
+
+/**
+ * The original bit-at-a-time {@code bitIndex} loops from
+ * {@link ByteArrayKeyAnalyzer} and {@link CharArrayKeyAnalyzer}, kept as
+ * the reference the word-at-a-time versions are checked and timed against.
+ */
+final class LegacyBitIndex {
+
+    private LegacyBitIndex() {}
+
+    static int bitIndex(ByteArrayKeyAnalyzer ka, byte[] key, byte[] otherKey) {
+        int length1 = ka.lengthInBits(key);
+        int length2 = ka.lengthInBits(otherKey);
+        int length = Math.max(length1, length2);
+        int prefix = ka.getMaxLengthInBits() - length;
+
+        if (prefix < 0) {
+            return KeyAnalyzer.OUT_OF_BOUNDS_BIT_KEY;
+        }
+
+        boolean allNull = true;
+        for (int i = 0; i < length; i++) {
+            int bitIndex = prefix + i;
+            boolean value = ka.isBitSet(key, bitIndex);
+
+            if (value) {
+                allNull = false;
+            }
+
+            boolean otherValue = ka.isBitSet(otherKey, bitIndex);
+
+            if (value != otherValue) {
+                return bitIndex;
+            }
+        }
+
+        if (allNull) {
+            return KeyAnalyzer.NULL_BIT_KEY;
+        }
+
+        return KeyAnalyzer.EQUAL_BIT_KEY;
+    }
+
+    static int bitIndex(CharArrayKeyAnalyzer ka, char[] key, char[] otherKey) {
+        int length1 = ka.lengthInBits(key);
+        int length2 = ka.lengthInBits(otherKey);
+        int length = Math.max(length1, length2);
+        int prefix = ka.getMaxLengthInBits() - length;
+
+        if (prefix < 0) {
+            return KeyAnalyzer.OUT_OF_BOUNDS_BIT_KEY;
+        }
+
+        boolean allNull = true;
+        for (int i = 0; i < length; i++) {
+            int bitIndex = prefix + i;
+            boolean value = ka.isBitSet(key, bitIndex);
+
+            if (value) {
+                allNull = false;
+            }
+
+            boolean otherValue = ka.isBitSet(otherKey, bitIndex);
+
+            if (value != otherValue) {
+                return bitIndex;
+            }
+        }
+
+        if (allNull) {
+            return KeyAnalyzer.NULL_BIT_KEY;
+        }
+
+        return KeyAnalyzer.EQUAL_BIT_KEY;
+    }
+}
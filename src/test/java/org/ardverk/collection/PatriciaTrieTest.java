@@ -104,12 +104,12 @@ public class PatriciaTrieTest {
             'z', "z"
         };
 
-//        for(int i = 0; i < results.length; i++) {
-//            Map.Entry<Character, String> found = charTrie.ceilingEntry((Character)results[i]);
-//            TestCase.assertNotNull(found);
-//            TestCase.assertEquals(results[i], found.getKey());
-//            TestCase.assertEquals(results[++i], found.getValue());
-//        }
+        for(int i = 0; i < results.length; i++) {
+            Map.Entry<Character, String> found = charTrie.ceilingEntry((Character)results[i]);
+            TestCase.assertNotNull(found);
+            TestCase.assertEquals(results[i], found.getKey());
+            TestCase.assertEquals(results[++i], found.getValue());
+        }
 
         // Remove some & try again...
         charTrie.remove('a');
@@ -120,33 +120,36 @@ public class PatriciaTrieTest {
         charTrie.remove('m');
         charTrie.remove('u');
 
-//        Map.Entry<Character, String> found = charTrie.ceilingEntry('u');
-//        TestCase.assertNotNull(found);
-//        TestCase.assertEquals((Character)'v', found.getKey());
-//
-//        found = charTrie.ceilingEntry('a');
-//        TestCase.assertNotNull(found);
-//        TestCase.assertEquals((Character)'b', found.getKey());
-//
-//        found = charTrie.ceilingEntry('z');
-//        TestCase.assertNull(found);
-//
-//        found = charTrie.ceilingEntry('q');
-//        TestCase.assertNotNull(found);
-//        TestCase.assertEquals((Character)'r', found.getKey());
-//
-//        found = charTrie.ceilingEntry('l');
-//        TestCase.assertNotNull(found);
-//        TestCase.assertEquals((Character)'n', found.getKey());
-//
-//        found = charTrie.ceilingEntry('p');
-//        TestCase.assertNotNull(found);
-//        TestCase.assertEquals((Character)'r', found.getKey());
-//
-//        found = charTrie.ceilingEntry('m');
-//        TestCase.assertNotNull(found);
-//        TestCase.assertEquals((Character)'n', found.getKey());
-//
+        Map.Entry<Character, String> found = charTrie.ceilingEntry('u');
+        TestCase.assertNotNull(found);
+        TestCase.assertEquals((Character)'v', found.getKey());
+
+        found = charTrie.ceilingEntry('a');
+        TestCase.assertNotNull(found);
+        TestCase.assertEquals((Character)'b', found.getKey());
+
+        found = charTrie.ceilingEntry('z');
+        TestCase.assertNull(found);
+
+        found = charTrie.ceilingEntry('q');
+        TestCase.assertNotNull(found);
+        TestCase.assertEquals((Character)'r', found.getKey());
+
+        found = charTrie.ceilingEntry('l');
+        TestCase.assertNotNull(found);
+        TestCase.assertEquals((Character)'n', found.getKey());
+
+        found = charTrie.ceilingEntry('p');
+        TestCase.assertNotNull(found);
+        TestCase.assertEquals((Character)'r', found.getKey());
+
+        found = charTrie.ceilingEntry('m');
+        TestCase.assertNotNull(found);
+        TestCase.assertEquals((Character)'n', found.getKey());
+
+        //CharacterKeyAnalyzer says '\0' has no differing bit from any
+        //key (NULL_BIT_KEY), which the crit-bit trees read as equal, so
+        //the PATRICIA trie's null-key cases don't carry over.
 //        found = charTrie.ceilingEntry('\0');
 //        TestCase.assertNotNull(found);
 //        TestCase.assertEquals((Character)'b', found.getKey());
@@ -197,21 +200,21 @@ public class PatriciaTrieTest {
             'z', "z"
         };
 
-//        for(int i = 0; i < results.length; i+=2) {
-//            //System.out.println("Looking for: " + results[i]);
-//            Map.Entry<Character, String> found = charTrie.lowerEntry((Character)results[i]);
-//            if(i == 0) {
-//                TestCase.assertNull(found);
-//            } else {
-//                TestCase.assertNotNull(found);
-//                TestCase.assertEquals(results[i-2], found.getKey());
-//                TestCase.assertEquals(results[i-1], found.getValue());
-//            }
-//        }
-//
-//        Map.Entry<Character, String> found = charTrie.lowerEntry((char)('z' + 1));
-//        TestCase.assertNotNull(found);
-//        TestCase.assertEquals((Character)'z', found.getKey());
+        for(int i = 0; i < results.length; i+=2) {
+            //System.out.println("Looking for: " + results[i]);
+            Map.Entry<Character, String> found = charTrie.lowerEntry((Character)results[i]);
+            if(i == 0) {
+                TestCase.assertNull(found);
+            } else {
+                TestCase.assertNotNull(found);
+                TestCase.assertEquals(results[i-2], found.getKey());
+                TestCase.assertEquals(results[i-1], found.getValue());
+            }
+        }
+
+        Map.Entry<Character, String> found = charTrie.lowerEntry((char)('z' + 1));
+        TestCase.assertNotNull(found);
+        TestCase.assertEquals((Character)'z', found.getKey());
 
 
         // Remove some & try again...
@@ -223,45 +226,48 @@ public class PatriciaTrieTest {
         charTrie.remove('m');
         charTrie.remove('u');
 
-//        found = charTrie.lowerEntry('u');
-//        TestCase.assertNotNull(found);
-//        TestCase.assertEquals((Character)'t', found.getKey());
-//
-//        found = charTrie.lowerEntry('v');
-//        TestCase.assertNotNull(found);
-//        TestCase.assertEquals((Character)'t', found.getKey());
-//
-//        found = charTrie.lowerEntry('a');
-//        TestCase.assertNull(found);
-//
-//        found = charTrie.lowerEntry('z');
-//        TestCase.assertNotNull(found);
-//        TestCase.assertEquals((Character)'y', found.getKey());
-//
-//        found = charTrie.lowerEntry((char)('z'+1));
-//        TestCase.assertNotNull(found);
-//        TestCase.assertEquals((Character)'y', found.getKey());
-//
-//        found = charTrie.lowerEntry('q');
-//        TestCase.assertNotNull(found);
-//        TestCase.assertEquals((Character)'o', found.getKey());
-//
-//        found = charTrie.lowerEntry('r');
-//        TestCase.assertNotNull(found);
-//        TestCase.assertEquals((Character)'o', found.getKey());
-//
-//        found = charTrie.lowerEntry('p');
-//        TestCase.assertNotNull(found);
-//        TestCase.assertEquals((Character)'o', found.getKey());
-//
-//        found = charTrie.lowerEntry('l');
-//        TestCase.assertNotNull(found);
-//        TestCase.assertEquals((Character)'k', found.getKey());
-//
-//        found = charTrie.lowerEntry('m');
-//        TestCase.assertNotNull(found);
-//        TestCase.assertEquals((Character)'k', found.getKey());
-//
+        found = charTrie.lowerEntry('u');
+        TestCase.assertNotNull(found);
+        TestCase.assertEquals((Character)'t', found.getKey());
+
+        found = charTrie.lowerEntry('v');
+        TestCase.assertNotNull(found);
+        TestCase.assertEquals((Character)'t', found.getKey());
+
+        found = charTrie.lowerEntry('a');
+        TestCase.assertNull(found);
+
+        found = charTrie.lowerEntry('z');
+        TestCase.assertNotNull(found);
+        TestCase.assertEquals((Character)'y', found.getKey());
+
+        found = charTrie.lowerEntry((char)('z'+1));
+        TestCase.assertNotNull(found);
+        TestCase.assertEquals((Character)'y', found.getKey());
+
+        found = charTrie.lowerEntry('q');
+        TestCase.assertNotNull(found);
+        TestCase.assertEquals((Character)'o', found.getKey());
+
+        found = charTrie.lowerEntry('r');
+        TestCase.assertNotNull(found);
+        TestCase.assertEquals((Character)'o', found.getKey());
+
+        found = charTrie.lowerEntry('p');
+        TestCase.assertNotNull(found);
+        TestCase.assertEquals((Character)'o', found.getKey());
+
+        found = charTrie.lowerEntry('l');
+        TestCase.assertNotNull(found);
+        TestCase.assertEquals((Character)'k', found.getKey());
+
+        found = charTrie.lowerEntry('m');
+        TestCase.assertNotNull(found);
+        TestCase.assertEquals((Character)'k', found.getKey());
+
+        //CharacterKeyAnalyzer says '\0' has no differing bit from any
+        //key (NULL_BIT_KEY), which the crit-bit trees read as equal, so
+        //the PATRICIA trie's null-key cases don't carry over.
 //        found = charTrie.lowerEntry('\0');
 //        TestCase.assertNull(found);
 //